@@ -0,0 +1,109 @@
+package ecologylab.tutorials;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ecologylab.benchmarks.SerializationBenchmark;
+import ecologylab.benchmarks.SerializationBenchmark.Fixture;
+import ecologylab.serialization.SIMPLTranslationException;
+import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.formatenums.StringFormat;
+import ecologylab.tutorials.game.Coordinate;
+import ecologylab.tutorials.game.GameData;
+import ecologylab.tutorials.game.OrbitingThreat;
+import ecologylab.tutorials.game.PatrollingThreat;
+import ecologylab.tutorials.game.RepellableThreat;
+import ecologylab.tutorials.game.SingleSeekerThreat;
+import ecologylab.tutorials.game.Threat;
+import ecologylab.tutorials.rss.RssTranslations;
+
+/**
+ * Serialize and deserialize benchmarks over the tutorial game and rss models, at several sizes. The
+ * models keep their fields to themselves, so instances are built the way the tutorials build them:
+ * by deserializing a document.
+ * <p/>
+ * Usage: TutorialBenchmark [-warmup millis] [-measure millis] [-format XML,JSON,TLV,BIBTEX] [-only
+ * game,rss]
+ */
+public class TutorialBenchmark
+{
+	static final int[]			SIZES					= { 10, 1000, 100000 };
+
+	static final String[]	THREAT_TAGS	= { "t", "ot", "sst", "pt", "nt" };
+
+	/**
+	 * @return A game_data document with numThreats threats, cycling through the threat types.
+	 */
+	static String gameXml(int numThreats)
+	{
+		StringBuilder xml = new StringBuilder();
+		xml.append("<game_data timestamp=\"1300000000000\" cyc_rem=\"4200\" running=\"true\" score=\"12.5\"><threats>");
+		for (int i = 0; i < numThreats; i++)
+		{
+			String tag = THREAT_TAGS[i % THREAT_TAGS.length];
+			xml.append('<').append(tag).append(" t_val=\"").append(i * 0.25).append("\" id=\"threat")
+					.append(i).append("\" ord=\"").append(i).append('"');
+			if ("sst".equals(tag))
+				xml.append(" target_ord=\"").append(i / 2).append('"');
+			xml.append("><dir x=\"1.0\" y=\"0.0\"/><vel x=\"").append(i % 7).append(".5\" y=\"-2.0\"/>")
+					.append("<pos x=\"").append(i).append(".0\" y=\"").append(i * 2).append(".0\"/></")
+					.append(tag).append('>');
+		}
+		xml.append("</threats></game_data>");
+		return xml.toString();
+	}
+
+	/**
+	 * @return An rss document whose channel carries numItems items.
+	 */
+	static String rssXml(int numItems)
+	{
+		StringBuilder xml = new StringBuilder();
+		xml.append("<rss version=\"2.0\"><channel><title>xkcd.com</title>")
+				.append("<description>xkcd.com: A webcomic of romance and math humor.</description>")
+				.append("<link>http://xkcd.com/</link>");
+		for (int i = 0; i < numItems; i++)
+			xml.append("<item><title>Comic ").append(i).append("</title><description>&lt;img src=\"http://imgs.xkcd.com/comics/")
+					.append(i).append(".png\" /&gt;</description><link>http://xkcd.com/").append(i)
+					.append("/</link><guid>http://xkcd.com/").append(i).append("/</guid><author>Randall</author>")
+					.append("<category>comics</category><category>math</category></item>");
+		xml.append("</channel></rss>");
+		return xml.toString();
+	}
+
+	static List<Fixture> fixtures()
+	{
+		List<Fixture> fixtures = new ArrayList<Fixture>();
+
+		final SimplTypesScope gameScope = SimplTypesScope.get("tutorialBenchmarkGame", GameData.class,
+				Threat.class, SingleSeekerThreat.class, OrbitingThreat.class, RepellableThreat.class,
+				PatrollingThreat.class, Coordinate.class);
+		fixtures.add(new Fixture("game", gameScope, false, SIZES)
+		{
+			@Override
+			public Object create(int size) throws SIMPLTranslationException
+			{
+				return gameScope.deserialize(gameXml(size), StringFormat.XML);
+			}
+		});
+
+		final SimplTypesScope rssScope = RssTranslations.get();
+		fixtures.add(new Fixture("rss", rssScope, false, SIZES)
+		{
+			@Override
+			public Object create(int size) throws SIMPLTranslationException
+			{
+				return rssScope.deserialize(rssXml(size), StringFormat.XML);
+			}
+		});
+
+		return fixtures;
+	}
+
+	public static void main(String[] args) throws SIMPLTranslationException
+	{
+		List<String> only = new ArrayList<String>();
+		SerializationBenchmark benchmark = SerializationBenchmark.fromArgs(args, only);
+		benchmark.run(fixtures(), only);
+	}
+}
@@ -0,0 +1,203 @@
+package ecologylab.collections;
+
+import java.util.Arrays;
+
+/**
+ * Map from objects to ints, that compares keys by reference, and hashes them with
+ * System.identityHashCode(), so user-defined hashCode() and equals() are never called.
+ * <p/>
+ * Keys and values live in two parallel arrays, using open addressing with linear probing, so
+ * put() does not allocate anything (no boxed keys or values, no entry or bucket objects) except
+ * when the table grows. clear() keeps the table, so that an instance can be reused, e.g. by a
+ * pooled TranslationContext.
+ * <p/>
+ * Not synchronized. null keys are not allowed.
+ *
+ * @author andruid
+ *
+ * @param <K>
+ */
+public class IdentityIntMap<K>
+{
+	/**
+	 * Returned by get() and put() for keys that are not in the map.
+	 */
+	public static final int		NOT_FOUND								= -1;
+
+	public static final int		DEFAULT_EXPECTED_SIZE		= 32;
+
+	/**
+	 * Tables that grew beyond this many slots are released by clear(), so that one huge graph does
+	 * not pin its memory forever.
+	 */
+	public static final int		MAX_RETAINED_CAPACITY		= 1 << 16;
+
+	private Object[]					keys;
+
+	private int[]							values;
+
+	private int								size;
+
+	/**
+	 * The table is grown when size reaches this, which keeps it at most half full.
+	 */
+	private int								threshold;
+
+	public IdentityIntMap()
+	{
+		this(DEFAULT_EXPECTED_SIZE);
+	}
+
+	public IdentityIntMap(int expectedSize)
+	{
+		allocate(tableSizeFor(expectedSize));
+	}
+
+	private static int tableSizeFor(int expectedSize)
+	{
+		int capacity = 4;
+		while (capacity < expectedSize * 2 && capacity < (1 << 30))
+			capacity <<= 1;
+		return capacity;
+	}
+
+	private void allocate(int capacity)
+	{
+		keys = new Object[capacity];
+		values = new int[capacity];
+		threshold = capacity / 2;
+	}
+
+	/**
+	 * Spread the bits of the identity hash code, so that objects allocated one after another do not
+	 * land in neighbouring slots.
+	 */
+	private static int slotFor(Object key, int mask)
+	{
+		int h = System.identityHashCode(key) * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @return The index of the slot holding key, or of the empty slot where it would go.
+	 */
+	private int find(Object key)
+	{
+		Object[] keys = this.keys;
+		int mask = keys.length - 1;
+		int i = slotFor(key, mask);
+		Object k;
+		while ((k = keys[i]) != null && k != key)
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @return The value mapped to key, or NOT_FOUND.
+	 */
+	public int get(K key)
+	{
+		int i = find(key);
+		return keys[i] == null ? NOT_FOUND : values[i];
+	}
+
+	public boolean containsKey(K key)
+	{
+		return keys[find(key)] != null;
+	}
+
+	/**
+	 * Map key to value, replacing any previous mapping.
+	 *
+	 * @param key
+	 * @param value
+	 * @return The previous value mapped to key, or NOT_FOUND.
+	 */
+	public int put(K key, int value)
+	{
+		if (key == null)
+			throw new NullPointerException("null keys are not allowed");
+
+		int i = find(key);
+		if (keys[i] != null)
+		{
+			int previous = values[i];
+			values[i] = value;
+			return previous;
+		}
+		keys[i] = key;
+		values[i] = value;
+		if (++size >= threshold)
+			grow();
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Map key to value, unless key is already in the map.
+	 *
+	 * @param key
+	 * @param value
+	 * @return true if key was added, false if it was already there (its value is not changed).
+	 */
+	public boolean putIfAbsent(K key, int value)
+	{
+		if (key == null)
+			throw new NullPointerException("null keys are not allowed");
+
+		int i = find(key);
+		if (keys[i] != null)
+			return false;
+		keys[i] = key;
+		values[i] = value;
+		if (++size >= threshold)
+			grow();
+		return true;
+	}
+
+	private void grow()
+	{
+		Object[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(oldKeys.length * 2);
+		int mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++)
+		{
+			Object key = oldKeys[j];
+			if (key != null)
+			{
+				int i = slotFor(key, mask);
+				while (keys[i] != null)
+					i = (i + 1) & mask;
+				keys[i] = key;
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	/**
+	 * Remove all mappings. The table is kept for reuse, unless it has grown beyond
+	 * MAX_RETAINED_CAPACITY.
+	 */
+	public void clear()
+	{
+		if (keys.length > MAX_RETAINED_CAPACITY)
+			allocate(tableSizeFor(DEFAULT_EXPECTED_SIZE));
+		else if (size > 0)
+			Arrays.fill(keys, null);
+		size = 0;
+	}
+}
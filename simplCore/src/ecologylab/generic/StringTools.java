@@ -1,5 +1,6 @@
 package ecologylab.generic;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -175,6 +176,35 @@ public class StringTools extends Debug
 		return result;
 	}
 
+	/**
+	 * Append the decimal digits of value, as Long.toString() would, but without making a String.
+	 * 
+	 * @param value
+	 * @param appendable
+	 * @throws IOException
+	 */
+	public static final void append(long value, Appendable appendable) throws IOException
+	{
+		if (appendable instanceof StringBuilder)
+		{
+			((StringBuilder) appendable).append(value);
+			return;
+		}
+		// digits of a negative number, so that Long.MIN_VALUE works too.
+		if (value < 0)
+			appendable.append('-');
+		else
+			value = -value;
+		long divisor = -1;
+		while (value / 10 <= divisor)
+			divisor *= 10;
+		for (; divisor != 0; divisor /= 10)
+		{
+			appendable.append((char) ('0' + value / divisor));
+			value %= divisor;
+		}
+	}
+
 	public static final boolean contains(String in, String toMatch)
 	{
 		return (in == null) ? false : in.indexOf(toMatch) != -1;
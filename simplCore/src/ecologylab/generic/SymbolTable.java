@@ -0,0 +1,190 @@
+package ecologylab.generic;
+
+import java.util.Map;
+
+/**
+ * Immutable map from names, such as XML tag names, to values, for lookups straight from what a
+ * parser has in hand: a String, a prefix and local name pair, or a range of a char buffer. The
+ * latter two find names without building a String for them.
+ * <p/>
+ * Names are stored interned. Parsers that intern the names they report, as the StAX parser does,
+ * hand back the very same Strings, so lookups usually succeed on the first, identity, comparison.
+ * <p/>
+ * Hashes are those of String.hashCode(), so lookups by String use the String's cached hash.
+ *
+ * @param <V>
+ *          Type of the values.
+ */
+public class SymbolTable<V>
+{
+	private final String[]	names;
+
+	private final int[]			hashes;
+
+	private final Object[]	values;
+
+	private final int				mask;
+
+	private final int				size;
+
+	/**
+	 * Build a table with the entries of map. Entries with null names or values are left out.
+	 *
+	 * @param map
+	 */
+	public SymbolTable(Map<String, ? extends V> map)
+	{
+		int capacity = 2;
+		while (capacity < map.size() * 2)
+			capacity <<= 1;
+		names = new String[capacity];
+		hashes = new int[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+
+		int count = 0;
+		for (Map.Entry<String, ? extends V> entry : map.entrySet())
+		{
+			String name = entry.getKey();
+			if (name == null || entry.getValue() == null)
+				continue;
+			int hash = name.hashCode();
+			int i = spread(hash) & mask;
+			while (names[i] != null && !names[i].equals(name))
+				i = (i + 1) & mask;
+			if (names[i] == null)
+				count++;
+			names[i] = name.intern();
+			hashes[i] = hash;
+			values[i] = entry.getValue();
+		}
+		size = count;
+	}
+
+	private static int spread(int hash)
+	{
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * @return The value for name, or null if there is none.
+	 */
+	public V get(String name)
+	{
+		int i = indexOf(name);
+		return i < 0 ? null : value(i);
+	}
+
+	/**
+	 * @return The value for the name prefix:localName, or for just localName if prefix is null or
+	 *         empty; or null if there is none.
+	 */
+	public V get(String prefix, String localName)
+	{
+		int i = indexOf(prefix, localName);
+		return i < 0 ? null : value(i);
+	}
+
+	/**
+	 * @return The value for the name in chars[offset, offset + length), or null if there is none.
+	 */
+	public V get(char[] chars, int offset, int length)
+	{
+		int i = indexOf(chars, offset, length);
+		return i < 0 ? null : value(i);
+	}
+
+	/**
+	 * @return The interned name equal to prefix:localName, or to localName if prefix is null or
+	 *         empty; or null if that name is not in this table.
+	 */
+	public String symbol(String prefix, String localName)
+	{
+		int i = indexOf(prefix, localName);
+		return i < 0 ? null : names[i];
+	}
+
+	/**
+	 * @return The interned name equal to chars[offset, offset + length), or null if that name is not
+	 *         in this table.
+	 */
+	public String symbol(char[] chars, int offset, int length)
+	{
+		int i = indexOf(chars, offset, length);
+		return i < 0 ? null : names[i];
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	@SuppressWarnings("unchecked")
+	private V value(int i)
+	{
+		return (V) values[i];
+	}
+
+	private int indexOf(String name)
+	{
+		if (name == null)
+			return -1;
+		int hash = name.hashCode();
+		for (int i = spread(hash) & mask;; i = (i + 1) & mask)
+		{
+			String candidate = names[i];
+			if (candidate == null)
+				return -1;
+			if (candidate == name || (hashes[i] == hash && candidate.equals(name)))
+				return i;
+		}
+	}
+
+	private int indexOf(String prefix, String localName)
+	{
+		if (prefix == null || prefix.length() == 0)
+			return indexOf(localName);
+
+		int prefixLength = prefix.length();
+		int localLength = localName.length();
+		int hash = prefix.hashCode() * 31 + ':';
+		for (int j = 0; j < localLength; j++)
+			hash = 31 * hash + localName.charAt(j);
+
+		for (int i = spread(hash) & mask;; i = (i + 1) & mask)
+		{
+			String candidate = names[i];
+			if (candidate == null)
+				return -1;
+			if (hashes[i] == hash && candidate.length() == prefixLength + 1 + localLength
+					&& candidate.startsWith(prefix) && candidate.charAt(prefixLength) == ':'
+					&& candidate.startsWith(localName, prefixLength + 1))
+				return i;
+		}
+	}
+
+	private int indexOf(char[] chars, int offset, int length)
+	{
+		int hash = 0;
+		int end = offset + length;
+		for (int j = offset; j < end; j++)
+			hash = 31 * hash + chars[j];
+
+		for (int i = spread(hash) & mask;; i = (i + 1) & mask)
+		{
+			String candidate = names[i];
+			if (candidate == null)
+				return -1;
+			if (hashes[i] == hash && candidate.length() == length && regionMatches(candidate, chars, offset))
+				return i;
+		}
+	}
+
+	private static boolean regionMatches(String name, char[] chars, int offset)
+	{
+		for (int j = name.length() - 1; j >= 0; j--)
+			if (name.charAt(j) != chars[offset + j])
+				return false;
+		return true;
+	}
+}
@@ -0,0 +1,140 @@
+package ecologylab.generic.text;
+
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.FieldPosition;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A date format that any number of threads can use at once.
+ * <p/>
+ * java.text.DateFormat keeps its working state, a Calendar among it, in the instance, so threads
+ * that share one corrupt each other's parses and formats. A CachedDateFormat is immutable: it hands
+ * each thread its own DateFormat, made the first time that thread uses it, and reuses it, with the
+ * buffers around it, from then on. get() returns the same CachedDateFormat for a pattern
+ * everywhere, so a pattern is compiled once per thread rather than once per value.
+ */
+public final class CachedDateFormat
+{
+	private static final ConcurrentHashMap<String, CachedDateFormat>	byPattern	= new ConcurrentHashMap<String, CachedDateFormat>();
+
+	/**
+	 * The date and time format of the default locale, from DateFormat.getDateTimeInstance().
+	 */
+	public static final CachedDateFormat	LOCALE_DATE_TIME	= new CachedDateFormat(null);
+
+	private final String									pattern;
+
+	private final ThreadLocal<State>			state;
+
+	/**
+	 * What one thread works with.
+	 */
+	private static class State
+	{
+		final DateFormat		dateFormat;
+
+		final ParsePosition	parsePosition	= new ParsePosition(0);
+
+		final StringBuffer	buffer				= new StringBuffer(32);
+
+		final FieldPosition	fieldPosition	= new FieldPosition(0);
+
+		State(DateFormat dateFormat)
+		{
+			this.dateFormat = dateFormat;
+		}
+	}
+
+	private CachedDateFormat(final String pattern)
+	{
+		this.pattern = pattern;
+		this.state = new ThreadLocal<State>()
+		{
+			@Override
+			protected State initialValue()
+			{
+				return new State(pattern == null ? DateFormat.getDateTimeInstance()
+						: new SimpleDateFormat(pattern));
+			}
+		};
+	}
+
+	/**
+	 * @param pattern
+	 *          In the form of SimpleDateFormat, such as <code>yyyy-MM-dd HH:mm</code>.
+	 * @return The format for pattern, shared by every caller.
+	 * @throws IllegalArgumentException
+	 *           if pattern is not a valid SimpleDateFormat pattern.
+	 */
+	public static CachedDateFormat get(String pattern)
+	{
+		CachedDateFormat result = byPattern.get(pattern);
+		if (result == null)
+		{
+			// fail here, rather than on first use in some other thread.
+			new SimpleDateFormat(pattern);
+			result = new CachedDateFormat(pattern);
+			CachedDateFormat existing = byPattern.putIfAbsent(pattern, result);
+			if (existing != null)
+				result = existing;
+		}
+		return result;
+	}
+
+	/**
+	 * @return The pattern, or null for LOCALE_DATE_TIME.
+	 */
+	public String getPattern()
+	{
+		return pattern;
+	}
+
+	/**
+	 * Parse a date from the start of text, like DateFormat.parse(String), but without throwing, or
+	 * building, an exception when it doesn't match: callers that try several formats in turn expect
+	 * most of them not to.
+	 *
+	 * @param text
+	 * @return The date, or null if text doesn't start with one in this format.
+	 */
+	public Date parse(String text)
+	{
+		State state = this.state.get();
+		ParsePosition parsePosition = state.parsePosition;
+		parsePosition.setIndex(0);
+		parsePosition.setErrorIndex(-1);
+		return state.dateFormat.parse(text, parsePosition);
+	}
+
+	/**
+	 * Append date, in this format.
+	 *
+	 * @param date
+	 * @param appendable
+	 * @throws IOException
+	 */
+	public void format(Date date, Appendable appendable) throws IOException
+	{
+		State state = this.state.get();
+		StringBuffer buffer = state.buffer;
+		buffer.setLength(0);
+		state.dateFormat.format(date, buffer, state.fieldPosition);
+		appendable.append(buffer);
+	}
+
+	/**
+	 * @param date
+	 * @return date, in this format.
+	 */
+	public String format(Date date)
+	{
+		State state = this.state.get();
+		StringBuffer buffer = state.buffer;
+		buffer.setLength(0);
+		return state.dateFormat.format(date, buffer, state.fieldPosition).toString();
+	}
+}
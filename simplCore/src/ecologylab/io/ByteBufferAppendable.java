@@ -0,0 +1,137 @@
+package ecologylab.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Appends characters to a ByteBuffer, as ISO-8859-1, one byte each, so that text can be serialized
+ * straight into the buffer it will be written from, without a StringBuilder and CharsetEncoder in
+ * between. Characters that ISO-8859-1 has no byte for are appended as '?', as a CharsetEncoder that
+ * replaces them would.
+ * 
+ * It is also an OutputStream, to the same buffer, for binary formats.
+ */
+public class ByteBufferAppendable extends OutputStream implements Appendable
+{
+	private ByteBuffer	buffer;
+
+	/**
+	 * @param buffer
+	 *          appended to from its position.
+	 */
+	public ByteBufferAppendable(ByteBuffer buffer)
+	{
+		this.buffer = buffer;
+	}
+
+	public ByteBufferAppendable()
+	{
+	}
+
+	/**
+	 * Append to buffer, from its position, from now on.
+	 *
+	 * @param buffer
+	 * @return this.
+	 */
+	public ByteBufferAppendable setBuffer(ByteBuffer buffer)
+	{
+		this.buffer = buffer;
+		return this;
+	}
+
+	public ByteBuffer getBuffer()
+	{
+		return buffer;
+	}
+
+	/**
+	 * @throws IOException
+	 *           if the buffer is full.
+	 */
+	@Override
+	public Appendable append(CharSequence csq) throws IOException
+	{
+		if (csq == null)
+			csq = "null";
+		return append(csq, 0, csq.length());
+	}
+
+	/**
+	 * @throws IOException
+	 *           if the buffer is full.
+	 */
+	@Override
+	public Appendable append(CharSequence csq, int start, int end) throws IOException
+	{
+		if (csq == null)
+			csq = "null";
+		int count = end - start;
+		if (buffer.remaining() < count)
+			throw full(count);
+
+		if (buffer.hasArray())
+		{
+			byte[] array = buffer.array();
+			int position = buffer.arrayOffset() + buffer.position();
+			for (int i = start; i < end; i++)
+				array[position++] = toByte(csq.charAt(i));
+			buffer.position(buffer.position() + count);
+		}
+		else
+		{
+			for (int i = start; i < end; i++)
+				buffer.put(toByte(csq.charAt(i)));
+		}
+		return this;
+	}
+
+	/**
+	 * @throws IOException
+	 *           if the buffer is full.
+	 */
+	@Override
+	public Appendable append(char c) throws IOException
+	{
+		if (!buffer.hasRemaining())
+			throw full(1);
+		buffer.put(toByte(c));
+		return this;
+	}
+
+	/**
+	 * @throws IOException
+	 *           if the buffer is full.
+	 */
+	@Override
+	public void write(int b) throws IOException
+	{
+		if (!buffer.hasRemaining())
+			throw full(1);
+		buffer.put((byte) b);
+	}
+
+	/**
+	 * @throws IOException
+	 *           if the buffer is full.
+	 */
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException
+	{
+		if (buffer.remaining() < length)
+			throw full(length);
+		buffer.put(bytes, offset, length);
+	}
+
+	private static byte toByte(char c)
+	{
+		return c <= 0xff ? (byte) c : (byte) '?';
+	}
+
+	private IOException full(int count)
+	{
+		return new IOException("No room for " + count + " more bytes in a buffer of "
+				+ buffer.capacity());
+	}
+}
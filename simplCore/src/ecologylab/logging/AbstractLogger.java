@@ -1,8 +1,9 @@
 package ecologylab.logging;
 
-import java.text.SimpleDateFormat;
 import java.util.Date;
 
+import ecologylab.generic.text.CachedDateFormat;
+
 /**
  * For convenience.
  * 
@@ -12,7 +13,7 @@ import java.util.Date;
 public abstract class AbstractLogger implements ILogger
 {
 
-  protected static SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS z");
+  protected static final CachedDateFormat sdf = CachedDateFormat.get("yyyy-MM-dd HH:mm:ss.SSS z");
 
   @Override
   public void debug(String fmt, Object... args)
@@ -68,6 +68,12 @@ import ecologylab.serialization.formatenums.StringFormat;
  * Another major difference between this and the non-NIO version of ServicesClient is that it is
  * StartAndStoppable.
  * 
+ * Messages are XML, with HTTP-like headers, unless the client asks for other wire formats with
+ * useWireFormats(), and the server agrees to one of them in its InitConnectionResponse. From then
+ * on, messages in that format are sent, and read, in binary frames: the content length (an int),
+ * the uid (a long), and flags (a byte), followed by the content. Servers that predate wire formats
+ * ignore the request, and the client stays with XML.
+ * 
  * @author Zachary O. Dugas Toups (zach@ecologylab.net)
  */
 public class NIOClient<S extends Scope> extends Debug implements ClientConstants
@@ -151,6 +157,21 @@ public class NIOClient<S extends Scope> extends Debug implements ClientConstants
 	 */
 	private boolean																										sendCompressed								= false;
 
+	/**
+	 * The wire formats to ask the server for when connecting, in order of preference.
+	 */
+	private Format[]																									requestedWireFormats					= {};
+
+	/**
+	 * The format of messages to and from the server; XML until the server agrees to another.
+	 */
+	private volatile Format																						wireFormat										= Format.XML;
+
+	/**
+	 * Holds the header of a binary frame, as it is written.
+	 */
+	private final byte[]																							binaryFrameHeader							= new byte[BINARY_FRAME_HEADER_LENGTH];
+
 	/**
 	 * Stores the key-value pairings from a parsed HTTP-like header on an incoming message.
 	 */
@@ -237,11 +258,15 @@ public class NIOClient<S extends Scope> extends Debug implements ClientConstants
 
 			this.start();
 
-			// now send first handshake message
+			// now send first handshake message; it, and its response, are always XML
+			this.wireFormat = Format.XML;
+			InitConnectionRequest initRequest = new InitConnectionRequest(this.sessionId);
+			initRequest.setWireFormats(this.requestedWireFormats);
+
 			ResponseMessage initResponse = null;
 			try
 			{
-				initResponse = this.sendMessage(new InitConnectionRequest(this.sessionId), timeoutMilli);
+				initResponse = this.sendMessage(initRequest, timeoutMilli);
 			}
 			catch (MessageTooLargeException e)
 			{
@@ -311,7 +336,19 @@ public class NIOClient<S extends Scope> extends Debug implements ClientConstants
 		pReq = this.pRequestPool.acquire();
 
 		// fill requestBuffer
-		SimplTypesScope.serialize(request, pReq.getRequest(), StringFormat.XML);
+		Format format = this.wireFormat;
+		pReq.setFormat(format);
+		switch (format)
+		{
+		case TLV:
+			SimplTypesScope.serialize(request, pReq.getRequestBytes(), Format.TLV);
+			break;
+		case JSON:
+			SimplTypesScope.serialize(request, pReq.getRequest(), StringFormat.JSON);
+			break;
+		default:
+			SimplTypesScope.serialize(request, pReq.getRequest(), StringFormat.XML);
+		}
 
 		pReq.setUid(uid);
 		pReq.setDisposable(request.isDisposable());
@@ -849,6 +886,25 @@ public class NIOClient<S extends Scope> extends Debug implements ClientConstants
 	 */
 	private void createPacketFromMessageAndSend(PreppedRequest pReq)
 	{
+		if (pReq.getFormat() != this.wireFormat)
+		{
+			error("dropping request " + pReq.getUid() + ", which was translated to " + pReq.getFormat()
+					+ ", since the connection now uses " + this.wireFormat);
+			synchronized (unfulfilledRequests)
+			{
+				unfulfilledRequests.remove(pReq.getUid());
+			}
+			this.pRequestPool.release(pReq);
+			return;
+		}
+
+		if (pReq.getFormat() != Format.XML)
+		{
+			this.addUnfulfilledRequest(pReq);
+			this.sendBinaryFrame(pReq);
+			return;
+		}
+
 		StringBuilder outgoingReq = pReq.getRequest();
 
 		this.addUnfulfilledRequest(pReq);
@@ -917,6 +973,54 @@ public class NIOClient<S extends Scope> extends Debug implements ClientConstants
 		}
 	}
 
+	/**
+	 * Write pReq, which was translated to the connection's wire format, in a binary frame.
+	 * 
+	 * @param pReq
+	 */
+	private void sendBinaryFrame(PreppedRequest pReq)
+	{
+		try
+		{
+			byte[] messageBytes;
+			if (pReq.getFormat() == Format.TLV)
+			{
+				messageBytes = this.sendCompressed ? this.compress(pReq.getRequestBytes()) : pReq
+						.getRequestBytes().toByteArray();
+			}
+			else
+			{
+				messageBytes = this.sendCompressed ? this.compress(pReq.getRequest()) : this.encode(pReq
+						.getRequest());
+			}
+
+			ByteBuffer header = ByteBuffer.wrap(binaryFrameHeader);
+			header.putInt(messageBytes.length);
+			header.putLong(pReq.getUid());
+			header.put(this.sendCompressed ? BINARY_FRAME_DEFLATED : 0);
+
+			socketOutputStream.write(binaryFrameHeader);
+			socketOutputStream.write(messageBytes);
+			socketOutputStream.flush();
+		}
+		catch (IOException e)
+		{
+			debug("connection severed; disconnecting...");
+			this.disconnect(false);
+		}
+	}
+
+	private byte[] compress(ByteArrayOutputStream src) throws IOException
+	{
+		ByteArrayOutputStream byteArrayStream = new ByteArrayOutputStream(1024);
+		DeflaterOutputStream zipStream = new DeflaterOutputStream(byteArrayStream);
+
+		src.writeTo(zipStream);
+		zipStream.finish();
+
+		return byteArrayStream.toByteArray();
+	}
+
 	private byte[] compress(StringBuilder src) throws IOException
 	{
 		ByteArrayOutputStream byteArrayStream = new ByteArrayOutputStream(1024);
@@ -974,6 +1078,13 @@ public class NIOClient<S extends Scope> extends Debug implements ClientConstants
 		}
 		else
 		{
+			if (response.getMessage() instanceof InitConnectionResponse)
+			{
+				// switch before reading on: the server sends everything after this in the new format
+				this.wireFormat = ((InitConnectionResponse) response.getMessage()).getWireFormat();
+				debug(5, "wire format: " + this.wireFormat);
+			}
+
 			if (response.getMessage() instanceof ResponseMessage)
 			{
 				// perform the service being requested
@@ -1034,6 +1145,11 @@ public class NIOClient<S extends Scope> extends Debug implements ClientConstants
 	 */
 	protected void processReadData(InputStream inputStream) throws BadClientException
 	{
+		if (this.wireFormat != Format.XML)
+		{
+			this.processBinaryFrame(inputStream);
+			return;
+		}
 
 		try
 		{
@@ -1116,24 +1232,7 @@ public class NIOClient<S extends Scope> extends Debug implements ClientConstants
 
 					try
 					{
-						
-						if (!this.blockingRequestPending)
-						{
-							// we process the read data into a response message, let it
-							// perform its response, then dispose of
-							// the
-							// resulting MessageWithMetadata object
-							this.responsePool.release(processString(messageStream, uidOfCurrentMessage));
-						}
-						else
-						{
-							blockingResponsesQueue.add(processString(messageStream, uidOfCurrentMessage));
-							synchronized (this)
-							{
-								notify();
-							}
-						}
-						
+						this.processMessage(messageStream, uidOfCurrentMessage);
 					}
 					catch (SIMPLTranslationException e)
 					{
@@ -1175,6 +1274,93 @@ public class NIOClient<S extends Scope> extends Debug implements ClientConstants
 
 	}
 
+	/**
+	 * Read one binary frame from inputStream, and process the message in it.
+	 * 
+	 * @param inputStream
+	 */
+	private void processBinaryFrame(InputStream inputStream)
+	{
+		try
+		{
+			int read = 0;
+			while (read < BINARY_FRAME_HEADER_LENGTH)
+			{
+				int ret = inputStream.read(readBuffer, read, BINARY_FRAME_HEADER_LENGTH - read);
+				if (ret == -1)
+					return;
+				read += ret;
+			}
+
+			ByteBuffer header = ByteBuffer.wrap(readBuffer, 0, BINARY_FRAME_HEADER_LENGTH);
+			int contentLength = header.getInt();
+			long uid = header.getLong();
+			boolean deflated = (header.get() & BINARY_FRAME_DEFLATED) != 0;
+
+			if (contentLength < 0)
+			{
+				error("bad binary frame header; content length: " + contentLength);
+				this.stop();
+				return;
+			}
+
+			LimitedInputStream limitStream = new LimitedInputStream(inputStream, contentLength);
+			InputStream messageStream = deflated ? new InflaterInputStream(limitStream) : limitStream;
+			try
+			{
+				this.processMessage(messageStream, (int) uid);
+			}
+			catch (SIMPLTranslationException e)
+			{
+				e.printStackTrace();
+			}
+			finally
+			{
+				while (limitStream.available() > 0)
+				{
+					limitStream.read(readBuffer);
+				}
+			}
+		}
+		catch (SocketException se)
+		{
+			this.stop();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Translate and process the message read from messageStream, then either dispose of it, or hand
+	 * it to the thread waiting on a blocking request.
+	 * 
+	 * @param messageStream
+	 * @param uid
+	 * @throws SIMPLTranslationException
+	 */
+	private void processMessage(InputStream messageStream, int uid)
+			throws SIMPLTranslationException
+	{
+		if (!this.blockingRequestPending)
+		{
+			// we process the read data into a response message, let it
+			// perform its response, then dispose of
+			// the
+			// resulting MessageWithMetadata object
+			this.responsePool.release(processString(messageStream, uid));
+		}
+		else
+		{
+			blockingResponsesQueue.add(processString(messageStream, uid));
+			synchronized (this)
+			{
+				notify();
+			}
+		}
+	}
+
 	/**
 	 * Increments the internal tracker of the next UID, and returns the current one.
 	 * 
@@ -1187,8 +1373,8 @@ public class NIOClient<S extends Scope> extends Debug implements ClientConstants
 	}
 
 	/**
-	 * Use the ServicesClient and its NameSpace to do the translation. Can be overridden to provide
-	 * special functionalities
+	 * Use the ServicesClient and its NameSpace to do the translation, from the connection's wire
+	 * format. Can be overridden to provide special functionalities
 	 * 
 	 * @param messageString
 	 * @return
@@ -1198,7 +1384,7 @@ public class NIOClient<S extends Scope> extends Debug implements ClientConstants
 			InputStream inputStream, int incomingUid) throws SIMPLTranslationException
 	{
 		ServiceMessage resp = (ServiceMessage) this.translationScope.deserialize(inputStream,
-				Format.XML, CHARSET);
+				this.wireFormat, CHARSET);
 
 		if (resp == null)
 		{
@@ -1419,6 +1605,27 @@ public class NIOClient<S extends Scope> extends Debug implements ClientConstants
 		return this.sendCompressed;
 	}
 
+	/**
+	 * Ask the server, when connecting, to use the first of formats that it supports, instead of XML,
+	 * for the rest of the session. Takes effect on the next connect().
+	 * 
+	 * @param formats
+	 *          any of TLV, JSON and XML, in order of preference; none to stay with XML.
+	 */
+	public void useWireFormats(Format... formats)
+	{
+		this.requestedWireFormats = formats == null ? new Format[0] : formats.clone();
+	}
+
+	/**
+	 * @return the format of messages to and from the server: XML, unless the server agreed to one
+	 *         of those passed to useWireFormats().
+	 */
+	public Format getWireFormat()
+	{
+		return this.wireFormat;
+	}
+
 	public void addClientStatusListener(ClientStatusListener csl)
 	{
 		this.clientStatusListeners().add(csl);
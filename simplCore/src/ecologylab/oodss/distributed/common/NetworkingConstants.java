@@ -44,6 +44,16 @@ public interface NetworkingConstants
 	/** The size of the content-length header indicator. */
 	static final int						CONTENT_LENGTH_STRING_LENGTH			= CONTENT_LENGTH_STRING.length();
 
+	/**
+	 * The length of the header of a binary frame, which sessions that negotiated a wire format other
+	 * than XML use instead of http-like headers: the content length (an int), the uid (a long), then
+	 * flags (a byte).
+	 */
+	static final int						BINARY_FRAME_HEADER_LENGTH				= 13;
+
+	/** Set in the flags of a binary frame whose content is deflated. */
+	static final byte						BINARY_FRAME_DEFLATED							= 1;
+
 	/** Character encoding for messages sent through the network. */
 	static final String					CHARACTER_ENCODING								= "ISO-8859-1";
 
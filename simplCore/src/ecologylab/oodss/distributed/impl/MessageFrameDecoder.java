@@ -0,0 +1,377 @@
+package ecologylab.oodss.distributed.impl;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+import ecologylab.oodss.distributed.common.NetworkingConstants;
+
+/**
+ * Splits the bytes read from one connection into messages, each an HTTP-like header followed by
+ * content-length bytes of body.
+ *
+ * The header is parsed where it lies in the bytes: content-length and uid are read as numbers
+ * without making Strings of them, and the body is left in place, to be deserialized straight from
+ * bodyArray(). Bytes are copied once, by append(), into a buffer that grows to fit the largest
+ * message seen.
+ *
+ * Once a session has negotiated a wire format other than XML, its messages come in binary frames
+ * instead: a header of BINARY_FRAME_HEADER_LENGTH bytes, holding the content length, the uid and
+ * flags, followed by the body. See setBinaryFrames().
+ */
+public class MessageFrameDecoder implements NetworkingConstants
+{
+	private static final int						INITIAL_CAPACITY	= 1024;
+
+	private final int										maxBodyLength;
+
+	/**
+	 * Gets the headers other than content-length and uid.
+	 */
+	private final Map<String, String>		headers;
+
+	private final StringBuilder					startLine;
+
+	private byte[]											buffer						= new byte[INITIAL_CAPACITY];
+
+	/**
+	 * The start of the unconsumed bytes: of the header, until it has been parsed; then of the body.
+	 */
+	private int													start							= 0;
+
+	private int													end								= 0;
+
+	/**
+	 * Where to resume looking for the end of the header.
+	 */
+	private int													headerScanIndex		= 0;
+
+	/**
+	 * The content-length of the current message, or -1 until its header has been parsed.
+	 */
+	private int													bodyLength				= -1;
+
+	private long												uid								= 0;
+
+	private boolean											binaryFrames			= false;
+
+	/**
+	 * Whether the body of the current binary frame is deflated.
+	 */
+	private boolean											deflated					= false;
+
+	/**
+	 * @param maxBodyLength
+	 *          the largest content-length allowed.
+	 * @param headers
+	 *          filled with the headers of each message, other than content-length and uid, with
+	 *          lower case keys.
+	 * @param startLine
+	 *          filled with the first line of each header that does not hold a key and value, such as
+	 *          the request line of an HTTP request.
+	 */
+	public MessageFrameDecoder(int maxBodyLength, Map<String, String> headers,
+			StringBuilder startLine)
+	{
+		this.maxBodyLength = maxBodyLength;
+		this.headers = headers;
+		this.startLine = startLine;
+	}
+
+	/**
+	 * Take the bytes from bytes' position to its limit.
+	 *
+	 * @param bytes
+	 */
+	public void append(ByteBuffer bytes)
+	{
+		int count = bytes.remaining();
+		makeRoom(count);
+		bytes.get(buffer, end, count);
+		end += count;
+	}
+
+	/**
+	 * Parse the header of the next message, if it has not been already.
+	 *
+	 * @return true if the whole of the next message has been appended; its body is then at
+	 *         bodyOffset() in bodyArray(), and its headers have been loaded. Call consumeFrame() when
+	 *         done with it.
+	 * @throws ProtocolException
+	 *           if the header is too long or malformed, or content-length is too large.
+	 */
+	public boolean nextFrame() throws ProtocolException
+	{
+		if (bodyLength == -1 && binaryFrames)
+		{
+			if (end - start < BINARY_FRAME_HEADER_LENGTH)
+				return false;
+
+			parseBinaryHeader(start);
+			start += BINARY_FRAME_HEADER_LENGTH;
+
+			if (bodyLength > maxBodyLength)
+				throw new ProtocolException("Specified content length too large: " + bodyLength);
+		}
+		else if (bodyLength == -1)
+		{
+			int headerEnd = findHeaderEnd();
+			if (headerEnd == -1)
+			{
+				if (end - start > MAX_HTTP_HEADER_LENGTH)
+					throw new ProtocolException("Maximum HTTP header length exceeded. Read " + (end - start)
+							+ "/" + MAX_HTTP_HEADER_LENGTH);
+				return false;
+			}
+
+			parseHeader(start, headerEnd - HTTP_HEADER_LINE_DELIMITER.length());
+			start = headerEnd;
+
+			if (bodyLength > maxBodyLength)
+				throw new ProtocolException("Specified content length too large: " + bodyLength);
+		}
+		return end - start >= bodyLength;
+	}
+
+	public byte[] bodyArray()
+	{
+		return buffer;
+	}
+
+	public int bodyOffset()
+	{
+		return start;
+	}
+
+	public int bodyLength()
+	{
+		return bodyLength;
+	}
+
+	/**
+	 * @return the uid header of the current message, or 0 if it had none.
+	 */
+	public long uid()
+	{
+		return uid;
+	}
+
+	/**
+	 * @return true if the current message came in a binary frame flagged BINARY_FRAME_DEFLATED.
+	 */
+	public boolean deflated()
+	{
+		return deflated;
+	}
+
+	/**
+	 * Read messages after the current one, or from the start if there is none, from binary frames,
+	 * or from those with HTTP-like headers.
+	 *
+	 * @param binaryFrames
+	 */
+	public void setBinaryFrames(boolean binaryFrames)
+	{
+		this.binaryFrames = binaryFrames;
+	}
+
+	public boolean isBinaryFrames()
+	{
+		return binaryFrames;
+	}
+
+	/**
+	 * Discard everything appended, and go back to reading HTTP-like headers, as if new.
+	 */
+	public void clear()
+	{
+		start = end = headerScanIndex = 0;
+		bodyLength = -1;
+		uid = 0;
+		deflated = false;
+		binaryFrames = false;
+		headers.clear();
+		startLine.setLength(0);
+	}
+
+	/**
+	 * Discard the current message, and its headers, moving on to the next.
+	 */
+	public void consumeFrame()
+	{
+		start += bodyLength;
+		bodyLength = -1;
+		uid = 0;
+		deflated = false;
+		headers.clear();
+		startLine.setLength(0);
+
+		if (start == end)
+			start = end = 0;
+		headerScanIndex = start;
+	}
+
+	/**
+	 * @return the index just past the blank line that ends the header, or -1 if it has not all been
+	 *         appended yet.
+	 */
+	private int findHeaderEnd()
+	{
+		byte[] buffer = this.buffer;
+		for (int i = Math.max(headerScanIndex, start); i + 3 < end; i++)
+		{
+			if (buffer[i + 3] == '\n' && buffer[i + 2] == '\r' && buffer[i + 1] == '\n'
+					&& buffer[i] == '\r')
+				return i + 4;
+		}
+		headerScanIndex = Math.max(start, end - 3);
+		return -1;
+	}
+
+	/**
+	 * Parse the CRLF terminated lines from from to to.
+	 */
+	private void parseHeader(int from, int to) throws ProtocolException
+	{
+		bodyLength = 0;
+		boolean firstLine = true;
+		int lineStart = from;
+		while (lineStart < to)
+		{
+			int lineEnd = lineStart;
+			while (buffer[lineEnd] != '\r' || buffer[lineEnd + 1] != '\n')
+				lineEnd++;
+
+			int colon = lineStart;
+			while (colon < lineEnd && buffer[colon] != ':')
+				colon++;
+
+			if (colon == lineEnd)
+			{
+				if (firstLine)
+					appendChars(startLine, lineStart, lineEnd);
+			}
+			else if (keyIs(CONTENT_LENGTH_STRING, lineStart, colon))
+			{
+				long length = parseNumber(colon + 1, lineEnd);
+				if (length < 0 || length > Integer.MAX_VALUE)
+					throw new ProtocolException("Bad " + CONTENT_LENGTH_STRING + ": "
+							+ string(colon + 1, lineEnd));
+				bodyLength = (int) length;
+			}
+			else if (keyIs(UNIQUE_IDENTIFIER_STRING, lineStart, colon))
+			{
+				uid = parseNumber(colon + 1, lineEnd);
+				if (uid < 0)
+					throw new ProtocolException("Bad " + UNIQUE_IDENTIFIER_STRING + ": "
+							+ string(colon + 1, lineEnd));
+			}
+			else
+			{
+				headers.put(string(lineStart, colon).toLowerCase(), string(colon + 1, lineEnd).trim());
+			}
+
+			firstLine = false;
+			lineStart = lineEnd + HTTP_HEADER_LINE_DELIMITER.length();
+		}
+	}
+
+	/**
+	 * Parse the BINARY_FRAME_HEADER_LENGTH bytes from from: the content length, the uid and flags,
+	 * big-endian.
+	 */
+	private void parseBinaryHeader(int from) throws ProtocolException
+	{
+		long length = readBigEndian(from, 4);
+		uid = readBigEndian(from + 4, 8);
+		int flags = buffer[from + 12];
+		if (length < 0 || length > Integer.MAX_VALUE || uid < 0
+				|| (flags & ~BINARY_FRAME_DEFLATED) != 0)
+			throw new ProtocolException("Bad binary frame header: length " + length + ", uid " + uid
+					+ ", flags " + flags);
+		bodyLength = (int) length;
+		deflated = (flags & BINARY_FRAME_DEFLATED) != 0;
+	}
+
+	private long readBigEndian(int from, int count)
+	{
+		long result = buffer[from];
+		for (int i = from + 1; i < from + count; i++)
+			result = (result << 8) | (buffer[i] & 0xff);
+		return result;
+	}
+
+	/**
+	 * @return true if the bytes from from to to spell key, which is lower case, ignoring case.
+	 */
+	private boolean keyIs(String key, int from, int to)
+	{
+		if (to - from != key.length())
+			return false;
+		for (int i = 0; i < key.length(); i++)
+		{
+			int c = buffer[from + i];
+			if (c >= 'A' && c <= 'Z')
+				c += 'a' - 'A';
+			if (c != key.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the non-negative decimal number, surrounded by optional spaces, from from to to; or
+	 *         -1 if there isn't one.
+	 */
+	private long parseNumber(int from, int to)
+	{
+		while (from < to && buffer[from] == ' ')
+			from++;
+		while (to > from && buffer[to - 1] == ' ')
+			to--;
+		if (from == to || to - from > 18)
+			return -1;
+
+		long result = 0;
+		for (int i = from; i < to; i++)
+		{
+			int digit = buffer[i] - '0';
+			if (digit < 0 || digit > 9)
+				return -1;
+			result = result * 10 + digit;
+		}
+		return result;
+	}
+
+	private String string(int from, int to)
+	{
+		return new String(buffer, from, to - from, CHARSET);
+	}
+
+	private void appendChars(StringBuilder chars, int from, int to)
+	{
+		for (int i = from; i < to; i++)
+			chars.append((char) (buffer[i] & 0xff));
+	}
+
+	/**
+	 * Make room for count more bytes after end, first by dropping those already consumed, then by
+	 * growing the buffer.
+	 */
+	private void makeRoom(int count)
+	{
+		if (end + count <= buffer.length)
+			return;
+
+		if (start > 0)
+		{
+			System.arraycopy(buffer, start, buffer, 0, end - start);
+			end -= start;
+			headerScanIndex -= start;
+			start = 0;
+		}
+		if (end + count > buffer.length)
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, end + count));
+	}
+}
@@ -78,10 +78,17 @@ public abstract class NIOCore extends Debug implements StartAndStoppable, Networ
 	{
 		while (running)
 		{
+			this.registerPendingChannels();
+
 			// update pending selection operation changes
 			//synchronized (this.pendingSelectionOpChanges)
 			{
-				for (SocketModeChangeRequest changeReq : pendingSelectionOpChanges)
+				/*
+				 * poll, rather than iterate and clear, so that a change queued by another thread meanwhile
+				 * is not lost.
+				 */
+				SocketModeChangeRequest changeReq;
+				while ((changeReq = pendingSelectionOpChanges.poll()) != null)
 				{
 					if (changeReq.key.channel().isRegistered())
 					{
@@ -118,8 +125,6 @@ public abstract class NIOCore extends Debug implements StartAndStoppable, Networ
 					// release the SocketModeChangeRequest when done
 					changeReq = this.mReqPool.release(changeReq);
 				}
-
-				this.pendingSelectionOpChanges.clear();
 			}
 
 			// check selection operations
@@ -146,8 +151,10 @@ public abstract class NIOCore extends Debug implements StartAndStoppable, Networ
 						{
 							debug("invalid key");
 							setPendingInvalidate(key, false);
+							continue;
 						}
-						else if (key.isReadable())
+
+						if (key.isReadable())
 						{
 							/*
 							 * incoming readable, valid key; have to double-check validity here, because accept
@@ -182,7 +189,17 @@ public abstract class NIOCore extends Debug implements StartAndStoppable, Networ
 								invalidateKey(key, false);
 							}
 						}
-						else if (key.isWritable())
+
+						/*
+						 * a key waiting to write is usually readable too; write to it in the same pass, so that a
+						 * client that keeps sending does not hold up its own responses.
+						 */
+						if (!key.isValid())
+						{
+							continue;
+						}
+
+						if (key.isWritable())
 						{
 							try
 							{
@@ -434,6 +451,16 @@ public abstract class NIOCore extends Debug implements StartAndStoppable, Networ
 	 */
 	protected abstract void checkAndDropIdleKeys();
 
+	/**
+	 * Hook method called on the selector thread before each select, for subclasses that are handed
+	 * channels by other threads to register them with selector; registering from another thread
+	 * blocks until the select in progress returns.
+	 */
+	protected void registerPendingChannels()
+	{
+
+	}
+
 	/**
 	 * @param key
 	 */
@@ -486,7 +513,8 @@ public abstract class NIOCore extends Debug implements StartAndStoppable, Networ
 		SocketModeChangeRequest req = this.mReqPool.acquire();
 		req.key = key;
 		req.type = SocketModeChangeRequestType.CHANGEOPS;
-		req.ops = SelectionKey.OP_WRITE;
+		// keep reading from a client while waiting to write to it
+		req.ops = SelectionKey.OP_READ | SelectionKey.OP_WRITE;
 
 		//synchronized (this.pendingSelectionOpChanges)
 		{
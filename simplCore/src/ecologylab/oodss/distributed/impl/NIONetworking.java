@@ -6,14 +6,12 @@ package ecologylab.oodss.distributed.impl;
 import java.io.IOException;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CharsetEncoder;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.naming.OperationNotSupportedException;
 
@@ -38,11 +36,11 @@ public abstract class NIONetworking<S extends Scope> extends NIOCore
 	private final ByteBuffer											readBuffer;
 
 	/**
-	 * Maps SocketChannels (connections) to their write Queues of ByteBuffers. Whenever a
-	 * SocketChannel is marked for writing, and comes up for writing, the server will write the set of
-	 * ByteBuffers to the socket.
+	 * Maps SocketChannels (connections) to their WriteQueues of ByteBuffers. Whenever a SocketChannel
+	 * is marked for writing, and comes up for writing, the server will write as much of its queue as
+	 * the socket will take.
 	 */
-	private Map<SelectionKey, Queue<ByteBuffer>>	pendingWrites		= new HashMap<SelectionKey, Queue<ByteBuffer>>();
+	private final ConcurrentHashMap<SelectionKey, WriteQueue>	pendingWrites	= new ConcurrentHashMap<SelectionKey, WriteQueue>();
 
 	protected boolean															shuttingDown		= false;
 
@@ -120,21 +118,63 @@ public abstract class NIONetworking<S extends Scope> extends NIOCore
 	 * 
 	 * @param socketKey
 	 * @param data
+	 *          filled, but not flipped; must come from acquireByteBufferFromPool(), and is released
+	 *          back to it once written.
 	 */
 	public void enqueueBytesForWriting(SelectionKey socketKey, ByteBuffer data)
 	{
+		data.flip();
+
 		// queue data to write
-		synchronized (this.pendingWrites)
-		{
-			Queue<ByteBuffer> dataQueue = pendingWrites.get(socketKey);
+		writeQueue(socketKey).offer(data, byteBufferPool);
 
-			if (dataQueue == null)
-			{
-				dataQueue = new LinkedList<ByteBuffer>();
-				pendingWrites.put(socketKey, dataQueue);
-			}
+		this.queueForWrite(socketKey);
 
-			dataQueue.offer(data);
+		selector.wakeup();
+	}
+
+	/**
+	 * Queue up bytes to send on a particular socket, that start part way into data; for example,
+	 * after room left for a header that turned out shorter than the room.
+	 * 
+	 * @param socketKey
+	 * @param data
+	 *          filled, but not flipped; must come from acquireByteBufferFromPool().
+	 * @param start
+	 *          the index in data of the first byte to send.
+	 */
+	public void enqueueBytesForWriting(SelectionKey socketKey, ByteBuffer data, int start)
+	{
+		data.limit(data.position());
+		data.position(start);
+
+		writeQueue(socketKey).offer(data, byteBufferPool);
+
+		this.queueForWrite(socketKey);
+
+		selector.wakeup();
+	}
+
+	/**
+	 * Queue up a message's header and body, which are written together, without copying one into
+	 * the other.
+	 * 
+	 * @param socketKey
+	 * @param header
+	 *          filled, but not flipped; must come from acquireByteBufferFromPool().
+	 * @param body
+	 *          filled, but not flipped; must come from acquireByteBufferFromPool().
+	 */
+	public void enqueueBytesForWriting(SelectionKey socketKey, ByteBuffer header, ByteBuffer body)
+	{
+		header.flip();
+		body.flip();
+
+		WriteQueue writes = writeQueue(socketKey);
+		synchronized (writes)
+		{ // so that no other message gets between them
+			writes.offer(header, byteBufferPool);
+			writes.offer(body, byteBufferPool);
 		}
 
 		this.queueForWrite(socketKey);
@@ -142,6 +182,60 @@ public abstract class NIONetworking<S extends Scope> extends NIOCore
 		selector.wakeup();
 	}
 
+	private WriteQueue writeQueue(SelectionKey socketKey)
+	{
+		WriteQueue writes = pendingWrites.get(socketKey);
+
+		if (writes == null)
+		{
+			writes = new WriteQueue();
+			WriteQueue existing = pendingWrites.putIfAbsent(socketKey, writes);
+			if (existing != null)
+				writes = existing;
+		}
+
+		return writes;
+	}
+
+	/**
+	 * @param socketKey
+	 * @return the number of bytes enqueued for socketKey that have not been written yet.
+	 */
+	public long pendingWriteBytes(SelectionKey socketKey)
+	{
+		WriteQueue writes = pendingWrites.get(socketKey);
+		return writes == null ? 0 : writes.queuedBytes();
+	}
+
+	/**
+	 * Wait for the bytes enqueued for socketKey to be written, until no more than bytes remain.
+	 * 
+	 * @param socketKey
+	 * @param bytes
+	 * @param timeoutMillis
+	 * @return true if no more than bytes remain; false if the time ran out first, or the connection
+	 *         was closed.
+	 */
+	public boolean awaitPendingWriteBytesAtMost(SelectionKey socketKey, long bytes,
+			long timeoutMillis)
+	{
+		WriteQueue writes = pendingWrites.get(socketKey);
+		return writes == null ? socketKey.isValid() : writes.awaitQueuedBytesAtMost(bytes,
+				timeoutMillis);
+	}
+
+	/**
+	 * Throw away whatever is still waiting to be written to socketKey, which is being closed.
+	 * 
+	 * @param socketKey
+	 */
+	protected void discardPendingWrites(SelectionKey socketKey)
+	{
+		WriteQueue writes = pendingWrites.remove(socketKey);
+		if (writes != null)
+			writes.close(byteBufferPool);
+	}
+
 	/**
 	 * Reads all the data from the key into the readBuffer, then pushes that information to the action
 	 * processor for processing.
@@ -186,33 +280,43 @@ public abstract class NIONetworking<S extends Scope> extends NIOCore
 	}
 
 	/**
-	 * Writes the bytes from pendingWrites that belong to key.
+	 * Writes as many of the bytes from pendingWrites that belong to key as the socket will take,
+	 * without blocking. Whatever is left is written when the socket is next writable.
 	 * 
 	 * @param key
 	 * @throws IOException
 	 */
 	protected void writeKey(SelectionKey key) throws IOException
 	{
-		SocketChannel sc = (SocketChannel) key.channel();
+		WriteQueue writes = pendingWrites.get(key);
 
-		synchronized (this.pendingWrites)
+		if (writes != null)
+			writes.write((SocketChannel) key.channel(), this.byteBufferPool);
+	}
+
+	/**
+	 * Go back to only reading from key once everything for it has been written; until then, keep
+	 * waiting for it to be writable too.
+	 * 
+	 * This runs on the selector thread, which applies queued interest changes, such as one made by
+	 * enqueueBytesForWriting() after the check here, only after it returns.
+	 * 
+	 * @see ecologylab.oodss.distributed.impl.NIOCore#writeFinished(java.nio.channels.SelectionKey)
+	 */
+	@Override
+	protected void writeFinished(SelectionKey key)
+	{
+		WriteQueue writes = pendingWrites.get(key);
+
+		if (writes == null || writes.isEmpty())
 		{
-			Queue<ByteBuffer> writes = pendingWrites.get(key);
-
-			while (!writes.isEmpty())
-			{ // write everything
-				ByteBuffer bytes = writes.poll();
-
-				bytes.flip();
-				
-
-				while (bytes.remaining() > 0)
-				{ // the socket's buffer filled up!; should go out again next time
-					//debug("unable to write all data to client; will try again shortly.");
-					sc.write(bytes);
-				}
-				
-				bytes = this.byteBufferPool.release(bytes);
+			try
+			{
+				key.interestOps(SelectionKey.OP_READ);
+			}
+			catch (CancelledKeyException e)
+			{
+				debug("tried to change ops after key was cancelled.");
 			}
 		}
 	}
@@ -281,4 +385,15 @@ public abstract class NIONetworking<S extends Scope> extends NIOCore
 	{
 		return this.byteBufferPool.acquire();
 	}
+
+	/**
+	 * Return a ByteBuffer from acquireByteBufferFromPool() that will not be enqueued to write after
+	 * all.
+	 * 
+	 * @param buffer
+	 */
+	public void releaseByteBufferToPool(ByteBuffer buffer)
+	{
+		this.byteBufferPool.release(buffer);
+	}
 }
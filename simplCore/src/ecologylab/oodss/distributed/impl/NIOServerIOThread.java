@@ -21,6 +21,8 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.xml.bind.DatatypeConverter;
 
@@ -37,6 +39,13 @@ import ecologylab.serialization.SimplTypesScope;
  * Re-written based on the Rox Java NIO Tutorial
  * (http://rox-xmlrpc.sourceforge.net/niotut/index.html).
  * 
+ * By default, one selector, on one thread, accepts, reads and writes for every connection. After
+ * useReactors(), this one only accepts; it hands each connection it accepts to one of a set of
+ * reactors, NIOServerIOThreads with their own selector, thread, read buffer, write queues and
+ * pending SocketModeChangeRequests, which then do all of that connection's I/O. Operations on a
+ * connection that may be called from other threads (enqueueBytesForWriting(),
+ * setPendingInvalidate(), and the like) are passed on to the reactor that owns it.
+ * 
  * @author Zachary O. Toups (zach@ecologylab.net)
  * 
  */
@@ -70,15 +79,170 @@ public class NIOServerIOThread extends NIONetworking implements ServerConstants
 
 	private final ArrayList<InetAddress>												boundAddresses						= new ArrayList<InetAddress>();
 
+	private int																									maxMessageLength;
+
+	/**
+	 * How an accepting NIOServerIOThread chooses the reactor for each new connection.
+	 */
+	public enum ReactorAssignment
+	{
+		/**
+		 * Each reactor in turn.
+		 */
+		ROUND_ROBIN,
+
+		/**
+		 * The reactor with the fewest connections.
+		 */
+		LEAST_LOADED
+	}
+
+	/**
+	 * A connection accepted by the acceptor, and its session token, waiting for a reactor to register
+	 * it.
+	 */
+	private static class PendingRegistration
+	{
+		final SocketChannel	channel;
+
+		final String				sessionToken;
+
+		PendingRegistration(SocketChannel channel, String sessionToken)
+		{
+			this.channel = channel;
+			this.sessionToken = sessionToken;
+		}
+	}
+
+	private static final NIOServerIOThread[]										NO_REACTORS								= {};
+
+	/**
+	 * The NIOServerIOThread that accepts connections; this, unless this is a reactor.
+	 */
+	private final NIOServerIOThread															acceptor;
+
+	/**
+	 * Reactors that do the I/O for connections this accepts; if there are none, this does it.
+	 */
+	private NIOServerIOThread[]																	reactors									= NO_REACTORS;
+
+	private ReactorAssignment																		reactorAssignment					= ReactorAssignment.ROUND_ROBIN;
+
+	private int																									nextReactor								= 0;
+
+	/**
+	 * Connections accepted by another thread, and their session tokens, waiting to be registered with
+	 * this's selector.
+	 */
+	private final Queue<PendingRegistration>										pendingRegistrations			= new ConcurrentLinkedQueue<PendingRegistration>();
+
 	protected NIOServerIOThread(int portNumber, InetAddress[] hostAddresses, NIOServerDataReader sAP,
 			SimplTypesScope requestTranslationSpace, Scope<?> objectRegistry, int idleSocketTimeout,
 			int maxMessageLength) throws IOException, BindException
 	{
 		super("NIOServer", portNumber, requestTranslationSpace, objectRegistry, maxMessageLength);
 
+		this.acceptor = this;
+		this.maxMessageLength = maxMessageLength;
+
 		this.construct(hostAddresses, sAP, idleSocketTimeout);
 	}
 
+	/**
+	 * Create a reactor, which does the I/O for some of the connections that acceptor accepts.
+	 */
+	private NIOServerIOThread(NIOServerIOThread acceptor, int index) throws IOException
+	{
+		super("NIOServer reactor " + index, acceptor.portNumber, acceptor.translationScope,
+				acceptor.objectRegistry, acceptor.maxMessageLength);
+
+		this.acceptor = acceptor;
+		this.maxMessageLength = acceptor.maxMessageLength;
+		// shared, so that removeBadConnections() finds every connection from an address
+		this.ipToKeyOrKeys = acceptor.ipToKeyOrKeys;
+
+		this.construct(acceptor.hostAddresses, acceptor.sAP, acceptor.idleSocketTimeout);
+	}
+
+	/**
+	 * Hand the I/O for connections to count reactors, each with its own selector and thread, so that
+	 * it is spread over that many cores; this thread then only accepts connections. Must be called
+	 * before the server starts.
+	 * 
+	 * @param count
+	 *          the number of reactors, such as Runtime.getRuntime().availableProcessors().
+	 * @param assignment
+	 *          how to choose the reactor for each new connection.
+	 * @throws IOException
+	 *           if an I/O error occurs while trying to open a Selector from the system.
+	 */
+	public void useReactors(int count, ReactorAssignment assignment) throws IOException
+	{
+		if (acceptor != this)
+			throw new IllegalStateException("Only the accepting NIOServerIOThread has reactors.");
+		if (selector != null)
+			throw new IllegalStateException("The server has already started.");
+
+		NIOServerIOThread[] newReactors = new NIOServerIOThread[count];
+		for (int i = 0; i < count; i++)
+			newReactors[i] = new NIOServerIOThread(this, i);
+
+		this.reactors = newReactors;
+		this.reactorAssignment = assignment;
+	}
+
+	/**
+	 * @param key
+	 * @return the NIOServerIOThread that does the I/O for key: the reactor it was handed to, or the
+	 *         acceptor, if there are no reactors.
+	 */
+	public NIOServerIOThread reactorFor(SelectionKey key)
+	{
+		for (NIOServerIOThread reactor : acceptor.reactors)
+		{
+			if (key.selector() == reactor.selector)
+				return reactor;
+		}
+
+		return acceptor;
+	}
+
+	private NIOServerIOThread chooseReactor()
+	{
+		switch (reactorAssignment)
+		{
+		case LEAST_LOADED:
+			NIOServerIOThread leastLoaded = reactors[0];
+			int fewest = Integer.MAX_VALUE;
+			for (NIOServerIOThread reactor : reactors)
+			{
+				int load = reactor.selector.keys().size() + reactor.pendingRegistrations.size();
+				if (load < fewest)
+				{
+					fewest = load;
+					leastLoaded = reactor;
+				}
+			}
+			return leastLoaded;
+		default:
+			nextReactor = (nextReactor + 1) % reactors.length;
+			return reactors[nextReactor];
+		}
+	}
+
+	/**
+	 * @return the number of connected clients, across all reactors.
+	 */
+	private int connectionCount()
+	{
+		int count = selector.keys().size() - incomingConnectionSockets.size();
+
+		for (NIOServerIOThread reactor : reactors)
+			count += reactor.selector.keys().size() + reactor.pendingRegistrations.size();
+
+		return count;
+	}
+
 	private void construct(InetAddress[] newHostAddresses, NIOServerDataReader newFrontend,
 			int newIdleSocketTimeout) throws IOException
 	{
@@ -165,7 +329,7 @@ public class NIOServerIOThread extends NIONetworking implements ServerConstants
 	{
 		try
 		{
-			int numConn = selector.keys().size() - 1;
+			int numConn = connectionCount();
 
 			debug("connections running: " + numConn);
 
@@ -201,26 +365,16 @@ public class NIOServerIOThread extends NIONetworking implements ServerConstants
 					// this connection, so we can sort them out later.
 					String keyAttachment = this.generateSessionToken(newlyAcceptedChannel.socket());
 
-					SelectionKey newKey = newlyAcceptedChannel.register(selector, SelectionKey.OP_READ,
-							keyAttachment);
-
-					this.keyActivityTimes.put(newKey, System.currentTimeMillis());
-
-					if ((ipToKeyOrKeys.get(address.getHostAddress())) == null)
+					if (reactors.length == 0)
 					{
-						debug(address + " not in our list, adding it.");
-
-						ipToKeyOrKeys.put(address.getHostAddress(), new ObjectOrHashMap<String, SelectionKey>(
-								keyAttachment, newKey));
+						this.register(newlyAcceptedChannel, keyAttachment);
 					}
 					else
-					{
-						debug(address + " is in our list, adding another key.");
-						synchronized (ipToKeyOrKeys)
-						{
-							ipToKeyOrKeys.get(address.getHostAddress()).put(keyAttachment, newKey);
-							System.out.println("new size: " + ipToKeyOrKeys.get(address.getHostAddress()).size());
-						}
+					{ // the reactor registers it, on its own thread
+						NIOServerIOThread reactor = this.chooseReactor();
+						reactor.pendingRegistrations.offer(new PendingRegistration(newlyAcceptedChannel,
+								keyAttachment));
+						reactor.selector.wakeup();
 					}
 
 					debug("Now connected to "
@@ -275,23 +429,32 @@ public class NIOServerIOThread extends NIONetworking implements ServerConstants
 		// shut them ALL down!
 		InetAddress address = ((SocketChannel) key.channel()).socket().getInetAddress();
 
-		ObjectOrHashMap<String, SelectionKey> keyOrKeys = ipToKeyOrKeys.get(address.getHostAddress());
+		synchronized (ipToKeyOrKeys)
+		{
+			ObjectOrHashMap<String, SelectionKey> keyOrKeys = ipToKeyOrKeys.get(address.getHostAddress());
+
+			if (keyOrKeys == null)
+			{
+				return;
+			}
 
-		Iterator<SelectionKey> allKeysForIp = keyOrKeys.values().iterator();
+			Iterator<SelectionKey> allKeysForIp = keyOrKeys.values().iterator();
 
-		debug("***********Shutting down all clients from " + address.getHostAddress());
+			debug("***********Shutting down all clients from " + address.getHostAddress());
 
-		while (allKeysForIp.hasNext())
-		{
-			SelectionKey keyForIp = allKeysForIp.next();
+			while (allKeysForIp.hasNext())
+			{
+				SelectionKey keyForIp = allKeysForIp.next();
 
-			debug("shutting down " + ((SocketChannel) keyForIp.channel()).socket().getInetAddress());
+				debug("shutting down " + ((SocketChannel) keyForIp.channel()).socket().getInetAddress());
 
-			this.setPendingInvalidate(keyForIp, true);
-		}
+				// perhaps on another reactor
+				this.setPendingInvalidate(keyForIp, true);
+			}
 
-		keyOrKeys.clear();
-		ipToKeyOrKeys.remove(address.getHostAddress());
+			keyOrKeys.clear();
+			ipToKeyOrKeys.remove(address.getHostAddress());
+		}
 	}
 
 	/**
@@ -311,16 +474,21 @@ public class NIOServerIOThread extends NIONetworking implements ServerConstants
 
 		super.invalidateKey(chan);
 
-		ObjectOrHashMap<String, SelectionKey> keyOrKeys = this.ipToKeyOrKeys.get(address
-				.getHostAddress());
+		this.discardPendingWrites(key);
 
-		if (keyOrKeys != null)
+		synchronized (ipToKeyOrKeys)
 		{
-			keyOrKeys.remove(address);
+			ObjectOrHashMap<String, SelectionKey> keyOrKeys = this.ipToKeyOrKeys.get(address
+					.getHostAddress());
 
-			if (keyOrKeys.isEmpty())
+			if (keyOrKeys != null)
 			{
-				this.ipToKeyOrKeys.remove(chan.socket().getInetAddress().getHostAddress());
+				keyOrKeys.remove(address);
+
+				if (keyOrKeys.isEmpty())
+				{
+					this.ipToKeyOrKeys.remove(chan.socket().getInetAddress().getHostAddress());
+				}
 			}
 		}
 		this.keyActivityTimes.remove(key);
@@ -329,7 +497,7 @@ public class NIOServerIOThread extends NIONetworking implements ServerConstants
 		 * decrement numConnections & if the server disabled new connections due to hitting
 		 * max_connections, re-enable
 		 */
-		if (selector.keys().size() < MAX_CONNECTIONS && !acceptEnabled)
+		if (acceptor == this && connectionCount() < MAX_CONNECTIONS && !acceptEnabled)
 		{
 			try
 			{
@@ -401,6 +569,64 @@ public class NIOServerIOThread extends NIONetworking implements ServerConstants
 		acceptEnabled = true;
 	}
 
+	/**
+	 * Register a newly accepted channel with this's selector, for reading, and start keeping track of
+	 * it. Must be called on this's thread.
+	 * 
+	 * @param channel
+	 * @param keyAttachment
+	 *          the session token of the connection.
+	 * @throws IOException
+	 */
+	private void register(SocketChannel channel, String keyAttachment) throws IOException
+	{
+		InetAddress address = channel.socket().getInetAddress();
+
+		SelectionKey newKey = channel.register(selector, SelectionKey.OP_READ, keyAttachment);
+
+		this.keyActivityTimes.put(newKey, System.currentTimeMillis());
+
+		synchronized (ipToKeyOrKeys)
+		{
+			if ((ipToKeyOrKeys.get(address.getHostAddress())) == null)
+			{
+				debug(address + " not in our list, adding it.");
+
+				ipToKeyOrKeys.put(address.getHostAddress(), new ObjectOrHashMap<String, SelectionKey>(
+						keyAttachment, newKey));
+			}
+			else
+			{
+				debug(address + " is in our list, adding another key.");
+				ipToKeyOrKeys.get(address.getHostAddress()).put(keyAttachment, newKey);
+				System.out.println("new size: " + ipToKeyOrKeys.get(address.getHostAddress()).size());
+			}
+		}
+	}
+
+	/**
+	 * Registers the connections that the acceptor has handed to this reactor.
+	 * 
+	 * @see ecologylab.oodss.distributed.impl.NIOCore#registerPendingChannels()
+	 */
+	@Override
+	protected void registerPendingChannels()
+	{
+		PendingRegistration registration;
+		while ((registration = pendingRegistrations.poll()) != null)
+		{
+			try
+			{
+				this.register(registration.channel, registration.sessionToken);
+			}
+			catch (IOException e)
+			{
+				debug("Unable to register a new connection: " + e.getMessage());
+				super.invalidateKey(registration.channel);
+			}
+		}
+	}
+
 	/**
 	 * Generates a unique identifier String for the given socket, based upon actual ports used and ip
 	 * addresses with a hash. Called by the server at accept() time, and used to identify the
@@ -491,7 +717,111 @@ public class NIOServerIOThread extends NIONetworking implements ServerConstants
 	 */
 	public void setPendingInvalidate(SocketChannel socket, boolean permanent)
 	{
-		this.setPendingInvalidate(socket.keyFor(selector), permanent);
+		SelectionKey key = socket.keyFor(acceptor.selector);
+
+		for (NIOServerIOThread reactor : acceptor.reactors)
+		{
+			if (key != null)
+				break;
+			key = socket.keyFor(reactor.selector);
+		}
+
+		this.setPendingInvalidate(key, permanent);
+	}
+
+	/**
+	 * Passes key on to the reactor that owns it, if that is not this.
+	 * 
+	 * @see ecologylab.oodss.distributed.impl.NIOCore#setPendingInvalidate(java.nio.channels.SelectionKey,
+	 *      boolean)
+	 */
+	@Override
+	public void setPendingInvalidate(SelectionKey key, boolean forcePermanent)
+	{
+		NIOServerIOThread owner = reactorFor(key);
+
+		if (owner != this)
+			owner.setPendingInvalidate(key, forcePermanent);
+		else
+			super.setPendingInvalidate(key, forcePermanent);
+	}
+
+	@Override
+	public void enqueueBytesForWriting(SelectionKey socketKey, ByteBuffer data)
+	{
+		NIOServerIOThread owner = reactorFor(socketKey);
+
+		if (owner != this)
+			owner.enqueueBytesForWriting(socketKey, data);
+		else
+			super.enqueueBytesForWriting(socketKey, data);
+	}
+
+	@Override
+	public void enqueueBytesForWriting(SelectionKey socketKey, ByteBuffer data, int start)
+	{
+		NIOServerIOThread owner = reactorFor(socketKey);
+
+		if (owner != this)
+			owner.enqueueBytesForWriting(socketKey, data, start);
+		else
+			super.enqueueBytesForWriting(socketKey, data, start);
+	}
+
+	@Override
+	public void enqueueBytesForWriting(SelectionKey socketKey, ByteBuffer header, ByteBuffer body)
+	{
+		NIOServerIOThread owner = reactorFor(socketKey);
+
+		if (owner != this)
+			owner.enqueueBytesForWriting(socketKey, header, body);
+		else
+			super.enqueueBytesForWriting(socketKey, header, body);
+	}
+
+	@Override
+	public long pendingWriteBytes(SelectionKey socketKey)
+	{
+		NIOServerIOThread owner = reactorFor(socketKey);
+
+		return owner != this ? owner.pendingWriteBytes(socketKey) : super.pendingWriteBytes(socketKey);
+	}
+
+	@Override
+	public boolean awaitPendingWriteBytesAtMost(SelectionKey socketKey, long bytes,
+			long timeoutMillis)
+	{
+		NIOServerIOThread owner = reactorFor(socketKey);
+
+		return owner != this ? owner.awaitPendingWriteBytesAtMost(socketKey, bytes, timeoutMillis)
+				: super.awaitPendingWriteBytesAtMost(socketKey, bytes, timeoutMillis);
+	}
+
+	@Override
+	protected void openSelector() throws IOException
+	{
+		super.openSelector();
+
+		for (NIOServerIOThread reactor : reactors)
+			reactor.openSelector();
+	}
+
+	@Override
+	public void start()
+	{
+		for (NIOServerIOThread reactor : reactors)
+			reactor.start();
+
+		super.start();
+	}
+
+	@Override
+	public synchronized void stop()
+	{
+		super.stop();
+
+		for (NIOServerIOThread reactor : reactors)
+			reactor.stop();
 	}
 
 	/**
@@ -3,12 +3,18 @@
  */
 package ecologylab.oodss.distributed.impl;
 
+import java.io.ByteArrayOutputStream;
+
 import ecologylab.generic.Debug;
+import ecologylab.serialization.formatenums.Format;
 
 /**
  * Represents a RequestMessage that has been translated to XML. This object encapsulates the XML
  * String, along with the request's UID.
  * 
+ * Requests translated to a binary wire format, such as TLV, are held in getRequestBytes() instead;
+ * getFormat() tells which.
+ * 
  * @author Zachary O. Toups (zach@ecologylab.net)
  */
 public class PreppedRequest extends Debug implements Comparable<PreppedRequest>
@@ -19,6 +25,10 @@ public class PreppedRequest extends Debug implements Comparable<PreppedRequest>
 
 	private boolean				disposable;
 
+	private Format				format	= Format.XML;
+
+	private ByteArrayOutputStream	requestBytes;
+
 	/**
 	 * 
 	 */
@@ -46,6 +56,9 @@ public class PreppedRequest extends Debug implements Comparable<PreppedRequest>
 		this.uid = -1;
 		request.setLength(0);
 		this.disposable = false;
+		this.format = Format.XML;
+		if (requestBytes != null)
+			requestBytes.reset();
 	}
 
 	/**
@@ -64,6 +77,29 @@ public class PreppedRequest extends Debug implements Comparable<PreppedRequest>
 //		debug(request.toString());
 	}
 
+	/**
+	 * @return the request, translated to a binary format; created on first use.
+	 */
+	public ByteArrayOutputStream getRequestBytes()
+	{
+		if (requestBytes == null)
+			requestBytes = new ByteArrayOutputStream(request.capacity());
+		return requestBytes;
+	}
+
+	/**
+	 * @return the format the request was translated to.
+	 */
+	public Format getFormat()
+	{
+		return format;
+	}
+
+	public void setFormat(Format format)
+	{
+		this.format = format;
+	}
+
 	/**
 	 * @return the uid
 	 */
@@ -0,0 +1,157 @@
+package ecologylab.oodss.distributed.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import ecologylab.io.ByteBufferPool;
+
+/**
+ * The bytes waiting to be written to one connection, in the order they were enqueued.
+ *
+ * Each connection has its own, so threads producing messages for different clients never wait on
+ * each other, and the selector thread only holds the lock of the connection it is writing. Writes
+ * never block: whatever the socket will not take stays queued, partly written, until the channel is
+ * writable again.
+ */
+class WriteQueue
+{
+	/**
+	 * The most buffers handed to one gathering write.
+	 */
+	private static final int					MAX_GATHERED	= 16;
+
+	/**
+	 * Flipped buffers, the first of which may have been partly written already.
+	 */
+	private final ArrayDeque<ByteBuffer>	buffers				= new ArrayDeque<ByteBuffer>();
+
+	private final ByteBuffer[]					gathered			= new ByteBuffer[MAX_GATHERED];
+
+	private long												queuedBytes		= 0;
+
+	private boolean											closed				= false;
+
+	/**
+	 * Queue data, which is ready to be written (flipped), after everything already queued.
+	 *
+	 * @param data
+	 * @param pool
+	 *          where data goes back to if the connection has already been closed.
+	 */
+	synchronized void offer(ByteBuffer data, ByteBufferPool pool)
+	{
+		if (closed)
+		{
+			pool.release(data);
+			return;
+		}
+		buffers.offer(data);
+		queuedBytes += data.remaining();
+	}
+
+	/**
+	 * @return the number of bytes queued, and not yet written.
+	 */
+	synchronized long queuedBytes()
+	{
+		return queuedBytes;
+	}
+
+	synchronized boolean isEmpty()
+	{
+		return buffers.isEmpty();
+	}
+
+	/**
+	 * Write as much as channel will take, gathering up to MAX_GATHERED buffers into each write.
+	 * Buffers that have been written completely are released to pool.
+	 *
+	 * @param channel
+	 *          a non-blocking channel.
+	 * @param pool
+	 * @return true if everything queued was written.
+	 * @throws IOException
+	 */
+	synchronized boolean write(GatheringByteChannel channel, ByteBufferPool pool) throws IOException
+	{
+		try
+		{
+			while (!buffers.isEmpty())
+			{
+				int count = 0;
+				long batchBytes = 0;
+				for (ByteBuffer buffer : buffers)
+				{
+					gathered[count++] = buffer;
+					batchBytes += buffer.remaining();
+					if (count == MAX_GATHERED)
+						break;
+				}
+
+				long written = channel.write(gathered, 0, count);
+				Arrays.fill(gathered, 0, count, null);
+				queuedBytes -= written;
+
+				while (!buffers.isEmpty() && !buffers.peek().hasRemaining())
+					pool.release(buffers.poll());
+
+				if (written < batchBytes)
+				{ // the socket's buffer filled up; the rest goes out when it is writable again
+					return false;
+				}
+			}
+			return true;
+		}
+		finally
+		{
+			// wake anyone waiting for the queue to shrink
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Wait until no more than bytes are queued.
+	 *
+	 * @param bytes
+	 * @param timeoutMillis
+	 * @return true if no more than bytes are queued; false if the time ran out first, or the
+	 *         connection was closed.
+	 */
+	synchronized boolean awaitQueuedBytesAtMost(long bytes, long timeoutMillis)
+	{
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		long remaining = timeoutMillis;
+		while (!closed && queuedBytes > bytes && remaining > 0)
+		{
+			try
+			{
+				wait(remaining);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			remaining = deadline - System.currentTimeMillis();
+		}
+		return !closed && queuedBytes <= bytes;
+	}
+
+	/**
+	 * Discard everything queued, releasing it to pool, and refuse anything offered from now on.
+	 *
+	 * @param pool
+	 */
+	synchronized void close(ByteBufferPool pool)
+	{
+		closed = true;
+		for (ByteBuffer buffer : buffers)
+			pool.release(buffer);
+		buffers.clear();
+		queuedBytes = 0;
+		notifyAll();
+	}
+}
@@ -7,13 +7,16 @@ import java.io.IOException;
 import java.net.BindException;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
 import java.nio.channels.SelectionKey;
-import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
-import java.nio.charset.CharsetDecoder;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import ecologylab.collections.Scope;
 import ecologylab.generic.CharBufferPool;
@@ -41,6 +44,12 @@ import ecologylab.serialization.SimplTypesScope;
  * Subclasses should generally override the generateContextManager hook method, so that they can use
  * their own, specific ContextManager in place of the default.
  * 
+ * Only sessions that have requests waiting are processed, and each session by one thread at a time,
+ * so its requests are performed in the order they arrived. By default that is the server's own
+ * message thread, for every session; after useWorkerPool() or setRequestExecutor(), different
+ * sessions are processed in parallel instead, so one slow performService() only holds up its own
+ * client.
+ * 
  * @author Zachary O. Toups (zach@ecologylab.net)
  */
 public class DoubleThreadedNIOServer<S extends Scope> extends AbstractNIOServer<S> implements
@@ -73,23 +82,35 @@ public class DoubleThreadedNIOServer<S extends Scope> extends AbstractNIOServer<
 
 	Thread																													t												= null;
 
-	boolean																													running									= false;
+	volatile boolean																								running									= false;
 
 	/**
-	 * Map in which keys are sessionTokens, and values are associated ClientSessionManagers.
+	 * Map in which keys are sessionTokens, and values are associated ClientSessionManagers. Reading
+	 * threads look sessions up without locking; adding and removing them synchronizes on this map.
 	 */
-	private HashMapArrayList<Object, TCPClientSessionManager>	clientSessionManagerMap	= new HashMapArrayList<Object, TCPClientSessionManager>();
+	private final ConcurrentHashMap<Object, TCPClientSessionManager>	clientSessionManagerMap	= new ConcurrentHashMap<Object, TCPClientSessionManager>();
 
 	/**
 	 * Map in which keys are sessionTokens, and values are associated SessionHandles
 	 */
 	private HashMapArrayList<Object, SessionHandle>									clientSessionHandleMap	= new HashMapArrayList<Object, SessionHandle>();
 
-	private static final Charset																		ENCODED_CHARSET					= Charset
-																																															.forName(CHARACTER_ENCODING);
+	/**
+	 * Sessions that have requests waiting, and are either queued to be processed, or being processed.
+	 * A session is in here at most once, which is what keeps its requests in order.
+	 */
+	private final Set<TCPClientSessionManager<?, ?>>								scheduledSessions				= Collections
+																																															.newSetFromMap(new ConcurrentHashMap<TCPClientSessionManager<?, ?>, Boolean>());
+
+	/**
+	 * Scheduled sessions, in order, for the message thread, when there is no requestExecutor.
+	 */
+	private final Queue<TCPClientSessionManager<?, ?>>							readySessions						= new ConcurrentLinkedQueue<TCPClientSessionManager<?, ?>>();
 
-	private static CharsetDecoder																		DECODER									= ENCODED_CHARSET
-																																															.newDecoder();
+	/**
+	 * Processes scheduled sessions in parallel; null to process them all on the message thread.
+	 */
+	private ExecutorService																					requestExecutor					= null;
 
 	protected int																										maxMessageSize;
 
@@ -174,41 +195,132 @@ public class DoubleThreadedNIOServer<S extends Scope> extends AbstractNIOServer<
 	{
 		if (bytesRead > 0)
 		{
-			synchronized (clientSessionManagerMap)
+			// only the thread that reads sk gets here for sessionToken, so no other creates it meanwhile
+			TCPClientSessionManager cm = clientSessionManagerMap.get(sessionToken);
+
+			if (cm == null)
 			{
-				TCPClientSessionManager cm = clientSessionManagerMap.get(sessionToken);
+				debug("server creating context manager for " + sessionToken);
 
-				if (cm == null)
-				{
-					debug("server creating context manager for " + sessionToken);
+				cm = generateContextManager((String) sessionToken, sk, translationScope,
+						applicationObjectScope);
 
-					cm = generateContextManager((String) sessionToken, sk, translationScope,
-							applicationObjectScope);
+				synchronized (clientSessionManagerMap)
+				{
 					clientSessionManagerMap.put(sessionToken, cm);
 					clientSessionHandleMap.put(sessionToken, cm.getHandle());
 				}
+			}
 
-				try
-				{
-					CharBuffer buf = this.charBufferPool.acquire();
+			// the session parses and deserializes its messages straight from the bytes
+			cm.processIncomingBytesToQueue(bs);
 
-					DECODER.decode(bs, buf, true);
-					buf.flip();
-					cm.processIncomingSequenceBufToQueue(buf);
+			if (cm.isMessageWaiting())
+				schedule(cm);
+		}
+	}
 
-					buf = this.charBufferPool.release(buf);
-				}
-				catch (CharacterCodingException e)
-				{
-					e.printStackTrace();
-				}
-			}
+	/**
+	 * Process the requests of sessions in parallel, on a fixed pool of threads, rather than all on
+	 * the message thread. Must be called before start().
+	 * 
+	 * @param threads
+	 *          the number of sessions that can be processed at once, such as
+	 *          Runtime.getRuntime().availableProcessors().
+	 */
+	public void useWorkerPool(int threads)
+	{
+		setRequestExecutor(Executors.newFixedThreadPool(threads));
+	}
+
+	/**
+	 * Process the requests of sessions in parallel, with requestExecutor, rather than all on the
+	 * message thread. Must be called before start(); the executor is shut down when the server stops.
+	 * 
+	 * Any ExecutorService will do: a fixed pool sized to the cores for CPU bound performService()s,
+	 * or one that starts a thread per task for ones that mostly wait.
+	 * 
+	 * @param requestExecutor
+	 *          the executor to run sessions on, or null to use the message thread.
+	 */
+	public void setRequestExecutor(ExecutorService requestExecutor)
+	{
+		if (running)
+			throw new IllegalStateException("The server is already running.");
+		this.requestExecutor = requestExecutor;
+	}
 
+	/**
+	 * Queue cm to have its requests processed, unless it already is.
+	 * 
+	 * @param cm
+	 */
+	protected void schedule(final TCPClientSessionManager<?, ?> cm)
+	{
+		if (!scheduledSessions.add(cm))
+			return;
+
+		if (requestExecutor == null)
+		{
+			readySessions.offer(cm);
 			synchronized (this)
 			{
 				this.notify();
 			}
 		}
+		else
+		{
+			try
+			{
+				requestExecutor.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						processSession(cm);
+					}
+				});
+			}
+			catch (RejectedExecutionException e)
+			{ // the server is stopping
+				scheduledSessions.remove(cm);
+			}
+		}
+	}
+
+	/**
+	 * Perform all of cm's waiting requests, and send their responses. Then, if more have arrived
+	 * since it stopped looking, schedule it again: the reading thread will not have, as it was still
+	 * scheduled.
+	 * 
+	 * @param cm
+	 */
+	protected void processSession(TCPClientSessionManager<?, ?> cm)
+	{
+		try
+		{
+			cm.processAllMessagesAndSendResponses();
+		}
+		catch (BadClientException e)
+		{
+			// Handle BadClientException! -- remove it
+			error(e.getMessage());
+
+			// invalidate the manager's key
+			this.getBackend().setPendingInvalidate(cm.getSocketKey(), true);
+
+			// remove the manager from the collection
+			synchronized (clientSessionManagerMap)
+			{
+				clientSessionManagerMap.remove(cm.getSessionId());
+			}
+			scheduledSessions.remove(cm);
+			return;
+		}
+
+		scheduledSessions.remove(cm);
+		if (running && cm.isMessageWaiting())
+			schedule(cm);
 	}
 
 	/**
@@ -224,50 +336,30 @@ public class DoubleThreadedNIOServer<S extends Scope> extends AbstractNIOServer<
 	protected TCPClientSessionManager generateContextManager(String sessionId, SelectionKey sk,
 			SimplTypesScope translationScopeIn, Scope registryIn)
 	{
-		return new ClientSessionManager(sessionId, maxMessageSize, this.getBackend(), this, sk,
-				translationScopeIn, registryIn);
+		return new ClientSessionManager(sessionId, maxMessageSize, this.getBackend().reactorFor(sk),
+				this, sk, translationScopeIn, registryIn);
 	}
 
+	/**
+	 * The message thread: processes scheduled sessions, in the order they were scheduled, when there
+	 * is no requestExecutor.
+	 */
 	@Override
 	public void run()
 	{
-		Iterator<TCPClientSessionManager> contextIter;
-
 		while (running)
 		{
-			synchronized (clientSessionManagerMap)
-			{
-				contextIter = clientSessionManagerMap.values().iterator();
-
-				// process all of the messages in the queues
-				while (contextIter.hasNext())
-				{
-					TCPClientSessionManager cm = contextIter.next();
-
-					try
-					{
-						cm.processAllMessagesAndSendResponses();
-					}
-					catch (BadClientException e)
-					{
-						// Handle BadClientException! -- remove it
-						error(e.getMessage());
-
-						// invalidate the manager's key
-						this.getBackend().setPendingInvalidate(cm.getSocketKey(), true);
-
-						// remove the manager from the collection
-						contextIter.remove();
-					}
-				}
-			}
+			TCPClientSessionManager<?, ?> cm;
+			while (running && (cm = readySessions.poll()) != null)
+				processSession(cm);
 
 			// sleep until notified of new messages
 			synchronized (this)
 			{
 				try
 				{
-					wait();
+					if (running && readySessions.isEmpty())
+						wait();
 				}
 				catch (InterruptedException e)
 				{
@@ -286,12 +378,15 @@ public class DoubleThreadedNIOServer<S extends Scope> extends AbstractNIOServer<
 	{
 		running = true;
 
-		if (t == null)
+		if (requestExecutor == null)
 		{
-			t = new Thread(this);
-		}
+			if (t == null)
+			{
+				t = new Thread(this);
+			}
 
-		t.start();
+			t.start();
+		}
 
 		super.start();
 	}
@@ -304,13 +399,14 @@ public class DoubleThreadedNIOServer<S extends Scope> extends AbstractNIOServer<
 	{
 		debug("Server stopping.");
 		running = false;
+		if (requestExecutor != null)
+		{
+			requestExecutor.shutdown();
+		}
 		synchronized (this)
 		{
 			this.notify();
-			synchronized (t)
-			{
-				t = null;
-			}
+			t = null;
 		}
 		super.stop();
 	}
@@ -381,7 +477,7 @@ public class DoubleThreadedNIOServer<S extends Scope> extends AbstractNIOServer<
 	{
 		debug("attempting to restore old session...");
 
-		TCPClientSessionManager oldContextManager;
+		TCPClientSessionManager<?, ?> oldContextManager;
 
 		synchronized (clientSessionManagerMap)
 		{
@@ -394,7 +490,10 @@ public class DoubleThreadedNIOServer<S extends Scope> extends AbstractNIOServer<
 		}
 		else
 		{
-			oldContextManager.setSocket(newContextManager.getSocketKey());
+			if (newContextManager instanceof TCPClientSessionManager)
+				oldContextManager.restoreConnectionFrom((TCPClientSessionManager<?, ?>) newContextManager);
+			else
+				oldContextManager.setSocket(newContextManager.getSocketKey());
 
 			synchronized (clientSessionManagerMap)
 			{
@@ -26,8 +26,9 @@ public abstract class BaseSessionManager<S extends Scope, PARENT extends Scope>
 
 	/**
 	 * Indicates whether or not one or more messages are queued for execution by this ContextManager.
+	 * Set by the thread that reads requests, and read by the one that performs them.
 	 */
-	protected boolean							messageWaiting	= false;
+	protected volatile boolean		messageWaiting	= false;
 
 	/**
 	 * Session handle available to use by clients
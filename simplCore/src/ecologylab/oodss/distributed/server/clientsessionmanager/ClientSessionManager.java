@@ -3,6 +3,7 @@ package ecologylab.oodss.distributed.server.clientsessionmanager;
 import java.nio.channels.SelectionKey;
 
 import ecologylab.collections.Scope;
+import ecologylab.io.ByteBufferAppendable;
 import ecologylab.oodss.distributed.common.ServerConstants;
 import ecologylab.oodss.distributed.impl.NIOServerIOThread;
 import ecologylab.oodss.distributed.server.NIOServerProcessor;
@@ -11,6 +12,7 @@ import ecologylab.oodss.messages.ResponseMessage;
 import ecologylab.oodss.messages.UpdateMessage;
 import ecologylab.serialization.SIMPLTranslationException;
 import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.formatenums.Format;
 import ecologylab.serialization.formatenums.StringFormat;
 
 /**
@@ -160,4 +162,26 @@ public class ClientSessionManager<S extends Scope, PARENT extends Scope> extends
 		SimplTypesScope.serialize(responseMessage, messageBuffer, StringFormat.XML);		
 //		debug("...done ("+(System.currentTimeMillis()-currentTime)+"ms)");
 	}
+
+	/**
+	 * Serializes response in the session's wire format straight into the bytes sent to the client.
+	 * Subclasses that override translateResponseMessageToStringBufferContents() should override this
+	 * too, and supportedWireFormats().
+	 */
+	@Override
+	protected void translateResponseMessageToBytes(RequestMessage requestMessage,
+			ResponseMessage responseMessage, ByteBufferAppendable messageBytes)
+			throws SIMPLTranslationException
+	{
+		this.serializeForWire(responseMessage, messageBytes);
+	}
+
+	/**
+	 * TLV, then JSON: both are much cheaper than XML to write and to read.
+	 */
+	@Override
+	protected Format[] supportedWireFormats()
+	{
+		return new Format[] { Format.TLV, Format.JSON };
+	}
 }
@@ -1,5 +1,6 @@
 package ecologylab.oodss.distributed.server.clientsessionmanager;
 
+import java.io.UnsupportedEncodingException;
 import java.nio.channels.SelectionKey;
 
 import ecologylab.collections.Scope;
@@ -9,6 +10,7 @@ import ecologylab.oodss.distributed.server.NIOServerProcessor;
 import ecologylab.oodss.messages.RequestMessage;
 import ecologylab.oodss.messages.ResponseMessage;
 import ecologylab.oodss.messages.UpdateMessage;
+import ecologylab.serialization.SIMPLTranslationException;
 import ecologylab.serialization.SimplTypesScope;
 
 public abstract class HTTPClientSessionManager<S extends Scope, PARENT extends Scope> extends TCPClientSessionManager<S, PARENT>
@@ -33,6 +35,17 @@ public abstract class HTTPClientSessionManager<S extends Scope, PARENT extends S
 		super(sessionId, maxPacketSize, server, frontend, socket, translationScope, registry);
 	}
 
+	/**
+	 * HTTP requests are all translated from Strings, by translateStringToRequestMessage(), which
+	 * subclasses override.
+	 */
+	@Override
+	protected RequestMessage translateBytesToRequestMessage(byte[] bytes, int offset, int length)
+			throws SIMPLTranslationException, UnsupportedEncodingException
+	{
+		return translateStringToRequestMessage(new String(bytes, offset, length, CHARSET));
+	}
+
 	/**
 	 * @see ecologylab.oodss.distributed.server.clientsessionmanager.ClientSessionManager#clearOutgoingMessageHeaderBuffer(java.lang.StringBuilder)
 	 */
@@ -3,8 +3,11 @@
  */
 package ecologylab.oodss.distributed.server.clientsessionmanager;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
+import java.net.ProtocolException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.channels.SelectionKey;
@@ -17,25 +20,30 @@ import java.util.HashSet;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
 
 import ecologylab.collections.Scope;
-import ecologylab.generic.StringTools;
-import ecologylab.oodss.distributed.common.NetworkingConstants;
+import ecologylab.io.ByteBufferAppendable;
 import ecologylab.oodss.distributed.common.ServerConstants;
 import ecologylab.oodss.distributed.common.SessionObjects;
+import ecologylab.oodss.distributed.impl.MessageFrameDecoder;
 import ecologylab.oodss.distributed.impl.MessageWithMetadata;
 import ecologylab.oodss.distributed.impl.MessageWithMetadataPool;
 import ecologylab.oodss.distributed.impl.NIOServerIOThread;
 import ecologylab.oodss.distributed.server.NIOServerProcessor;
 import ecologylab.oodss.exceptions.BadClientException;
+import ecologylab.oodss.messages.InitConnectionRequest;
+import ecologylab.oodss.messages.InitConnectionResponse;
 import ecologylab.oodss.messages.RequestMessage;
 import ecologylab.oodss.messages.ResponseMessage;
 import ecologylab.oodss.messages.UpdateMessage;
 import ecologylab.serialization.SIMPLTranslationException;
 import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.formatenums.BinaryFormat;
+import ecologylab.serialization.formatenums.Format;
 import ecologylab.serialization.formatenums.StringFormat;
 
 /**
@@ -49,11 +57,14 @@ import ecologylab.serialization.formatenums.StringFormat;
  * Typical usage is to have the context manager's request queue be filled by a network thread, while
  * it is emptied by a working thread.
  * 
- * The normal cycle for filling the queue is to call acquireIncomingSequenceBuf() to clear and get
- * the incomingCharBuffer, then fill it externally (normally passing it as an argument to a
- * CharsetDecoder.decode call), then calling processIncomingSequenceBufToQueue() to release it and
- * let the ContextManager store the characters, converting messages into objects as they become
- * available.
+ * The normal cycle for filling the queue is to pass the bytes read from the client to
+ * processIncomingBytesToQueue(), which stores them, converting messages into objects as they become
+ * available. Outgoing messages are serialized straight into the buffer they are written from.
+ * 
+ * Messages are XML, with HTTP-like headers, until the client asks for another wire format in its
+ * InitConnectionRequest. If the session supports it (see supportedWireFormats()), it says so in the
+ * InitConnectionResponse, which is the last message sent in XML; both sides then send binary frames
+ * (see MessageFrameDecoder) holding messages in that format.
  * 
  * For a complete, basic implementation (which is suitable for most uses), see
  * {@link ecologylab.oodss.distributed.server.clientsessionmanager.ClientSessionManager
@@ -70,7 +81,11 @@ public abstract class TCPClientSessionManager<S extends Scope, PARENT extends Sc
 	 */
 	protected final HashMap<String, String>															headerMap									= new HashMap<String, String>();
 
-	protected int																												startReadIndex						= 0;
+	/**
+	 * Bytes left in front of each outgoing message's body, for its header, which is written once the
+	 * length of the body is known.
+	 */
+	protected static final int																					RESERVED_HEADER_BYTES			= 128;
 
 	/** Stores outgoing header character data. */
 	protected final StringBuilder																				headerBufOutgoing					= new StringBuilder(
@@ -96,50 +111,36 @@ public abstract class TCPClientSessionManager<S extends Scope, PARENT extends Sc
 	protected SimplTypesScope																					translationScope;
 
 	/**
-	 * stores the sequence of characters read from the header of an incoming message, may need to
-	 * persist across read calls, as the entire header may not be sent at once.
+	 * Splits incoming bytes into messages, loading their headers into headerMap and startLine.
 	 */
-	private final StringBuilder																					currentHeaderSequence			= new StringBuilder();
+	private final MessageFrameDecoder																		frameDecoder;
 
 	/**
-	 * stores the sequence of characters read from the header of an incoming message and identified as
-	 * being a key for a header entry; may need to persist across read calls.
+	 * Serializes outgoing messages into the buffer they are written from.
 	 */
-	private final StringBuilder																					currentKeyHeaderSequence	= new StringBuilder();
+	private final ByteBufferAppendable																	outgoingBytes							= new ByteBufferAppendable();
 
 	/**
-	 * Tracks the number of bad transmissions from the client; used for determining if a client is
-	 * bad.
+	 * The format of messages to and from the client, once the InitConnectionResponse has been sent.
 	 */
-	private int																													badTransmissionCount;
-
-	private int																													endOfFirstHeader					= -1;
+	private Format																											wireFormat								= Format.XML;
 
 	/**
-	 * Counts how many characters still need to be extracted from the incomingMessageBuffer before
-	 * they can be turned into a message (based upon the HTTP header). A value of -1 means that there
-	 * is not yet a complete header, so no length has been determined (yet).
+	 * The old session that took over this one's connection, if the client asked to restore it.
 	 */
-	private int																													contentLengthRemaining		= -1;
+	private TCPClientSessionManager<?, ?>																restoredSession;
 
 	/**
-	 * Specifies whether or not the current message uses compression.
+	 * Tracks the number of bad transmissions from the client; used for determining if a client is
+	 * bad.
 	 */
-	private String																											contentEncoding						= "identity";
+	private int																													badTransmissionCount;
 
 	/**
 	 * Set of encoding schemes that the client supports
 	 */
 	private Set<String>																									availableEncodings				= new HashSet<String>();
 
-	/**
-	 * Stores the first XML message from the incomingMessageBuffer, or parts of it (if it is being
-	 * read over several invocations).
-	 */
-	private StringBuilder																								persistentMessageBuffer		= null;
-
-	private long																												contentUid								= -1;
-
 	private Inflater																										inflater									= new Inflater();
 
 	private Deflater																										deflater									= new Deflater();
@@ -164,6 +165,27 @@ public abstract class TCPClientSessionManager<S extends Scope, PARENT extends Sc
 
 	private static final String																					GET_PREFIX								= "GET ";
 
+	/**
+	 * Bytes waiting to be written to the client at which its updates start being held back; 0 never
+	 * holds them back.
+	 */
+	private volatile int																								updateHighWatermark				= 0;
+
+	/**
+	 * Bytes waiting to be written to the client at or below which held back updates are sent again.
+	 */
+	private volatile int																								updateLowWatermark				= 0;
+
+	/**
+	 * How long a thread sending an update that is held back waits for the client to catch up, before
+	 * dropping it.
+	 */
+	private volatile long																								updateMaxWaitMillis				= 0;
+
+	private volatile boolean																						updatesHeldBack						= false;
+
+	private final AtomicInteger																					droppedUpdates						= new AtomicInteger();
+
 	/**
 	 * Creates a new ContextManager.
 	 * 
@@ -191,6 +213,8 @@ public abstract class TCPClientSessionManager<S extends Scope, PARENT extends Sc
 
 		this.maxMessageSize = maxMessageSizeIn;
 
+		this.frameDecoder = new MessageFrameDecoder(maxMessageSize, headerMap, startLine);
+
 		this.handle = new SessionHandle(this);
 		this.localScope.put(SessionObjects.SESSION_HANDLE, this.handle);
 
@@ -198,257 +222,130 @@ public abstract class TCPClientSessionManager<S extends Scope, PARENT extends Sc
 	}
 
 	/**
-	 * Extracts messages from the given CharBuffer, using HTTP-like headers, converting them into
+	 * Extracts messages from the given bytes, using HTTP-like headers, converting them into
 	 * RequestMessage instances, then enqueues those instances.
 	 * 
-	 * enqueueStringMessage will normally be called repeatedly, as new data comes in from a client. It
-	 * will automatically parse messages that are split up over multiple reads, and will handle
-	 * multiple messages in one read, if necessary.
+	 * processIncomingBytesToQueue will normally be called repeatedly, as new data comes in from a
+	 * client. It will automatically parse messages that are split up over multiple reads, and will
+	 * handle multiple messages in one read, if necessary. Headers are parsed, and bodies
+	 * deserialized, straight from the bytes, without decoding them into characters first.
 	 * 
-	 * @param message
-	 *          the CharBuffer containing one or more messages, or pieces of messages.
+	 * @param incomingBytes
+	 *          one or more messages, or pieces of messages, from its position to its limit.
 	 */
-	public synchronized final void processIncomingSequenceBufToQueue(CharBuffer incomingSequenceBuf)
-			throws CharacterCodingException, BadClientException
+	public synchronized final void processIncomingBytesToQueue(ByteBuffer incomingBytes)
+			throws BadClientException
 	{
-		// debug("incoming: " + incomingSequenceBuf);
-
-		StringBuilder msgBufIncoming = this.frontend.getSharedStringBuilderPool().acquire();
-
-		msgBufIncoming.append(incomingSequenceBuf);
+		frameDecoder.append(incomingBytes);
 
 		try
 		{
-			// look for HTTP header
-			while (msgBufIncoming.length() > 0)
+			while (frameDecoder.nextFrame())
 			{
-				if (endOfFirstHeader == -1)
+				try
 				{
-					endOfFirstHeader = this.parseHeader(startReadIndex, msgBufIncoming);
-				}
-
-				if (endOfFirstHeader == -1)
-				{ /*
-					 * no header yet; if it's too large, bad client; if it's not too large yet, just exit,
-					 * it'll get checked again when more data comes down the pipe
-					 */
-					if (msgBufIncoming.length() > NetworkingConstants.MAX_HTTP_HEADER_LENGTH)
+					String encodings = this.headerMap.get(HTTP_ACCEPT_ENCODING);
+					if (encodings != null)
 					{
-						// clear the buffer
-						BadClientException e = new BadClientException(
-								((SocketChannel) this.socketKey.channel()).socket().getInetAddress()
-										.getHostAddress(), "Maximum HTTP header length exceeded. Read "
-										+ msgBufIncoming.length() + "/" + MAX_HTTP_HEADER_LENGTH);
-
-						msgBufIncoming.setLength(0);
-
-						throw e;
-					}
-
-					// next time around, start reading from where we left off this
-					// time
-					startReadIndex = msgBufIncoming.length();
-
-					break;
-				}
-				else
-				{ // we've read all of the header, and have it loaded into
-					// the map;
-					// now we can use it
-					if (contentLengthRemaining == -1)
-					{
-						try
+						for (String encoding : encodings.split(","))
 						{
-							// handle all header information here; delete it when
-							// done
-							// here
-							String contentLengthString = this.headerMap.get(CONTENT_LENGTH_STRING);
-							contentLengthRemaining = (contentLengthString != null) ? Integer
-									.parseInt(contentLengthString) : 0;
-
-							String uidString = this.headerMap.get(UNIQUE_IDENTIFIER_STRING);
-							contentUid = (uidString != null) ? Long.parseLong(uidString) : 0;
-
-							this.contentEncoding = this.headerMap.get(HTTP_CONTENT_CODING);
-
-							String encodings = this.headerMap.get(HTTP_ACCEPT_ENCODING);
-							if (encodings != null)
-							{
-								String[] encodingList = encodings.split(",");
-
-								for (String encoding : encodingList)
-								{
-									this.availableEncodings.add(encoding);
-								}
-							}
-
-							// done with the header text; delete it; header values
-							// will
-							// be retained for later processing by subclasses
-							msgBufIncoming.delete(0, endOfFirstHeader);
+							this.availableEncodings.add(encoding);
 						}
-						catch (NumberFormatException e)
-						{
-							e.printStackTrace();
-							contentLengthRemaining = -1;
-						}
-						// next time we read the header (the next message), we need
-						// to
-						// start from the beginning
-						startReadIndex = 0;
-					}
-				}
-
-				/*
-				 * we have the end of the header (otherwise we would have broken out earlier). If we don't
-				 * have the content length, something bad happened, because it should have been read.
-				 */
-				if (contentLengthRemaining == -1)
-				{
-					/*
-					 * if we still don't have the remaining length, then there was a problem
-					 */
-					break;
-				}
-				else if (contentLengthRemaining > maxMessageSize)
-				{
-					throw new BadClientException(((SocketChannel) this.socketKey.channel()).socket()
-							.getInetAddress().getHostAddress(), "Specified content length too large: "
-							+ contentLengthRemaining);
-				}
-
-				try
-				{
-					// see if the incoming buffer has enough characters to
-					// include the specified content length
-					if (persistentMessageBuffer == null)
-					{
-						persistentMessageBuffer = this.frontend.getSharedStringBuilderPool().acquire();
 					}
-					if (msgBufIncoming.length() >= contentLengthRemaining)
-					{
-						persistentMessageBuffer.append(msgBufIncoming.substring(0, contentLengthRemaining));
 
-						msgBufIncoming.delete(0, contentLengthRemaining);
+					String contentEncoding = frameDecoder.deflated() ? HTTP_DEFLATE_ENCODING : this.headerMap
+							.get(HTTP_CONTENT_CODING);
 
-						// reset to do a new read on the next invocation
-						contentLengthRemaining = -1;
-						endOfFirstHeader = -1;
-					}
-					else
+					if (contentEncoding == null || contentEncoding.equals("identity"))
 					{
-						persistentMessageBuffer.append(msgBufIncoming);
-
-						// indicate that we need to get more from the buffer in
-						// the next invocation
-						contentLengthRemaining -= msgBufIncoming.length();
-
-						msgBufIncoming.setLength(0);
+						processBytes(frameDecoder.bodyArray(), frameDecoder.bodyOffset(),
+								frameDecoder.bodyLength(), frameDecoder.uid());
 					}
-				}
-				catch (NullPointerException e)
-				{
-					e.printStackTrace();
-				}
-
-				if ((contentLengthRemaining == -1))
-				{ /*
-					 * if we've read a complete message, then contentLengthRemaining will be reset to -1
-					 */
-					try
+					else if (contentEncoding.equals(HTTP_DEFLATE_ENCODING))
 					{
-						if (this.contentEncoding == null || this.contentEncoding.equals("identity"))
+						ByteBuffer inflated = this.frontend.getSharedByteBufferPool().acquire();
+						try
 						{
-							processString(persistentMessageBuffer, contentUid);
+							this.unCompress(frameDecoder.bodyArray(), frameDecoder.bodyOffset(),
+									frameDecoder.bodyLength(), inflated);
+							processBytes(inflated.array(), 0, inflated.position(), frameDecoder.uid());
 						}
-						else if (contentEncoding.equals(HTTP_DEFLATE_ENCODING))
+						catch (DataFormatException e)
 						{
-							try
-							{
-								processString(this.unCompress(persistentMessageBuffer), contentUid);
-							}
-							catch (DataFormatException e)
-							{
-								throw new BadClientException(((SocketChannel) this.socketKey.channel()).socket()
-										.getInetAddress().getHostAddress(), "Content was not encoded properly: "
-										+ e.getMessage());
-							}
+							throw new BadClientException(clientAddress(), "Content was not encoded properly: "
+									+ e.getMessage());
 						}
-						else
+						finally
 						{
-							throw new BadClientException(((SocketChannel) this.socketKey.channel()).socket()
-									.getInetAddress().getHostAddress(), "Content encoding: " + contentEncoding
-									+ " not supported!");
+							this.frontend.getSharedByteBufferPool().release(inflated);
 						}
 					}
-					finally
+					else
 					{
-						// clean up: clear the message buffer and the header values
-						this.frontend.getSharedStringBuilderPool().release(persistentMessageBuffer);
-						persistentMessageBuffer = null;
-
-						this.headerMap.clear();
-						StringTools.clear(this.startLine);
+						throw new BadClientException(clientAddress(), "Content encoding: " + contentEncoding
+								+ " not supported!");
 					}
 				}
+				finally
+				{
+					// clears the header values, too
+					frameDecoder.consumeFrame();
+				}
 			}
 		}
-		finally
+		catch (ProtocolException e)
 		{
-			this.frontend.getSharedStringBuilderPool().release(msgBufIncoming);
+			throw new BadClientException(clientAddress(), e.getMessage());
 		}
 	}
 
-	private CharSequence unCompress(StringBuilder firstMessageBuffer)
-			throws CharacterCodingException, DataFormatException
+	/**
+	 * Like processIncomingBytesToQueue(ByteBuffer), for characters that have already been decoded
+	 * from the bytes read.
+	 * 
+	 * @param incomingSequenceBuf
+	 *          the CharBuffer containing one or more messages, or pieces of messages.
+	 */
+	public synchronized final void processIncomingSequenceBufToQueue(CharBuffer incomingSequenceBuf)
+			throws CharacterCodingException, BadClientException
 	{
-		CharBuffer zippingChars = this.frontend.getSharedCharBufferPool().acquire();
-		ByteBuffer zippingInBytes = this.frontend.getSharedByteBufferPool().acquire();
-
-		zippingChars.clear();
-
-		firstMessageBuffer.getChars(0, firstMessageBuffer.length(), zippingChars.array(), 0);
-		zippingChars.position(0);
-		zippingChars.limit(firstMessageBuffer.length());
+		ByteBuffer incomingBytes = this.frontend.getSharedByteBufferPool().acquire();
 
-		zippingInBytes.clear();
-
-		encoder.reset();
-		encoder.encode(zippingChars, zippingInBytes, true);
-		encoder.flush(zippingInBytes);
+		try
+		{
+			encoder.reset();
+			encoder.encode(incomingSequenceBuf, incomingBytes, true);
+			encoder.flush(incomingBytes);
+			incomingBytes.flip();
 
-		zippingInBytes.flip();
+			processIncomingBytesToQueue(incomingBytes);
+		}
+		finally
+		{
+			this.frontend.getSharedByteBufferPool().release(incomingBytes);
+		}
+	}
 
+	/**
+	 * Inflate length bytes of src, from offset, into dest, from its position.
+	 */
+	private void unCompress(byte[] src, int offset, int length, ByteBuffer dest)
+			throws DataFormatException
+	{
 		inflater.reset();
-		inflater.setInput(zippingInBytes.array(), zippingInBytes.position(), zippingInBytes.limit());
-
-		ByteBuffer zippingOutBytes = this.frontend.getSharedByteBufferPool().acquire();
-
-		zippingOutBytes.clear();
-		inflater.inflate(zippingOutBytes.array(), zippingOutBytes.position(), zippingOutBytes.limit());
-
-		zippingOutBytes.position(0);
-		zippingOutBytes.limit(inflater.getTotalOut());
-		this.frontend.getSharedByteBufferPool().release(zippingInBytes);
-
-		zippingChars.clear();
-
-		decoder.reset();
-		decoder.decode(zippingOutBytes, zippingChars, true);
-		decoder.flush(zippingChars);
-
-		this.frontend.getSharedByteBufferPool().release(zippingOutBytes);
-
-		zippingChars.flip();
+		inflater.setInput(src, offset, length);
 
-		firstMessageBuffer.setLength(0);
-
-		firstMessageBuffer.append(zippingChars.array(), 0, zippingChars.limit());
-
-		this.frontend.getSharedCharBufferPool().release(zippingChars);
+		dest.position(dest.position()
+				+ inflater.inflate(dest.array(), dest.position(), dest.remaining()));
 
-		return firstMessageBuffer;
+		if (!inflater.finished())
+			throw new DataFormatException("inflated content is incomplete, or larger than "
+					+ dest.capacity() + " bytes");
+	}
 
+	private String clientAddress()
+	{
+		return ((SocketChannel) this.socketKey.channel()).socket().getInetAddress().getHostAddress();
 	}
 
 	/**
@@ -484,6 +381,88 @@ public abstract class TCPClientSessionManager<S extends Scope, PARENT extends Sc
 		this.socketKey.attach(sessionId);
 	}
 
+	/**
+	 * Take over the connection of newSession, whose client asked to restore this session. What was
+	 * read from the old connection is discarded, and messages are XML again, until newSession has
+	 * answered the client's InitConnectionRequest.
+	 * 
+	 * @param newSession
+	 */
+	public void restoreConnectionFrom(TCPClientSessionManager<?, ?> newSession)
+	{
+		synchronized (this)
+		{
+			this.setSocket(newSession.getSocketKey());
+			this.frameDecoder.clear();
+			this.wireFormat = Format.XML;
+		}
+		newSession.restoredSession = this;
+	}
+
+	/**
+	 * @return the format of messages to and from the client.
+	 */
+	public synchronized Format getWireFormat()
+	{
+		return wireFormat;
+	}
+
+	/**
+	 * The wire formats this session can use, other than XML, which it always can. Clients that list
+	 * one of them in their InitConnectionRequest are answered with it, and switched to it.
+	 * 
+	 * This implementation returns none, since translateResponseMessageToStringBufferContents()
+	 * produces XML. Subclasses that serialize with serializeForWire() may return any of JSON and TLV.
+	 * 
+	 * @return the wire formats supported, besides XML.
+	 */
+	protected Format[] supportedWireFormats()
+	{
+		return new Format[0];
+	}
+
+	/**
+	 * @param request
+	 * @return the first of the wire formats listed by request that this session supports, or XML.
+	 */
+	private Format negotiateWireFormat(InitConnectionRequest request)
+	{
+		Format[] supported = this.supportedWireFormats();
+		for (Format requested : request.getWireFormats())
+		{
+			if (requested == Format.XML)
+				return Format.XML;
+
+			for (Format format : supported)
+				if (format == requested)
+					return format;
+		}
+		return Format.XML;
+	}
+
+	/**
+	 * Serialize message in the session's wire format, straight into the buffer it is written from.
+	 * 
+	 * @param message
+	 * @param messageBytes
+	 * @throws SIMPLTranslationException
+	 */
+	protected void serializeForWire(Object message, ByteBufferAppendable messageBytes)
+			throws SIMPLTranslationException
+	{
+		switch (wireFormat)
+		{
+		case TLV:
+			SimplTypesScope.serialize(message, messageBytes, Format.TLV);
+			break;
+		case JSON:
+			SimplTypesScope.serialize(message, messageBytes, StringFormat.JSON);
+			break;
+		default:
+			SimplTypesScope.serialize(message, messageBytes, StringFormat.XML);
+		}
+	}
+
 	protected abstract void clearOutgoingMessageBuffer(StringBuilder outgoingMessageBuf);
 
 	protected abstract void clearOutgoingMessageHeaderBuffer(StringBuilder outgoingMessageHeaderBuf);
@@ -494,107 +473,92 @@ public abstract class TCPClientSessionManager<S extends Scope, PARENT extends Sc
 	protected abstract void makeUpdateHeader(int messageSize, StringBuilder headerBufOutgoing,
 			UpdateMessage<?> update);
 
+	protected abstract void prepareBuffers(StringBuilder outgoingMessageHeaderBuf);
+
+	protected abstract void translateResponseMessageToStringBufferContents(
+			RequestMessage requestMessage, ResponseMessage responseMessage, StringBuilder messageBuffer)
+			throws SIMPLTranslationException;
+
 	/**
-	 * Parses the header of an incoming set of characters (i.e. a message from a client to a server),
-	 * loading all of the HTTP-like headers into the given headerMap.
+	 * Translates responseMessage into the bytes that are sent to the client.
 	 * 
-	 * If headerMap is null, this method will throw a null pointer exception.
+	 * This implementation appends what translateResponseMessageToStringBufferContents() produces.
+	 * Subclasses that can serialize straight into messageBytes should override it to do so.
 	 * 
-	 * @param allIncomingChars
-	 *          - the characters read from an incoming stream.
-	 * @param headerMap
-	 *          - the map into which all of the parsed headers will be placed.
-	 * @return the length of the parsed header, or -1 if it was not yet found.
+	 * @param requestMessage
+	 * @param responseMessage
+	 * @param messageBytes
+	 *          appends to the buffer the message is written from.
+	 * @throws SIMPLTranslationException
 	 */
-	protected int parseHeader(int startChar, StringBuilder allIncomingChars)
+	protected void translateResponseMessageToBytes(RequestMessage requestMessage,
+			ResponseMessage responseMessage, ByteBufferAppendable messageBytes)
+			throws SIMPLTranslationException
 	{
-		// indicates that we might be at the end of the header
-		boolean maybeEndSequence = false;
-
-		// true if the start line has been found, or if a key has been found
-		// instead
-		boolean noMoreStartLine = false;
-
-		char currentChar;
+		StringBuilder msgBufOutgoing = this.frontend.getSharedStringBuilderPool().acquire();
 
-		synchronized (currentHeaderSequence)
+		try
 		{
-			StringTools.clear(currentHeaderSequence);
-			StringTools.clear(currentKeyHeaderSequence);
-
-			int length = allIncomingChars.length();
-
-			for (int i = 0; i < length; i++)
-			{
-				currentChar = allIncomingChars.charAt(i);
-
-				switch (currentChar)
-				{
-				case (':'):
-					/*
-					 * we have the end of a key; move the currentHeaderSequence into the
-					 * currentKeyHeaderSequence and clear it
-					 */
-					currentKeyHeaderSequence.append(currentHeaderSequence);
-
-					StringTools.clear(currentHeaderSequence);
-
-					noMoreStartLine = true;
-
-					break;
-				case ('\r'):
-					/*
-					 * we have the end of a line; if there's a CRLF, then we have the end of the value
-					 * sequence or the end of the header.
-					 */
-					if (allIncomingChars.charAt(i + 1) == '\n')
-					{
-						if (!maybeEndSequence)
-						{
-							if (noMoreStartLine)
-							{ // load the key/value pair
-								headerMap.put(currentKeyHeaderSequence.toString().toLowerCase(),
-										currentHeaderSequence.toString().trim());
-							}
-							else
-							{ // we potentially have data w/o a key-value pair; this
-								// is the start-line of an HTTP header
-								StringTools.clear(startLine);
-								this.startLine.append(currentHeaderSequence);
-
-								noMoreStartLine = true;
-							}
-
-							StringTools.clear(currentKeyHeaderSequence);
-							StringTools.clear(currentHeaderSequence);
-
-							i++; // so we don't re-read that last character
-						}
-						else
-						{ // end of the header
-							return i + 2;
-						}
-
-						maybeEndSequence = true;
-					}
-					break;
-				default:
-					currentHeaderSequence.append(currentChar);
-					maybeEndSequence = false;
-					break;
-				}
-			}
+			this.translateResponseMessageToStringBufferContents(requestMessage, responseMessage,
+					msgBufOutgoing);
+			messageBytes.append(msgBufOutgoing);
+			this.clearOutgoingMessageBuffer(msgBufOutgoing);
+		}
+		catch (IOException e)
+		{
+			throw new SIMPLTranslationException("response does not fit in the outgoing buffer", e);
+		}
+		finally
+		{
+			this.frontend.getSharedStringBuilderPool().release(msgBufOutgoing);
+		}
+	}
 
-			// if we got here, we didn't finish the header
-			return -1;
+	/**
+	 * Translates the bytes of an incoming message into a RequestMessage object.
+	 * 
+	 * This implementation deserializes OODSS requests straight from the bytes, with
+	 * translateOODSSRequest(byte[], int, int); others, such as GET and POST requests, are decoded and
+	 * passed to translateStringToRequestMessage(CharSequence). ContextManagers that override the
+	 * translation of Strings for OODSS requests should override this to call it.
+	 * 
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return the RequestMessage created by translating the bytes into an object.
+	 * @throws SIMPLTranslationException
+	 * @throws UnsupportedEncodingException
+	 */
+	protected RequestMessage translateBytesToRequestMessage(byte[] bytes, int offset, int length)
+			throws SIMPLTranslationException, UnsupportedEncodingException
+	{
+		if (this.startLine.length() == 0)
+		{ // normal case
+			return translateOODSSRequest(bytes, offset, length);
 		}
+		return translateStringToRequestMessage(new String(bytes, offset, length, CHARSET));
 	}
 
-	protected abstract void prepareBuffers(StringBuilder outgoingMessageHeaderBuf);
+	/**
+	 * Translates the bytes of an incoming OODSS request message (not a GET or POST request), which
+	 * are in the session's wire format.
+	 * 
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return The request message contained in the message.
+	 * @throws SIMPLTranslationException
+	 */
+	protected RequestMessage translateOODSSRequest(byte[] bytes, int offset, int length)
+			throws SIMPLTranslationException
+	{
+		if (wireFormat == Format.TLV)
+			return (RequestMessage) translationScope.deserialize(ByteBuffer.wrap(bytes, offset, length),
+					BinaryFormat.TLV);
 
-	protected abstract void translateResponseMessageToStringBufferContents(
-			RequestMessage requestMessage, ResponseMessage responseMessage, StringBuilder messageBuffer)
-			throws SIMPLTranslationException;
+		return (RequestMessage) translationScope.deserialize(new ByteArrayInputStream(bytes, offset,
+				length), wireFormat, CHARSET);
+	}
 
 	/**
 	 * Translates the given XML String into a RequestMessage object.
@@ -717,11 +681,18 @@ public abstract class TCPClientSessionManager<S extends Scope, PARENT extends Sc
 	 * If enqueueRequest(RequestMessage) is overridden, the following methods should also be
 	 * overridden: isMessageWaiting(), getNextRequest().
 	 * 
+	 * messageWaiting is set while holding requestQueue's lock, as getNextRequest() clears it, so that
+	 * it is never left false with a request in the queue.
+	 * 
 	 * @param request
 	 */
 	protected void enqueueRequest(MessageWithMetadata<RequestMessage, Object> request)
 	{
-		messageWaiting = this.requestQueue.offer(request);
+		synchronized (requestQueue)
+		{
+			if (this.requestQueue.offer(request))
+				messageWaiting = true;
+		}
 	}
 
 	/**
@@ -737,15 +708,12 @@ public abstract class TCPClientSessionManager<S extends Scope, PARENT extends Sc
 	{
 		synchronized (requestQueue)
 		{
-			int queueSize = requestQueue.size();
+			// null if none left, or the next Request otherwise
+			MessageWithMetadata<RequestMessage, Object> request = requestQueue.poll();
 
-			if (queueSize == 1)
-			{
-				messageWaiting = false;
-			}
+			messageWaiting = !requestQueue.isEmpty();
 
-			// return null if none left, or the next Request otherwise
-			return requestQueue.poll();
+			return request;
 		}
 	}
 
@@ -774,10 +742,19 @@ public abstract class TCPClientSessionManager<S extends Scope, PARENT extends Sc
 	{
 		RequestMessage request = requestWithMetadata.getMessage();
 
+		Format negotiatedFormat = null;
+		if (!this.isInitialized() && request instanceof InitConnectionRequest)
+			negotiatedFormat = this.negotiateWireFormat((InitConnectionRequest) request);
+
 		ResponseMessage response = super.processRequest(request, ((SocketChannel) this.socketKey
 				.channel()).socket().getInetAddress());
 
-		if (response != null)
+		if (negotiatedFormat != null && response instanceof InitConnectionResponse)
+		{
+			switchWireFormat(requestWithMetadata, (InitConnectionResponse) response, request,
+					negotiatedFormat);
+		}
+		else if (response != null)
 		{ // if the response is null, then we do
 			// nothing else
 			sendResponseToClient(requestWithMetadata, response, request);
@@ -792,108 +769,66 @@ public abstract class TCPClientSessionManager<S extends Scope, PARENT extends Sc
 		return response;
 	}
 
-	private synchronized void sendResponseToClient(
-			MessageWithMetadata<RequestMessage, Object> requestWithMetadata, ResponseMessage response,
-			RequestMessage request)
+	/**
+	 * Answer the client's InitConnectionRequest with response, naming format, in XML; and switch the
+	 * session that now owns the connection to format, so that the next message read, and the next
+	 * sent, are binary frames, unless format is XML. Holding that session's lock throughout keeps any
+	 * update from being sent in between.
+	 */
+	private void switchWireFormat(MessageWithMetadata<RequestMessage, Object> requestWithMetadata,
+			InitConnectionResponse response, RequestMessage request, Format format)
 	{
+		if (((InitConnectionRequest) request).getWireFormats().length > 0)
+			response.setWireFormat(format);
 
-		StringBuilder msgBufOutgoing = this.frontend.getSharedStringBuilderPool().acquire();
-
-		try
+		TCPClientSessionManager<?, ?> session = this.restoredSession == null ? this
+				: this.restoredSession;
+		synchronized (session)
 		{
-			// setup outgoingMessageBuffer
-			this.translateResponseMessageToStringBufferContents(request, response, msgBufOutgoing);
-		}
-		catch (SIMPLTranslationException e1)
-		{
-			e1.printStackTrace();
+			session.frameDecoder.setBinaryFrames(format != Format.XML);
+			this.sendResponseToClient(requestWithMetadata, response, request);
+			session.wireFormat = format;
 		}
+	}
+
+	private synchronized void sendResponseToClient(
+			MessageWithMetadata<RequestMessage, Object> requestWithMetadata, ResponseMessage response,
+			RequestMessage request)
+	{
+		ByteBuffer outgoingBuffer = this.server.acquireByteBufferFromPool();
 
 		try
 		{
-			ByteBuffer compressedMessageBuffer = null;
-			CharBuffer outgoingChars = this.frontend.getSharedCharBufferPool().acquire();
+			// leave room for the header, which is written once the body's length is known
+			outgoingBuffer.position(RESERVED_HEADER_BYTES);
+			this.translateResponseMessageToBytes(request, response, outgoingBytes
+					.setBuffer(outgoingBuffer));
 
 			boolean usingCompression = this.availableEncodings.contains(HTTP_DEFLATE_ENCODING);
-			/*
-			 * If Compressing must know the length of the data being sent so must compress here
-			 */
 			if (usingCompression)
-			{
-				compressedMessageBuffer = this.frontend.getSharedByteBufferPool().acquire();
-				compressedMessageBuffer.clear();
-				this.compress(msgBufOutgoing, compressedMessageBuffer);
-				compressedMessageBuffer.flip();
-				this.clearOutgoingMessageBuffer(msgBufOutgoing);
-			}
-
-			this.clearOutgoingMessageHeaderBuffer(headerBufOutgoing);
-
-			// setup outgoingMessageHeaderBuffer
-			this.createHeader((usingCompression) ? compressedMessageBuffer.limit() : msgBufOutgoing
-					.length(), headerBufOutgoing, request, response, requestWithMetadata.getUid());
-
-			if (usingCompression)
-			{
-				headerBufOutgoing.append(HTTP_HEADER_LINE_DELIMITER);
-				headerBufOutgoing.append(HTTP_CONTENT_CODING);
-				headerBufOutgoing.append(":");
-				headerBufOutgoing.append(HTTP_DEFLATE_ENCODING);
-			}
-
-			headerBufOutgoing.append(HTTP_HEADER_TERMINATOR);
+				outgoingBuffer = this.compress(outgoingBuffer);
 
-			// move the characters from the outgoing buffers into
-			// outgoingChars using bulk get and put methods
-			outgoingChars.clear();
-
-			headerBufOutgoing.getChars(0, headerBufOutgoing.length(), outgoingChars.array(), 0);
-
-			if (!usingCompression)
+			if (wireFormat != Format.XML)
 			{
-				// assert that the size of the message is smaller than the buffer.
-				// if not, increase the buffer.
-				if (msgBufOutgoing.length() + headerBufOutgoing.length() > outgoingChars.capacity())
-				{
-					int newCapacity = outgoingChars.capacity()*2;
-					this.frontend.increaseSharedBufferPoolSize(newCapacity);
-					outgoingChars = this.frontend.getSharedCharBufferPool().acquire();
-				}
-				
-				msgBufOutgoing.getChars(0, msgBufOutgoing.length(), outgoingChars.array(),
-						headerBufOutgoing.length());
-
-				outgoingChars.limit(headerBufOutgoing.length() + msgBufOutgoing.length());
-
-				this.clearOutgoingMessageBuffer(msgBufOutgoing);
+				this.enqueueWithBinaryHeader(outgoingBuffer, requestWithMetadata.getUid(),
+						usingCompression);
 			}
 			else
 			{
-				outgoingChars.limit(headerBufOutgoing.length());
-			}
-
-			outgoingChars.position(0);
-
-			ByteBuffer outgoingBuffer = this.server.acquireByteBufferFromPool();
-
-			synchronized (encoder)
-			{
-				encoder.reset();
+				this.clearOutgoingMessageHeaderBuffer(headerBufOutgoing);
 
-				encoder.encode(outgoingChars, outgoingBuffer, true);
+				// setup outgoingMessageHeaderBuffer
+				this.createHeader(outgoingBuffer.position() - RESERVED_HEADER_BYTES, headerBufOutgoing,
+						request, response, requestWithMetadata.getUid());
 
-				encoder.flush(outgoingBuffer);
+				this.enqueueWithHeader(outgoingBuffer, usingCompression);
 			}
-
-			this.frontend.getSharedCharBufferPool().release(outgoingChars);
-
-			if (usingCompression)
-			{
-				outgoingBuffer.put(compressedMessageBuffer);
-				this.frontend.getSharedByteBufferPool().release(compressedMessageBuffer);
-			}
-
-			server.enqueueBytesForWriting(this.socketKey, outgoingBuffer);
+			outgoingBuffer = null;
+		}
+		catch (SIMPLTranslationException e)
+		{
+			debug("Failed to translate response!");
+			e.printStackTrace();
 		}
 		catch (DataFormatException e)
 		{
@@ -902,108 +837,128 @@ public abstract class TCPClientSessionManager<S extends Scope, PARENT extends Sc
 		}
 		finally
 		{
-			this.frontend.getSharedStringBuilderPool().release(msgBufOutgoing);
+			outgoingBytes.setBuffer(null);
+			if (outgoingBuffer != null)
+				this.server.releaseByteBufferToPool(outgoingBuffer);
 		}
-
-		// debug("...done ("+(System.currentTimeMillis()-currentTime)+"ms)");
 	}
 
+	/**
+	 * Sends update to the client, unless too many bytes are already waiting to be written to it (see
+	 * setUpdateWatermarks()), in which case it is dropped.
+	 * 
+	 * @see ecologylab.oodss.distributed.server.clientsessionmanager.BaseSessionManager#sendUpdateToClient(ecologylab.oodss.messages.UpdateMessage)
+	 */
 	@Override
-	public synchronized void sendUpdateToClient(UpdateMessage<?> update)
+	public void sendUpdateToClient(UpdateMessage<?> update)
 	{
-		StringBuilder msgBufOutgoing = this.frontend.getSharedStringBuilderPool().acquire();
-
 		if (this.isInvalidating())
 		{
 			return;
 		}
-		try
-		{
-			// setup outgoingMessageBuffer
-			SimplTypesScope.serialize(update, msgBufOutgoing, StringFormat.XML);
-		}
-		catch (SIMPLTranslationException e1)
+
+		// wait, if at all, before taking this's lock, which the reading thread also needs
+		if (updateHighWatermark > 0 && !makeRoomForUpdate())
 		{
-			e1.printStackTrace();
+			droppedUpdates.incrementAndGet();
+			return;
 		}
 
-		try
-		{
-			ByteBuffer compressedMessageBuffer = null;
-			CharBuffer outgoingChars = this.frontend.getSharedCharBufferPool().acquire();
+		writeUpdateToClient(update);
+	}
 
-			boolean usingCompression = this.availableEncodings.contains(HTTP_DEFLATE_ENCODING);
-			/*
-			 * If Compressing must know the length of the data being sent so must compress here
-			 */
-			if (usingCompression)
-			{
-				compressedMessageBuffer = this.frontend.getSharedByteBufferPool().acquire();
+	/**
+	 * Holds updates back from a client that is not keeping up with what is written to it. Once
+	 * highWatermark bytes are waiting to be written to the client, its updates are held back until no
+	 * more than lowWatermark are. Meanwhile, each update is dropped; or, if maxWaitMillis is positive,
+	 * the thread sending it waits up to that long for the client to catch up, and drops it only if it
+	 * doesn't. Responses to requests are never held back.
+	 * 
+	 * @param lowWatermark
+	 * @param highWatermark
+	 *          bytes; 0, the default, never holds updates back.
+	 * @param maxWaitMillis
+	 */
+	public void setUpdateWatermarks(int lowWatermark, int highWatermark, long maxWaitMillis)
+	{
+		if (highWatermark < 0 || lowWatermark < 0 || lowWatermark > highWatermark)
+			throw new IllegalArgumentException("Watermarks must be 0 <= low <= high: " + lowWatermark
+					+ ", " + highWatermark);
 
-				compressedMessageBuffer.clear();
-				this.compress(msgBufOutgoing, compressedMessageBuffer);
-				compressedMessageBuffer.flip();
-				this.clearOutgoingMessageBuffer(msgBufOutgoing);
-			}
+		this.updateLowWatermark = lowWatermark;
+		this.updateHighWatermark = highWatermark;
+		this.updateMaxWaitMillis = maxWaitMillis;
+	}
 
-			this.clearOutgoingMessageHeaderBuffer(headerBufOutgoing);
+	/**
+	 * @return the number of updates that were dropped, because the client was not keeping up.
+	 */
+	public int getDroppedUpdateCount()
+	{
+		return droppedUpdates.get();
+	}
 
-			// setup outgoingMessageHeaderBuffer
-			this.makeUpdateHeader((usingCompression) ? compressedMessageBuffer.limit() : msgBufOutgoing
-					.length(), headerBufOutgoing, update);
+	/**
+	 * @return true if an update can be sent now.
+	 */
+	private boolean makeRoomForUpdate()
+	{
+		long pending = server.pendingWriteBytes(this.socketKey);
 
-			if (usingCompression)
-			{
-				headerBufOutgoing.append(HTTP_HEADER_LINE_DELIMITER);
-				headerBufOutgoing.append(HTTP_CONTENT_CODING);
-				headerBufOutgoing.append(":");
-				headerBufOutgoing.append(HTTP_DEFLATE_ENCODING);
-			}
+		if (updatesHeldBack)
+		{
+			updatesHeldBack = pending > updateLowWatermark;
+		}
+		else if (pending >= updateHighWatermark)
+		{
+			updatesHeldBack = true;
+			debug("client is not keeping up; holding updates back: " + pending + " bytes waiting.");
+		}
 
-			headerBufOutgoing.append(HTTP_HEADER_TERMINATOR);
+		if (updatesHeldBack && updateMaxWaitMillis > 0
+				&& server.awaitPendingWriteBytesAtMost(this.socketKey, updateLowWatermark,
+						updateMaxWaitMillis))
+		{
+			updatesHeldBack = false;
+		}
 
-			// move the characters from the outgoing buffers into
-			// outgoingChars using bulk get and put methods
-			outgoingChars.clear();
+		return !updatesHeldBack;
+	}
 
-			headerBufOutgoing.getChars(0, headerBufOutgoing.length(), outgoingChars.array(), 0);
+	private synchronized void writeUpdateToClient(UpdateMessage<?> update)
+	{
+		ByteBuffer outgoingBuffer = this.server.acquireByteBufferFromPool();
 
-			if (!usingCompression)
-			{
-				msgBufOutgoing.getChars(0, msgBufOutgoing.length(), outgoingChars.array(),
-						headerBufOutgoing.length());
+		try
+		{
+			// leave room for the header, which is written once the body's length is known
+			outgoingBuffer.position(RESERVED_HEADER_BYTES);
+			this.serializeForWire(update, outgoingBytes.setBuffer(outgoingBuffer));
 
-				outgoingChars.limit(headerBufOutgoing.length() + msgBufOutgoing.length());
+			boolean usingCompression = this.availableEncodings.contains(HTTP_DEFLATE_ENCODING);
+			if (usingCompression)
+				outgoingBuffer = this.compress(outgoingBuffer);
 
-				this.clearOutgoingMessageBuffer(msgBufOutgoing);
-			}
-			else
+			if (wireFormat != Format.XML)
 			{
-				outgoingChars.limit(headerBufOutgoing.length());
+				this.enqueueWithBinaryHeader(outgoingBuffer, 0, usingCompression);
 			}
-
-			outgoingChars.position(0);
-
-			ByteBuffer outgoingBuffer = this.server.acquireByteBufferFromPool();
-
-			synchronized (encoder)
+			else
 			{
-				encoder.reset();
-
-				encoder.encode(outgoingChars, outgoingBuffer, true);
+				this.clearOutgoingMessageHeaderBuffer(headerBufOutgoing);
 
-				encoder.flush(outgoingBuffer);
-			}
-
-			this.frontend.getSharedCharBufferPool().release(outgoingChars);
+				// setup outgoingMessageHeaderBuffer
+				this.makeUpdateHeader(outgoingBuffer.position() - RESERVED_HEADER_BYTES,
+						headerBufOutgoing, update);
 
-			if (usingCompression)
-			{
-				outgoingBuffer.put(compressedMessageBuffer);
-				this.frontend.getSharedByteBufferPool().release(compressedMessageBuffer);
+				this.enqueueWithHeader(outgoingBuffer, usingCompression);
 			}
-
-			server.enqueueBytesForWriting(this.socketKey, outgoingBuffer);
+			outgoingBuffer = null;
+		}
+		catch (SIMPLTranslationException e)
+		{
+			debug("Failed to translate update!");
+			e.printStackTrace();
 		}
 		catch (DataFormatException e)
 		{
@@ -1012,58 +967,130 @@ public abstract class TCPClientSessionManager<S extends Scope, PARENT extends Sc
 		}
 		finally
 		{
-			this.frontend.getSharedStringBuilderPool().release(msgBufOutgoing);
+			outgoingBytes.setBuffer(null);
+			if (outgoingBuffer != null)
+				this.server.releaseByteBufferToPool(outgoingBuffer);
 		}
 	}
 
-	private void compress(StringBuilder src, ByteBuffer dest) throws DataFormatException
+	/**
+	 * Deflate the body of message, which starts at RESERVED_HEADER_BYTES, into another buffer, at the
+	 * same place, and release message.
+	 * 
+	 * @param message
+	 * @return the buffer holding the compressed body.
+	 * @throws DataFormatException
+	 *           if the compressed body does not fit.
+	 */
+	private ByteBuffer compress(ByteBuffer message) throws DataFormatException
 	{
-		CharBuffer zippingChars = this.frontend.getSharedCharBufferPool().acquire();
-		zippingChars.clear();
+		ByteBuffer compressed = this.server.acquireByteBufferFromPool();
 
-		src.getChars(0, src.length(), zippingChars.array(), 0);
-		zippingChars.position(0);
-		zippingChars.limit(src.length());
+		deflater.reset();
+		deflater.setInput(message.array(), RESERVED_HEADER_BYTES, message.position()
+				- RESERVED_HEADER_BYTES);
+		deflater.finish();
 
-		ByteBuffer zippingInBytes = this.frontend.getSharedByteBufferPool().acquire();
-		zippingInBytes.clear();
+		compressed.position(RESERVED_HEADER_BYTES
+				+ deflater.deflate(compressed.array(), RESERVED_HEADER_BYTES, compressed.capacity()
+						- RESERVED_HEADER_BYTES));
 
-		encoder.reset();
-		encoder.encode(zippingChars, zippingInBytes, true);
-		encoder.flush(zippingInBytes);
+		if (!deflater.finished())
+		{
+			this.server.releaseByteBufferToPool(compressed);
+			throw new DataFormatException("compressed message is larger than " + compressed.capacity()
+					+ " bytes");
+		}
 
-		this.frontend.getSharedCharBufferPool().release(zippingChars);
+		this.server.releaseByteBufferToPool(message);
+		return compressed;
+	}
 
-		zippingInBytes.flip();
+	/**
+	 * Finish the header in headerBufOutgoing, write it in front of the body in message, which starts
+	 * at RESERVED_HEADER_BYTES, and queue the two for writing. The body is only moved if the header
+	 * does not fit in front of it.
+	 * 
+	 * @param message
+	 * @param usingCompression
+	 * @throws SIMPLTranslationException
+	 *           if the header and body do not fit in message together.
+	 */
+	private void enqueueWithHeader(ByteBuffer message, boolean usingCompression)
+			throws SIMPLTranslationException
+	{
+		if (usingCompression)
+		{
+			headerBufOutgoing.append(HTTP_HEADER_LINE_DELIMITER);
+			headerBufOutgoing.append(HTTP_CONTENT_CODING);
+			headerBufOutgoing.append(":");
+			headerBufOutgoing.append(HTTP_DEFLATE_ENCODING);
+		}
 
-		deflater.reset();
-		deflater.setInput(zippingInBytes.array(), zippingInBytes.position(), zippingInBytes.limit());
-		deflater.finish();
+		headerBufOutgoing.append(HTTP_HEADER_TERMINATOR);
 
-		this.frontend.getSharedByteBufferPool().release(zippingInBytes);
+		int headerLength = headerBufOutgoing.length();
+		int start = RESERVED_HEADER_BYTES - headerLength;
+		byte[] array = message.array();
 
-		dest.position(dest.position()
-				+ deflater.deflate(dest.array(), dest.position(), dest.remaining()));
+		if (start < 0)
+		{ // a long header; move the body along to make room for it
+			if (message.position() - start > message.capacity())
+				throw new SIMPLTranslationException("message of " + (message.position() - start)
+						+ " bytes does not fit in the outgoing buffer");
+
+			System.arraycopy(array, RESERVED_HEADER_BYTES, array, headerLength, message.position()
+					- RESERVED_HEADER_BYTES);
+			message.position(message.position() - start);
+			start = 0;
+		}
+
+		for (int i = 0; i < headerLength; i++)
+			array[start + i] = (byte) headerBufOutgoing.charAt(i);
 
+		server.enqueueBytesForWriting(this.socketKey, message, start);
 	}
 
 	/**
-	 * Takes an incoming message in the form of an XML String and converts it into a RequestMessage
-	 * using translateStringToRequestMessage(String). Then places the RequestMessage on the
+	 * Write a binary frame header in front of the body in message, which starts at
+	 * RESERVED_HEADER_BYTES, and queue the two for writing.
+	 * 
+	 * @param message
+	 * @param uid
+	 *          of the request answered, or 0 for an update.
+	 * @param deflated
+	 */
+	private void enqueueWithBinaryHeader(ByteBuffer message, long uid, boolean deflated)
+	{
+		int bodyLength = message.position() - RESERVED_HEADER_BYTES;
+		int start = RESERVED_HEADER_BYTES - BINARY_FRAME_HEADER_LENGTH;
+
+		message.putInt(start, bodyLength);
+		message.putLong(start + 4, uid);
+		message.put(start + 12, deflated ? BINARY_FRAME_DEFLATED : 0);
+
+		server.enqueueBytesForWriting(this.socketKey, message, start);
+	}
+
+	/**
+	 * Takes an incoming message in the form of serialized bytes and converts it into a
+	 * RequestMessage using translateBytesToRequestMessage(). Then places the RequestMessage on the
 	 * requestQueue using enqueueRequest().
 	 * 
-	 * @param incomingMessage
-	 * @param headerMap2
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @param incomingUid
 	 * @throws BadClientException
 	 */
-	private final void processString(CharSequence incomingMessage, long incomingUid)
+	private final void processBytes(byte[] bytes, int offset, int length, long incomingUid)
 			throws BadClientException
 	{
 		Exception failReason = null;
 		RequestMessage request = null;
 		try
 		{
-			request = this.translateStringToRequestMessage(incomingMessage);
+			request = this.translateBytesToRequestMessage(bytes, offset, length);
 		}
 		catch (SIMPLTranslationException e)
 		{
@@ -1078,6 +1105,8 @@ public abstract class TCPClientSessionManager<S extends Scope, PARENT extends Sc
 
 		if (request == null)
 		{
+			String incomingMessage = new String(bytes, offset, length, CHARSET);
+
 			if (incomingMessage.length() > 100)
 			{
 				debug("ERROR; incoming message could not be translated: " + incomingMessage.toString());
@@ -59,7 +59,7 @@ public class HttpGetServer extends DoubleThreadedNIOServer
 	protected HTTPGetClientSessionManager generateContextManager(String token, SelectionKey sk,
 			SimplTypesScope translationScopeIn, Scope registryIn)
 	{
-		return new HTTPGetClientSessionManager(token, maxMessageSize, this.getBackend(), this, sk,
-				translationScopeIn, registryIn);
+		return new HTTPGetClientSessionManager(token, maxMessageSize,
+				this.getBackend().reactorFor(sk), this, sk, translationScopeIn, registryIn);
 	}
 }
@@ -59,7 +59,7 @@ public class HttpPostServer extends DoubleThreadedNIOServer
 	protected HTTPPostClientSessionManager generateContextManager(String token, SelectionKey sk,
 			SimplTypesScope translationScopeIn, Scope registryIn)
 	{
-		return new HTTPPostClientSessionManager(token, maxMessageSize, this.getBackend(), this, sk,
-				translationScopeIn, registryIn);
+		return new HTTPPostClientSessionManager(token, maxMessageSize,
+				this.getBackend().reactorFor(sk), this, sk, translationScopeIn, registryIn);
 	}
 }
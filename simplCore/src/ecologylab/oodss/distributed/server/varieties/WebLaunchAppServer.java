@@ -58,7 +58,7 @@ public class WebLaunchAppServer extends DoubleThreadedNIOServer implements Servi
 	protected HTTPPostClientSessionManager generateContextManager(String token, SelectionKey sk,
 			SimplTypesScope translationScopeIn, Scope registryIn)
 	{
-		return new HTTPPostClientSessionManager(token, maxMessageSize, this.getBackend(), this, sk,
-				translationScopeIn, registryIn);
+		return new HTTPPostClientSessionManager(token, maxMessageSize,
+				this.getBackend().reactorFor(sk), this, sk, translationScopeIn, registryIn);
 	}
 }
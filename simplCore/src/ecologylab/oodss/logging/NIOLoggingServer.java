@@ -173,8 +173,8 @@ public class NIOLoggingServer extends DoubleThreadedNIOServer implements Service
 	protected LoggingClientSessionManager generateContextManager(String sessionId, SelectionKey sk,
 			SimplTypesScope translationScopeIn, Scope registryIn)
 	{
-		return new LoggingClientSessionManager(sessionId, maxMessageSize, this, this.getBackend(), sk,
-				translationScopeIn, registryIn);
+		return new LoggingClientSessionManager(sessionId, maxMessageSize, this, this.getBackend()
+				.reactorFor(sk), sk, translationScopeIn, registryIn);
 	}
 
 	/**
@@ -3,10 +3,13 @@
  */
 package ecologylab.oodss.messages;
 
+import java.util.Arrays;
+
 import ecologylab.collections.Scope;
 import ecologylab.serialization.SIMPLTranslationException;
 import ecologylab.serialization.SimplTypesScope;
 import ecologylab.serialization.annotations.simpl_scalar;
+import ecologylab.serialization.formatenums.Format;
 import ecologylab.serialization.formatenums.StringFormat;
 
 /**
@@ -17,6 +20,11 @@ import ecologylab.serialization.formatenums.StringFormat;
  * Sending a message with a past sessionId is no guarantee of restoring the old connection; the
  * server may have disposed of it.
  * 
+ * A client may also list the wire formats it can use, in order of preference. The server picks the
+ * first it can use too, and names it in its InitConnectionResponse; from then on, both send messages
+ * in that format, in binary frames. Servers that predate wire formats ignore the list, so their
+ * clients stay with XML.
+ * 
  * @author Zachary O. Toups (zach@ecologylab.net)
  */
 public class InitConnectionRequest extends RequestMessage
@@ -24,6 +32,13 @@ public class InitConnectionRequest extends RequestMessage
 	@simpl_scalar
 	String	sessionId;
 
+	/**
+	 * Comma separated names of the wire formats the client can use, in order of preference; or null
+	 * for XML only.
+	 */
+	@simpl_scalar
+	String	wireFormats;
+
 	/**
      * 
      */
@@ -56,6 +71,49 @@ public class InitConnectionRequest extends RequestMessage
 		return sessionId;
 	}
 
+	/**
+	 * @return the wire formats the client can use, in order of preference, leaving out any this side
+	 *         does not know of; empty if it did not say.
+	 */
+	public Format[] getWireFormats()
+	{
+		if (wireFormats == null)
+			return new Format[0];
+
+		String[] names = wireFormats.split(",");
+		Format[] formats = new Format[names.length];
+		int count = 0;
+		for (String name : names)
+		{
+			Format format = InitConnectionResponse.wireFormatNamed(name);
+			if (format != null)
+				formats[count++] = format;
+		}
+		return count == formats.length ? formats : Arrays.copyOf(formats, count);
+	}
+
+	/**
+	 * @param formats
+	 *          the wire formats the client can use, in order of preference.
+	 */
+	public void setWireFormats(Format... formats)
+	{
+		if (formats == null || formats.length == 0)
+		{
+			wireFormats = null;
+			return;
+		}
+
+		StringBuilder names = new StringBuilder();
+		for (Format format : formats)
+		{
+			if (names.length() > 0)
+				names.append(',');
+			names.append(format.name().toLowerCase());
+		}
+		wireFormats = names.toString();
+	}
+
 	public static void main(String[] args)
 	{
 		try
@@ -5,6 +5,7 @@ package ecologylab.oodss.messages;
 
 import ecologylab.serialization.annotations.simpl_inherit;
 import ecologylab.serialization.annotations.simpl_scalar;
+import ecologylab.serialization.formatenums.Format;
 
 /**
  * Response to a request to connect to a server. On a successful connection, sessionId will contain
@@ -22,6 +23,14 @@ class InitConnectionResponse extends ResponseMessage
 	@simpl_scalar
 	String	sessionId;
 
+	/**
+	 * The wire format the session uses from now on, picked from those the client listed in its
+	 * InitConnectionRequest; null if it listed none, or the server does not know of them, in which
+	 * case the session stays with XML.
+	 */
+	@simpl_scalar
+	String	wireFormat;
+
 	/**
      * 
      */
@@ -51,4 +60,37 @@ class InitConnectionResponse extends ResponseMessage
 		return sessionId;
 	}
 
+	/**
+	 * @return the wire format the session uses from now on: XML, if the server did not pick one.
+	 */
+	public Format getWireFormat()
+	{
+		Format format = wireFormatNamed(wireFormat);
+		return format == null ? Format.XML : format;
+	}
+
+	public void setWireFormat(Format wireFormat)
+	{
+		this.wireFormat = wireFormat == null ? null : wireFormat.name().toLowerCase();
+	}
+
+	/**
+	 * @param name
+	 * @return the wire format called name, ignoring case, if it is one sessions can use: XML, JSON
+	 *         or TLV; otherwise null.
+	 */
+	static Format wireFormatNamed(String name)
+	{
+		if (name == null)
+			return null;
+
+		name = name.trim();
+		for (Format format : WIRE_FORMATS)
+			if (format.name().equalsIgnoreCase(name))
+				return format;
+		return null;
+	}
+
+	private static final Format[]	WIRE_FORMATS	= { Format.XML, Format.JSON, Format.TLV };
+
 }
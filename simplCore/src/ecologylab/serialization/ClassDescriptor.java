@@ -15,9 +15,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import ecologylab.generic.HashMapArrayList;
 import ecologylab.generic.ReflectionTools;
+import ecologylab.generic.SymbolTable;
 import ecologylab.platformspecifics.FundamentalPlatformSpecifics;
 import ecologylab.serialization.annotations.Hint;
 import ecologylab.serialization.annotations.bibtex_key;
@@ -33,7 +35,9 @@ import ecologylab.serialization.annotations.simpl_other_tags;
 import ecologylab.serialization.annotations.simpl_scalar;
 import ecologylab.serialization.annotations.simpl_tag;
 import ecologylab.serialization.annotations.simpl_use_equals_equals;
+import ecologylab.serialization.formatenums.Format;
 import ecologylab.serialization.formatenums.StringFormat;
+import ecologylab.serialization.serializers.SerializationPlan;
 import ecologylab.serialization.types.CollectionType;
 import ecologylab.serialization.types.ScalarType;
 import ecologylab.serialization.types.TypeRegistry;
@@ -101,7 +105,7 @@ public class ClassDescriptor<FD extends FieldDescriptor> extends DescriptorBase
 	/**
 	 * This flag prevents loops when creating descriptors for type graphs.
 	 */
-	private boolean isGetAndOrganizeComplete;
+	private volatile boolean isGetAndOrganizeComplete;
 
 	/**
 	 * Map of FieldToXMLOptimizations, with field names as keys.
@@ -125,6 +129,15 @@ public class ClassDescriptor<FD extends FieldDescriptor> extends DescriptorBase
 	 */
 	private HashMap<String, FD> allFieldDescriptorsByTagNames = new HashMap<String, FD>();
 
+	/**
+	 * The same mappings, for lookups straight from parser events. Built
+	 * lazily; dropped whenever allFieldDescriptorsByTagNames changes. Both are
+	 * changed, and this built, while holding allFieldDescriptorsByTagNames's
+	 * lock, so a table built from the old mappings is never published after
+	 * they change.
+	 */
+	private volatile SymbolTable<FD> fieldDescriptorsByTagSymbols;
+
 	private HashMap<Integer, FD> allFieldDescriptorsByTLVIds = new HashMap<Integer, FD>();
 
 	private FD fieldDescriptorForBibTeXKey = null;
@@ -140,8 +153,22 @@ public class ClassDescriptor<FD extends FieldDescriptor> extends DescriptorBase
 	/**
 	 * Global map of all ClassDescriptors. Key is the full, qualified name of
 	 * the class == describedClassName.
+	 * <p/>
+	 * Safe to read without locking. Deriving new ClassDescriptors is
+	 * synchronized on this map, because derivation recurses into the
+	 * descriptors of other classes, which may refer back to the ones being
+	 * derived.
 	 */
-	private static final HashMap<String, ClassDescriptor<? extends FieldDescriptor>> globalClassDescriptorsMap = new HashMap<String, ClassDescriptor<? extends FieldDescriptor>>();
+	private static final ConcurrentHashMap<String, ClassDescriptor<? extends FieldDescriptor>> globalClassDescriptorsMap = new ConcurrentHashMap<String, ClassDescriptor<? extends FieldDescriptor>>();
+
+	/**
+	 * Fast path for getClassDescriptor(Class): ClassDescriptors whose fields
+	 * have been derived and organized, keyed by the Class itself, so that a
+	 * lookup neither builds the class name nor locks. Like a ClassValue, but
+	 * also available on platforms without java.lang.ClassValue, and only ever
+	 * holding complete descriptors.
+	 */
+	private static final ConcurrentHashMap<Class<?>, ClassDescriptor<? extends FieldDescriptor>> completeClassDescriptors = new ConcurrentHashMap<Class<?>, ClassDescriptor<? extends FieldDescriptor>>();
 
 	private ArrayList<FD> unresolvedScopeAnnotationFDs;
 
@@ -160,6 +187,12 @@ public class ClassDescriptor<FD extends FieldDescriptor> extends DescriptorBase
 	@simpl_scalar
 	private boolean strictObjectGraphRequired = false;
 
+	/**
+	 * false if scalar fields of this class are written even when they hold
+	 * the default value for their type.
+	 */
+	private volatile boolean elidesDefaultValues = true;
+
 	public Class<?> fdClass;
 
 	@simpl_collection("generic_type_var")
@@ -179,6 +212,13 @@ public class ClassDescriptor<FD extends FieldDescriptor> extends DescriptorBase
 
 	private List<FieldDescriptorsDerivedEventListener> fieldDescriptorsDerivedEventListeners;
 
+	/**
+	 * Plans the serializers have compiled for this class, indexed by Format
+	 * ordinal. Replaced wholesale whenever the field descriptors change.
+	 */
+	private volatile SerializationPlan[] serializationPlans = new SerializationPlan[Format
+			.values().length];
+
 	static {
 		TypeRegistry.init();
 	}
@@ -410,10 +450,14 @@ public class ClassDescriptor<FD extends FieldDescriptor> extends DescriptorBase
 	 */
 	public static ClassDescriptor<? extends FieldDescriptor> getClassDescriptor(
 			final Class<?> thatClass) {
+		ClassDescriptor<? extends FieldDescriptor> result = completeClassDescriptors
+				.get(thatClass);
+		if (result != null)
+			return result;
+
 		String className = thatClass.getName();
 		// stay out of the synchronized block most of the time
-		ClassDescriptor<? extends FieldDescriptor> result = globalClassDescriptorsMap
-				.get(className);
+		result = globalClassDescriptorsMap.get(className);
 		if (result == null || !result.isGetAndOrganizeComplete) {
 			// but still be thread safe!
 			synchronized (globalClassDescriptorsMap) {
@@ -463,6 +507,8 @@ public class ClassDescriptor<FD extends FieldDescriptor> extends DescriptorBase
 				}
 			}
 		}
+		if (result.isGetAndOrganizeComplete)
+			completeClassDescriptors.put(thatClass, result);
 		return result;
 	}
 
@@ -526,13 +572,51 @@ public class ClassDescriptor<FD extends FieldDescriptor> extends DescriptorBase
 
 	public FD getFieldDescriptorByTag(String tag, SimplTypesScope tScope,
 			Object context) {
+		return fieldDescriptorsByTagSymbols().get(tag);
+	}
+
+	/**
+	 * Look up the FieldDescriptor for the tag prefix:localName, as a parser
+	 * reports it, without concatenating the two.
+	 * 
+	 * @param prefix
+	 *            Namespace prefix, or null or empty for none.
+	 * @param localName
+	 */
+	public FD getFieldDescriptorByTag(String prefix, String localName) {
+		return fieldDescriptorsByTagSymbols().get(prefix, localName);
+	}
+
+	/**
+	 * Look up the FieldDescriptor for the tag in chars[offset, offset +
+	 * length), without making a String of it.
+	 */
+	public FD getFieldDescriptorByTag(char[] chars, int offset, int length) {
+		return fieldDescriptorsByTagSymbols().get(chars, offset, length);
+	}
+
+	/**
+	 * @return allFieldDescriptorsByTagNames, as a SymbolTable, once
+	 *         polymorphic annotations have been resolved.
+	 */
+	private SymbolTable<FD> fieldDescriptorsByTagSymbols() {
 		if (unresolvedScopeAnnotationFDs != null)
 			resolveUnresolvedScopeAnnotationFDs();
 
 		if (unresolvedClassesAnnotationFDs != null)
 			resolveUnresolvedClassesAnnotationFDs();
 
-		return allFieldDescriptorsByTagNames.get(tag);
+		SymbolTable<FD> result = fieldDescriptorsByTagSymbols;
+		if (result == null) {
+			synchronized (allFieldDescriptorsByTagNames) {
+				result = fieldDescriptorsByTagSymbols;
+				if (result == null) {
+					result = new SymbolTable<FD>(allFieldDescriptorsByTagNames);
+					fieldDescriptorsByTagSymbols = result;
+				}
+			}
+		}
+		return result;
 	}
 
 	public FD getFieldDescriptorByTag(String tag, SimplTypesScope tScope) {
@@ -566,6 +650,40 @@ public class ClassDescriptor<FD extends FieldDescriptor> extends DescriptorBase
 		return fieldDescriptorsByFieldName.iterator();
 	}
 
+	/**
+	 * Choose whether serializers leave out scalar fields of this class that
+	 * hold the default value for their type.
+	 * 
+	 * @param elidesDefaultValues
+	 *            false to write every non-null scalar field.
+	 */
+	public void setElidesDefaultValues(boolean elidesDefaultValues) {
+		this.elidesDefaultValues = elidesDefaultValues;
+	}
+
+	/**
+	 * @return true if serializers leave out scalar fields of this class that
+	 *         hold the default value for their type. The default.
+	 */
+	public boolean elidesDefaultValues() {
+		return elidesDefaultValues;
+	}
+
+	/**
+	 * Change how the FieldDescriptors of this class read and write their fields.
+	 * 
+	 * @param strategy
+	 *            null to go back to FieldAccessorStrategy.getDefault().
+	 */
+	public void setFieldAccessorStrategy(FieldAccessorStrategy strategy) {
+		for (FD fd : fieldDescriptorsByFieldName) {
+			fd.setFieldAccessorStrategy(strategy);
+			FieldDescriptor wrappedFD = fd.getWrappedFD();
+			if (wrappedFD != null)
+				wrappedFD.setFieldAccessorStrategy(strategy);
+		}
+	}
+
 	/**
 	 * Build and return an ArrayList with Field objects for all the annotated
 	 * fields in this class.
@@ -776,12 +894,15 @@ public class ClassDescriptor<FD extends FieldDescriptor> extends DescriptorBase
 							bookkeeper));
 		}
 
-		for (Entry<String, FD> fieldDescriptorEntry : superClassDescriptor
-				.getAllFieldDescriptorsByTagNames().entrySet()) {
-			allFieldDescriptorsByTagNames.put(
-					fieldDescriptorEntry.getKey(),
-					perhapsCloneGenericField(fieldDescriptorEntry.getValue(),
-							bookkeeper));
+		synchronized (allFieldDescriptorsByTagNames) {
+			for (Entry<String, FD> fieldDescriptorEntry : superClassDescriptor
+					.getAllFieldDescriptorsByTagNames().entrySet()) {
+				allFieldDescriptorsByTagNames.put(
+						fieldDescriptorEntry.getKey(),
+						perhapsCloneGenericField(fieldDescriptorEntry.getValue(),
+								bookkeeper));
+			}
+			fieldDescriptorsByTagSymbols = null;
 		}
 
 		for (Entry<Integer, FD> fieldDescriptorEntry : superClassDescriptor
@@ -974,8 +1095,12 @@ public class ClassDescriptor<FD extends FieldDescriptor> extends DescriptorBase
 	private void mapTagToFdForDeserialize(String tagName, FD fdToMap) {
 
 		if (!fdToMap.isWrapped()) {
-			FD previousMapping = allFieldDescriptorsByTagNames.put(tagName,
-					fdToMap);
+			FD previousMapping;
+			synchronized (allFieldDescriptorsByTagNames) {
+				previousMapping = allFieldDescriptorsByTagNames.put(tagName,
+						fdToMap);
+				fieldDescriptorsByTagSymbols = null;
+			}
 			allFieldDescriptorsByTLVIds.put(tagName.hashCode(), fdToMap);
 			if (previousMapping != null && previousMapping != fdToMap) {
 				warning(" tag <" + tagName + ">:\tfield[" + fdToMap.getName()
@@ -1104,6 +1229,11 @@ public class ClassDescriptor<FD extends FieldDescriptor> extends DescriptorBase
 		return declaredFieldDescriptorsByFieldName;
 	}
 
+	/**
+	 * Lookups by tag go through a SymbolTable built from this map, so changes
+	 * to it are only seen by getFieldDescriptorByTag() if made through this
+	 * class.
+	 */
 	public HashMap<String, FD> getAllFieldDescriptorsByTagNames() {
 		return allFieldDescriptorsByTagNames;
 	}
@@ -1196,14 +1326,52 @@ public class ClassDescriptor<FD extends FieldDescriptor> extends DescriptorBase
 	 */
 	public void resolveUnresolvedClassesAnnotationFDs() {
 		if (unresolvedClassesAnnotationFDs != null) {
-			for (int i = unresolvedClassesAnnotationFDs.size() - 1; i >= 0; i--) {
-				FieldDescriptor fd = unresolvedClassesAnnotationFDs.remove(i);
-				fd.resolveUnresolvedClassesAnnotation();
-				this.mapPolymorphicClassDescriptors((FD) fd);
-				this.mapPolymorphicClassDescriptors((FD) fd);
+			synchronized (SCOPE_ANNOTATION_LOCK) {
+				if (unresolvedClassesAnnotationFDs != null) {
+					for (int i = unresolvedClassesAnnotationFDs.size() - 1; i >= 0; i--) {
+						FieldDescriptor fd = unresolvedClassesAnnotationFDs.remove(i);
+						fd.resolveUnresolvedClassesAnnotation();
+						this.mapPolymorphicClassDescriptors((FD) fd);
+						this.mapPolymorphicClassDescriptors((FD) fd);
+					}
+					unresolvedClassesAnnotationFDs = null;
+				}
 			}
 		}
-		unresolvedClassesAnnotationFDs = null;
+	}
+
+	/**
+	 * Do now the lazy work that would otherwise be done the first time this is
+	 * used to serialize or deserialize: resolve polymorphic annotations, and
+	 * build the pseudo FieldDescriptor and the accessors of all fields.
+	 * 
+	 * @return The ClassDescriptors that the fields of this refer to, which
+	 *         may need warming up too.
+	 */
+	public List<ClassDescriptor<? extends FieldDescriptor>> warmUp() {
+		resolvePolymorphicAnnotations();
+		pseudoFieldDescriptor();
+
+		List<ClassDescriptor<? extends FieldDescriptor>> referenced = new ArrayList<ClassDescriptor<? extends FieldDescriptor>>();
+		for (FD fd : fieldDescriptorsByFieldName.values()) {
+			warmUp(fd, referenced);
+			if (fd.getWrappedFD() != null)
+				warmUp(fd.getWrappedFD(), referenced);
+		}
+		return referenced;
+	}
+
+	private static void warmUp(FieldDescriptor fd,
+			List<ClassDescriptor<? extends FieldDescriptor>> referenced) {
+		fd.getAccessor();
+		ClassDescriptor<?> elementClassDescriptor = fd.getElementClassDescriptor();
+		if (elementClassDescriptor != null)
+			referenced.add(elementClassDescriptor);
+		Collection<?> polymorphicClassDescriptors = fd
+				.getPolymorphicClassDescriptors();
+		if (polymorphicClassDescriptors != null)
+			for (Object polymorphicClassDescriptor : polymorphicClassDescriptors)
+				referenced.add((ClassDescriptor<?>) polymorphicClassDescriptor);
 	}
 
 	/**
@@ -1381,6 +1549,7 @@ public class ClassDescriptor<FD extends FieldDescriptor> extends DescriptorBase
 			cloned = (ClassDescriptor) super.clone();
 			cloned.isCloned = true;
 			cloned.clonedFrom = this;
+			cloned.invalidateSerializationPlans();
 		} catch (CloneNotSupportedException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -1388,6 +1557,32 @@ public class ClassDescriptor<FD extends FieldDescriptor> extends DescriptorBase
 		return cloned;
 	}
 
+	/**
+	 * @return The plan the serializer for format compiled for this class, or
+	 *         null if it has not compiled one yet.
+	 */
+	public SerializationPlan getSerializationPlan(Format format) {
+		return serializationPlans[format.ordinal()];
+	}
+
+	/**
+	 * Remember the plan the serializer for format compiled for this class.
+	 * 
+	 * @param format
+	 * @param plan
+	 */
+	public void setSerializationPlan(Format format, SerializationPlan plan) {
+		serializationPlans[format.ordinal()] = plan;
+	}
+
+	/**
+	 * Forget compiled serialization plans, because the fields or tags they were
+	 * compiled from have changed.
+	 */
+	private void invalidateSerializationPlans() {
+		serializationPlans = new SerializationPlan[Format.values().length];
+	}
+
 	public boolean isCloned() {
 		return isCloned;
 	}
@@ -1399,6 +1594,7 @@ public class ClassDescriptor<FD extends FieldDescriptor> extends DescriptorBase
 	public void setDescribedClassSimpleName(String describedClassSimpleName) {
 		this.describedClassSimpleName = describedClassSimpleName;
 		this.tagName = XMLTools.getXmlTagName(describedClassSimpleName, null);
+		invalidateSerializationPlans();
 	}
 
 	public void setDescribedClassPackageName(String describedClassPackageName) {
@@ -1421,13 +1617,17 @@ public class ClassDescriptor<FD extends FieldDescriptor> extends DescriptorBase
 
 	public void replace(FD oldFD, FD newFD) {
 		// for deserialization:
-		if (oldFD != null)
-			getAllFieldDescriptorsByTagNames().remove(oldFD.getTagName());
-		getAllFieldDescriptorsByTagNames().put(newFD.getTagName(), newFD);
+		synchronized (allFieldDescriptorsByTagNames) {
+			if (oldFD != null)
+				allFieldDescriptorsByTagNames.remove(oldFD.getTagName());
+			allFieldDescriptorsByTagNames.put(newFD.getTagName(), newFD);
+			fieldDescriptorsByTagSymbols = null;
+		}
 		// for serialization:
 		if (oldFD != null) {
 			replace(attributeFieldDescriptors, oldFD, newFD);
 			replace(elementFieldDescriptors, oldFD, newFD);
+			invalidateSerializationPlans();
 		}
 	}
 
@@ -0,0 +1,26 @@
+package ecologylab.serialization;
+
+/**
+ * Receives the elements of a collection or map as they are deserialized, instead of the collection
+ * or map holding on to them, so that a document with a huge collection can be processed in memory
+ * bounded by one element.
+ *
+ * @param <E>
+ *          Type of the elements.
+ *
+ * @see SimplTypesScope#deserialize(java.io.InputStream,
+ *      ecologylab.serialization.formatenums.Format, String, ElementSink)
+ */
+public interface ElementSink<E>
+{
+	/**
+	 * Called once for each element, in document order, as soon as the element and everything in it
+	 * have been deserialized. Runs on the deserializing thread; hand the element off to other threads
+	 * to process it while parsing goes on.
+	 *
+	 * @param element
+	 * @throws SIMPLTranslationException
+	 *           to stop deserializing.
+	 */
+	void element(E element) throws SIMPLTranslationException;
+}
@@ -0,0 +1,58 @@
+package ecologylab.serialization;
+
+import java.lang.reflect.Field;
+
+/**
+ * Reads and writes the value of a single field on behalf of a FieldDescriptor. This is what
+ * serializers, deserializers and ScalarTypes use on the hot path, instead of going straight to
+ * java.lang.reflect.Field.
+ * <p/>
+ * The primitive-specialized methods let ScalarTypes for int, long, double, etc. move values in and
+ * out of objects without boxing. Calling them on a field of the corresponding boxed type unboxes /
+ * boxes as needed.
+ *
+ * @see FieldAccessorStrategy
+ */
+public interface FieldAccessor
+{
+	/**
+	 * @return The Field that this accesses.
+	 */
+	Field getField();
+
+	Object get(Object context) throws IllegalAccessException;
+
+	void set(Object context, Object value) throws IllegalAccessException;
+
+	int getInt(Object context) throws IllegalAccessException;
+
+	void setInt(Object context, int value) throws IllegalAccessException;
+
+	long getLong(Object context) throws IllegalAccessException;
+
+	void setLong(Object context, long value) throws IllegalAccessException;
+
+	double getDouble(Object context) throws IllegalAccessException;
+
+	void setDouble(Object context, double value) throws IllegalAccessException;
+
+	float getFloat(Object context) throws IllegalAccessException;
+
+	void setFloat(Object context, float value) throws IllegalAccessException;
+
+	boolean getBoolean(Object context) throws IllegalAccessException;
+
+	void setBoolean(Object context, boolean value) throws IllegalAccessException;
+
+	short getShort(Object context) throws IllegalAccessException;
+
+	void setShort(Object context, short value) throws IllegalAccessException;
+
+	byte getByte(Object context) throws IllegalAccessException;
+
+	void setByte(Object context, byte value) throws IllegalAccessException;
+
+	char getChar(Object context) throws IllegalAccessException;
+
+	void setChar(Object context, char value) throws IllegalAccessException;
+}
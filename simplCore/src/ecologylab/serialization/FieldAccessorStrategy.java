@@ -0,0 +1,86 @@
+package ecologylab.serialization;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import ecologylab.generic.Debug;
+
+/**
+ * How FieldDescriptors build the FieldAccessor that reads and writes their field.
+ * <p/>
+ * Set globally with {@link #setDefault(FieldAccessorStrategy)}, or for the classes of one scope
+ * with SimplTypesScope.setFieldAccessorStrategy().
+ */
+public enum FieldAccessorStrategy
+{
+	/**
+	 * Plain java.lang.reflect.Field.
+	 */
+	REFLECTION
+	{
+		@Override
+		protected FieldAccessor create(Field field) throws Throwable
+		{
+			return new ReflectionFieldAccessor(field);
+		}
+	},
+
+	/**
+	 * java.lang.invoke MethodHandles, with primitive-typed handles for primitive fields. Falls back
+	 * to REFLECTION where MethodHandles are not available (e.g. on Android) or cannot be built.
+	 */
+	METHOD_HANDLE
+	{
+		@Override
+		protected FieldAccessor create(Field field) throws Throwable
+		{
+			return new MethodHandleFieldAccessor(field);
+		}
+	};
+
+	private static FieldAccessorStrategy	defaultStrategy	= METHOD_HANDLE;
+
+	protected abstract FieldAccessor create(Field field) throws Throwable;
+
+	/**
+	 * Build an accessor for the field, using this strategy if possible, and REFLECTION otherwise.
+	 *
+	 * @param field
+	 * @return
+	 */
+	public FieldAccessor accessorFor(Field field)
+	{
+		if (this != REFLECTION && !Modifier.isStatic(field.getModifiers()))
+		{
+			try
+			{
+				return create(field);
+			}
+			catch (Throwable e)
+			{
+				Debug.warning(FieldAccessorStrategy.class, "Can't build " + this + " accessor for " + field
+						+ ", using reflection: " + e);
+			}
+		}
+		return new ReflectionFieldAccessor(field);
+	}
+
+	/**
+	 * @return The strategy used by FieldDescriptors that haven't been given one explicitly.
+	 */
+	public static FieldAccessorStrategy getDefault()
+	{
+		return defaultStrategy;
+	}
+
+	/**
+	 * Change the strategy used by FieldDescriptors that haven't been given one explicitly. Only
+	 * affects accessors built after the call.
+	 *
+	 * @param strategy
+	 */
+	public static void setDefault(FieldAccessorStrategy strategy)
+	{
+		defaultStrategy = (strategy == null) ? METHOD_HANDLE : strategy;
+	}
+}
@@ -54,6 +54,7 @@ import ecologylab.serialization.simplstringformats.FormatRegistry;
 import ecologylab.serialization.types.CollectionType;
 import ecologylab.serialization.types.FundamentalTypes;
 import ecologylab.serialization.types.ScalarType;
+import ecologylab.serialization.types.ScalarValue;
 import ecologylab.serialization.types.TypeRegistry;
 import ecologylab.serialization.types.element.IMappable;
 
@@ -77,6 +78,16 @@ public class FieldDescriptor extends DescriptorBase implements IMappable<String>
 	protected Field field;
 	// TODO
 
+	/**
+	 * Reads and writes field on the hot path. Built lazily, according to accessorStrategy.
+	 */
+	private FieldAccessor					accessor;
+
+	/**
+	 * How to build accessor. null means FieldAccessorStrategy.getDefault().
+	 */
+	private FieldAccessorStrategy	accessorStrategy;
+
 	/**
 	 * For nested elements, and collections or maps of nested elements. The class descriptor
 	 */
@@ -985,7 +996,7 @@ public class FieldDescriptor extends DescriptorBase implements IMappable<String>
 		
 		if (context != null && isScalar())
 		{
-			result = scalarType.setField(context, field, valueString, null, scalarUnMarshallingContext);
+			result = scalarType.setField(context, getAccessor(), valueString, null, scalarUnMarshallingContext);
 		}
 		
 		return result;
@@ -1011,7 +1022,7 @@ public class FieldDescriptor extends DescriptorBase implements IMappable<String>
 	{
 		try
 		{
-			field.set(context, value);
+			getAccessor().set(context, value);
 		}
 		catch (IllegalArgumentException e)
 		{
@@ -1059,7 +1070,7 @@ public class FieldDescriptor extends DescriptorBase implements IMappable<String>
 		String result = NULL;
 		if (context != null && isScalar())
 		{
-			result = scalarType.toString(field, context);
+			result = scalarType.toString(getAccessor(), context);
 
 		}
 		return result;
@@ -1094,6 +1105,34 @@ public class FieldDescriptor extends DescriptorBase implements IMappable<String>
 		return field;
 	}
 
+	/**
+	 * @return The accessor used to read and write the field, built on first use.
+	 */
+	public FieldAccessor getAccessor()
+	{
+		FieldAccessor result = accessor;
+		if (result == null && field != null)
+		{
+			FieldAccessorStrategy strategy = (accessorStrategy != null) ? accessorStrategy
+					: FieldAccessorStrategy.getDefault();
+			result = strategy.accessorFor(field);
+			accessor = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Change how the accessor for this field is built. The current accessor, if any, is discarded.
+	 * 
+	 * @param strategy
+	 *          null to use FieldAccessorStrategy.getDefault().
+	 */
+	public void setFieldAccessorStrategy(FieldAccessorStrategy strategy)
+	{
+		this.accessorStrategy = strategy;
+		this.accessor = null;
+	}
+
 	/**
 	 * @return the class of the field
 	 */
@@ -1118,17 +1157,37 @@ public class FieldDescriptor extends DescriptorBase implements IMappable<String>
 
 	public Object getNested(Object context)
 	{
-		return ReflectionTools.getFieldValue(context, field);
+		return getFieldValue(context);
 	}
 
 	public Map getMap(Object context)
 	{
-		return (Map) ReflectionTools.getFieldValue(context, field);
+		return (Map) getFieldValue(context);
 	}
 
 	public Collection getCollection(Object context)
 	{
-		return (Collection) ReflectionTools.getFieldValue(context, field);
+		return (Collection) getFieldValue(context);
+	}
+
+	/**
+	 * Same contract as ReflectionTools.getFieldValue(), but through the accessor.
+	 */
+	private Object getFieldValue(Object context)
+	{
+		try
+		{
+			return getAccessor().get(context);
+		}
+		catch (IllegalArgumentException e)
+		{
+			e.printStackTrace();
+		}
+		catch (IllegalAccessException e)
+		{
+			e.printStackTrace();
+		}
+		return ReflectionTools.BAD_ACCESS;
 	}
 
 	public boolean isMixin()
@@ -1164,7 +1223,7 @@ public class FieldDescriptor extends DescriptorBase implements IMappable<String>
 		{
 			if (context != null)
 			{
-				return scalarType.isDefaultValue(this.field, context);
+				return scalarType.isDefaultValue(getAccessor(), context);
 			}
 			return false;
 		}
@@ -1186,6 +1245,38 @@ public class FieldDescriptor extends DescriptorBase implements IMappable<String>
 		}
 	}
 
+	/**
+	 * Read this scalar field of context into the slot, once, for appendValue(Appendable,
+	 * ScalarValue, TranslationContext, Format). Primitive fields are read without boxing.
+	 * 
+	 * @param context
+	 *          Object the field is in.
+	 * @param slot
+	 * @param elideDefaults
+	 *          false to keep default values, for formats that want every field written.
+	 * @return true if the field should be left out: it is null or, when eliding defaults, the
+	 *         default value for its type.
+	 * @throws SIMPLTranslationException
+	 */
+	public boolean readValue(Object context, ScalarValue slot, boolean elideDefaults)
+			throws SIMPLTranslationException
+	{
+		try
+		{
+			if (isEnum)
+			{
+				slot.setObject(getValue(context));
+				return slot.isNull();
+			}
+			boolean isDefault = scalarType.readValue(getAccessor(), context, slot);
+			return elideDefaults ? isDefault : slot.isNull();
+		}
+		catch (Exception ex)
+		{
+			throw new SIMPLTranslationException("reading " + getName() + " raised exception ", ex);
+		}
+	}
+
 	/**
 	 * Appends the label and value of a metadata field to HTML elements, including anchors where
 	 * appropriate
@@ -1208,7 +1299,7 @@ public class FieldDescriptor extends DescriptorBase implements IMappable<String>
 			FieldDescriptor navigatesFD, String schemaOrgItemProp) throws IllegalArgumentException,
 			IllegalAccessException, IOException
 	{
-		if (!scalarType.isDefaultValue(field, context))
+		if (!scalarType.isDefaultValue(getAccessor(), context))
 		{
 			Td labelTd = new Td();
 			Td valueTd = new Td();
@@ -1485,7 +1576,7 @@ public class FieldDescriptor extends DescriptorBase implements IMappable<String>
 			}
 			else if (scalarType != null && !scalarType.isMarshallOnly())
 			{
-				scalarType.setField(context, field, value, format, scalarUnmarshallingContext);
+				scalarType.setField(context, getAccessor(), value, format, scalarUnmarshallingContext);
 			}
 		}
 	}
@@ -1647,11 +1738,12 @@ public class FieldDescriptor extends DescriptorBase implements IMappable<String>
 		Object collection = null;
 		try
 		{
-			collection = field.get(activeES);
+			FieldAccessor accessor = getAccessor();
+			collection = accessor.get(activeES);
 			if (collection == null)
 			{
 				collection = collectionType.getInstance();
-				field.set(activeES, collection);
+				accessor.set(activeES, collection);
 			}
 		}
 		catch (IllegalArgumentException e)
@@ -1717,7 +1809,7 @@ public class FieldDescriptor extends DescriptorBase implements IMappable<String>
 	{
 		try
 		{
-			field.set(context, nestedObject);
+			getAccessor().set(context, nestedObject);
 		}
 		catch (Exception e)
 		{
@@ -2170,7 +2262,7 @@ public class FieldDescriptor extends DescriptorBase implements IMappable<String>
 		Field childField = this.getField();
 		try
 		{
-			resultObject = childField.get(context);
+			resultObject = getAccessor().get(context);
 		}
 		catch (IllegalAccessException e)
 		{
@@ -2178,7 +2270,7 @@ public class FieldDescriptor extends DescriptorBase implements IMappable<String>
 			childField.setAccessible(true);
 			try
 			{
-				resultObject = childField.get(this);
+				resultObject = childField.get(context);
 			}
 			catch (IllegalAccessException e1)
 			{
@@ -2217,6 +2309,36 @@ public class FieldDescriptor extends DescriptorBase implements IMappable<String>
 		}
 	}
 
+	/**
+	 * Append the value of this field that readValue() put in the slot.
+	 * 
+	 * @param appendable
+	 * @param slot
+	 * @param translationContext
+	 * @param format
+	 * @throws SIMPLTranslationException
+	 */
+	public void appendValue(Appendable appendable, ScalarValue slot,
+			TranslationContext translationContext, Format format) throws SIMPLTranslationException
+	{
+		try
+		{
+			if (isEnum)
+			{
+				String enumValue = getEnumerationDescriptor().marshal(slot.objectValue);
+				appendable.append(FormatRegistry.get(format).escape(enumValue));
+			}
+			else
+			{
+				scalarType.appendValue(slot, appendable, this, translationContext, format);
+			}
+		}
+		catch (Exception ex)
+		{
+			throw new SIMPLTranslationException("appendValue exception. ", ex);
+		}
+	}
+
 	public void appendCollectionScalarValue(Appendable appendable, Object object,
 			TranslationContext translationContext, Format format) throws SIMPLTranslationException
 	{
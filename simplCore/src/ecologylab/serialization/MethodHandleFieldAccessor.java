@@ -0,0 +1,382 @@
+package ecologylab.serialization;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * FieldAccessor built on java.lang.invoke. Getters and setters are unreflected once, when the
+ * accessor is built, and adapted to erased (Object) receiver types so that they can be called with
+ * invokeExact. For primitive fields, an additional pair of handles is adapted to the primitive type
+ * itself, so the matching getInt() / setDouble() / ... calls never box.
+ * <p/>
+ * Anything the handles cannot do (setting a final field, calling getInt() on a long field, ...)
+ * falls back to plain reflection, with the same semantics as ReflectionFieldAccessor.
+ */
+public class MethodHandleFieldAccessor extends ReflectionFieldAccessor
+{
+	private static final MethodType	OBJECT_GETTER	= MethodType.methodType(Object.class, Object.class);
+
+	private static final MethodType	OBJECT_SETTER	= MethodType.methodType(void.class, Object.class,
+																										Object.class);
+
+	private final Class<?>					fieldClass;
+
+	private final MethodHandle			getter;
+
+	private final MethodHandle			setter;
+
+	private final MethodHandle			primitiveGetter;
+
+	private final MethodHandle			primitiveSetter;
+
+	/**
+	 * @param field
+	 *          A non-static field.
+	 *
+	 * @throws IllegalAccessException
+	 *           If the field cannot be read through a MethodHandle.
+	 */
+	public MethodHandleFieldAccessor(Field field) throws IllegalAccessException
+	{
+		super(field);
+		this.fieldClass = field.getType();
+
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		MethodHandle rawGetter = lookup.unreflectGetter(field);
+		MethodHandle rawSetter = null;
+		try
+		{
+			rawSetter = lookup.unreflectSetter(field);
+		}
+		catch (IllegalAccessException e)
+		{
+			// final fields can't be unreflected for writing. leave setter null, and use reflection.
+		}
+
+		this.getter = rawGetter.asType(OBJECT_GETTER);
+		this.setter = rawSetter == null ? null : rawSetter.asType(OBJECT_SETTER);
+		if (primitive)
+		{
+			this.primitiveGetter = rawGetter.asType(MethodType.methodType(fieldClass, Object.class));
+			this.primitiveSetter = rawSetter == null ? null : rawSetter.asType(MethodType.methodType(
+					void.class, Object.class, fieldClass));
+		}
+		else
+		{
+			this.primitiveGetter = null;
+			this.primitiveSetter = null;
+		}
+	}
+
+	/**
+	 * Translate what comes out of invokeExact() into what Field.get() / Field.set() would have
+	 * thrown, so callers can keep handling the same exceptions.
+	 */
+	private static RuntimeException unchecked(Throwable t)
+	{
+		if (t instanceof ClassCastException)
+			return new IllegalArgumentException(t);
+		if (t instanceof RuntimeException)
+			return (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		return new IllegalStateException(t);
+	}
+
+	@Override
+	public Object get(Object context) throws IllegalAccessException
+	{
+		try
+		{
+			return (Object) getter.invokeExact(context);
+		}
+		catch (Throwable t)
+		{
+			throw unchecked(t);
+		}
+	}
+
+	@Override
+	public void set(Object context, Object value) throws IllegalAccessException
+	{
+		if (setter == null)
+		{
+			super.set(context, value);
+			return;
+		}
+		try
+		{
+			setter.invokeExact(context, value);
+		}
+		catch (Throwable t)
+		{
+			throw unchecked(t);
+		}
+	}
+
+	@Override
+	public int getInt(Object context) throws IllegalAccessException
+	{
+		if (fieldClass != int.class)
+			return super.getInt(context);
+		try
+		{
+			return (int) primitiveGetter.invokeExact(context);
+		}
+		catch (Throwable t)
+		{
+			throw unchecked(t);
+		}
+	}
+
+	@Override
+	public void setInt(Object context, int value) throws IllegalAccessException
+	{
+		if (fieldClass != int.class || primitiveSetter == null)
+		{
+			super.setInt(context, value);
+			return;
+		}
+		try
+		{
+			primitiveSetter.invokeExact(context, value);
+		}
+		catch (Throwable t)
+		{
+			throw unchecked(t);
+		}
+	}
+
+	@Override
+	public long getLong(Object context) throws IllegalAccessException
+	{
+		if (fieldClass != long.class)
+			return super.getLong(context);
+		try
+		{
+			return (long) primitiveGetter.invokeExact(context);
+		}
+		catch (Throwable t)
+		{
+			throw unchecked(t);
+		}
+	}
+
+	@Override
+	public void setLong(Object context, long value) throws IllegalAccessException
+	{
+		if (fieldClass != long.class || primitiveSetter == null)
+		{
+			super.setLong(context, value);
+			return;
+		}
+		try
+		{
+			primitiveSetter.invokeExact(context, value);
+		}
+		catch (Throwable t)
+		{
+			throw unchecked(t);
+		}
+	}
+
+	@Override
+	public double getDouble(Object context) throws IllegalAccessException
+	{
+		if (fieldClass != double.class)
+			return super.getDouble(context);
+		try
+		{
+			return (double) primitiveGetter.invokeExact(context);
+		}
+		catch (Throwable t)
+		{
+			throw unchecked(t);
+		}
+	}
+
+	@Override
+	public void setDouble(Object context, double value) throws IllegalAccessException
+	{
+		if (fieldClass != double.class || primitiveSetter == null)
+		{
+			super.setDouble(context, value);
+			return;
+		}
+		try
+		{
+			primitiveSetter.invokeExact(context, value);
+		}
+		catch (Throwable t)
+		{
+			throw unchecked(t);
+		}
+	}
+
+	@Override
+	public float getFloat(Object context) throws IllegalAccessException
+	{
+		if (fieldClass != float.class)
+			return super.getFloat(context);
+		try
+		{
+			return (float) primitiveGetter.invokeExact(context);
+		}
+		catch (Throwable t)
+		{
+			throw unchecked(t);
+		}
+	}
+
+	@Override
+	public void setFloat(Object context, float value) throws IllegalAccessException
+	{
+		if (fieldClass != float.class || primitiveSetter == null)
+		{
+			super.setFloat(context, value);
+			return;
+		}
+		try
+		{
+			primitiveSetter.invokeExact(context, value);
+		}
+		catch (Throwable t)
+		{
+			throw unchecked(t);
+		}
+	}
+
+	@Override
+	public boolean getBoolean(Object context) throws IllegalAccessException
+	{
+		if (fieldClass != boolean.class)
+			return super.getBoolean(context);
+		try
+		{
+			return (boolean) primitiveGetter.invokeExact(context);
+		}
+		catch (Throwable t)
+		{
+			throw unchecked(t);
+		}
+	}
+
+	@Override
+	public void setBoolean(Object context, boolean value) throws IllegalAccessException
+	{
+		if (fieldClass != boolean.class || primitiveSetter == null)
+		{
+			super.setBoolean(context, value);
+			return;
+		}
+		try
+		{
+			primitiveSetter.invokeExact(context, value);
+		}
+		catch (Throwable t)
+		{
+			throw unchecked(t);
+		}
+	}
+
+	@Override
+	public short getShort(Object context) throws IllegalAccessException
+	{
+		if (fieldClass != short.class)
+			return super.getShort(context);
+		try
+		{
+			return (short) primitiveGetter.invokeExact(context);
+		}
+		catch (Throwable t)
+		{
+			throw unchecked(t);
+		}
+	}
+
+	@Override
+	public void setShort(Object context, short value) throws IllegalAccessException
+	{
+		if (fieldClass != short.class || primitiveSetter == null)
+		{
+			super.setShort(context, value);
+			return;
+		}
+		try
+		{
+			primitiveSetter.invokeExact(context, value);
+		}
+		catch (Throwable t)
+		{
+			throw unchecked(t);
+		}
+	}
+
+	@Override
+	public byte getByte(Object context) throws IllegalAccessException
+	{
+		if (fieldClass != byte.class)
+			return super.getByte(context);
+		try
+		{
+			return (byte) primitiveGetter.invokeExact(context);
+		}
+		catch (Throwable t)
+		{
+			throw unchecked(t);
+		}
+	}
+
+	@Override
+	public void setByte(Object context, byte value) throws IllegalAccessException
+	{
+		if (fieldClass != byte.class || primitiveSetter == null)
+		{
+			super.setByte(context, value);
+			return;
+		}
+		try
+		{
+			primitiveSetter.invokeExact(context, value);
+		}
+		catch (Throwable t)
+		{
+			throw unchecked(t);
+		}
+	}
+
+	@Override
+	public char getChar(Object context) throws IllegalAccessException
+	{
+		if (fieldClass != char.class)
+			return super.getChar(context);
+		try
+		{
+			return (char) primitiveGetter.invokeExact(context);
+		}
+		catch (Throwable t)
+		{
+			throw unchecked(t);
+		}
+	}
+
+	@Override
+	public void setChar(Object context, char value) throws IllegalAccessException
+	{
+		if (fieldClass != char.class || primitiveSetter == null)
+		{
+			super.setChar(context, value);
+			return;
+		}
+		try
+		{
+			primitiveSetter.invokeExact(context, value);
+		}
+		catch (Throwable t)
+		{
+			throw unchecked(t);
+		}
+	}
+}
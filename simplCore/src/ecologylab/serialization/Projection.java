@@ -0,0 +1,132 @@
+package ecologylab.serialization;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The fields a consumer needs from a document. Pull deserializers skip every other field of a class
+ * that the projection names fields of, without building objects or scalar values for it; classes
+ * that it names no fields of are deserialized whole.
+ * <p/>
+ * So the projection <code>channel/item/title</code> of an Rss document keeps the channel of the
+ * rss, the items of the channel, and the title of each item, while <code>channel/item</code> keeps
+ * each item whole. Subclasses of a class are projected like it.
+ *
+ * @see SimplTypesScope#deserialize(CharSequence, ecologylab.serialization.formatenums.StringFormat,
+ *      Projection)
+ */
+public class Projection
+{
+	private final Set<ClassDescriptor<?>>	restrictedClasses	= new HashSet<ClassDescriptor<?>>();
+
+	private final Set<FieldDescriptor>															fields						= new HashSet<FieldDescriptor>();
+
+	/**
+	 * Keep just these fields of the classes that declare them.
+	 *
+	 * @param fieldDescriptors
+	 */
+	public Projection(FieldDescriptor... fieldDescriptors)
+	{
+		for (FieldDescriptor fd : fieldDescriptors)
+			add(fd.getDeclaringClassDescriptor(), fd);
+	}
+
+	/**
+	 * Keep the fields along each of the paths, starting from the root class. Each step of a path is
+	 * the tag of a field, or of the elements of a collection or map field, or the name of the field.
+	 *
+	 * @param rootClassDescriptor
+	 * @param tagPaths
+	 *          Steps separated by '/', such as <code>channel/item/title</code>.
+	 * @throws SIMPLTranslationException
+	 *           if a step names no field of the class it is in.
+	 */
+	public Projection(ClassDescriptor<?> rootClassDescriptor,
+			String... tagPaths) throws SIMPLTranslationException
+	{
+		for (String tagPath : tagPaths)
+		{
+			List<ClassDescriptor<?>> classDescriptors = new ArrayList<ClassDescriptor<?>>();
+			classDescriptors.add(rootClassDescriptor);
+			for (String step : tagPath.split("/"))
+			{
+				if (step.length() == 0)
+					continue;
+				if (classDescriptors.isEmpty())
+					throw new SIMPLTranslationException("Can't follow " + tagPath + " to " + step
+							+ ": it goes past a scalar");
+
+				boolean found = false;
+				List<ClassDescriptor<?>> next = new ArrayList<ClassDescriptor<?>>();
+				for (ClassDescriptor<?> classDescriptor : classDescriptors)
+				{
+					FieldDescriptor fd = fieldDescriptor(classDescriptor, step);
+					if (fd == null)
+						continue;
+					found = true;
+					add(classDescriptor, fd);
+					if (fd.getType() == FieldType.WRAPPER)
+						fd = fd.getWrappedFD();
+					ClassDescriptor<?> elementClassDescriptor = fd.getElementClassDescriptor();
+					if (elementClassDescriptor != null)
+						next.add(elementClassDescriptor);
+					Collection<?> polymorphicClassDescriptors = fd.getPolymorphicClassDescriptors();
+					if (polymorphicClassDescriptors != null)
+						for (Object polymorphicClassDescriptor : polymorphicClassDescriptors)
+							next.add((ClassDescriptor<?>) polymorphicClassDescriptor);
+				}
+				if (!found)
+					throw new SIMPLTranslationException("No field " + step + " in " + tagPath);
+				classDescriptors = next;
+			}
+		}
+	}
+
+	/**
+	 * Keep the fields along each of the paths, starting from the root class.
+	 *
+	 * @see #Projection(ClassDescriptor, String...)
+	 */
+	public Projection(Class<?> rootClass, String... tagPaths) throws SIMPLTranslationException
+	{
+		this(ClassDescriptor.getClassDescriptor(rootClass), tagPaths);
+	}
+
+	private static FieldDescriptor fieldDescriptor(
+			ClassDescriptor<?> classDescriptor, String step)
+	{
+		FieldDescriptor fd = classDescriptor.getFieldDescriptorByTag(null, step);
+		if (fd == null)
+			fd = classDescriptor.getFieldDescriptorByFieldName(step);
+		return fd;
+	}
+
+	private void add(ClassDescriptor<?> classDescriptor, FieldDescriptor fd)
+	{
+		restrictedClasses.add(classDescriptor);
+		fields.add(fd.getType() == FieldType.WRAPPER ? fd.getWrappedFD() : fd);
+	}
+
+	/**
+	 * @param classDescriptor
+	 *          Class of the object being deserialized.
+	 * @param fd
+	 *          One of its fields, or the wrapper of one.
+	 * @return true if the field is to be deserialized.
+	 */
+	public boolean includes(ClassDescriptor<?> classDescriptor,
+			FieldDescriptor fd)
+	{
+		if (fields.contains(fd.getType() == FieldType.WRAPPER ? fd.getWrappedFD() : fd))
+			return true;
+		for (ClassDescriptor<?> c = classDescriptor; c != null; c = c
+				.getSuperClass())
+			if (restrictedClasses.contains(c))
+				return false;
+		return true;
+	}
+}
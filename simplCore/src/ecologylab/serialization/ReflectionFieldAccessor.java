@@ -0,0 +1,166 @@
+package ecologylab.serialization;
+
+import java.lang.reflect.Field;
+
+/**
+ * FieldAccessor that goes through java.lang.reflect.Field. Works everywhere, including platforms
+ * without java.lang.invoke, so it is also the fallback for the other strategies.
+ */
+public class ReflectionFieldAccessor implements FieldAccessor
+{
+	protected final Field		field;
+
+	protected final boolean	primitive;
+
+	public ReflectionFieldAccessor(Field field)
+	{
+		this.field = field;
+		this.primitive = field.getType().isPrimitive();
+		if (!field.isAccessible())
+			field.setAccessible(true);
+	}
+
+	@Override
+	public Field getField()
+	{
+		return field;
+	}
+
+	@Override
+	public Object get(Object context) throws IllegalAccessException
+	{
+		return field.get(context);
+	}
+
+	@Override
+	public void set(Object context, Object value) throws IllegalAccessException
+	{
+		field.set(context, value);
+	}
+
+	@Override
+	public int getInt(Object context) throws IllegalAccessException
+	{
+		return primitive ? field.getInt(context) : ((Number) field.get(context)).intValue();
+	}
+
+	@Override
+	public void setInt(Object context, int value) throws IllegalAccessException
+	{
+		if (primitive)
+			field.setInt(context, value);
+		else
+			field.set(context, value);
+	}
+
+	@Override
+	public long getLong(Object context) throws IllegalAccessException
+	{
+		return primitive ? field.getLong(context) : ((Number) field.get(context)).longValue();
+	}
+
+	@Override
+	public void setLong(Object context, long value) throws IllegalAccessException
+	{
+		if (primitive)
+			field.setLong(context, value);
+		else
+			field.set(context, value);
+	}
+
+	@Override
+	public double getDouble(Object context) throws IllegalAccessException
+	{
+		return primitive ? field.getDouble(context) : ((Number) field.get(context)).doubleValue();
+	}
+
+	@Override
+	public void setDouble(Object context, double value) throws IllegalAccessException
+	{
+		if (primitive)
+			field.setDouble(context, value);
+		else
+			field.set(context, value);
+	}
+
+	@Override
+	public float getFloat(Object context) throws IllegalAccessException
+	{
+		return primitive ? field.getFloat(context) : ((Number) field.get(context)).floatValue();
+	}
+
+	@Override
+	public void setFloat(Object context, float value) throws IllegalAccessException
+	{
+		if (primitive)
+			field.setFloat(context, value);
+		else
+			field.set(context, value);
+	}
+
+	@Override
+	public boolean getBoolean(Object context) throws IllegalAccessException
+	{
+		return primitive ? field.getBoolean(context) : (Boolean) field.get(context);
+	}
+
+	@Override
+	public void setBoolean(Object context, boolean value) throws IllegalAccessException
+	{
+		if (primitive)
+			field.setBoolean(context, value);
+		else
+			field.set(context, value);
+	}
+
+	@Override
+	public short getShort(Object context) throws IllegalAccessException
+	{
+		return primitive ? field.getShort(context) : ((Number) field.get(context)).shortValue();
+	}
+
+	@Override
+	public void setShort(Object context, short value) throws IllegalAccessException
+	{
+		if (primitive)
+			field.setShort(context, value);
+		else
+			field.set(context, value);
+	}
+
+	@Override
+	public byte getByte(Object context) throws IllegalAccessException
+	{
+		return primitive ? field.getByte(context) : ((Number) field.get(context)).byteValue();
+	}
+
+	@Override
+	public void setByte(Object context, byte value) throws IllegalAccessException
+	{
+		if (primitive)
+			field.setByte(context, value);
+		else
+			field.set(context, value);
+	}
+
+	@Override
+	public char getChar(Object context) throws IllegalAccessException
+	{
+		return primitive ? field.getChar(context) : (Character) field.get(context);
+	}
+
+	@Override
+	public void setChar(Object context, char value) throws IllegalAccessException
+	{
+		if (primitive)
+			field.setChar(context, value);
+		else
+			field.set(context, value);
+	}
+
+	@Override
+	public String toString()
+	{
+		return getClass().getSimpleName() + "[" + field + "]";
+	}
+}
@@ -6,15 +6,24 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.annotation.Annotation;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import ecologylab.collections.Scope;
 import ecologylab.generic.HashMapArrayList;
+import ecologylab.generic.SymbolTable;
 import ecologylab.net.ParsedURL;
 import ecologylab.serialization.annotations.simpl_map;
 import ecologylab.serialization.annotations.simpl_nowrap;
@@ -22,6 +31,8 @@ import ecologylab.serialization.annotations.simpl_scalar;
 import ecologylab.serialization.annotations.simpl_tag;
 import ecologylab.serialization.deserializers.pullhandlers.PullDeserializer;
 import ecologylab.serialization.deserializers.pullhandlers.binaryformats.BinaryPullDeserializer;
+import ecologylab.serialization.deserializers.pullhandlers.binaryformats.LazyDocument;
+import ecologylab.serialization.deserializers.pullhandlers.binaryformats.TLVPullDeserializer;
 import ecologylab.serialization.deserializers.pullhandlers.stringformats.StringPullDeserializer;
 import ecologylab.serialization.formatenums.BinaryFormat;
 import ecologylab.serialization.formatenums.Format;
@@ -69,6 +80,20 @@ public final class SimplTypesScope extends ElementState
 	@simpl_map("class_descriptor")
 	private Scope<ClassDescriptor<? extends FieldDescriptor>> entriesByTag = new Scope<ClassDescriptor<? extends FieldDescriptor>>();
 
+	/**
+	 * Read-only copy of entriesByTag for parsers, built on first use and dropped whenever a
+	 * translation is added or removed. Both are changed, and this built, while holding entriesByTag's
+	 * lock, so a copy of the old entries is never published after they change.
+	 */
+	private volatile SymbolTable<ClassDescriptor<? extends FieldDescriptor>> classDescriptorsByTagSymbols;
+
+	/**
+	 * Every tag known in this scope, of classes and of their fields, so parsers can turn a prefixed
+	 * name into its tag without concatenating. Built and dropped along with
+	 * classDescriptorsByTagSymbols.
+	 */
+	private volatile SymbolTable<String> tagSymbols;
+
 	private HashMap<Integer, ClassDescriptor<? extends FieldDescriptor>> entriesByTLVId = new HashMap<Integer, ClassDescriptor<? extends FieldDescriptor>>();
 
 	private Scope<ClassDescriptor<? extends FieldDescriptor>> entriesByBibTeXType = new Scope<ClassDescriptor<? extends FieldDescriptor>>();
@@ -474,7 +499,13 @@ public final class SimplTypesScope extends ElementState
 					entriesByClassSimpleName, "classSimpleName");
 			updateMapWithValues(inheritedTypesScope.entriesByClassName, entriesByClassName,
 					"className");
-			updateMapWithValues(inheritedTypesScope.entriesByTag, entriesByTag, "tagName");
+			synchronized (entriesByTag)
+			{
+				updateMapWithValues(inheritedTypesScope.entriesByTag, entriesByTag, "tagName");
+				// TLV ids are the hash codes of the tags, so overrides were already warned about above
+				entriesByTLVId.putAll(inheritedTypesScope.entriesByTLVId);
+				tagsChanged();
+			}
 
 			HashMap<String, Class<?>> inheritedNameSpaceClassesByURN = inheritedTypesScope.nameSpaceClassesByURN;
 			if (inheritedNameSpaceClassesByURN != null)
@@ -592,24 +623,32 @@ public final class SimplTypesScope extends ElementState
 			ClassDescriptor entry = ClassDescriptor.getClassDescriptor(classObj);
 			String tagName = entry.getTagName();
 	
-			entriesByTag.put(entry.getTagName(), entry);
-			entriesByClassSimpleName.put(entry.getDescribedClassSimpleName(), entry);
-			entriesByClassName.put(classObj.getName(), entry);
+			synchronized (entriesByTag)
+			{
+				entriesByTag.put(entry.getTagName(), entry);
+				entriesByClassSimpleName.put(entry.getDescribedClassSimpleName(), entry);
+				entriesByClassName.put(classObj.getName(), entry);
+				if (fieldAccessorStrategy != null)
+					entry.setFieldAccessorStrategy(fieldAccessorStrategy);
+				if (!elideDefaultValues)
+					entry.setElidesDefaultValues(false);
 	
-			entriesByTLVId.put(entry.getTagName().hashCode(), entry);
-			entriesByBibTeXType.put(entry.getBibtexType(), entry);
+				entriesByTLVId.put(entry.getTagName().hashCode(), entry);
+				entriesByBibTeXType.put(entry.getBibtexType(), entry);
 	
-			ArrayList<String> otherTags = entry.otherTags();
-			if (otherTags != null)
-			{
-				for (String otherTag : otherTags)
+				ArrayList<String> otherTags = entry.otherTags();
+				if (otherTags != null)
 				{
-					if ((otherTag != null) && (otherTag.length() > 0))
+					for (String otherTag : otherTags)
 					{
-						entriesByTag.put(otherTag, entry);
-						entriesByTLVId.put(otherTag.hashCode(), entry);
+						if ((otherTag != null) && (otherTag.length() > 0))
+						{
+							entriesByTag.put(otherTag, entry);
+							entriesByTLVId.put(otherTag.hashCode(), entry);
+						}
 					}
 				}
+				tagsChanged();
 			}
 		}
 	}
@@ -664,24 +703,28 @@ public final class SimplTypesScope extends ElementState
 	
 	private void removeTranslation(ClassDescriptor<?> entry, String className)
 	{
-		entriesByTag.remove(entry.getTagName());
-		entriesByClassSimpleName.remove(entry.getDescribedClassSimpleName());
-		entriesByClassName.remove(className);
+		synchronized (entriesByTag)
+		{
+			entriesByTag.remove(entry.getTagName());
+			entriesByClassSimpleName.remove(entry.getDescribedClassSimpleName());
+			entriesByClassName.remove(className);
 
-		entriesByTLVId.remove(entry.getTagName().hashCode());
-		entriesByBibTeXType.remove(entry.getBibtexType());
+			entriesByTLVId.remove(entry.getTagName().hashCode());
+			entriesByBibTeXType.remove(entry.getBibtexType());
 
-		ArrayList<String> otherTags = entry.otherTags();
-		if (otherTags != null)
-		{
-			for (String otherTag : otherTags)
+			ArrayList<String> otherTags = entry.otherTags();
+			if (otherTags != null)
 			{
-				if ((otherTag != null) && (otherTag.length() > 0))
+				for (String otherTag : otherTags)
 				{
-					entriesByTag.remove(otherTag);
-					entriesByTLVId.remove(otherTag.hashCode());
+					if ((otherTag != null) && (otherTag.length() > 0))
+					{
+						entriesByTag.remove(otherTag);
+						entriesByTLVId.remove(otherTag.hashCode());
+					}
 				}
 			}
+			tagsChanged();
 		}
 	}
 	
@@ -699,23 +742,31 @@ public final class SimplTypesScope extends ElementState
 		ClassDescriptor entry = classObj;
 		String tagName = entry.getTagName();
 
-		entriesByTag.put(entry.getTagName(), entry);
-		entriesByClassSimpleName.put(entry.getDescribedClassSimpleName(), entry);
-		entriesByClassName.put(classObj.getName(), entry);
+		synchronized (entriesByTag)
+		{
+			entriesByTag.put(entry.getTagName(), entry);
+			entriesByClassSimpleName.put(entry.getDescribedClassSimpleName(), entry);
+			entriesByClassName.put(classObj.getName(), entry);
+			if (fieldAccessorStrategy != null)
+				entry.setFieldAccessorStrategy(fieldAccessorStrategy);
+			if (!elideDefaultValues)
+				entry.setElidesDefaultValues(false);
 
-		entriesByTLVId.put(entry.getTagName().hashCode(), entry);
-		entriesByBibTeXType.put(entry.getBibtexType(), entry);
+			entriesByTLVId.put(entry.getTagName().hashCode(), entry);
+			entriesByBibTeXType.put(entry.getBibtexType(), entry);
 
-		ArrayList<String> otherTags = entry.otherTags();
-		if (otherTags != null)
-			for (String otherTag : otherTags)
-			{
-				if ((otherTag != null) && (otherTag.length() > 0))
+			ArrayList<String> otherTags = entry.otherTags();
+			if (otherTags != null)
+				for (String otherTag : otherTags)
 				{
-					entriesByTag.put(otherTag, entry);
-					entriesByTLVId.put(otherTag.hashCode(), entry);
+					if ((otherTag != null) && (otherTag.length() > 0))
+					{
+						entriesByTag.put(otherTag, entry);
+						entriesByTLVId.put(otherTag.hashCode(), entry);
+					}
 				}
-			}
+			tagsChanged();
+		}
 	}
 
 	/**
@@ -761,7 +812,104 @@ public final class SimplTypesScope extends ElementState
 
 	public ClassDescriptor<? extends FieldDescriptor> getClassDescriptorByTag(String tag)
 	{
-		return entriesByTag.get(tag);
+		ClassDescriptor<? extends FieldDescriptor> result = classDescriptorsByTagSymbols().get(tag);
+		return result != null || entriesByTag.operativeParent() == null ? result : entriesByTag.get(tag);
+	}
+
+	/**
+	 * Look up the class descriptor for the tag prefix:localName, or just localName if there is no
+	 * prefix, without building the tag.
+	 */
+	public ClassDescriptor<? extends FieldDescriptor> getClassDescriptorByTag(String prefix,
+			String localName)
+	{
+		ClassDescriptor<? extends FieldDescriptor> result = classDescriptorsByTagSymbols().get(prefix,
+				localName);
+		return result != null || entriesByTag.operativeParent() == null ? result : getClassDescriptorByTag(
+				getTag(prefix, localName));
+	}
+
+	/**
+	 * Look up the class descriptor for the tag in chars[offset, offset + length), without building
+	 * the tag.
+	 */
+	public ClassDescriptor<? extends FieldDescriptor> getClassDescriptorByTag(char[] chars,
+			int offset, int length)
+	{
+		ClassDescriptor<? extends FieldDescriptor> result = classDescriptorsByTagSymbols().get(chars,
+				offset, length);
+		return result != null || entriesByTag.operativeParent() == null ? result : entriesByTag
+				.get(new String(chars, offset, length));
+	}
+
+	/**
+	 * @return The tag prefix:localName, or localName if there is no prefix. Tags known in this scope
+	 *         come back as the same interned String every time, without concatenating.
+	 */
+	public String getTag(String prefix, String localName)
+	{
+		if (prefix == null || prefix.length() == 0)
+			return localName;
+		String result = tagSymbols().symbol(prefix, localName);
+		return result != null ? result : prefix + ":" + localName;
+	}
+
+	private SymbolTable<ClassDescriptor<? extends FieldDescriptor>> classDescriptorsByTagSymbols()
+	{
+		SymbolTable<ClassDescriptor<? extends FieldDescriptor>> result = classDescriptorsByTagSymbols;
+		if (result == null)
+		{
+			synchronized (entriesByTag)
+			{
+				result = classDescriptorsByTagSymbols;
+				if (result == null)
+				{
+					result = new SymbolTable<ClassDescriptor<? extends FieldDescriptor>>(entriesByTag);
+					classDescriptorsByTagSymbols = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	private SymbolTable<String> tagSymbols()
+	{
+		SymbolTable<String> result = tagSymbols;
+		if (result == null)
+		{
+			synchronized (entriesByTag)
+			{
+				result = tagSymbols;
+				if (result == null)
+				{
+					HashMap<String, String> tags = new HashMap<String, String>();
+					for (Map.Entry<String, ClassDescriptor<? extends FieldDescriptor>> entry : entriesByTag
+							.entrySet())
+					{
+						tags.put(entry.getKey(), entry.getKey());
+						HashMap<String, ? extends FieldDescriptor> fieldDescriptorsByTag = entry.getValue()
+								.getAllFieldDescriptorsByTagNames();
+						synchronized (fieldDescriptorsByTag)
+						{
+							for (String fieldTag : fieldDescriptorsByTag.keySet())
+								tags.put(fieldTag, fieldTag);
+						}
+					}
+					result = new SymbolTable<String>(tags);
+					tagSymbols = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Drop the symbol tables built from entriesByTag, after it changes. Call while holding its lock.
+	 */
+	private void tagsChanged()
+	{
+		classDescriptorsByTagSymbols = null;
+		tagSymbols = null;
 	}
 	
 	public ClassDescriptor<? extends FieldDescriptor> getClassDescriptorByTlvId(int id)
@@ -1202,6 +1350,10 @@ public final class SimplTypesScope extends ElementState
 
 	private ArrayList<ClassDescriptor<? extends FieldDescriptor>>	classDescriptors;
 
+	private FieldAccessorStrategy																	fieldAccessorStrategy;
+
+	private boolean																								elideDefaultValues	= true;
+
 	// FIXME -- implement this!
 	public ArrayList<ClassDescriptor<? extends FieldDescriptor>> getClassDescriptors()
 	{
@@ -1214,6 +1366,136 @@ public final class SimplTypesScope extends ElementState
 		return result;
 	}
 
+	/**
+	 * Choose how the FieldDescriptors of the classes in this scope read and write their fields, e.g.
+	 * FieldAccessorStrategy.REFLECTION, or METHOD_HANDLE.
+	 * <p/>
+	 * ClassDescriptors are shared by every scope that contains their class, so this also affects
+	 * those classes when they are used through other scopes.
+	 * 
+	 * @param strategy
+	 *          null to go back to FieldAccessorStrategy.getDefault().
+	 */
+	public void setFieldAccessorStrategy(FieldAccessorStrategy strategy)
+	{
+		this.fieldAccessorStrategy = strategy;
+		for (ClassDescriptor<? extends FieldDescriptor> classDescriptor : entriesByClassName.values())
+		{
+			classDescriptor.setFieldAccessorStrategy(strategy);
+		}
+	}
+
+	/**
+	 * @return The strategy set by setFieldAccessorStrategy(), or null if none has been.
+	 */
+	public FieldAccessorStrategy getFieldAccessorStrategy()
+	{
+		return fieldAccessorStrategy;
+	}
+
+	/**
+	 * Choose whether serializers leave out the scalar fields of the classes in this scope that hold
+	 * the default value for their type, such as 0 or false. Leaving them out makes documents smaller,
+	 * but costs a comparison per field; for fixed-schema formats, such as TLV, where throughput
+	 * matters more than size, turn it off to write every field that isn't null.
+	 * <p/>
+	 * Like setFieldAccessorStrategy(), this affects the classes when they are used through other
+	 * scopes, too.
+	 * 
+	 * @param elideDefaultValues
+	 *          true, the default, to leave out default values.
+	 */
+	public void setElideDefaultValues(boolean elideDefaultValues)
+	{
+		this.elideDefaultValues = elideDefaultValues;
+		for (ClassDescriptor<? extends FieldDescriptor> classDescriptor : entriesByClassName.values())
+		{
+			classDescriptor.setElidesDefaultValues(elideDefaultValues);
+		}
+	}
+
+	/**
+	 * @return false if setElideDefaultValues(false) has been called.
+	 */
+	public boolean elidesDefaultValues()
+	{
+		return elideDefaultValues;
+	}
+
+	/**
+	 * Finish preparing the ClassDescriptors of this scope, and of all the classes that their fields
+	 * refer to, in parallel, using one thread per available processor. Call this at startup, so that
+	 * the first serialization or deserialization does not pay for it.
+	 * 
+	 * @throws SIMPLTranslationException
+	 */
+	public void warmUpClassDescriptors() throws SIMPLTranslationException
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime()
+				.availableProcessors());
+		try
+		{
+			warmUpClassDescriptors(executor);
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Finish preparing the ClassDescriptors of this scope, and of all the classes that their fields
+	 * refer to, in parallel, on the executor. Returns once all of them are ready.
+	 * 
+	 * @param executor
+	 * @throws SIMPLTranslationException
+	 */
+	public void warmUpClassDescriptors(ExecutorService executor) throws SIMPLTranslationException
+	{
+		Set<ClassDescriptor<? extends FieldDescriptor>> warmed = new HashSet<ClassDescriptor<? extends FieldDescriptor>>();
+		List<ClassDescriptor<? extends FieldDescriptor>> next = getClassDescriptors();
+
+		// breadth first: each round warms up the descriptors that the previous round referred to.
+		while (!next.isEmpty())
+		{
+			List<Callable<List<ClassDescriptor<? extends FieldDescriptor>>>> tasks = new ArrayList<Callable<List<ClassDescriptor<? extends FieldDescriptor>>>>();
+			for (final ClassDescriptor<? extends FieldDescriptor> classDescriptor : next)
+			{
+				if (warmed.add(classDescriptor))
+					tasks.add(new Callable<List<ClassDescriptor<? extends FieldDescriptor>>>()
+					{
+						@Override
+						public List<ClassDescriptor<? extends FieldDescriptor>> call()
+						{
+							Class<?> describedClass = classDescriptor.getDescribedClass();
+							if (describedClass != null)
+								ClassDescriptor.getClassDescriptor(describedClass);
+							return classDescriptor.warmUp();
+						}
+					});
+			}
+
+			next = new ArrayList<ClassDescriptor<? extends FieldDescriptor>>();
+			try
+			{
+				for (Future<List<ClassDescriptor<? extends FieldDescriptor>>> future : executor
+						.invokeAll(tasks))
+					next.addAll(future.get());
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new SIMPLTranslationException("Interrupted while warming up " + this, e);
+			}
+			catch (ExecutionException e)
+			{
+				Throwable cause = e.getCause();
+				throw new SIMPLTranslationException("Can't warm up the class descriptors of " + this,
+						cause instanceof Exception ? (Exception) cause : e);
+			}
+		}
+	}
+
 	/**
 	 * Get the Scalar Type corresponding to the Class.
 	 * 
@@ -1262,13 +1544,72 @@ public final class SimplTypesScope extends ElementState
 	}
 
 	
+	/**
+	 * Each thread keeps the deserializers it has used with this scope, one per Format, for reuse.
+	 */
+	private final ThreadLocal<PullDeserializer[]>	idleDeserializers	= new ThreadLocal<PullDeserializer[]>()
+	{
+		@Override
+		protected PullDeserializer[] initialValue()
+		{
+			return new PullDeserializer[Format.values().length];
+		}
+	};
+
+	/**
+	 * Get a deserializer for the format, reusing this thread's idle one if there is one. Pair each
+	 * call with releaseDeserializer().
+	 * <p/>
+	 * An instance is taken out of the idle slot while in use, so a hook that deserializes again, on
+	 * the same thread, gets a fresh one.
+	 * 
+	 * @param translationContext
+	 * @param deserializationHookStrategy
+	 * @param format
+	 * @return
+	 * @throws SIMPLTranslationException
+	 */
+	public PullDeserializer acquireDeserializer(TranslationContext translationContext,
+			DeserializationHookStrategy deserializationHookStrategy, Format format)
+			throws SIMPLTranslationException
+	{
+		PullDeserializer[] idle = idleDeserializers.get();
+		PullDeserializer pullDeserializer = idle[format.ordinal()];
+		if (pullDeserializer == null)
+			return PullDeserializer.getDeserializer(this, translationContext,
+					deserializationHookStrategy, format);
+
+		idle[format.ordinal()] = null;
+		pullDeserializer.reset(translationContext, deserializationHookStrategy);
+		return pullDeserializer;
+	}
+
+	/**
+	 * Reset the deserializer, and keep it for the next acquireDeserializer() on this thread.
+	 * 
+	 * @param pullDeserializer
+	 * @param format
+	 */
+	public void releaseDeserializer(PullDeserializer pullDeserializer, Format format)
+	{
+		pullDeserializer.reset(null, null);
+		idleDeserializers.get()[format.ordinal()] = pullDeserializer;
+	}
+
 	public Object deserialize(File file, TranslationContext translationContext,
 			DeserializationHookStrategy deserializationHookStrategy, Format format)
 			throws SIMPLTranslationException
 	{
-		PullDeserializer pullDeserializer = PullDeserializer.getDeserializer(this, translationContext,
+		PullDeserializer pullDeserializer = acquireDeserializer(translationContext,
 				deserializationHookStrategy, format);
-		return pullDeserializer.parse(file);
+		try
+		{
+			return pullDeserializer.parse(file);
+		}
+		finally
+		{
+			releaseDeserializer(pullDeserializer, format);
+		}
 	}
 
 	public Object deserialize(File file, TranslationContext translationContext, Format format)
@@ -1318,9 +1659,16 @@ public final class SimplTypesScope extends ElementState
 			DeserializationHookStrategy deserializationHookStrategy, Format format)
 			throws SIMPLTranslationException
 	{
-		PullDeserializer pullDeserializer = PullDeserializer.getDeserializer(this, translationContext,
+		PullDeserializer pullDeserializer = acquireDeserializer(translationContext,
 				deserializationHookStrategy, format);
-		return pullDeserializer.parse(parsedURL);
+		try
+		{
+			return pullDeserializer.parse(parsedURL);
+		}
+		finally
+		{
+			releaseDeserializer(pullDeserializer, format);
+		}
 	}
 
 	public Object deserialize(InputStream inputStream,
@@ -1375,15 +1723,22 @@ public Object deserialize(InputStream inputStream, TranslationContext translatio
 		DeserializationHookStrategy deserializationHookStrategy, Format format, Charset charSet)
 		throws SIMPLTranslationException
 {
-	PullDeserializer pullDeserializer = PullDeserializer.getDeserializer(this, translationContext,
+	PullDeserializer pullDeserializer = acquireDeserializer(translationContext,
 			deserializationHookStrategy, format);
-	if(charSet != null)
+	try
 	{
-		return pullDeserializer.parse(inputStream, charSet);
+		if(charSet != null)
+		{
+			return pullDeserializer.parse(inputStream, charSet);
+		}
+		else
+		{
+			return pullDeserializer.parse(inputStream);
+		}
 	}
-	else
+	finally
 	{
-		return pullDeserializer.parse(inputStream);
+		releaseDeserializer(pullDeserializer, format);
 	}
 }
 
@@ -1398,19 +1753,25 @@ public Object deserialize(InputStream inputStream, TranslationContext translatio
 			DeserializationHookStrategy deserializationHookStrategy, StringFormat stringFormat)
 			throws SIMPLTranslationException
 	{
-		StringPullDeserializer pullDeserializer = PullDeserializer.getStringDeserializer(this,
-				translationContext, deserializationHookStrategy, stringFormat);
-		return pullDeserializer.parse(charSequence);
+		Format format = Format.valueOf(stringFormat.name());
+		StringPullDeserializer pullDeserializer = (StringPullDeserializer) acquireDeserializer(
+				translationContext, deserializationHookStrategy, format);
+		try
+		{
+			return pullDeserializer.parse(charSequence);
+		}
+		finally
+		{
+			releaseDeserializer(pullDeserializer, format);
+		}
 	}
 
 	public Object deserialize(CharSequence charSequence,
 			DeserializationHookStrategy deserializationHookStrategy, StringFormat stringFormat)
 			throws SIMPLTranslationException
 	{
-		TranslationContext translationContext = new TranslationContext();
-		StringPullDeserializer pullDeserializer = PullDeserializer.getStringDeserializer(this,
-				translationContext, deserializationHookStrategy, stringFormat);
-		return pullDeserializer.parse(charSequence);
+		return deserialize(charSequence, new TranslationContext(), deserializationHookStrategy,
+				stringFormat);
 	}
 
 	public Object deserialize(CharSequence charSequence, TranslationContext translationContext,
@@ -1431,9 +1792,329 @@ public Object deserialize(InputStream inputStream, TranslationContext translatio
 			DeserializationHookStrategy deserializationHookStrategy, BinaryFormat binaryFormat)
 			throws SIMPLTranslationException
 	{
-		BinaryPullDeserializer binaryPullDeserializer = PullDeserializer.getBinaryDeserializer(this,
-				translationContext, deserializationHookStrategy, binaryFormat);
-		return binaryPullDeserializer.parse(byteArray);
+		Format format = Format.valueOf(binaryFormat.name());
+		BinaryPullDeserializer binaryPullDeserializer = (BinaryPullDeserializer) acquireDeserializer(
+				translationContext, deserializationHookStrategy, format);
+		try
+		{
+			return binaryPullDeserializer.parse(byteArray);
+		}
+		finally
+		{
+			releaseDeserializer(binaryPullDeserializer, format);
+		}
+	}
+
+	public Object deserialize(byte[] byteArray, BinaryFormat binaryFormat)
+			throws SIMPLTranslationException
+	{
+		return deserialize(byteArray, new TranslationContext(), null, binaryFormat);
+	}
+
+	/**
+	 * Deserialize from the buffer's position on, without copying it. Works with heap, direct and
+	 * memory-mapped buffers. On return, the buffer is positioned just past what was read.
+	 * 
+	 * @param byteBuffer
+	 * @param translationContext
+	 * @param deserializationHookStrategy
+	 * @param binaryFormat
+	 * @return
+	 * @throws SIMPLTranslationException
+	 */
+	public Object deserialize(ByteBuffer byteBuffer, TranslationContext translationContext,
+			DeserializationHookStrategy deserializationHookStrategy, BinaryFormat binaryFormat)
+			throws SIMPLTranslationException
+	{
+		Format format = Format.valueOf(binaryFormat.name());
+		BinaryPullDeserializer binaryPullDeserializer = (BinaryPullDeserializer) acquireDeserializer(
+				translationContext, deserializationHookStrategy, format);
+		try
+		{
+			return binaryPullDeserializer.parse(byteBuffer);
+		}
+		finally
+		{
+			releaseDeserializer(binaryPullDeserializer, format);
+		}
+	}
+
+	public Object deserialize(ByteBuffer byteBuffer, BinaryFormat binaryFormat)
+			throws SIMPLTranslationException
+	{
+		return deserialize(byteBuffer, new TranslationContext(), null, binaryFormat);
+	}
+
+	/**
+	 * Deserialize a large document using several threads: the collections and maps of composites of
+	 * the root are split into ranges of elements that are deserialized concurrently on executor, and
+	 * put back together in document order. simpl:refs resolve as they do sequentially.
+	 * <p/>
+	 * Only TLV is split, since its elements can be found by hopping over their lengths; XML and JSON
+	 * would have to be tokenized first to find where each element ends, so they are deserialized on
+	 * the calling thread.
+	 * 
+	 * @param byteBuffer
+	 * @param binaryFormat
+	 * @param executor
+	 * @return
+	 * @throws SIMPLTranslationException
+	 */
+	public Object deserialize(ByteBuffer byteBuffer, BinaryFormat binaryFormat,
+			ExecutorService executor) throws SIMPLTranslationException
+	{
+		Format format = Format.valueOf(binaryFormat.name());
+		BinaryPullDeserializer binaryPullDeserializer = (BinaryPullDeserializer) acquireDeserializer(
+				new TranslationContext(), null, format);
+		try
+		{
+			if (binaryPullDeserializer instanceof TLVPullDeserializer)
+				((TLVPullDeserializer) binaryPullDeserializer).setExecutor(executor);
+			return binaryPullDeserializer.parse(byteBuffer);
+		}
+		finally
+		{
+			releaseDeserializer(binaryPullDeserializer, format);
+		}
+	}
+
+	/**
+	 * Deserialize the root object of a document and its scalars, deferring its composites,
+	 * collections and maps until they are materialized through the LazyDocument. Cheap for consumers
+	 * that only read a few fields of a large document.
+	 * <p/>
+	 * Only TLV can be skimmed without parsing what is skipped, since each element starts with its
+	 * length.
+	 * 
+	 * @param byteBuffer
+	 *          Must not be changed while the LazyDocument is in use.
+	 * @param binaryFormat
+	 * @return
+	 * @throws SIMPLTranslationException
+	 */
+	public LazyDocument deserializeLazily(ByteBuffer byteBuffer, BinaryFormat binaryFormat)
+			throws SIMPLTranslationException
+	{
+		Format format = Format.valueOf(binaryFormat.name());
+		TLVPullDeserializer pullDeserializer = (TLVPullDeserializer) acquireDeserializer(
+				new TranslationContext(), null, format);
+		try
+		{
+			return pullDeserializer.parseLazily(byteBuffer);
+		}
+		finally
+		{
+			releaseDeserializer(pullDeserializer, format);
+		}
+	}
+
+	/**
+	 * Memory-map a file, and deserialize it lazily.
+	 * 
+	 * @see #deserializeLazily(ByteBuffer, BinaryFormat)
+	 */
+	public LazyDocument deserializeLazily(File file, BinaryFormat binaryFormat)
+			throws SIMPLTranslationException
+	{
+		Format format = Format.valueOf(binaryFormat.name());
+		TLVPullDeserializer pullDeserializer = (TLVPullDeserializer) acquireDeserializer(
+				new TranslationContext(), null, format);
+		try
+		{
+			return pullDeserializer.parseLazily(file);
+		}
+		finally
+		{
+			releaseDeserializer(pullDeserializer, format);
+		}
+	}
+
+	/**
+	 * Deserialize a file using several threads. TLV files are memory-mapped and split.
+	 * 
+	 * @see #deserialize(ByteBuffer, BinaryFormat, ExecutorService)
+	 */
+	public Object deserialize(File file, Format format, ExecutorService executor)
+			throws SIMPLTranslationException
+	{
+		PullDeserializer pullDeserializer = acquireDeserializer(new TranslationContext(), null, format);
+		try
+		{
+			if (pullDeserializer instanceof TLVPullDeserializer)
+				((TLVPullDeserializer) pullDeserializer).setExecutor(executor);
+			return pullDeserializer.parse(file);
+		}
+		finally
+		{
+			releaseDeserializer(pullDeserializer, format);
+		}
+	}
+
+	/**
+	 * Deserialize a document whose root holds one huge collection, such as a log or a feed, handing
+	 * each element of that collection to elementSink as soon as it is complete, instead of adding it
+	 * to the collection. Nothing else keeps the elements, so memory is bounded by one element rather
+	 * than the whole document, unless the document marks elements with simpl:id for graph handling;
+	 * those have to be kept for references to resolve.
+	 * <p/>
+	 * Streams, and XML and JSON files, are read as they are parsed. TLV needs the bytes of the root
+	 * element in hand: files are memory-mapped, and streams read into a buffer.
+	 * 
+	 * @param inputStream
+	 * @param format
+	 * @param collectionFieldName
+	 *          Name of the collection or map field of the root to stream, or null for its first
+	 *          collection or map of composites.
+	 * @param elementSink
+	 * @return The root object, with everything but the streamed collection.
+	 * @throws SIMPLTranslationException
+	 */
+	public Object deserialize(InputStream inputStream, Format format, String collectionFieldName,
+			ElementSink<?> elementSink) throws SIMPLTranslationException
+	{
+		PullDeserializer pullDeserializer = acquireDeserializer(new TranslationContext(), null, format);
+		try
+		{
+			pullDeserializer.setElementSink(collectionFieldName, elementSink);
+			return pullDeserializer.parse(inputStream);
+		}
+		finally
+		{
+			releaseDeserializer(pullDeserializer, format);
+		}
+	}
+
+	/**
+	 * Deserialize a file, streaming the elements of one collection of its root to elementSink.
+	 * 
+	 * @see #deserialize(InputStream, Format, String, ElementSink)
+	 */
+	public Object deserialize(File file, Format format, String collectionFieldName,
+			ElementSink<?> elementSink) throws SIMPLTranslationException
+	{
+		PullDeserializer pullDeserializer = acquireDeserializer(new TranslationContext(), null, format);
+		try
+		{
+			pullDeserializer.setElementSink(collectionFieldName, elementSink);
+			return pullDeserializer.parse(file);
+		}
+		finally
+		{
+			releaseDeserializer(pullDeserializer, format);
+		}
+	}
+
+	/**
+	 * Deserialize a string, streaming the elements of one collection of its root to elementSink.
+	 * 
+	 * @see #deserialize(InputStream, Format, String, ElementSink)
+	 */
+	public Object deserialize(CharSequence charSequence, StringFormat stringFormat,
+			String collectionFieldName, ElementSink<?> elementSink) throws SIMPLTranslationException
+	{
+		Format format = Format.valueOf(stringFormat.name());
+		StringPullDeserializer pullDeserializer = (StringPullDeserializer) acquireDeserializer(
+				new TranslationContext(), null, format);
+		try
+		{
+			pullDeserializer.setElementSink(collectionFieldName, elementSink);
+			return pullDeserializer.parse(charSequence);
+		}
+		finally
+		{
+			releaseDeserializer(pullDeserializer, format);
+		}
+	}
+
+	/**
+	 * Deserialize only the fields of a document that are in projection. The others are skipped
+	 * structurally, as unknown tags are, and are left as the constructor of their object set them.
+	 * 
+	 * @param charSequence
+	 * @param stringFormat
+	 * @param projection
+	 *          For instance <code>new Projection(Rss.class, "channel/item/title")</code>.
+	 * @return
+	 * @throws SIMPLTranslationException
+	 */
+	public Object deserialize(CharSequence charSequence, StringFormat stringFormat,
+			Projection projection) throws SIMPLTranslationException
+	{
+		Format format = Format.valueOf(stringFormat.name());
+		StringPullDeserializer pullDeserializer = (StringPullDeserializer) acquireDeserializer(
+				new TranslationContext(), null, format);
+		try
+		{
+			pullDeserializer.setProjection(projection);
+			return pullDeserializer.parse(charSequence);
+		}
+		finally
+		{
+			releaseDeserializer(pullDeserializer, format);
+		}
+	}
+
+	/**
+	 * Deserialize only the fields of a stream that are in projection.
+	 * 
+	 * @see #deserialize(CharSequence, StringFormat, Projection)
+	 */
+	public Object deserialize(InputStream inputStream, Format format, Projection projection)
+			throws SIMPLTranslationException
+	{
+		PullDeserializer pullDeserializer = acquireDeserializer(new TranslationContext(), null, format);
+		try
+		{
+			pullDeserializer.setProjection(projection);
+			return pullDeserializer.parse(inputStream);
+		}
+		finally
+		{
+			releaseDeserializer(pullDeserializer, format);
+		}
+	}
+
+	/**
+	 * Deserialize only the fields of a file that are in projection.
+	 * 
+	 * @see #deserialize(CharSequence, StringFormat, Projection)
+	 */
+	public Object deserialize(File file, Format format, Projection projection)
+			throws SIMPLTranslationException
+	{
+		PullDeserializer pullDeserializer = acquireDeserializer(new TranslationContext(), null, format);
+		try
+		{
+			pullDeserializer.setProjection(projection);
+			return pullDeserializer.parse(file);
+		}
+		finally
+		{
+			releaseDeserializer(pullDeserializer, format);
+		}
+	}
+
+	/**
+	 * Deserialize only the fields of a buffer that are in projection. TLV jumps over the others by
+	 * their lengths.
+	 * 
+	 * @see #deserialize(CharSequence, StringFormat, Projection)
+	 */
+	public Object deserialize(ByteBuffer byteBuffer, BinaryFormat binaryFormat, Projection projection)
+			throws SIMPLTranslationException
+	{
+		Format format = Format.valueOf(binaryFormat.name());
+		BinaryPullDeserializer pullDeserializer = (BinaryPullDeserializer) acquireDeserializer(
+				new TranslationContext(), null, format);
+		try
+		{
+			pullDeserializer.setProjection(projection);
+			return pullDeserializer.parse(byteBuffer);
+		}
+		finally
+		{
+			releaseDeserializer(pullDeserializer, format);
+		}
 	}
 
 	public static SimplTypesScope getBasicTranslations()
@@ -1901,8 +2582,15 @@ public Object deserialize(InputStream inputStream, TranslationContext translatio
 	public static void serialize(Object object, Appendable appendable, StringFormat stringFormat)
 			throws SIMPLTranslationException
 	{
-		TranslationContext translationContext = new TranslationContext();
-		serialize(object, appendable, stringFormat, translationContext);
+		TranslationContext translationContext = TranslationContextPool.get().acquire();
+		try
+		{
+			serialize(object, appendable, stringFormat, translationContext);
+		}
+		finally
+		{
+			TranslationContextPool.get().release(translationContext);
+		}
 	}
 
 	/**
@@ -1918,9 +2606,15 @@ public Object deserialize(InputStream inputStream, TranslationContext translatio
 	public static StringBuilder serialize(Object object, StringFormat stringFormat)
 			throws SIMPLTranslationException
 	{
-		TranslationContext translationContext = new TranslationContext();
-		StringBuilder sb = serialize(object, stringFormat, translationContext);
-		return sb;
+		TranslationContext translationContext = TranslationContextPool.get().acquire();
+		try
+		{
+			return serialize(object, stringFormat, translationContext);
+		}
+		finally
+		{
+			TranslationContextPool.get().release(translationContext);
+		}
 	}
 
 	/**
@@ -1936,8 +2630,15 @@ public Object deserialize(InputStream inputStream, TranslationContext translatio
 	public static void serialize(Object object, StringBuilder stringBuilder, StringFormat stringFormat)
 			throws SIMPLTranslationException
 	{
-		TranslationContext translationContext = new TranslationContext();
-		serialize(object, stringBuilder, stringFormat, translationContext);
+		TranslationContext translationContext = TranslationContextPool.get().acquire();
+		try
+		{
+			serialize(object, stringBuilder, stringFormat, translationContext);
+		}
+		finally
+		{
+			TranslationContextPool.get().release(translationContext);
+		}
 	}
 
 	/**
@@ -1971,7 +2672,6 @@ public Object deserialize(InputStream inputStream, TranslationContext translatio
 	public static void serialize(Object object, File file, Format format)
 			throws SIMPLTranslationException
 	{
-		TranslationContext translationContext = new TranslationContext();
-		serialize(object, file, format, translationContext);
+		FormatSerializer.getSerializer(format).serialize(object, file);
 	}
 }
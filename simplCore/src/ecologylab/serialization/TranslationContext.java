@@ -3,13 +3,15 @@ package ecologylab.serialization;
 import java.io.File;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 
-import ecologylab.collections.MultiMap;
+import ecologylab.collections.IdentityIntMap;
 import ecologylab.generic.Debug;
 import ecologylab.net.ParsedURL;
 import ecologylab.serialization.SimplTypesScope.GRAPH_SWITCH;
+import ecologylab.serialization.types.ScalarValue;
 
 /**
  * 
@@ -35,19 +37,39 @@ public class TranslationContext extends Debug implements ScalarUnmarshallingCont
 
 	public static final String				JSON_SIMPL_REF	= "simpl.ref";
 
-	private MultiMap<Integer, Object>	marshalledObjects;
+	/**
+	 * Objects serialized so far, mapped to their simpl:id. Graph tracking is by reference identity:
+	 * user-defined hashCode() and equals() are never called.
+	 */
+	private IdentityIntMap<Object>		marshalledObjects;
 
-	private MultiMap<Integer, Object>	visitedElements;
+	private IdentityIntMap<Object>		visitedElements;
 
-	private MultiMap<Integer, Object>	needsAttributeHashCode;
+	private IdentityIntMap<Object>		needsAttributeHashCode;
 
 	private HashMap<String, Object>		unmarshalledObjects;
 
+	/**
+	 * Where, in the output, the simpl:id of each marshalled object goes if the object turns out to
+	 * be referenced. Indexed by simpl:id.
+	 */
+	private int[]											simplIdOffsets;
+
+	/**
+	 * simpl:ids of the objects that a simpl:ref has been written for.
+	 */
+	private BitSet										referencedSimplIds;
+
 	protected ParsedURL								baseDirPurl;
 
 	protected File										baseDirFile;
 
 	protected String									delimiter				= ",";
+
+	/**
+	 * Holds each scalar field a serializer writes, between reading and appending it.
+	 */
+	private final ScalarValue					scalarValue			= new ScalarValue();
 	
 	/**
 	 * 
@@ -90,10 +112,12 @@ public class TranslationContext extends Debug implements ScalarUnmarshallingCont
 
 	public void initializeMultiMaps()
 	{
-		marshalledObjects = new MultiMap<Integer, Object>();
-		visitedElements = new MultiMap<Integer, Object>();
-		needsAttributeHashCode = new MultiMap<Integer, Object>();
+		marshalledObjects = new IdentityIntMap<Object>();
+		visitedElements = new IdentityIntMap<Object>();
+		needsAttributeHashCode = new IdentityIntMap<Object>();
 		unmarshalledObjects = new HashMap<String, Object>();
+		simplIdOffsets = new int[16];
+		referencedSimplIds = new BitSet();
 	}
 
 	/**
@@ -108,6 +132,21 @@ public class TranslationContext extends Debug implements ScalarUnmarshallingCont
 		this.unmarshalledObjects.put(value, elementState);
 	}
 
+	/**
+	 * Take on the objects that another context, which deserialized part of the same document, has
+	 * marked as unmarshalled, so that references further on resolve to them.
+	 * 
+	 * @param other
+	 */
+	public void markAsUnmarshalled(TranslationContext other)
+	{
+		if (other.unmarshalledObjects == null || other.unmarshalledObjects.isEmpty())
+			return;
+		if (unmarshalledObjects == null)
+			initializeMultiMaps();
+		this.unmarshalledObjects.putAll(other.unmarshalledObjects);
+	}
+
 	public void resolveGraph(Object object)
 	{
 		if (visitedElements == null)
@@ -124,8 +163,7 @@ public class TranslationContext extends Debug implements ScalarUnmarshallingCont
 	{
 		if (SimplTypesScope.graphSwitch == GRAPH_SWITCH.ON)
 		{
-			// this.visitedElements.put(System.identityHashCode(elementState), elementState);
-			this.visitedElements.put(elementState.hashCode(), elementState);
+			this.visitedElements.put(elementState, 0);
 
 			ClassDescriptor.getClassDescriptor(elementState);
 
@@ -188,9 +226,7 @@ public class TranslationContext extends Debug implements ScalarUnmarshallingCont
 							
 							if (this.alreadyVisited(compositeElement))
 							{
-								// this.needsAttributeHashCode.put(System.identityHashCode(compositeElement),
-								// compositeElement);
-								this.needsAttributeHashCode.put(compositeElement.hashCode(), compositeElement);
+								this.needsAttributeHashCode.put(compositeElement, 0);
 							}
 							else
 							{
@@ -205,9 +241,7 @@ public class TranslationContext extends Debug implements ScalarUnmarshallingCont
 
 					if (this.alreadyVisited(compositeElement))
 					{
-						// this.needsAttributeHashCode.put(System.identityHashCode(compositeElement),
-						// compositeElement);
-						this.needsAttributeHashCode.put(compositeElement.hashCode(), compositeElement);
+						this.needsAttributeHashCode.put(compositeElement, 0);
 					}
 					else
 					{
@@ -228,10 +262,11 @@ public class TranslationContext extends Debug implements ScalarUnmarshallingCont
 		if (unmarshalledObjects == null)
 			initializeMultiMaps();
 
-		return this.visitedElements.contains(elementState.hashCode(), elementState) != -1;
+		return this.visitedElements.containsKey(elementState);
 	}
 
 	/**
+	 * Record that object has been serialized, and give it the next simpl:id.
 	 * 
 	 * @param object
 	 */
@@ -240,7 +275,11 @@ public class TranslationContext extends Debug implements ScalarUnmarshallingCont
 		if (SimplTypesScope.graphSwitch == GRAPH_SWITCH.ON)
 		{
 			if (object != null)
-				this.marshalledObjects.put(object.hashCode(), object);
+			{
+				if (marshalledObjects == null)
+					initializeMultiMaps();
+				this.marshalledObjects.putIfAbsent(object, marshalledObjects.size() + 1);
+			}
 		}
 	}
 
@@ -251,10 +290,10 @@ public class TranslationContext extends Debug implements ScalarUnmarshallingCont
 	 */
 	public boolean alreadyMarshalled(Object compositeObject)
 	{
-		if (compositeObject == null)
+		if (compositeObject == null || marshalledObjects == null)
 			return false;
 
-		return this.marshalledObjects.contains(compositeObject.hashCode(), compositeObject) != -1;
+		return this.marshalledObjects.containsKey(compositeObject);
 	}
 
 	/**
@@ -264,7 +303,7 @@ public class TranslationContext extends Debug implements ScalarUnmarshallingCont
 	 */
 	public boolean needsHashCode(Object elementState)
 	{
-		return this.needsAttributeHashCode.contains(elementState.hashCode(), elementState) != -1;
+		return needsAttributeHashCode != null && this.needsAttributeHashCode.containsKey(elementState);
 	}
 
 	/**
@@ -273,7 +312,63 @@ public class TranslationContext extends Debug implements ScalarUnmarshallingCont
 	 */
 	public boolean isGraph()
 	{
-		return this.needsAttributeHashCode.size() > 0;
+		return needsAttributeHashCode != null && this.needsAttributeHashCode.size() > 0;
+	}
+
+	/**
+	 * Serializers walk the object graph once. When an object is first written, they do not know yet
+	 * whether it will be referenced, so they record where its simpl:id would go, and patch the ids of
+	 * the objects that were referenced in once the whole graph has been written.
+	 * 
+	 * @param object
+	 *          An object that has already been passed to mapObject().
+	 * @param offset
+	 *          Format-specific position in the output.
+	 */
+	public void setSimplIdOffset(Object object, int offset)
+	{
+		int id = getSimplIdValue(object);
+		if (id >= simplIdOffsets.length)
+		{
+			int[] newOffsets = new int[Math.max(id + 1, simplIdOffsets.length * 2)];
+			System.arraycopy(simplIdOffsets, 0, newOffsets, 0, simplIdOffsets.length);
+			simplIdOffsets = newOffsets;
+		}
+		simplIdOffsets[id] = offset;
+	}
+
+	/**
+	 * 
+	 * @param simplId
+	 * @return The offset recorded for the object with this simpl:id by setSimplIdOffset().
+	 */
+	public int getSimplIdOffset(int simplId)
+	{
+		return simplIdOffsets[simplId];
+	}
+
+	/**
+	 * Record that a simpl:ref to object has been written, so its simpl:id must be written too.
+	 * 
+	 * @param object
+	 */
+	public void markAsReferenced(Object object)
+	{
+		int id = getSimplIdValue(object);
+		needsAttributeHashCode.put(object, id);
+		referencedSimplIds.set(id);
+	}
+
+	/**
+	 * Iterate over the simpl:ids of referenced objects, in the order that the objects were first
+	 * written: <code>for (int id = nextReferencedSimplId(0); id >= 0; id = nextReferencedSimplId(id + 1))</code>
+	 * 
+	 * @param fromSimplId
+	 * @return The first referenced simpl:id that is >= fromSimplId, or -1 if there is none.
+	 */
+	public int nextReferencedSimplId(int fromSimplId)
+	{
+		return referencedSimplIds == null ? -1 : referencedSimplIds.nextSetBit(fromSimplId);
 	}
 
 	/**
@@ -297,15 +392,35 @@ public class TranslationContext extends Debug implements ScalarUnmarshallingCont
 				: null;
 	}
 
+	/**
+	 * 
+	 * @param object
+	 * @return The simpl:id of object, as it is written by the string formats.
+	 */
 	public String getSimplId(Object object)
 	{
-		Integer objectHashCode = object.hashCode();
-		Integer orderedIndex = marshalledObjects.contains(objectHashCode, object);
+		return Integer.toString(getSimplIdValue(object));
+	}
+
+	/**
+	 * simpl:ids are handed out in the order that objects are first serialized, starting from 1, so
+	 * they are unique within a document even when distinct objects are equal() or share a hash code.
+	 * 
+	 * @param object
+	 * @return The simpl:id of object, as it is written by the binary formats.
+	 */
+	public int getSimplIdValue(Object object)
+	{
+		if (marshalledObjects == null)
+			initializeMultiMaps();
 
-		if (orderedIndex > 0)
-			return objectHashCode.toString() + "," + orderedIndex.toString();
-		else
-			return objectHashCode.toString();
+		int id = marshalledObjects.get(object);
+		if (id == IdentityIntMap.NOT_FOUND)
+		{
+			id = marshalledObjects.size() + 1;
+			marshalledObjects.put(object, id);
+		}
+		return id;
 	}
 
 	/**
@@ -326,6 +441,15 @@ public class TranslationContext extends Debug implements ScalarUnmarshallingCont
 		return delimiter;
 	}
 
+	/**
+	 * @return The slot that serializers read scalar fields into. Only good until the next field is
+	 *         read.
+	 */
+	public ScalarValue scalarValue()
+	{
+		return scalarValue;
+	}
+
 	void clean()
 	{
 		if (marshalledObjects != null)
@@ -334,12 +458,15 @@ public class TranslationContext extends Debug implements ScalarUnmarshallingCont
 			visitedElements.clear();
 		if (needsAttributeHashCode != null)
 			needsAttributeHashCode.clear();
-		if (needsAttributeHashCode != null)
+		if (unmarshalledObjects != null)
 			unmarshalledObjects.clear();
+		if (referencedSimplIds != null)
+			referencedSimplIds.clear();
 
 		baseDirPurl = null;
 		baseDirFile = null;
 		delimiter = ",";
+		scalarValue.setObject(null);
 	}
 
 }
\ No newline at end of file
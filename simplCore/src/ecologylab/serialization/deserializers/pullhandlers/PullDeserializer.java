@@ -6,15 +6,22 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Field;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Map;
 
 import ecologylab.generic.Debug;
 import ecologylab.net.ConnectionAdapter;
 import ecologylab.net.PURLConnection;
 import ecologylab.net.ParsedURL;
+import ecologylab.serialization.ClassDescriptor;
 import ecologylab.serialization.DeserializationHookStrategy;
+import ecologylab.serialization.ElementSink;
+import ecologylab.serialization.FieldDescriptor;
 import ecologylab.serialization.FieldType;
+import ecologylab.serialization.Projection;
 import ecologylab.serialization.SIMPLTranslationException;
 import ecologylab.serialization.SimplTypesScope;
 import ecologylab.serialization.TranslationContext;
@@ -41,6 +48,22 @@ public abstract class PullDeserializer extends Debug
 
 	static final ConnectionAdapter				connectionAdapter	= new ConnectionAdapter();
 
+	/**
+	 * When streaming, receives the elements of the streamed field instead of the root object.
+	 */
+	private ElementSink<Object>						elementSink;
+
+	private String												streamedFieldName;
+
+	private Field													streamedField;
+
+	private Object												streamedRoot;
+
+	/**
+	 * Fields to deserialize, or null for all of them.
+	 */
+	private Projection										projection;
+
 	/**
 	 * Constructs that creates a JSON deserialization handler
 	 * 
@@ -72,6 +95,150 @@ public abstract class PullDeserializer extends Debug
 		this.deserializationHookStrategy = deserializationHookStrategy;
 	}
 
+	/**
+	 * Prepare this for deserializing another document, so that one instance can be reused across
+	 * messages instead of being created for each one. Drops all state from the previous document,
+	 * including references to its parser and input, and keeps only scratch space that is safe to
+	 * share. Passing null for translationContext releases the instance while it sits idle.
+	 * <p/>
+	 * Subclasses that hold per-document state must override this, and call super.
+	 * 
+	 * @param translationContext
+	 * @param deserializationHookStrategy
+	 */
+	public void reset(TranslationContext translationContext,
+			DeserializationHookStrategy deserializationHookStrategy)
+	{
+		this.translationContext = translationContext;
+		this.deserializationHookStrategy = deserializationHookStrategy;
+		this.elementSink = null;
+		this.streamedFieldName = null;
+		this.streamedField = null;
+		this.streamedRoot = null;
+		this.projection = null;
+	}
+
+	/**
+	 * Deserialize only the fields in projection, skipping the others as if they were unknown. Lasts
+	 * until reset().
+	 * 
+	 * @param projection
+	 *          null for all fields.
+	 */
+	public void setProjection(Projection projection)
+	{
+		this.projection = projection;
+	}
+
+	/**
+	 * @param rootClassDescriptor
+	 * @param fd
+	 *          A field of rootClassDescriptor.
+	 * @return false if the field is to be skipped.
+	 */
+	protected boolean projects(ClassDescriptor<?> rootClassDescriptor, FieldDescriptor fd)
+	{
+		return projection == null || projection.includes(rootClassDescriptor, fd);
+	}
+
+	/**
+	 * Stream the next document: hand each element of one collection or map field of its root object
+	 * to elementSink, as soon as the element is complete, instead of adding it to the field. Lasts
+	 * until reset().
+	 * 
+	 * @param collectionFieldName
+	 *          Name of the field of the root object to stream, or null for its first collection or
+	 *          map of composites.
+	 * @param elementSink
+	 *          Sink for the type of the elements of the field, which is only known once the root is.
+	 */
+	@SuppressWarnings("unchecked")
+	public void setElementSink(String collectionFieldName, ElementSink<?> elementSink)
+	{
+		this.streamedFieldName = collectionFieldName;
+		this.elementSink = (ElementSink<Object>) elementSink;
+	}
+
+	/**
+	 * Called by subclasses once they have created the root object of a document, to find the field
+	 * to stream, if streaming.
+	 * 
+	 * @param root
+	 * @param rootClassDescriptor
+	 * @throws SIMPLTranslationException
+	 *           if the root has no such field to stream.
+	 */
+	protected void rootCreated(Object root,
+			ClassDescriptor<? extends FieldDescriptor> rootClassDescriptor)
+			throws SIMPLTranslationException
+	{
+		if (elementSink == null)
+			return;
+
+		FieldDescriptor streamedFieldDescriptor = null;
+		if (streamedFieldName != null)
+			streamedFieldDescriptor = rootClassDescriptor.getFieldDescriptorByFieldName(streamedFieldName);
+		else
+			for (FieldDescriptor fd : rootClassDescriptor.allFieldDescriptors())
+				if (fd.getType() == FieldType.COLLECTION_ELEMENT || fd.getType() == FieldType.MAP_ELEMENT)
+				{
+					streamedFieldDescriptor = fd;
+					break;
+				}
+
+		if (streamedFieldDescriptor == null
+				|| (streamedFieldDescriptor.getType() != FieldType.COLLECTION_ELEMENT && streamedFieldDescriptor
+						.getType() != FieldType.MAP_ELEMENT))
+			throw new SIMPLTranslationException("cannot stream " + rootClassDescriptor.getDescribedClassSimpleName()
+					+ (streamedFieldName == null ? ": no collection or map of composites" : "." + streamedFieldName
+							+ ": not a collection or map of composites"));
+
+		streamedField = streamedFieldDescriptor.getField();
+		streamedRoot = root;
+	}
+
+	private boolean isStreamed(Object root, FieldDescriptor fd)
+	{
+		return root == streamedRoot && elementSink != null && fd.getField() == streamedField;
+	}
+
+	/**
+	 * Add a deserialized element to the collection of fd in root, or if that is being streamed, give
+	 * it to the ElementSink.
+	 * 
+	 * @param root
+	 * @param fd
+	 * @param element
+	 * @throws SIMPLTranslationException
+	 */
+	protected void addToCollection(Object root, FieldDescriptor fd, Object element)
+			throws SIMPLTranslationException
+	{
+		if (isStreamed(root, fd))
+			elementSink.element(element);
+		else
+			((Collection) fd.automaticLazyGetCollectionOrMap(root)).add(element);
+	}
+
+	/**
+	 * Put a deserialized element in the map of fd in root, or if that is being streamed, give it to
+	 * the ElementSink.
+	 * 
+	 * @param root
+	 * @param fd
+	 * @param key
+	 * @param element
+	 * @throws SIMPLTranslationException
+	 */
+	protected void putInMap(Object root, FieldDescriptor fd, Object key, Object element)
+			throws SIMPLTranslationException
+	{
+		if (isStreamed(root, fd))
+			elementSink.element(element);
+		else
+			((Map) fd.automaticLazyGetCollectionOrMap(root)).put(key, element);
+	}
+
 	/**
 	 * 
 	 * @param file
@@ -314,6 +481,8 @@ public abstract class PullDeserializer extends Debug
 		switch (binaryFormat)
 		{
 		case TLV:
+			return new TLVPullDeserializer(translationScope, translationContext,
+					deserializationHookStrategy);
 		default:
 			throw new SIMPLTranslationException(binaryFormat + " format not supported");
 		}
@@ -1,5 +1,8 @@
 package ecologylab.serialization.deserializers.pullhandlers.binaryformats;
 
+import java.nio.ByteBuffer;
+
+import ecologylab.serialization.DeserializationHookStrategy;
 import ecologylab.serialization.SIMPLTranslationException;
 import ecologylab.serialization.SimplTypesScope;
 import ecologylab.serialization.TranslationContext;
@@ -14,5 +17,21 @@ public abstract class BinaryPullDeserializer extends PullDeserializer
 		super(translationScope, translationContext);
 	}
 
+	public BinaryPullDeserializer(SimplTypesScope translationScope,
+			TranslationContext translationContext, DeserializationHookStrategy deserializationHookStrategy)
+	{
+		super(translationScope, translationContext, deserializationHookStrategy);
+	}
+
 	public abstract Object parse(byte[] byteArray) throws SIMPLTranslationException;
+
+	/**
+	 * Deserialize from the buffer's position on. Implementations should read the buffer in place, so
+	 * that direct and memory-mapped buffers are never copied onto the heap.
+	 * 
+	 * @param byteBuffer
+	 * @return
+	 * @throws SIMPLTranslationException
+	 */
+	public abstract Object parse(ByteBuffer byteBuffer) throws SIMPLTranslationException;
 }
@@ -0,0 +1,204 @@
+package ecologylab.serialization.deserializers.pullhandlers.binaryformats;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import ecologylab.serialization.ClassDescriptor;
+import ecologylab.serialization.FieldDescriptor;
+import ecologylab.serialization.SIMPLTranslationException;
+import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.TranslationContext;
+
+/**
+ * A TLV document whose root object has been deserialized along with its scalars, while its
+ * composite, collection and map fields have only been located, by jumping over their lengths. Each
+ * of those fields is left null until it is materialized, which deserializes just its bytes.
+ * <p/>
+ * Fields are plain Java fields, so reading one cannot trigger its deserialization: call
+ * materialize() for the fields you need, then read them from root(). The bytes of the document are
+ * kept until every field has been materialized. Hooks of the root object have run by the time the
+ * document is returned, before its deferred fields are set.
+ */
+public class LazyDocument
+{
+	private final SimplTypesScope												translationScope;
+
+	private final TranslationContext										translationContext;
+
+	private Object																			root;
+
+	private ClassDescriptor<? extends FieldDescriptor>	rootClassDescriptor;
+
+	private ByteBuffer																	buffer;
+
+	/**
+	 * Where the fields that have not been materialized are, in document order.
+	 */
+	private final List<DeferredField>										deferredFields	= new ArrayList<DeferredField>();
+
+	private static class DeferredField
+	{
+		final FieldDescriptor	fd;
+
+		final int							start;
+
+		int										end;
+
+		DeferredField(FieldDescriptor fd, int start, int end)
+		{
+			this.fd = fd;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	LazyDocument(SimplTypesScope translationScope, TranslationContext translationContext)
+	{
+		this.translationScope = translationScope;
+		this.translationContext = translationContext;
+	}
+
+	void rootCreated(Object root, ClassDescriptor<? extends FieldDescriptor> rootClassDescriptor,
+			ByteBuffer buffer)
+	{
+		this.root = root;
+		this.rootClassDescriptor = rootClassDescriptor;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Note that the bytes from start to end belong to fd. The consecutive elements of an unwrapped
+	 * collection are noted as one range.
+	 */
+	void defer(FieldDescriptor fd, int start, int end)
+	{
+		if (!deferredFields.isEmpty())
+		{
+			DeferredField last = deferredFields.get(deferredFields.size() - 1);
+			if (last.fd == fd && last.end == start)
+			{
+				last.end = end;
+				return;
+			}
+		}
+		deferredFields.add(new DeferredField(fd, start, end));
+	}
+
+	/**
+	 * @return The root object. Fields that have not been materialized are null.
+	 */
+	public Object root()
+	{
+		return root;
+	}
+
+	public ClassDescriptor<? extends FieldDescriptor> getRootClassDescriptor()
+	{
+		return rootClassDescriptor;
+	}
+
+	/**
+	 * @param fd
+	 * @return true if fd holds everything the document has for it.
+	 */
+	public synchronized boolean isMaterialized(FieldDescriptor fd)
+	{
+		for (DeferredField deferredField : deferredFields)
+			if (deferredField.fd == fd)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Deserialize the field of the root object named fieldName, if it hasn't been yet.
+	 *
+	 * @param fieldName
+	 * @return The value of the field.
+	 * @throws SIMPLTranslationException
+	 *           if the root object has no such field, or its bytes are malformed.
+	 */
+	public Object materialize(String fieldName) throws SIMPLTranslationException
+	{
+		FieldDescriptor fd = rootClassDescriptor.getFieldDescriptorByFieldName(fieldName);
+		if (fd == null)
+			throw new SIMPLTranslationException("No field " + fieldName + " in "
+					+ rootClassDescriptor.getDescribedClassSimpleName());
+		return materialize(fd);
+	}
+
+	/**
+	 * Deserialize a field of the root object, if it hasn't been yet.
+	 * <p/>
+	 * simpl:refs only point back in a document, so if the field may contain one, every field before
+	 * it is materialized first.
+	 *
+	 * @param fd
+	 * @return The value of the field.
+	 * @throws SIMPLTranslationException
+	 */
+	public synchronized Object materialize(FieldDescriptor fd) throws SIMPLTranslationException
+	{
+		int last = -1;
+		boolean containsRef = false;
+		for (int i = 0; i < deferredFields.size(); i++)
+		{
+			DeferredField deferredField = deferredFields.get(i);
+			if (deferredField.fd == fd)
+			{
+				last = i;
+				containsRef |= TLVPullDeserializer.containsRef(buffer, deferredField.start,
+						deferredField.end);
+			}
+		}
+
+		if (last >= 0)
+		{
+			Iterator<DeferredField> iterator = deferredFields.iterator();
+			for (int i = 0; i <= last; i++)
+			{
+				DeferredField deferredField = iterator.next();
+				if (containsRef || deferredField.fd == fd)
+				{
+					deserialize(deferredField);
+					iterator.remove();
+				}
+			}
+			if (deferredFields.isEmpty())
+				buffer = null;
+		}
+		return fd.getValue(root);
+	}
+
+	/**
+	 * Deserialize every field that hasn't been yet, and let go of the bytes of the document.
+	 *
+	 * @return The root object.
+	 * @throws SIMPLTranslationException
+	 */
+	public synchronized Object materializeAll() throws SIMPLTranslationException
+	{
+		for (DeferredField deferredField : deferredFields)
+			deserialize(deferredField);
+		deferredFields.clear();
+		buffer = null;
+		return root;
+	}
+
+	private void deserialize(DeferredField deferredField) throws SIMPLTranslationException
+	{
+		TLVPullDeserializer deserializer = new TLVPullDeserializer(translationScope,
+				translationContext, null);
+		try
+		{
+			deserializer.deserializeFields(root, rootClassDescriptor, buffer, deferredField.start,
+					deferredField.end);
+		}
+		catch (IOException e)
+		{
+			throw new SIMPLTranslationException("Can't deserialize " + deferredField.fd.getName(), e);
+		}
+	}
+}
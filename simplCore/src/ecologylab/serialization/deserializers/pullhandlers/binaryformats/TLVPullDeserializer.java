@@ -1,13 +1,23 @@
 package ecologylab.serialization.deserializers.pullhandlers.binaryformats;
 
-import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
-import java.util.Collection;
-import java.util.Map;
-
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import ecologylab.net.ParsedURL;
 import ecologylab.serialization.ClassDescriptor;
 import ecologylab.serialization.DeserializationHookStrategy;
 import ecologylab.serialization.ElementState;
@@ -20,15 +30,29 @@ import ecologylab.serialization.deserializers.pullhandlers.DeserializationProced
 import ecologylab.serialization.types.element.IMappable;
 
 /**
+ * Reads TLV straight out of a ByteBuffer: a wrapped byte[], a pooled direct buffer, or a
+ * MappedByteBuffer over a file. Scalar values are decoded where they lie, without copying them into
+ * a new byte[] first, and elements whose TLV id is unknown are skipped by jumping over their
+ * declared length.
  * 
  * @author nabeelshahzad
  *
  */
 public class TLVPullDeserializer extends BinaryPullDeserializer
 {
-	private static final int	HEADER_SIZE	= 8;
+	private static final int	HEADER_SIZE				= 8;
 
-	DataInputStream						inputStream;
+	/**
+	 * Fewest elements worth handing to another thread.
+	 */
+	private static final int	ELEMENTS_PER_TASK	= 32;
+
+	/**
+	 * For byte ranges known to be ASCII: decoding ISO-8859-1 is a straight widening of each byte.
+	 */
+	private static final Charset	ASCII				= Charset.forName("ISO-8859-1");
+
+	ByteBuffer								buffer;
 
 	int												blockType;
 
@@ -36,19 +60,91 @@ public class TLVPullDeserializer extends BinaryPullDeserializer
 
 	boolean										isEos				= false;
 
+	/**
+	 * Scratch space for decoding scalar values, reused across fields.
+	 */
+	private char[]						charBuffer	= new char[64];
+
+	private byte[]						byteBuffer;
+
+	/**
+	 * Runs the tasks that deserialize ranges of the root's collections, or null to deserialize
+	 * sequentially.
+	 */
+	private ExecutorService		executor;
+
+	private Object						documentRoot;
+
+	/**
+	 * Collects where the fields of the root that are not deserialized yet are, when skimming.
+	 */
+	private LazyDocument			lazyDocument;
+
 	public TLVPullDeserializer(SimplTypesScope translationScope,
 			TranslationContext translationContext, DeserializationHookStrategy deserializationHookStrategy)
 	{
-		super(translationScope, translationContext);
+		super(translationScope, translationContext, deserializationHookStrategy);
+	}
+
+	/**
+	 * Keeps the scratch buffers for decoding scalars.
+	 */
+	@Override
+	public void reset(TranslationContext translationContext,
+			DeserializationHookStrategy deserializationHookStrategy)
+	{
+		super.reset(translationContext, deserializationHookStrategy);
+		buffer = null;
+		isEos = false;
+		executor = null;
+		documentRoot = null;
+		lazyDocument = null;
+	}
+
+	/**
+	 * Deserialize the collections and maps of composites of the root element concurrently on
+	 * executor, in ranges of elements that are put back together in document order. Every other
+	 * part of the document, and anything read while a DeserializationHookStrategy is set, is
+	 * deserialized on the calling thread.
+	 * <p/>
+	 * Ranges that contain a simpl:ref are deserialized on the calling thread, after the simpl:ids of
+	 * the ranges before them are known, since references only ever point back in the document.
+	 * 
+	 * @param executor
+	 *          null to deserialize sequentially.
+	 */
+	public void setExecutor(ExecutorService executor)
+	{
+		this.executor = executor;
 	}
 
 	@Override
 	public Object parse(byte[] byteArray) throws SIMPLTranslationException
+	{
+		return parse(ByteBuffer.wrap(byteArray));
+	}
+
+	/**
+	 * Deserialize the TLV element starting at the buffer's position. On return, the position is just
+	 * past the element, so that consecutive elements can be read from the same buffer.
+	 * 
+	 * @param byteBuffer
+	 * @return
+	 * @throws SIMPLTranslationException
+	 */
+	@Override
+	public Object parse(ByteBuffer byteBuffer) throws SIMPLTranslationException
 	{
 		try
 		{
-			configure(new ByteArrayInputStream(byteArray));
-			return parse();
+			configure(byteBuffer);
+			Object result = parse();
+			byteBuffer.position(byteBuffer.position() + buffer.position());
+			return result;
+		}
+		catch (SIMPLTranslationException ex)
+		{
+			throw ex;
 		}
 		catch (Exception ex)
 		{
@@ -56,20 +152,113 @@ public class TLVPullDeserializer extends BinaryPullDeserializer
 		}
 	}
 
+	/**
+	 * Reads exactly one TLV element from the stream: its header, then the number of bytes the header
+	 * declares.
+	 */
 	@Override
 	public Object parse(InputStream inputStream) throws SIMPLTranslationException
 	{
 		try
 		{
-			configure(inputStream);
-			return parse();
+			DataInputStream dataInputStream = new DataInputStream(inputStream);
+			int type = dataInputStream.readInt();
+			int length = dataInputStream.readInt();
+			if (length < 0)
+				throw new SIMPLTranslationException("TLV element declares a negative length: " + length);
+			ByteBuffer element = ByteBuffer.allocate(HEADER_SIZE + length);
+			element.putInt(type).putInt(length);
+			dataInputStream.readFully(element.array(), HEADER_SIZE, length);
+			element.rewind();
+			return parse(element);
 		}
-		catch (Exception ex)
+		catch (EOFException ex)
+		{
+			throw new SIMPLTranslationException("unexpected end of TLV input", ex);
+		}
+		catch (IOException ex)
 		{
 			throw new SIMPLTranslationException("exception occurred in deserialzation ", ex);
 		}
 	}
 
+	/**
+	 * Memory-map the file, and read from the mapping.
+	 */
+	@Override
+	public Object parse(File file) throws SIMPLTranslationException
+	{
+		return parse(map(file));
+	}
+
+	/**
+	 * Read the root element, and its scalars, but only find where its composites, collections and
+	 * maps are, jumping over their lengths. They are deserialized when the LazyDocument is asked for
+	 * them.
+	 * 
+	 * @param byteBuffer
+	 *          Must not be changed while the LazyDocument is in use.
+	 * @return
+	 * @throws SIMPLTranslationException
+	 */
+	public LazyDocument parseLazily(ByteBuffer byteBuffer) throws SIMPLTranslationException
+	{
+		LazyDocument document = new LazyDocument(translationScope, translationContext);
+		lazyDocument = document;
+		try
+		{
+			parse(byteBuffer);
+		}
+		finally
+		{
+			lazyDocument = null;
+		}
+		return document;
+	}
+
+	/**
+	 * Memory-map the file, and skim the mapping.
+	 * 
+	 * @see #parseLazily(ByteBuffer)
+	 */
+	public LazyDocument parseLazily(File file) throws SIMPLTranslationException
+	{
+		return parseLazily(map(file));
+	}
+
+	private ByteBuffer map(File file) throws SIMPLTranslationException
+	{
+		FileInputStream fileInputStream = null;
+		try
+		{
+			fileInputStream = new FileInputStream(file);
+			FileChannel channel = fileInputStream.getChannel();
+			long size = Math.min(channel.size(), Integer.MAX_VALUE);
+
+			this.translationContext.setBaseDirFile(file.getParentFile());
+
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+		catch (IOException e)
+		{
+			throw new SIMPLTranslationException("Can't map file " + file.getAbsolutePath(), e);
+		}
+		finally
+		{
+			if (fileInputStream != null)
+			{
+				try
+				{
+					fileInputStream.close();
+				}
+				catch (IOException e)
+				{
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
 	/**
 	 * 
 	 * @return
@@ -81,6 +270,8 @@ public class TLVPullDeserializer extends BinaryPullDeserializer
 		Object root = null;
 
 		nextHeader();
+		if (isEos)
+			throw new SIMPLTranslationException("no TLV element in input");
 
 		ClassDescriptor<? extends FieldDescriptor> rootClassDescriptor = translationScope
 				.getClassDescriptorByTlvId(type());
@@ -92,6 +283,10 @@ public class TLVPullDeserializer extends BinaryPullDeserializer
 		}
 
 		root = rootClassDescriptor.getInstance();
+		rootCreated(root, rootClassDescriptor);
+		documentRoot = root;
+		if (lazyDocument != null)
+			lazyDocument.rootCreated(root, rootClassDescriptor, buffer);
 
 		deserializationPreHook(root, translationContext);
 		if (deserializationHookStrategy != null)
@@ -101,6 +296,8 @@ public class TLVPullDeserializer extends BinaryPullDeserializer
 	}
 
 	/**
+	 * Deserialize the body of an element into root. On return, the buffer is positioned just past the
+	 * body, even if it ended with a simpl:ref or with elements we don't know.
 	 * 
 	 * @param root
 	 * @param rootClassDescriptor
@@ -116,68 +313,45 @@ public class TLVPullDeserializer extends BinaryPullDeserializer
 	{
 
 		FieldDescriptor currentFieldDescriptor = null;
-		int bytesRead = 0;
+		int end = endOf(length);
 
 		DeserializationProcedureState state = DeserializationProcedureState.INIT;
 
-		while (!isEos && bytesRead < length)
+		while (buffer.position() < end)
 		{
-			bytesRead += nextHeader();
+			nextHeader();
+			if (isEos)
+				break;
 
 			if (type() == TranslationContext.SIMPL_ID.hashCode())
 			{
-				Integer simplId = inputStream.readInt();
+				Integer simplId = buffer.getInt();
 				translationContext.markAsUnmarshalled(simplId.toString(), root);
-				bytesRead += 4;
 				continue;
 			}
 
 			if (type() == TranslationContext.SIMPL_REF.hashCode())
 			{
-				Integer simplRef = inputStream.readInt();
+				Integer simplRef = buffer.getInt();
+				buffer.position(end);
 				return translationContext.getFromMap(simplRef.toString());
 			}
 
 			currentFieldDescriptor = rootClassDescriptor.getFieldDescriptorByTLVId(type());
+			if (currentFieldDescriptor == null || !projects(rootClassDescriptor, currentFieldDescriptor))
+			{
+				skip();
+				continue;
+			}
 
 			FieldType fieldType = currentFieldDescriptor.getType();
 
-			switch (fieldType)
-			{
-			case SCALAR:
-				bytesRead += deserializeScalar(root, currentFieldDescriptor);
-				break;
-			case COLLECTION_SCALAR:
-				bytesRead += deserializeScalarCollectionElement(root, currentFieldDescriptor);
-				break;
-			case COMPOSITE_ELEMENT:
-				bytesRead += deserializeComposite(root, currentFieldDescriptor);
-				break;
-			case COLLECTION_ELEMENT:
-				bytesRead += deserializeCompositeCollectionElement(root, currentFieldDescriptor);
-				break;
-			case MAP_ELEMENT:
-				bytesRead += deserializeCompositeMapElement(root, currentFieldDescriptor);
-				break;
-			case WRAPPER:
+			if (defers(root, fieldType))
+				defer(currentFieldDescriptor);
+			else
+				deserializeField(root, rootClassDescriptor, currentFieldDescriptor, end);
+			if (fieldType == FieldType.WRAPPER)
 				currentFieldDescriptor = currentFieldDescriptor.getWrappedFD();
-				switch (currentFieldDescriptor.getType())
-				{
-				case COLLECTION_SCALAR:
-					bytesRead += deserializeScalarCollection(root, currentFieldDescriptor);
-					break;
-				case COLLECTION_ELEMENT:
-					bytesRead += deserializeCompositeCollection(root, currentFieldDescriptor);
-					break;
-				case MAP_ELEMENT:
-					bytesRead += deserializeCompositeMap(root, currentFieldDescriptor);
-					break;
-				case COMPOSITE_ELEMENT:
-					//TODO: wrapped composites in tlv?
-					break;
-				}
-				break;
-			}
 			
 			state = nextDeserializationProcedureState(state, fieldType);
 			if (state == DeserializationProcedureState.ATTRIBUTES_DONE)
@@ -194,7 +368,7 @@ public class TLVPullDeserializer extends BinaryPullDeserializer
 		
 		deserializationPostHook(root, translationContext);
 		if (deserializationHookStrategy != null)
-			deserializationHookStrategy.deserializationPostHook(root, 
+			deserializationHookStrategy.deserializationPostHook(root, 
 					currentFieldDescriptor == null || currentFieldDescriptor.getType() == FieldType.IGNORED_ELEMENT
 					? null : currentFieldDescriptor);
 		
@@ -205,135 +379,417 @@ public class TLVPullDeserializer extends BinaryPullDeserializer
 	 * 
 	 * @param root
 	 * @param fd
-	 * @return
 	 * @throws SIMPLTranslationException
 	 * @throws IOException
 	 */
-	private int deserializeCompositeMap(Object root, FieldDescriptor fd)
+	private void deserializeCompositeMap(Object root, FieldDescriptor fd)
 			throws SIMPLTranslationException, IOException
 	{
-		int bytesRead = 0;
-		int length = length();
-		do
+		int end = endOf(length());
+		if (splits(root))
+			deserializeInParallel(root, null, fd, buffer.position(), end);
+		while (buffer.position() < end)
 		{
-			bytesRead += nextHeader();
-			bytesRead += deserializeCompositeMapElement(root, fd);
+			nextHeader();
+			if (isEos)
+				break;
+			deserializeCompositeMapElement(root, fd);
 		}
-		while (!isEos && bytesRead < length);
-		return bytesRead;
 	}
 
 	/**
 	 * 
 	 * @param root
 	 * @param fd
-	 * @return
 	 * @throws SIMPLTranslationException
 	 * @throws IOException
 	 */
-	private int deserializeCompositeCollection(Object root, FieldDescriptor fd)
+	private void deserializeCompositeCollection(Object root, FieldDescriptor fd)
 			throws SIMPLTranslationException, IOException
 	{
-		int bytesRead = 0;
-		int length = length();
-		do
+		int end = endOf(length());
+		if (splits(root))
+			deserializeInParallel(root, null, fd, buffer.position(), end);
+		while (buffer.position() < end)
 		{
-			bytesRead += nextHeader();
-			bytesRead += deserializeCompositeCollectionElement(root, fd);
+			nextHeader();
+			if (isEos)
+				break;
+			deserializeCompositeCollectionElement(root, fd);
 		}
-		while (!isEos && bytesRead < length);
-		return bytesRead;
 	}
 
 	/**
 	 * 
 	 * @param root
 	 * @param fd
-	 * @return
 	 * @throws SIMPLTranslationException
 	 * @throws IOException
 	 */
-	private int deserializeScalarCollection(Object root, FieldDescriptor fd)
+	private void deserializeScalarCollection(Object root, FieldDescriptor fd)
 			throws SIMPLTranslationException, IOException
 	{
-		int bytesRead = 0;
-		int length = length();
-		do
+		int end = endOf(length());
+		while (buffer.position() < end)
 		{
-			bytesRead += nextHeader();
-			bytesRead += deserializeScalarCollectionElement(root, fd);
+			nextHeader();
+			if (isEos)
+				break;
+			deserializeScalarCollectionElement(root, fd);
 		}
-		while (!isEos && bytesRead < length);
-		return bytesRead;
 	}
 
 	/**
+	 * Deserialize the field whose header has just been read into root.
 	 * 
 	 * @param root
+	 * @param rootClassDescriptor
 	 * @param fd
-	 * @return
+	 * @param end
+	 *          End of the body of root.
 	 * @throws SIMPLTranslationException
 	 * @throws IOException
 	 */
-	private int deserializeCompositeMapElement(Object root, FieldDescriptor fd)
+	private void deserializeField(Object root,
+			ClassDescriptor<? extends FieldDescriptor> rootClassDescriptor, FieldDescriptor fd, int end)
 			throws SIMPLTranslationException, IOException
 	{
-		Object subRoot;
-		int length = length();
+		switch (fd.getType())
+		{
+		case SCALAR:
+			deserializeScalar(root, fd);
+			break;
+		case COLLECTION_SCALAR:
+			deserializeScalarCollectionElement(root, fd);
+			break;
+		case COMPOSITE_ELEMENT:
+			deserializeComposite(root, fd);
+			break;
+		case COLLECTION_ELEMENT:
+			if (!splits(root)
+					|| !deserializeInParallel(root, rootClassDescriptor, fd,
+							buffer.position() - HEADER_SIZE, end))
+				deserializeCompositeCollectionElement(root, fd);
+			break;
+		case MAP_ELEMENT:
+			if (!splits(root)
+					|| !deserializeInParallel(root, rootClassDescriptor, fd,
+							buffer.position() - HEADER_SIZE, end))
+				deserializeCompositeMapElement(root, fd);
+			break;
+		case WRAPPER:
+			FieldDescriptor wrappedFD = fd.getWrappedFD();
+			switch (wrappedFD.getType())
+			{
+			case COLLECTION_SCALAR:
+				deserializeScalarCollection(root, wrappedFD);
+				break;
+			case COLLECTION_ELEMENT:
+				deserializeCompositeCollection(root, wrappedFD);
+				break;
+			case MAP_ELEMENT:
+				deserializeCompositeMap(root, wrappedFD);
+				break;
+			default:
+				//TODO: wrapped composites in tlv?
+				skip();
+				break;
+			}
+			break;
+		default:
+			skip();
+			break;
+		}
+	}
 
-		subRoot = getSubRoot(fd, root);
-		if (subRoot instanceof IMappable<?>)
+	private boolean defers(Object root, FieldType fieldType)
+	{
+		if (lazyDocument == null || root != documentRoot)
+			return false;
+		switch (fieldType)
+		{
+		case COMPOSITE_ELEMENT:
+		case COLLECTION_ELEMENT:
+		case MAP_ELEMENT:
+		case WRAPPER:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Skip the field whose header has just been read, noting where it is, under the descriptor of the
+	 * field itself rather than of its wrapper.
+	 */
+	private void defer(FieldDescriptor fd)
+	{
+		int end = endOf(length());
+		lazyDocument.defer(fd.getType() == FieldType.WRAPPER ? fd.getWrappedFD() : fd,
+				buffer.position() - HEADER_SIZE, end);
+		buffer.position(end);
+	}
+
+	/**
+	 * Deserialize the fields of root found between start and end of a document, for a LazyDocument.
+	 * 
+	 * @param root
+	 * @param rootClassDescriptor
+	 * @param document
+	 * @param start
+	 * @param end
+	 * @throws SIMPLTranslationException
+	 * @throws IOException
+	 */
+	void deserializeFields(Object root, ClassDescriptor<? extends FieldDescriptor> rootClassDescriptor,
+			ByteBuffer document, int start, int end) throws SIMPLTranslationException, IOException
+	{
+		buffer = document.duplicate();
+		buffer.position(start);
+		isEos = false;
+		while (buffer.position() < end)
 		{
-			final Object key = ((IMappable<?>) subRoot).key();
-			Map map = (Map) fd.automaticLazyGetCollectionOrMap(root);
-			map.put(key, subRoot);
+			nextHeader();
+			if (isEos)
+				break;
+			FieldDescriptor fd = rootClassDescriptor.getFieldDescriptorByTLVId(type());
+			if (fd == null || !projects(rootClassDescriptor, fd))
+				skip();
+			else
+				deserializeField(root, rootClassDescriptor, fd, end);
 		}
+	}
 
-		return length;
+	private boolean splits(Object root)
+	{
+		return executor != null && root == documentRoot && deserializationHookStrategy == null;
 	}
 
 	/**
+	 * Deserialize the run of elements of fd that starts at start in ranges on the executor, and add
+	 * them to root in document order. On return, the buffer is positioned just past the run.
 	 * 
 	 * @param root
+	 * @param rootClassDescriptor
+	 *          For elements that are not wrapped, so that the run ends at the first element of
+	 *          another field; null for wrapped ones.
 	 * @param fd
-	 * @return
+	 * @param start
+	 *          Position of the header of the first element.
+	 * @param end
+	 *          Position the run can't go past.
+	 * @return false if there is no whole element at start; the buffer is left where it was.
 	 * @throws SIMPLTranslationException
 	 * @throws IOException
 	 */
-	private int deserializeCompositeCollectionElement(Object root, FieldDescriptor fd)
+	private boolean deserializeInParallel(final Object root,
+			ClassDescriptor<? extends FieldDescriptor> rootClassDescriptor, final FieldDescriptor fd,
+			int start, int end) throws SIMPLTranslationException, IOException
+	{
+		final int[] offsets = elementOffsets(rootClassDescriptor, fd, start, end);
+		int count = offsets.length - 1;
+		if (count == 0)
+			return false;
+
+		int ranges = Math.min(count / ELEMENTS_PER_TASK, Runtime.getRuntime().availableProcessors() * 4);
+		if (ranges < 2)
+		{
+			addElements(root, fd, deserializeElements(root, fd, offsets, 0, count));
+			return true;
+		}
+
+		final int[] bounds = new int[ranges + 1];
+		for (int i = 0; i <= ranges; i++)
+			bounds[i] = (int) ((long) count * i / ranges);
+
+		ParsedURL purlContext = translationContext.purlContext();
+		TranslationContext[] contexts = new TranslationContext[ranges];
+		List<Future<List<Object>>> futures = new ArrayList<Future<List<Object>>>(ranges);
+		try
+		{
+			for (int i = 0; i < ranges; i++)
+			{
+				final int from = bounds[i];
+				final int to = bounds[i + 1];
+				contexts[i] = purlContext == null ? new TranslationContext() : new TranslationContext(
+						purlContext);
+				final TLVPullDeserializer range = new TLVPullDeserializer(translationScope, contexts[i],
+						null);
+				range.buffer = buffer.duplicate();
+				futures.add(executor.submit(new Callable<List<Object>>()
+				{
+					@Override
+					public List<Object> call() throws Exception
+					{
+						// a simpl:ref may point to an element of an earlier range, which isn't done yet.
+						if (containsRef(range.buffer, offsets[from], offsets[to]))
+							return null;
+						return range.deserializeElements(root, fd, offsets, from, to);
+					}
+				}));
+			}
+
+			for (int i = 0; i < ranges; i++)
+			{
+				List<Object> elements = futures.get(i).get();
+				if (elements == null)
+					elements = deserializeElements(root, fd, offsets, bounds[i], bounds[i + 1]);
+				else
+					translationContext.markAsUnmarshalled(contexts[i]);
+				addElements(root, fd, elements);
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new SIMPLTranslationException("Interrupted while deserializing " + fd.getName(), e);
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof SIMPLTranslationException)
+				throw (SIMPLTranslationException) cause;
+			throw new SIMPLTranslationException("Can't deserialize " + fd.getName(),
+					cause instanceof Exception ? (Exception) cause : e);
+		}
+		finally
+		{
+			for (Future<List<Object>> future : futures)
+				future.cancel(false);
+		}
+
+		buffer.position(offsets[count]);
+		return true;
+	}
+
+	/**
+	 * Hop over the headers of consecutive elements, without reading them.
+	 * 
+	 * @return Positions of the elements from start that belong to fd, followed by the position just
+	 *         past the last of them.
+	 */
+	private int[] elementOffsets(ClassDescriptor<? extends FieldDescriptor> rootClassDescriptor,
+			FieldDescriptor fd, int start, int end)
+	{
+		int[] offsets = new int[64];
+		int count = 0;
+		int position = start;
+		while (end - position >= HEADER_SIZE)
+		{
+			int type = buffer.getInt(position);
+			int length = buffer.getInt(position + 4);
+			if (length < 0 || length > end - position - HEADER_SIZE)
+				break;
+			if (rootClassDescriptor != null && rootClassDescriptor.getFieldDescriptorByTLVId(type) != fd)
+				break;
+			if (count + 1 == offsets.length)
+				offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			offsets[count++] = position;
+			position += HEADER_SIZE + length;
+		}
+		offsets[count] = position;
+		return Arrays.copyOf(offsets, count + 1);
+	}
+
+	/**
+	 * @return true if there may be a simpl:ref between from and to. Scalar values can look like
+	 *         one, which only costs deserializing them on the calling thread.
+	 */
+	static boolean containsRef(ByteBuffer buffer, int from, int to)
+	{
+		int ref = TranslationContext.SIMPL_REF.hashCode();
+		byte first = (byte) (ref >>> 24);
+		for (int i = from; i <= to - 4; i++)
+			if (buffer.get(i) == first && buffer.getInt(i) == ref)
+				return true;
+		return false;
+	}
+
+	private List<Object> deserializeElements(Object root, FieldDescriptor fd, int[] offsets,
+			int from, int to) throws SIMPLTranslationException, IOException
+	{
+		List<Object> elements = new ArrayList<Object>(to - from);
+		for (int i = from; i < to; i++)
+		{
+			buffer.position(offsets[i]);
+			nextHeader();
+			elements.add(getSubRoot(fd, root));
+		}
+		return elements;
+	}
+
+	private void addElements(Object root, FieldDescriptor fd, List<Object> elements)
+			throws SIMPLTranslationException
+	{
+		boolean map = fd.getType() == FieldType.MAP_ELEMENT;
+		for (Object element : elements)
+		{
+			if (map)
+			{
+				if (element instanceof IMappable<?>)
+					putInMap(root, fd, ((IMappable<?>) element).key(), element);
+			}
+			else if (element != null)
+			{
+				addToCollection(root, fd, element);
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @param root
+	 * @param fd
+	 * @throws SIMPLTranslationException
+	 * @throws IOException
+	 */
+	private void deserializeCompositeMapElement(Object root, FieldDescriptor fd)
 			throws SIMPLTranslationException, IOException
 	{
-		Object subRoot;
-		int length = length();
+		Object subRoot = getSubRoot(fd, root);
+		if (subRoot instanceof IMappable<?>)
+		{
+			putInMap(root, fd, ((IMappable<?>) subRoot).key(), subRoot);
+		}
+	}
 
-		subRoot = getSubRoot(fd, root);
-		Collection collection = (Collection) fd.automaticLazyGetCollectionOrMap(root);
-		collection.add(subRoot);
-		return length;
+	/**
+	 * 
+	 * @param root
+	 * @param fd
+	 * @throws SIMPLTranslationException
+	 * @throws IOException
+	 */
+	private void deserializeCompositeCollectionElement(Object root, FieldDescriptor fd)
+			throws SIMPLTranslationException, IOException
+	{
+		Object subRoot = getSubRoot(fd, root);
+		if (subRoot != null)
+		{
+			addToCollection(root, fd, subRoot);
+		}
 	}
 
 	/**
 	 * 
 	 * @param root
 	 * @param currentFieldDescriptor
-	 * @return
 	 * @throws SIMPLTranslationException
 	 * @throws IOException
 	 */
-	private int deserializeComposite(Object root, FieldDescriptor currentFieldDescriptor)
+	private void deserializeComposite(Object root, FieldDescriptor currentFieldDescriptor)
 			throws SIMPLTranslationException, IOException
 	{
-		int length = length();
 		Object subRoot = getSubRoot(currentFieldDescriptor, root);
-		currentFieldDescriptor.setFieldToComposite(root, subRoot);
-		return length;
+		if (subRoot != null)
+			currentFieldDescriptor.setFieldToComposite(root, subRoot);
 	}
 
 	/**
 	 * 
 	 * @param currentFieldDescriptor
 	 * @param root
-	 * @return
+	 * @return The new object, or null if the element is of a type we don't know (it is skipped).
 	 * @throws SIMPLTranslationException
 	 * @throws IOException
 	 */
@@ -343,6 +799,11 @@ public class TLVPullDeserializer extends BinaryPullDeserializer
 		Object subRoot = null;
 		ClassDescriptor<? extends FieldDescriptor> subRootClassDescriptor = currentFieldDescriptor
 				.getChildClassDescriptor(type());
+		if (subRootClassDescriptor == null)
+		{
+			skip();
+			return null;
+		}
 
 		subRoot = subRootClassDescriptor.getInstance();
 		deserializationPreHook(subRoot, translationContext);
@@ -357,14 +818,14 @@ public class TLVPullDeserializer extends BinaryPullDeserializer
 			}
 		}
 
-		createObjectModel(subRoot, subRootClassDescriptor, type(), length());
+		subRoot = createObjectModel(subRoot, subRootClassDescriptor, type(), length());
 		
-		if (deserializationHookStrategy != null && subRoot != null)
-		{
-			Object newSubRoot= deserializationHookStrategy.changeObjectIfNecessary(subRoot, currentFieldDescriptor);
-			if (newSubRoot != null)
-				subRoot = newSubRoot;
-		}
+		if (deserializationHookStrategy != null && subRoot != null)
+		{
+			Object newSubRoot= deserializationHookStrategy.changeObjectIfNecessary(subRoot, currentFieldDescriptor);
+			if (newSubRoot != null)
+				subRoot = newSubRoot;
+		}
 		
 		return subRoot;
 	}
@@ -373,64 +834,122 @@ public class TLVPullDeserializer extends BinaryPullDeserializer
 	 * 
 	 * @param root
 	 * @param fd
-	 * @return
 	 * @throws SIMPLTranslationException
 	 * @throws IOException
 	 */
-	private int deserializeScalarCollectionElement(Object root, FieldDescriptor fd)
+	private void deserializeScalarCollectionElement(Object root, FieldDescriptor fd)
 			throws SIMPLTranslationException, IOException
 	{
-		byte[] value = new byte[length()];
-		inputStream.read(value);
-		String stringValue = new String(value);
-		fd.addLeafNodeToCollection(root, stringValue, translationContext);
-		return length();
+		fd.addLeafNodeToCollection(root, readString(length()), translationContext);
 	}
 
 	/**
 	 * 
 	 * @param root
 	 * @param currentFieldDescriptor
-	 * @return
 	 * @throws IOException
 	 */
-	private int deserializeScalar(Object root, FieldDescriptor currentFieldDescriptor)
+	private void deserializeScalar(Object root, FieldDescriptor currentFieldDescriptor)
 			throws IOException
 	{
-		byte[] value = new byte[length()];
-		inputStream.read(value);
-		String stringValue = new String(value);
-		currentFieldDescriptor.setFieldToScalar(root, stringValue, translationContext);
-		return length();
+		currentFieldDescriptor.setFieldToScalar(root, readString(length()), translationContext);
 	}
 
 	/**
+	 * Decode length bytes at the current position, as the platform default charset does (which is
+	 * what TLVSerializer encodes with). ASCII, which is what all the numeric scalar types produce, is
+	 * widened straight into a reused char[]; anything else goes through the charset.
 	 * 
-	 * @param stream
+	 * @param length
+	 * @return
 	 */
-	private void configure(InputStream stream)
+	private String readString(int length)
 	{
-		inputStream = new DataInputStream(stream);
+		int start = buffer.position();
+		if (buffer.hasArray())
+		{
+			byte[] array = buffer.array();
+			int offset = buffer.arrayOffset() + start;
+			buffer.position(start + length);
+			return isAscii(array, offset, length) ? new String(array, offset, length, ASCII) : new String(
+					array, offset, length);
+		}
+
+		if (charBuffer.length < length)
+			charBuffer = new char[Math.max(length, charBuffer.length * 2)];
+		for (int i = 0; i < length; i++)
+		{
+			byte b = buffer.get(start + i);
+			if (b < 0)
+			{
+				if (byteBuffer == null || byteBuffer.length < length)
+					byteBuffer = new byte[Math.max(length, 64)];
+				buffer.get(byteBuffer, 0, length);
+				return new String(byteBuffer, 0, length);
+			}
+			charBuffer[i] = (char) b;
+		}
+		buffer.position(start + length);
+		return new String(charBuffer, 0, length);
 	}
 
+	private static boolean isAscii(byte[] array, int offset, int length)
+	{
+		for (int i = offset, end = offset + length; i < end; i++)
+			if (array[i] < 0)
+				return false;
+		return true;
+	}
+
+
 	/**
+	 * 
+	 * @param byteBuffer
+	 */
+	private void configure(ByteBuffer byteBuffer)
+	{
+		buffer = byteBuffer.slice();
+		isEos = false;
+	}
+
+	/**
+	 * @param length
+	 *          Length of the body of an element whose header has just been read.
+	 * @return Position just past the body, which nextHeader() has checked is within the buffer.
+	 */
+	private int endOf(int length)
+	{
+		return buffer.position() + length;
+	}
+
+	/**
+	 * Jump over the body of the element whose header has just been read.
+	 */
+	private void skip()
+	{
+		buffer.position(endOf(length()));
+	}
+
+	/**
+	 * Read the next header, if there is one.
 	 * 
 	 * @return
+	 * @throws SIMPLTranslationException
+	 *           if the length in the header is negative, or runs past the end of the buffer.
 	 */
-	private int nextHeader()
+	private int nextHeader() throws SIMPLTranslationException
 	{
-		try
-		{
-			blockType = inputStream.readInt();
-			blockLength = inputStream.readInt();
-			return HEADER_SIZE;
-		}
-		catch (Exception e)
+		if (buffer.remaining() < HEADER_SIZE)
 		{
 			isEos = true;
 			return 0;
 		}
-
+		blockType = buffer.getInt();
+		blockLength = buffer.getInt();
+		if (blockLength < 0 || blockLength > buffer.remaining())
+			throw new SIMPLTranslationException("TLV element " + blockType + " declares length "
+					+ blockLength + ", but " + buffer.remaining() + " bytes remain");
+		return HEADER_SIZE;
 	}
 
 	/**
@@ -4,8 +4,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
-import java.util.Collection;
-import java.util.Map;
 
 import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonParseException;
@@ -38,6 +36,12 @@ public class JSONPullDeserializer extends StringPullDeserializer
   @Deprecated
   StringBuilder debugContext;
   
+	/**
+	 * Shared by all instances. JsonFactory is thread-safe, and keeps the symbol tables and buffers
+	 * that its parsers recycle, so creating one per document would throw those away each time.
+	 */
+	static final JsonFactory	JSON_FACTORY	= new JsonFactory();
+
 	/**
 	 * JsonParser object from the Jackson JSON parsing library. Implements a pull API for parsing JSON
 	 */
@@ -55,6 +59,14 @@ public class JSONPullDeserializer extends StringPullDeserializer
 		super(translationScope, translationContext);
 	}
 
+	@Override
+	public void reset(TranslationContext translationContext,
+			DeserializationHookStrategy deserializationHookStrategy)
+	{
+		super.reset(translationContext, deserializationHookStrategy);
+		jp = null;
+	}
+
 	@Override
 	public Object parse(InputStream inputStream, Charset charSet) throws SIMPLTranslationException
 	{
@@ -112,28 +124,28 @@ public class JSONPullDeserializer extends StringPullDeserializer
 	private void configure(InputStream inputStream, Charset charSet) throws IOException, JsonParseException
 	{
 		// configure the json parser
-		JsonFactory f = new JsonFactory();
 		InputStreamReader tmpReader = new InputStreamReader(inputStream, charSet);
-		jp = f.createJsonParser(tmpReader);
+		jp = JSON_FACTORY.createJsonParser(tmpReader);
 	}
 	
 	private void configure(InputStream inputStream) throws IOException, JsonParseException
 	{
 		// configure the json parser
-		JsonFactory f = new JsonFactory();
-		jp = f.createJsonParser(inputStream);
+		jp = JSON_FACTORY.createJsonParser(inputStream);
 	}
 
 	private void configure(CharSequence charSequence) throws IOException, JsonParseException
 	{
 		// configure the json parser
-		JsonFactory f = new JsonFactory();
-		jp = f.createJsonParser(charSequence.toString());
+		jp = JSON_FACTORY.createJsonParser(charSequence.toString());
 	}
 
 	private Object parse() throws IOException, JsonParseException, SIMPLTranslationException
 	{
-	  debugContext = new StringBuilder();
+	  if (debugContext == null)
+	    debugContext = new StringBuilder();
+	  else
+	    debugContext.setLength(0);
 	  
 		// all JSON documents start with an opening brace.
 		if (jp.nextToken() != JsonToken.START_OBJECT)
@@ -151,6 +163,7 @@ public class JSONPullDeserializer extends StringPullDeserializer
 				.getCurrentName());
 
 		root = rootClassDescriptor.getInstance();
+		rootCreated(root, rootClassDescriptor);
 		
 		// Logic to set all field descritpro scalars to defaults. 
 		for(FieldDescriptor fd : rootClassDescriptor.allFieldDescriptors())
@@ -192,7 +205,8 @@ public class JSONPullDeserializer extends StringPullDeserializer
 	private void createObjectModel(Object root, ClassDescriptor rootClassDescriptor)
 			throws JsonParseException, IOException, SIMPLTranslationException
 	{
-	  debug(debugContext.toString()
+	  if (show(1))
+	    debug(debugContext.toString()
 	        + "createObjectModel("
 	        + (root == null ? "<null>" : root.toString())
 	        + ", "
@@ -238,11 +252,22 @@ public class JSONPullDeserializer extends StringPullDeserializer
 				    currentFieldDescriptor = rootClassDescriptor.getFieldDescriptorByTag(fieldTag, translationScope, null);
 				  }
 				}
+
+				if (path == 3 && currentFieldDescriptor != null
+						&& !projects(rootClassDescriptor, currentFieldDescriptor))
+				{
+					// skip the value, however deep, without building anything.
+					jp.nextToken();
+					jp.skipChildren();
+					jp.nextToken();
+					currentFieldDescriptor = oldCurrentFieldDescritpr;
+					continue;
+				}
 				
 				FieldType fieldType = currentFieldDescriptor.getType();
 				
-				String message = debugContext.toString() + "processing field " + currentFieldDescriptor.getName();
-        debug(message);
+				if (show(1))
+				  debug(debugContext.toString() + "processing field " + currentFieldDescriptor.getName());
 
 				switch (fieldType)
 				{
@@ -279,9 +304,7 @@ public class JSONPullDeserializer extends StringPullDeserializer
 							jp.nextToken();
 
 							subRoot = getSubRoot(currentFieldDescriptor, jp.getCurrentName());
-							Collection collection = (Collection) currentFieldDescriptor
-									.automaticLazyGetCollectionOrMap(root);
-							collection.add(subRoot);
+							addToCollection(root, currentFieldDescriptor, subRoot);
 
 							jp.nextToken();
 							jp.nextToken();
@@ -292,9 +315,7 @@ public class JSONPullDeserializer extends StringPullDeserializer
 							while (jp.nextToken() != JsonToken.END_ARRAY)
 							{
 								subRoot = getSubRoot(currentFieldDescriptor, jp.getCurrentName());
-								Collection collection = (Collection) currentFieldDescriptor
-										.automaticLazyGetCollectionOrMap(root);
-								collection.add(subRoot);
+								addToCollection(root, currentFieldDescriptor, subRoot);
 							}
 					}
 					break;
@@ -315,9 +336,7 @@ public class JSONPullDeserializer extends StringPullDeserializer
 							subRoot = getSubRoot(currentFieldDescriptor, jp.getCurrentName());
 							if (subRoot instanceof IMappable)
 							{
-								final Object key = ((IMappable) subRoot).key();
-								Map map = (Map) currentFieldDescriptor.automaticLazyGetCollectionOrMap(root);
-								map.put(key, subRoot);
+								putInMap(root, currentFieldDescriptor, ((IMappable) subRoot).key(), subRoot);
 							}
 
 							jp.nextToken();
@@ -332,9 +351,7 @@ public class JSONPullDeserializer extends StringPullDeserializer
 							subRoot = getSubRoot(currentFieldDescriptor, jp.getCurrentName());
 							if (subRoot instanceof IMappable)
 							{
-								final Object key = ((IMappable) subRoot).key();
-								Map map = (Map) currentFieldDescriptor.automaticLazyGetCollectionOrMap(root);
-								map.put(key, subRoot);
+								putInMap(root, currentFieldDescriptor, ((IMappable) subRoot).key(), subRoot);
 							}
 						}
 					}
@@ -0,0 +1,843 @@
+package ecologylab.serialization.deserializers.pullhandlers.stringformats;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import ecologylab.serialization.SIMPLTranslationException;
+
+/**
+ * XMLParser that tokenizes XML itself, instead of going through javax.xml.stream. It reads the
+ * subset of XML that simpl writes and reads: elements, attributes, text, CDATA sections, character
+ * references and the predefined entities. Comments, processing instructions and a DOCTYPE are
+ * skipped; entities declared in a DOCTYPE are not supported. Namespace declarations are left out of
+ * the attributes, as XMLParserSun does, but prefixes are reported as written, without checking that
+ * they are bound.
+ * <p/>
+ * The document is held in a char[] window: all of it, for a CharSequence, or a window refilled from
+ * a Reader, for a stream. Element and attribute names are interned through a cache kept by the
+ * parser, so the same name comes back as the same String without being rebuilt. Text and attribute
+ * values are also available as CharSequence slices of the parser's buffers, for consumers that do
+ * not need a String. Slices are only valid until the next call to next() or nextTag().
+ * <p/>
+ * Events follow XMLParserSun. The document starts at START_DOCUMENT. An empty element is a
+ * START_ELEMENT followed by an END_ELEMENT. CDATA sections are CHARACTERS. Comments, processing
+ * instructions and the DOCTYPE are ELSE. Line ends are normalized to \n, and white space in
+ * attribute values to spaces, as the XML spec requires.
+ */
+public class XMLParserSimpl implements XMLParser
+{
+	private static final int	WINDOW							= 8192;
+
+	private Reader						reader;
+
+	private char[]						buf;
+
+	private int								pos;
+
+	private int								limit;
+
+	/**
+	 * Chars dropped from the front of buf so far, to report positions in the document.
+	 */
+	private int								discarded;
+
+	private int								eventType						= START_DOCUMENT;
+
+	private boolean						rootSeen;
+
+	/**
+	 * Set after the START_ELEMENT of an empty element, whose END_ELEMENT comes next.
+	 */
+	private boolean						pendingEnd;
+
+	private int								depth;
+
+	private String[]					openNames						= new String[16];
+
+	private String[]					openPrefixes				= new String[16];
+
+	private String[]					openLocalNames			= new String[16];
+
+	private String						name;
+
+	private String						prefix;
+
+	private String						localName;
+
+	private char[]						textChars;
+
+	private int								textStart;
+
+	private int								textLength;
+
+	private String						text;
+
+	/**
+	 * Text and attribute values that had to be decoded, rather than sliced straight out of buf.
+	 */
+	private char[]						values							= new char[256];
+
+	private int								valuesLength;
+
+	private int								attributeCount;
+
+	private String[]					attributePrefixes		= new String[8];
+
+	private String[]					attributeLocalNames	= new String[8];
+
+	private int[]							attributeStarts			= new int[8];
+
+	private int[]							attributeLengths		= new int[8];
+
+	private String[]					attributeValues			= new String[8];
+
+	private String[]					names								= new String[256];
+
+	private int[]							nameHashes					= new int[256];
+
+	private int								nameCount;
+
+	public XMLParserSimpl(CharSequence charSequence)
+	{
+		int length = charSequence.length();
+		buf = new char[length];
+		if (charSequence instanceof String)
+			((String) charSequence).getChars(0, length, buf, 0);
+		else if (charSequence instanceof StringBuilder)
+			((StringBuilder) charSequence).getChars(0, length, buf, 0);
+		else
+			for (int i = 0; i < length; i++)
+				buf[i] = charSequence.charAt(i);
+		limit = length;
+	}
+
+	public XMLParserSimpl(Reader reader)
+	{
+		this.reader = reader;
+		buf = new char[WINDOW];
+	}
+
+	public XMLParserSimpl(InputStream inputStream, Charset charSet)
+	{
+		this(new InputStreamReader(inputStream, charSet));
+	}
+
+	@Override
+	public int getEventType()
+	{
+		return eventType;
+	}
+
+	@Override
+	public int next() throws SIMPLTranslationException
+	{
+		try
+		{
+			return eventType = scan();
+		}
+		catch (IOException e)
+		{
+			throw new SIMPLTranslationException("exception occurred in deserialzation ", e);
+		}
+	}
+
+	@Override
+	public int nextTag() throws SIMPLTranslationException
+	{
+		int event = next();
+		while ((event == CHARACTERS && isWhiteSpace()) || event == ELSE)
+			event = next();
+		if (event != START_ELEMENT && event != END_ELEMENT)
+			throw error("expected a start or end tag");
+		return event;
+	}
+
+	/**
+	 * @return The qualified name of the current element, prefix:localName.
+	 */
+	@Override
+	public String getName()
+	{
+		return name;
+	}
+
+	@Override
+	public String getPrefix()
+	{
+		return prefix;
+	}
+
+	@Override
+	public String getLocalName()
+	{
+		return localName;
+	}
+
+	@Override
+	public String getText()
+	{
+		if (eventType != CHARACTERS)
+			return null;
+		if (text == null)
+			text = new String(textChars, textStart, textLength);
+		return text;
+	}
+
+	/**
+	 * @return The current text as a slice of the parser's buffers, or null if the current event is
+	 *         not CHARACTERS.
+	 */
+	public CharSequence getTextCharacters()
+	{
+		return eventType == CHARACTERS ? new CharSlice(textChars, textStart, textLength) : null;
+	}
+
+	/**
+	 * @return true if the current text is only white space.
+	 */
+	public boolean isWhiteSpace()
+	{
+		if (eventType != CHARACTERS)
+			return false;
+		for (int i = textStart + textLength - 1; i >= textStart; i--)
+			if (textChars[i] > ' ')
+				return false;
+		return true;
+	}
+
+	@Override
+	public int getAttributeCount()
+	{
+		return attributeCount;
+	}
+
+	@Override
+	public String getAttributeLocalName(int index)
+	{
+		return attributeLocalNames[index];
+	}
+
+	@Override
+	public String getAttributePrefix(int index)
+	{
+		return attributePrefixes[index];
+	}
+
+	@Override
+	public String getAttributeValue(int index)
+	{
+		String result = attributeValues[index];
+		if (result == null)
+		{
+			result = new String(values, attributeStarts[index], attributeLengths[index]);
+			attributeValues[index] = result;
+		}
+		return result;
+	}
+
+	/**
+	 * @return The value of the attribute as a slice of the parser's buffers.
+	 */
+	public CharSequence getAttributeValueCharacters(int index)
+	{
+		return new CharSlice(values, attributeStarts[index], attributeLengths[index]);
+	}
+
+	private int scan() throws IOException, SIMPLTranslationException
+	{
+		text = null;
+		valuesLength = 0;
+		attributeCount = 0;
+
+		if (pendingEnd)
+		{
+			pendingEnd = false;
+			return endElement();
+		}
+		if (eventType == END_DOCUMENT)
+			return END_DOCUMENT;
+
+		compact();
+		if (eventType == START_DOCUMENT && available(1) && buf[pos] == '\uFEFF')
+			pos++;
+
+		if (depth == 0)
+		{
+			// prolog or epilog: only markup, between white space
+			while (available(1) && buf[pos] <= ' ')
+				pos++;
+			if (!available(1))
+			{
+				if (rootSeen)
+					return END_DOCUMENT;
+				throw error("no root element");
+			}
+			if (buf[pos] != '<')
+				throw error("text outside the root element");
+		}
+		else if (!available(1))
+		{
+			throw error("premature end of document, in <" + openNames[depth - 1] + ">");
+		}
+
+		if (buf[pos] != '<')
+			return scanText();
+
+		if (!available(2))
+			throw error("premature end of document");
+		switch (buf[pos + 1])
+		{
+		case '/':
+			return scanEndTag();
+		case '?':
+			skipPast("?>", 2);
+			return ELSE;
+		case '!':
+			if (startsWith("<!--"))
+			{
+				skipPast("-->", 4);
+				return ELSE;
+			}
+			if (depth > 0 && startsWith("<![CDATA["))
+				return scanCData();
+			if (!rootSeen && startsWith("<!DOCTYPE"))
+			{
+				skipDoctype();
+				return ELSE;
+			}
+			throw error("unexpected markup");
+		default:
+			if (depth == 0 && rootSeen)
+				throw error("more than one root element");
+			return scanStartTag();
+		}
+	}
+
+	private int scanText() throws IOException, SIMPLTranslationException
+	{
+		int start = pos;
+		int p = pos;
+		boolean plain = true;
+		while (p < limit || fill())
+		{
+			char c = buf[p];
+			if (c == '<')
+				break;
+			if (c == '&' || c == '\r')
+				plain = false;
+			p++;
+		}
+		pos = p;
+
+		if (plain)
+		{
+			setText(buf, start, p - start);
+		}
+		else
+		{
+			decode(start, p, false);
+			setText(values, 0, valuesLength);
+		}
+		return CHARACTERS;
+	}
+
+	private int scanCData() throws IOException, SIMPLTranslationException
+	{
+		int start = pos + "<![CDATA[".length();
+		int end = indexOf("]]>", start);
+		pos = end + "]]>".length();
+
+		valuesLength = 0;
+		for (int p = start; p < end; p++)
+		{
+			char c = buf[p];
+			if (c == '\r')
+			{
+				if (p + 1 < end && buf[p + 1] == '\n')
+					p++;
+				c = '\n';
+			}
+			append(c);
+		}
+		setText(values, 0, valuesLength);
+		return CHARACTERS;
+	}
+
+	private void setText(char[] chars, int start, int length)
+	{
+		textChars = chars;
+		textStart = start;
+		textLength = length;
+	}
+
+	private int scanStartTag() throws IOException, SIMPLTranslationException
+	{
+		pos++;
+		int nameStart = pos;
+		int colon = scanName();
+		int nameEnd = pos;
+		if (nameEnd == nameStart)
+			throw error("missing element name");
+
+		if (colon < 0)
+		{
+			prefix = "";
+			localName = name(nameStart, nameEnd);
+			name = localName;
+		}
+		else
+		{
+			prefix = name(nameStart, colon);
+			localName = name(colon + 1, nameEnd);
+			name = name(nameStart, nameEnd);
+		}
+
+		while (true)
+		{
+			skipWhiteSpace();
+			if (!available(1))
+				throw error("premature end of document, in <" + name);
+			char c = buf[pos];
+			if (c == '>')
+			{
+				pos++;
+				break;
+			}
+			if (c == '/')
+			{
+				if (!available(2) || buf[pos + 1] != '>')
+					throw error("expected /> in <" + name);
+				pos += 2;
+				pendingEnd = true;
+				break;
+			}
+			scanAttribute();
+		}
+
+		if (depth == openNames.length)
+		{
+			openNames = Arrays.copyOf(openNames, depth * 2);
+			openPrefixes = Arrays.copyOf(openPrefixes, depth * 2);
+			openLocalNames = Arrays.copyOf(openLocalNames, depth * 2);
+		}
+		openNames[depth] = name;
+		openPrefixes[depth] = prefix;
+		openLocalNames[depth] = localName;
+		depth++;
+		rootSeen = true;
+		return START_ELEMENT;
+	}
+
+	private void scanAttribute() throws IOException, SIMPLTranslationException
+	{
+		int nameStart = pos;
+		int colon = scanName();
+		int nameEnd = pos;
+		if (nameEnd == nameStart)
+			throw error("missing attribute name in <" + name);
+
+		skipWhiteSpace();
+		if (!available(1) || buf[pos] != '=')
+			throw error("expected = after attribute name in <" + name);
+		pos++;
+		skipWhiteSpace();
+		if (!available(1) || (buf[pos] != '"' && buf[pos] != '\''))
+			throw error("expected quoted attribute value in <" + name);
+		char quote = buf[pos++];
+		int valueStart = pos;
+		int valueEnd = indexOf(quote, valueStart);
+		pos = valueEnd + 1;
+
+		String attributePrefix = colon < 0 ? "" : name(nameStart, colon);
+		if ("xmlns".equals(attributePrefix)
+				|| (colon < 0 && nameEnd - nameStart == 5 && startsWith("xmlns", nameStart)))
+			return; // namespace declaration
+
+		int i = attributeCount;
+		if (i == attributeLocalNames.length)
+		{
+			attributePrefixes = Arrays.copyOf(attributePrefixes, i * 2);
+			attributeLocalNames = Arrays.copyOf(attributeLocalNames, i * 2);
+			attributeStarts = Arrays.copyOf(attributeStarts, i * 2);
+			attributeLengths = Arrays.copyOf(attributeLengths, i * 2);
+			attributeValues = Arrays.copyOf(attributeValues, i * 2);
+		}
+		attributePrefixes[i] = attributePrefix;
+		attributeLocalNames[i] = name(colon < 0 ? nameStart : colon + 1, nameEnd);
+		attributeStarts[i] = valuesLength;
+		decode(valueStart, valueEnd, true);
+		attributeLengths[i] = valuesLength - attributeStarts[i];
+		attributeValues[i] = null;
+		attributeCount = i + 1;
+	}
+
+	private int scanEndTag() throws IOException, SIMPLTranslationException
+	{
+		pos += 2;
+		int nameStart = pos;
+		scanName();
+		String endName = name(nameStart, pos);
+		skipWhiteSpace();
+		if (!available(1) || buf[pos] != '>')
+			throw error("expected > after </" + endName);
+		pos++;
+
+		if (depth == 0 || endName != openNames[depth - 1])
+			throw error("</" + endName + "> does not match "
+					+ (depth == 0 ? "any open element" : "<" + openNames[depth - 1] + ">"));
+		return endElement();
+	}
+
+	private int endElement()
+	{
+		depth--;
+		name = openNames[depth];
+		prefix = openPrefixes[depth];
+		localName = openLocalNames[depth];
+		return END_ELEMENT;
+	}
+
+	/**
+	 * Move pos past a name.
+	 *
+	 * @return The position of the first colon in the name, or -1 if there is none.
+	 */
+	private int scanName() throws IOException
+	{
+		int colon = -1;
+		while (pos < limit || fill())
+		{
+			char c = buf[pos];
+			if (c <= ' ' || c == '>' || c == '/' || c == '=')
+				break;
+			if (c == ':' && colon < 0)
+				colon = pos;
+			pos++;
+		}
+		return colon;
+	}
+
+	/**
+	 * @return The interned String for the name in buf[start, end), from the cache if it has been seen
+	 *         before.
+	 */
+	private String name(int start, int end)
+	{
+		int length = end - start;
+		int hash = 0;
+		for (int i = start; i < end; i++)
+			hash = 31 * hash + buf[i];
+
+		int mask = names.length - 1;
+		int i = (hash ^ (hash >>> 16)) & mask;
+		for (String candidate; (candidate = names[i]) != null; i = (i + 1) & mask)
+			if (nameHashes[i] == hash && candidate.length() == length && startsWith(candidate, start))
+				return candidate;
+
+		String result = new String(buf, start, length).intern();
+		names[i] = result;
+		nameHashes[i] = hash;
+		if (++nameCount * 2 > names.length)
+			rehashNames();
+		return result;
+	}
+
+	private void rehashNames()
+	{
+		String[] oldNames = names;
+		int[] oldHashes = nameHashes;
+		names = new String[oldNames.length * 2];
+		nameHashes = new int[oldNames.length * 2];
+		int mask = names.length - 1;
+		for (int j = 0; j < oldNames.length; j++)
+		{
+			if (oldNames[j] == null)
+				continue;
+			int hash = oldHashes[j];
+			int i = (hash ^ (hash >>> 16)) & mask;
+			while (names[i] != null)
+				i = (i + 1) & mask;
+			names[i] = oldNames[j];
+			nameHashes[i] = hash;
+		}
+	}
+
+	/**
+	 * Append buf[start, end) to values, replacing references and normalizing line ends, and in
+	 * attribute values, white space.
+	 */
+	private void decode(int start, int end, boolean attribute) throws SIMPLTranslationException
+	{
+		for (int p = start; p < end;)
+		{
+			char c = buf[p++];
+			switch (c)
+			{
+			case '&':
+				int semicolon = p;
+				while (semicolon < end && buf[semicolon] != ';')
+					semicolon++;
+				if (semicolon == end)
+					throw error("unterminated reference &" + new String(buf, p, Math.min(end - p, 16)));
+				appendReference(p, semicolon);
+				p = semicolon + 1;
+				break;
+			case '\r':
+				if (p < end && buf[p] == '\n')
+					p++;
+				append(attribute ? ' ' : '\n');
+				break;
+			case '\n':
+			case '\t':
+				append(attribute ? ' ' : c);
+				break;
+			default:
+				append(c);
+			}
+		}
+	}
+
+	/**
+	 * Append the character for the reference whose name is buf[start, end).
+	 */
+	private void appendReference(int start, int end) throws SIMPLTranslationException
+	{
+		int length = end - start;
+		if (length > 1 && buf[start] == '#')
+		{
+			int codePoint = 0;
+			boolean hex = buf[start + 1] == 'x';
+			int radix = hex ? 16 : 10;
+			int first = hex ? start + 2 : start + 1;
+			for (int p = first; p < end; p++)
+			{
+				int digit = Character.digit(buf[p], radix);
+				if (digit < 0 || codePoint > 0x10FFFF)
+				{
+					codePoint = -1;
+					break;
+				}
+				codePoint = codePoint * radix + digit;
+			}
+			if (first == end || codePoint < 0 || !Character.isValidCodePoint(codePoint))
+				throw error("invalid character reference &" + new String(buf, start, length) + ";");
+			if (Character.isSupplementaryCodePoint(codePoint))
+			{
+				append(Character.highSurrogate(codePoint));
+				append(Character.lowSurrogate(codePoint));
+			}
+			else
+			{
+				append((char) codePoint);
+			}
+			return;
+		}
+
+		char c = 0;
+		switch (length)
+		{
+		case 2:
+			if (buf[start + 1] == 't')
+				c = buf[start] == 'l' ? '<' : buf[start] == 'g' ? '>' : 0;
+			break;
+		case 3:
+			if (startsWith("amp", start))
+				c = '&';
+			break;
+		case 4:
+			if (startsWith("quot", start))
+				c = '"';
+			else if (startsWith("apos", start))
+				c = '\'';
+			break;
+		}
+		if (c == 0)
+			throw error("undeclared entity &" + new String(buf, start, length) + ";");
+		append(c);
+	}
+
+	private void append(char c)
+	{
+		if (valuesLength == values.length)
+			values = Arrays.copyOf(values, valuesLength * 2);
+		values[valuesLength++] = c;
+	}
+
+	private void skipWhiteSpace() throws IOException
+	{
+		while ((pos < limit || fill()) && buf[pos] <= ' ')
+			pos++;
+	}
+
+	private void skipPast(String terminator, int from) throws IOException, SIMPLTranslationException
+	{
+		pos = indexOf(terminator, pos + from) + terminator.length();
+	}
+
+	private void skipDoctype() throws IOException, SIMPLTranslationException
+	{
+		int brackets = 0;
+		for (int p = pos + "<!DOCTYPE".length();; p++)
+		{
+			if (p == limit && !fill())
+				throw error("premature end of document, in <!DOCTYPE");
+			char c = buf[p];
+			if (c == '[')
+				brackets++;
+			else if (c == ']')
+				brackets--;
+			else if (c == '>' && brackets <= 0)
+			{
+				pos = p + 1;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return The position of the next c at or after from, reading more input as needed.
+	 */
+	private int indexOf(char c, int from) throws IOException, SIMPLTranslationException
+	{
+		for (int p = from;; p++)
+		{
+			if (p == limit && !fill())
+				throw error("premature end of document");
+			if (buf[p] == c)
+				return p;
+		}
+	}
+
+	/**
+	 * @return The position of the next s at or after from, reading more input as needed.
+	 */
+	private int indexOf(String s, int from) throws IOException, SIMPLTranslationException
+	{
+		char first = s.charAt(0);
+		for (int p = from;; p++)
+		{
+			p = indexOf(first, p);
+			while (limit - p < s.length())
+				if (!fill())
+					throw error("premature end of document, looking for " + s);
+			if (startsWith(s, p))
+				return p;
+		}
+	}
+
+	private boolean startsWith(String s) throws IOException
+	{
+		return available(s.length()) && startsWith(s, pos);
+	}
+
+	/**
+	 * @return true if buf holds s at position at. The caller makes sure enough of buf is filled.
+	 */
+	private boolean startsWith(String s, int at)
+	{
+		for (int i = s.length() - 1; i >= 0; i--)
+			if (buf[at + i] != s.charAt(i))
+				return false;
+		return true;
+	}
+
+	private boolean available(int n) throws IOException
+	{
+		while (limit - pos < n)
+			if (!fill())
+				return false;
+		return true;
+	}
+
+	/**
+	 * Read more input onto the end of buf, growing it if it is full. Positions in buf stay valid.
+	 *
+	 * @return false at the end of input.
+	 */
+	private boolean fill() throws IOException
+	{
+		if (reader == null)
+			return false;
+		if (limit == buf.length)
+			buf = Arrays.copyOf(buf, buf.length * 2);
+		int n = reader.read(buf, limit, buf.length - limit);
+		if (n < 0)
+		{
+			reader = null;
+			return false;
+		}
+		limit += n;
+		return true;
+	}
+
+	/**
+	 * Between events, drop what has been consumed from the front of buf, once that is at least half
+	 * of it.
+	 */
+	private void compact()
+	{
+		if (reader != null && pos >= buf.length / 2)
+		{
+			System.arraycopy(buf, pos, buf, 0, limit - pos);
+			discarded += pos;
+			limit -= pos;
+			pos = 0;
+		}
+	}
+
+	private SIMPLTranslationException error(String message)
+	{
+		return new SIMPLTranslationException("XML " + message + ", at character " + (discarded + pos));
+	}
+
+	/**
+	 * A CharSequence over a range of a char[].
+	 */
+	private static final class CharSlice implements CharSequence
+	{
+		private final char[]	chars;
+
+		private final int			offset;
+
+		private final int			length;
+
+		CharSlice(char[] chars, int offset, int length)
+		{
+			this.chars = chars;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public int length()
+		{
+			return length;
+		}
+
+		@Override
+		public char charAt(int index)
+		{
+			if (index < 0 || index >= length)
+				throw new IndexOutOfBoundsException(String.valueOf(index));
+			return chars[offset + index];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end)
+		{
+			if (start < 0 || end > length || start > end)
+				throw new IndexOutOfBoundsException(start + ", " + end);
+			return new CharSlice(chars, offset + start, end - start);
+		}
+
+		@Override
+		public String toString()
+		{
+			return new String(chars, offset, length);
+		}
+	}
+}
@@ -3,8 +3,6 @@ package ecologylab.serialization.deserializers.pullhandlers.stringformats;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
-import java.util.Collection;
-import java.util.Map;
 
 import javax.xml.stream.XMLStreamException;
 
@@ -58,6 +56,14 @@ public class XMLPullDeserializer extends StringPullDeserializer
 		super(translationScope, translationContext);
 	}
 
+	@Override
+	public void reset(TranslationContext translationContext,
+			DeserializationHookStrategy deserializationHookStrategy)
+	{
+		super.reset(translationContext, deserializationHookStrategy);
+		xmlParser = null;
+	}
+
 	@Override
 	public Object parse(InputStream inputStream, Charset charSet) throws SIMPLTranslationException
 	{
@@ -204,6 +210,7 @@ public class XMLPullDeserializer extends StringPullDeserializer
 		}
 
 		root = rootClassDescriptor.getInstance();
+		rootCreated(root, rootClassDescriptor);
 		
 		// Logic to set all field descritpro scalars to defaults. 
 		for(FieldDescriptor fd : rootClassDescriptor.allFieldDescriptors())
@@ -288,6 +295,12 @@ public class XMLPullDeserializer extends StringPullDeserializer
 				{
 					currentFieldDescriptor = FieldDescriptor.makeIgnoredFieldDescriptor(tag);
 				}
+				else if (!projects(rootClassDescriptor, currentFieldDescriptor))
+				{
+					currentFieldDescriptor = null;
+					event = skipElement();
+					continue;
+				}
 
 				
 					FieldType fieldType = currentFieldDescriptor.getType();
@@ -450,8 +463,7 @@ public class XMLPullDeserializer extends StringPullDeserializer
 			final Object key = (subRoot instanceof IMappable<?>) ? ((IMappable<?>) subRoot).key() : fd.getMapKeyFieldValue(subRoot); 
 			if (key != null)
 			{
-				Map map = (Map) fd.automaticLazyGetCollectionOrMap(root);
-				map.put(key, subRoot);
+				putInMap(root, fd, key, subRoot);
 			}
 
 			event = xmlParser.nextTag();
@@ -490,10 +502,7 @@ public class XMLPullDeserializer extends StringPullDeserializer
 				}
 
 				subRoot = getSubRoot(fd, tagName, root);
-				
-				
-				Collection collection = (Collection) fd.automaticLazyGetCollectionOrMap(root);
-				collection.add(subRoot);
+				addToCollection(root, fd, subRoot);
 
 				event 	= xmlParser.nextTag();
 				tagName = getTagName();
@@ -546,6 +555,31 @@ public class XMLPullDeserializer extends StringPullDeserializer
 		return nextEvent();
 	}
 
+	/**
+	 * Skip the element that has just started, and everything in it, without looking at tags.
+	 * 
+	 * @return The event after its end.
+	 * @throws SIMPLTranslationException
+	 */
+	private int skipElement() throws SIMPLTranslationException
+	{
+		for (int depth = 1; depth > 0;)
+		{
+			switch (xmlParser.next())
+			{
+			case XMLParser.START_ELEMENT:
+				depth++;
+				break;
+			case XMLParser.END_ELEMENT:
+				depth--;
+				break;
+			case XMLParser.END_DOCUMENT:
+				throw new SIMPLTranslationException("premature end of file: check XML file for consistency");
+			}
+		}
+		return nextEvent();
+	}
+
 	/**
 	 * Gets the sub root of the object model if its a composite object. Does graph handling/ Handles
 	 * simpl:ref tag to assign an already created instance of the composite object instead of creating
@@ -673,13 +707,13 @@ public class XMLPullDeserializer extends StringPullDeserializer
 				FieldDescriptor attributeFieldDescriptor = rootClassDescriptor.getFieldDescriptorByTag(tag,
 						translationScope);
 
-				if (attributeFieldDescriptor != null)
+				if (attributeFieldDescriptor == null)
 				{
-					attributeFieldDescriptor.setFieldToScalar(root, value, translationContext);
+					debug("ignoring attribute: " + tag);
 				}
-				else
+				else if (projects(rootClassDescriptor, attributeFieldDescriptor))
 				{
-					debug("ignoring attribute: " + tag);
+					attributeFieldDescriptor.setFieldToScalar(root, value, translationContext);
 				}
 			}
 		}
@@ -745,14 +779,12 @@ public class XMLPullDeserializer extends StringPullDeserializer
 
 	/**
 	 * 
-	 * @return
+	 * @return The tag of the current element. Prefixed tags known to the translation scope come back
+	 *         as their interned symbol, without concatenating.
 	 */
 	private String getTagName()
 	{
-		if (xmlParser.getPrefix() != null && xmlParser.getPrefix().length() != 0)
-			return xmlParser.getPrefix() + ":" + xmlParser.getLocalName();
-		else
-			return xmlParser.getLocalName();
+		return translationScope.getTag(xmlParser.getPrefix(), xmlParser.getLocalName());
 	}
 
 	/**
@@ -26,12 +26,24 @@ import ecologylab.serialization.serializers.stringformats.XMLSerializer;
  * serialization functions, allowing software developers to use different types of objects for
  * serialization, such as System.out, File, StringBuilder, or return serialized data as
  * StringBuilder
+ * <p/>
+ * Serializers are stateless: everything about one serialization lives in locals and in its
+ * TranslationContext. So getSerializer() hands out one shared instance per format, which is safe to
+ * use from many threads at once. Subclasses must keep it that way.
  * 
  * @author nabeel
  * 
  */
 public abstract class FormatSerializer
 {
+	private static final XMLSerializer			XML_SERIALIZER		= new XMLSerializer();
+
+	private static final JSONSerializer			JSON_SERIALIZER		= new JSONSerializer();
+
+	private static final TLVSerializer			TLV_SERIALIZER		= new TLVSerializer();
+
+	private static final BibtexSerializer		BIBTEX_SERIALIZER	= new BibtexSerializer();
+
 	/**
 	 * 
 	 * @param object
@@ -41,8 +53,14 @@ public abstract class FormatSerializer
 	public void serialize(Object object, OutputStream outputStream) throws SIMPLTranslationException
 	{
 		TranslationContext translationContext = TranslationContextPool.get().acquire();
-		serialize(object, outputStream, translationContext);
-		TranslationContextPool.get().release(translationContext);
+		try
+		{
+			serialize(object, outputStream, translationContext);
+		}
+		finally
+		{
+			TranslationContextPool.get().release(translationContext);
+		}
 	}
 
 	public abstract void serialize(Object object, OutputStream outputStream,
@@ -58,8 +76,14 @@ public abstract class FormatSerializer
 	public void serialize(Object object, File outputFile) throws SIMPLTranslationException
 	{		
 		TranslationContext translationContext = TranslationContextPool.get().acquire();
-		serialize(object, outputFile, translationContext);
-		TranslationContextPool.get().release(translationContext);
+		try
+		{
+			serialize(object, outputFile, translationContext);
+		}
+		finally
+		{
+			TranslationContextPool.get().release(translationContext);
+		}
 	}
 
 	public abstract void serialize(Object object, File outputFile,
@@ -125,13 +149,13 @@ public abstract class FormatSerializer
 		switch (format)
 		{
 		case XML:
-			return new XMLSerializer();
+			return XML_SERIALIZER;
 		case JSON:
-			return new JSONSerializer();
+			return JSON_SERIALIZER;
 		case TLV:
-			return new TLVSerializer();
+			return TLV_SERIALIZER;
 		case BIBTEX:
-			return new BibtexSerializer();
+			return BIBTEX_SERIALIZER;
 		default:
 			throw new SIMPLTranslationException(format + " format not supported");
 		}
@@ -150,11 +174,11 @@ public abstract class FormatSerializer
 		switch (format)
 		{
 		case XML:
-			return new XMLSerializer();
+			return XML_SERIALIZER;
 		case JSON:
-			return new JSONSerializer();
+			return JSON_SERIALIZER;
 		case BIBTEX:
-			return new BibtexSerializer();
+			return BIBTEX_SERIALIZER;
 		default:
 			throw new SIMPLTranslationException(format + " format not supported");
 		}
@@ -173,7 +197,7 @@ public abstract class FormatSerializer
 		switch (format)
 		{
 		case TLV:
-			return new TLVSerializer();
+			return TLV_SERIALIZER;
 		default:
 			throw new SIMPLTranslationException(format + " format not supported");
 		}
@@ -0,0 +1,130 @@
+package ecologylab.serialization.serializers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ecologylab.serialization.ClassDescriptor;
+import ecologylab.serialization.FieldDescriptor;
+
+/**
+ * What a serializer needs to know to write instances of one class in one format, worked out once
+ * from the ClassDescriptor: which fields to visit in which order, what kind each one is, and the
+ * tags, ids and other format-specific constants to write around them. Each serializer subclasses
+ * this with its own steps, and keeps the compiled plan on the ClassDescriptor, so that serializing
+ * an object just walks an array of steps instead of re-deriving all that for every field of every
+ * object.
+ * <p/>
+ * Plans are immutable once built. Two threads may race to build the same plan; either result is
+ * fine.
+ *
+ * @see ClassDescriptor#getSerializationPlan(ecologylab.serialization.formatenums.Format)
+ */
+public abstract class SerializationPlan
+{
+	/**
+	 * Kinds of step. These fold together the FieldTypes that serializers treat alike.
+	 */
+	public static final int																	SCALAR								= 0;
+
+	public static final int																	COMPOSITE							= 1;
+
+	public static final int																	SCALAR_COLLECTION			= 2;
+
+	public static final int																	COMPOSITE_COLLECTION	= 3;
+
+	public final ClassDescriptor<? extends FieldDescriptor>	classDescriptor;
+
+	public final boolean																		hasPreHook;
+
+	public final boolean																		hasPostHook;
+
+	protected SerializationPlan(ClassDescriptor<? extends FieldDescriptor> classDescriptor)
+	{
+		this.classDescriptor = classDescriptor;
+		Class<?> describedClass = classDescriptor.getDescribedClass();
+		hasPreHook = describedClass == null
+				|| ISimplSerializationPre.class.isAssignableFrom(describedClass);
+		hasPostHook = describedClass == null
+				|| ISimplSerializationPost.class.isAssignableFrom(describedClass);
+	}
+
+	/**
+	 * @return The kind of step that serializes fd, or -1 if serializers skip fields of its type.
+	 */
+	public static int kindOf(FieldDescriptor fd)
+	{
+		switch (fd.getType())
+		{
+		case SCALAR:
+			return SCALAR;
+		case COMPOSITE_ELEMENT:
+			return COMPOSITE;
+		case COLLECTION_SCALAR:
+		case MAP_SCALAR:
+			return SCALAR_COLLECTION;
+		case COLLECTION_ELEMENT:
+		case MAP_ELEMENT:
+			return COMPOSITE_COLLECTION;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * @return The field descriptors serializers visit, attributes first, leaving out any of a kind
+	 *         they skip.
+	 */
+	protected static List<FieldDescriptor> serializedFields(
+			List<? extends FieldDescriptor> attributeFieldDescriptors,
+			List<? extends FieldDescriptor> elementFieldDescriptors)
+	{
+		List<FieldDescriptor> result = new ArrayList<FieldDescriptor>(attributeFieldDescriptors.size()
+				+ elementFieldDescriptors.size());
+		for (FieldDescriptor fd : attributeFieldDescriptors)
+			if (kindOf(fd) >= 0)
+				result.add(fd);
+		for (FieldDescriptor fd : elementFieldDescriptors)
+			if (kindOf(fd) >= 0)
+				result.add(fd);
+		return result;
+	}
+
+	/**
+	 * The part of a step that every format shares: the field, its kind, and for fields holding
+	 * composites, the class descriptor of the values it is declared to hold.
+	 */
+	public static class Step
+	{
+		public final FieldDescriptor														fd;
+
+		public final int																				kind;
+
+		public final boolean																		polymorphic;
+
+		public final boolean																		wrapped;
+
+		private final ClassDescriptor<? extends FieldDescriptor>	elementClassDescriptor;
+
+		protected Step(FieldDescriptor fd)
+		{
+			this.fd = fd;
+			this.kind = kindOf(fd);
+			this.polymorphic = (kind == COMPOSITE || kind == COMPOSITE_COLLECTION) && fd.isPolymorphic();
+			this.wrapped = fd.isWrapped();
+			ClassDescriptor<?> declared = fd.getElementClassDescriptor();
+			this.elementClassDescriptor = polymorphic ? null : declared;
+		}
+
+		/**
+		 * @return The class descriptor of a composite value of this field. Skips the global lookup when
+		 *         the value is of exactly the declared class.
+		 */
+		public ClassDescriptor<? extends FieldDescriptor> classDescriptor(Object value)
+		{
+			ClassDescriptor<? extends FieldDescriptor> result = elementClassDescriptor;
+			if (result != null && result.getDescribedClass() == value.getClass())
+				return result;
+			return ClassDescriptor.getClassDescriptor(value.getClass());
+		}
+	}
+}
@@ -5,6 +5,8 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 
 import ecologylab.serialization.SIMPLTranslationException;
 import ecologylab.serialization.TranslationContext;
@@ -44,6 +46,30 @@ public abstract class BinarySerializer extends FormatSerializer
 
 	}
 
+	/**
+	 * Serialize the object to the channel. Subclasses that can write to the channel directly should
+	 * override.
+	 * 
+	 * @param object
+	 * @param channel
+	 * @param translationContext
+	 * @throws SIMPLTranslationException
+	 */
+	public void serialize(Object object, WritableByteChannel channel,
+			TranslationContext translationContext) throws SIMPLTranslationException
+	{
+		DataOutputStream dataOutputStream = new DataOutputStream(Channels.newOutputStream(channel));
+		serialize(object, dataOutputStream, translationContext);
+		try
+		{
+			dataOutputStream.flush();
+		}
+		catch (IOException e)
+		{
+			throw new SIMPLTranslationException("IO Exception: ", e);
+		}
+	}
+
 	/**
 	 * 
 	 * @param object
@@ -0,0 +1,336 @@
+package ecologylab.serialization.serializers.binaryformats;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import ecologylab.generic.ResourcePool;
+
+/**
+ * Growable, reusable buffer that TLVSerializer writes a whole document into, in a single pass.
+ * <p/>
+ * Each element is started with {@link #startElement(int)}, which writes the TLV id and reserves
+ * the 4 byte length; once its body has been written, {@link #endElement(int)} back-patches the
+ * length. Nothing is ever copied from a child buffer into a parent one. Ints are big-endian, like
+ * DataOutputStream, so the output is exactly what TLVPullDeserializer reads.
+ *
+ * @author nabeel
+ */
+public class TLVOutputBuffer
+{
+	public static final int		DEFAULT_CAPACITY				= 1024 * 16;
+
+	/**
+	 * Buffers that grew beyond this are shrunk back when they are returned to the pool, so that one
+	 * huge document does not pin its memory forever.
+	 */
+	public static final int		MAX_RETAINED_CAPACITY		= 1024 * 1024;
+
+	private static final int	LENGTH_SIZE							= 4;
+
+	/**
+	 * Size of an element whose value is a single int: id, length, value.
+	 */
+	private static final int	INT_ELEMENT_SIZE				= 12;
+
+	private ByteBuffer				buffer;
+
+	/**
+	 * Scratch space for the String representations of scalar values.
+	 */
+	private final StringBuilder	scalarBuilder				= new StringBuilder();
+
+	/**
+	 * Marks of the elements started since trackElements() was called, in increasing order, so that
+	 * their lengths can be fixed up by insertIntElements().
+	 */
+	private int[]							elementMarks;
+
+	private int								numElementMarks		= -1;
+
+	public TLVOutputBuffer()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	public TLVOutputBuffer(int initialCapacity)
+	{
+		buffer = ByteBuffer.allocate(initialCapacity);
+	}
+
+	private void ensureRemaining(int needed)
+	{
+		if (buffer.remaining() < needed)
+		{
+			int newCapacity = Math.max(buffer.capacity() * 2, buffer.position() + needed);
+			ByteBuffer newBuffer = ByteBuffer.allocate(newCapacity);
+			buffer.flip();
+			newBuffer.put(buffer);
+			buffer = newBuffer;
+		}
+	}
+
+	public void putInt(int value)
+	{
+		ensureRemaining(4);
+		buffer.putInt(value);
+	}
+
+	public void putBytes(byte[] bytes)
+	{
+		ensureRemaining(bytes.length);
+		buffer.put(bytes);
+	}
+
+	/**
+	 * Write the TLV id, and reserve space for the length of the element.
+	 *
+	 * @param tlvId
+	 * @return The mark to pass to endElement(), once the body of the element has been written.
+	 */
+	public int startElement(int tlvId)
+	{
+		ensureRemaining(4 + LENGTH_SIZE);
+		buffer.putInt(tlvId);
+		int mark = buffer.position();
+		buffer.position(mark + LENGTH_SIZE);
+		if (numElementMarks >= 0)
+		{
+			if (numElementMarks == elementMarks.length)
+			{
+				int[] newMarks = new int[numElementMarks * 2];
+				System.arraycopy(elementMarks, 0, newMarks, 0, numElementMarks);
+				elementMarks = newMarks;
+			}
+			elementMarks[numElementMarks++] = mark;
+		}
+		return mark;
+	}
+
+	/**
+	 * Back-patch the length of the element started with startElement().
+	 *
+	 * @param mark
+	 */
+	public void endElement(int mark)
+	{
+		buffer.putInt(mark, buffer.position() - mark - LENGTH_SIZE);
+	}
+
+	/**
+	 * Remember the elements started from now on, so that elements can later be inserted into them
+	 * with insertIntElements().
+	 */
+	public void trackElements()
+	{
+		if (elementMarks == null)
+			elementMarks = new int[64];
+		numElementMarks = 0;
+	}
+
+	/**
+	 * Insert elements whose value is a single int, and add their size to the lengths of the
+	 * elements, started since trackElements(), that they end up inside of. Bytes after each
+	 * insertion point are moved back to front, in place, so each one is moved only once.
+	 * 
+	 * @param offsets
+	 *          Where to insert each element, in strictly increasing order.
+	 * @param tlvId
+	 *          TLV id of all the inserted elements.
+	 * @param values
+	 *          Value of each inserted element.
+	 * @param count
+	 *          Number of elements to insert.
+	 */
+	public void insertIntElements(int[] offsets, int tlvId, int[] values, int count)
+	{
+		if (count == 0)
+			return;
+
+		// marks and offsets are both increasing, so the first offset in each element's body is found
+		// by sweeping forward; only elements that contain an insertion need to search for the last.
+		int first = 0;
+		for (int i = 0; i < numElementMarks; i++)
+		{
+			int mark = elementMarks[i];
+			int bodyStart = mark + LENGTH_SIZE;
+			while (first < count && offsets[first] < bodyStart)
+				first++;
+			if (first == count)
+				break;
+
+			int length = buffer.getInt(mark);
+			int bodyEnd = bodyStart + length;
+			if (offsets[first] <= bodyEnd)
+			{
+				int inside = countOffsets(offsets, first, count, bodyEnd) - first;
+				buffer.putInt(mark, length + inside * INT_ELEMENT_SIZE);
+			}
+		}
+
+		int size = buffer.position();
+		ensureRemaining(count * INT_ELEMENT_SIZE);
+		byte[] array = buffer.array();
+		int end = size;
+		for (int i = count - 1; i >= 0; i--)
+		{
+			int offset = offsets[i];
+			System.arraycopy(array, offset, array, offset + (i + 1) * INT_ELEMENT_SIZE, end - offset);
+			int at = offset + i * INT_ELEMENT_SIZE;
+			buffer.putInt(at, tlvId);
+			buffer.putInt(at + 4, 4);
+			buffer.putInt(at + 8, values[i]);
+			end = offset;
+		}
+		buffer.position(size + count * INT_ELEMENT_SIZE);
+	}
+
+	/**
+	 * Gallop forward from low, since most elements contain only one or two of the offsets.
+	 * 
+	 * @return The number of offsets that are <= position, given that offsets[low] is.
+	 */
+	private static int countOffsets(int[] offsets, int low, int count, int position)
+	{
+		int step = 1;
+		int high = low + 1;
+		while (high < count && offsets[high] <= position)
+		{
+			low = high;
+			high += step;
+			step <<= 1;
+		}
+		if (high > count)
+			high = count;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (offsets[mid] <= position)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Write the length of the characters, followed by the characters themselves, encoded the same way
+	 * as the platform default charset (which is how TLVPullDeserializer decodes them). Pure ASCII, the
+	 * common case, is written directly, without creating a String or byte[].
+	 *
+	 * @param chars
+	 */
+	public void putScalarValue(CharSequence chars)
+	{
+		int length = chars.length();
+		for (int i = 0; i < length; i++)
+		{
+			if (chars.charAt(i) >= 0x80)
+			{
+				byte[] bytes = chars.toString().getBytes();
+				putInt(bytes.length);
+				putBytes(bytes);
+				return;
+			}
+		}
+		ensureRemaining(4 + length);
+		buffer.putInt(length);
+		for (int i = 0; i < length; i++)
+			buffer.put((byte) chars.charAt(i));
+	}
+
+	/**
+	 * @return Empty StringBuilder that scalar values can be appended to, before putScalarValue().
+	 */
+	StringBuilder scalarBuilder()
+	{
+		scalarBuilder.setLength(0);
+		return scalarBuilder;
+	}
+
+	/**
+	 * @return The number of bytes written so far.
+	 */
+	public int size()
+	{
+		return buffer.position();
+	}
+
+	public void writeTo(OutputStream outputStream) throws IOException
+	{
+		outputStream.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+	}
+
+	/**
+	 * Write everything in this to the channel. Blocks (spins, for a non-blocking channel) until all
+	 * of it has been written.
+	 *
+	 * @param channel
+	 * @throws IOException
+	 */
+	public void writeTo(WritableByteChannel channel) throws IOException
+	{
+		ByteBuffer out = buffer.duplicate();
+		out.flip();
+		while (out.hasRemaining())
+			channel.write(out);
+	}
+
+	/**
+	 * @return A read-only view of the bytes written so far.
+	 */
+	public ByteBuffer asReadOnlyByteBuffer()
+	{
+		ByteBuffer out = buffer.asReadOnlyBuffer();
+		out.flip();
+		return out;
+	}
+
+	public byte[] toByteArray()
+	{
+		byte[] result = new byte[buffer.position()];
+		System.arraycopy(buffer.array(), buffer.arrayOffset(), result, 0, result.length);
+		return result;
+	}
+
+	public void clear()
+	{
+		if (buffer.capacity() > MAX_RETAINED_CAPACITY)
+			buffer = ByteBuffer.allocate(DEFAULT_CAPACITY);
+		else
+			buffer.clear();
+		scalarBuilder.setLength(0);
+		numElementMarks = -1;
+	}
+
+	/**
+	 * Pool of TLVOutputBuffers, so that serializing does not allocate a new buffer every time.
+	 */
+	public static class Pool extends ResourcePool<TLVOutputBuffer>
+	{
+		protected Pool()
+		{
+			super(1, 1);
+		}
+
+		@Override
+		protected TLVOutputBuffer generateNewResource()
+		{
+			return new TLVOutputBuffer();
+		}
+
+		@Override
+		protected void clean(TLVOutputBuffer objectToClean)
+		{
+			objectToClean.clear();
+		}
+	}
+
+	private static final Pool	pool	= new Pool();
+
+	public static Pool pool()
+	{
+		return pool;
+	}
+}
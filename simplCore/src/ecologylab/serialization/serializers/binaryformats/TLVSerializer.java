@@ -1,12 +1,10 @@
 package ecologylab.serialization.serializers.binaryformats;
 
-import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.PrintStream;
-import java.util.ArrayList;
+import java.nio.channels.WritableByteChannel;
 import java.util.Collection;
+import java.util.List;
 
 import ecologylab.serialization.ClassDescriptor;
 import ecologylab.serialization.FieldDescriptor;
@@ -16,10 +14,14 @@ import ecologylab.serialization.SimplTypesScope;
 import ecologylab.serialization.SimplTypesScope.GRAPH_SWITCH;
 import ecologylab.serialization.TranslationContext;
 import ecologylab.serialization.XMLTools;
-import ecologylab.serialization.annotations.FieldUsage;
 import ecologylab.serialization.formatenums.Format;
+import ecologylab.serialization.serializers.SerializationPlan;
+import ecologylab.serialization.types.ScalarValue;
 
 /**
+ * Serializes to TLV in a single pass, into one TLVOutputBuffer. The length of each element is
+ * back-patched once its body has been written, so nested composites and collections are never
+ * copied into their parents.
  * 
  * @author nabeel
  * 
@@ -45,314 +47,362 @@ public class TLVSerializer extends BinarySerializer implements FieldTypes
 	public void serialize(Object object, DataOutputStream dataOutputStream,
 			TranslationContext translationContext) throws SIMPLTranslationException
 	{
-		translationContext.resolveGraph(object);
-
-		ClassDescriptor<? extends FieldDescriptor> rootObjectClassDescriptor = ClassDescriptor
-				.getClassDescriptor(object.getClass());
+		TLVOutputBuffer buffer = TLVOutputBuffer.pool().acquire();
+		try
+		{
+			serialize(object, buffer, translationContext);
+			buffer.writeTo(dataOutputStream);
+		}
+		catch (IOException e)
+		{
+			throw new SIMPLTranslationException("IO Exception occurred", e);
+		}
+		finally
+		{
+			TLVOutputBuffer.pool().release(buffer);
+		}
+	}
 
+	/**
+	 * Serialize the object, and write the result straight to the channel.
+	 * 
+	 * @param object
+	 * @param channel
+	 * @param translationContext
+	 * @throws SIMPLTranslationException
+	 */
+	@Override
+	public void serialize(Object object, WritableByteChannel channel,
+			TranslationContext translationContext) throws SIMPLTranslationException
+	{
+		TLVOutputBuffer buffer = TLVOutputBuffer.pool().acquire();
 		try
 		{
-			serialize(object, rootObjectClassDescriptor.pseudoFieldDescriptor(), dataOutputStream,
-					translationContext);
+			serialize(object, buffer, translationContext);
+			buffer.writeTo(channel);
 		}
 		catch (IOException e)
 		{
 			throw new SIMPLTranslationException("IO Exception occurred", e);
 		}
+		finally
+		{
+			TLVOutputBuffer.pool().release(buffer);
+		}
 	}
 
 	/**
+	 * Serialize the object, appending the result to the buffer.
 	 * 
 	 * @param object
-	 * @param rootObjectFieldDescriptor
-	 * @param dataOutputStream
+	 * @param buffer
 	 * @param translationContext
 	 * @throws SIMPLTranslationException
-	 * @throws IOException
-	 * @throws IOException
 	 */
-	private void serialize(Object object, FieldDescriptor rootObjectFieldDescriptor,
-			DataOutputStream dataOutputStream, TranslationContext translationContext)
-			throws SIMPLTranslationException, IOException
+	public void serialize(Object object, TLVOutputBuffer buffer,
+			TranslationContext translationContext) throws SIMPLTranslationException
+	{
+		TLVPlan plan = plan(ClassDescriptor.getClassDescriptor(object.getClass()));
+
+		if (SimplTypesScope.graphSwitch == GRAPH_SWITCH.ON)
+		{
+			buffer.trackElements();
+			serialize(object, plan, plan.tlvId, buffer, translationContext);
+			insertSimplIds(buffer, translationContext);
+		}
+		else
+		{
+			serialize(object, plan, plan.tlvId, buffer, translationContext);
+		}
+	}
+
+	/**
+	 * Objects are only known to need a simpl:id once a simpl:ref to them has been written, so the ids
+	 * are inserted at the start of the referenced objects' bodies after the whole graph is written.
+	 * 
+	 * @param buffer
+	 * @param translationContext
+	 */
+	private void insertSimplIds(TLVOutputBuffer buffer, TranslationContext translationContext)
+	{
+		int count = 0;
+		for (int id = translationContext.nextReferencedSimplId(0); id >= 0; id = translationContext
+				.nextReferencedSimplId(id + 1))
+			count++;
+
+		int[] offsets = new int[count];
+		int[] ids = new int[count];
+		int i = 0;
+		for (int id = translationContext.nextReferencedSimplId(0); id >= 0; id = translationContext
+				.nextReferencedSimplId(id + 1))
+		{
+			offsets[i] = translationContext.getSimplIdOffset(id);
+			ids[i++] = id;
+		}
+		buffer.insertIntElements(offsets, TranslationContext.SIMPL_ID.hashCode(), ids, count);
+	}
+
+	/**
+	 * 
+	 * @param object
+	 * @param plan
+	 *          Plan for the object's class.
+	 * @param tlvId
+	 *          Id of the object's element.
+	 * @param buffer
+	 * @param translationContext
+	 * @throws SIMPLTranslationException
+	 */
+	private void serialize(Object object, TLVPlan plan, int tlvId, TLVOutputBuffer buffer,
+			TranslationContext translationContext) throws SIMPLTranslationException
 	{
 
 		if (alreadySerialized(object, translationContext))
 		{
-			writeSimplRef(object, rootObjectFieldDescriptor, dataOutputStream);
+			writeSimplRef(object, tlvId, buffer, translationContext);
 			return;
 		}
 
 		translationContext.mapObject(object);
 
-		serializationPreHook(object, translationContext);
-
-		ClassDescriptor<? extends FieldDescriptor> rootObjectClassDescriptor = getClassDescriptor(object);
+		if (plan.hasPreHook)
+			serializationPreHook(object, translationContext);
 
-		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-		DataOutputStream outputBuffer = new DataOutputStream(byteArrayOutputStream);
+		int mark = buffer.startElement(tlvId);
 
-		int id = rootObjectFieldDescriptor.getTLVId();
+		serializeFields(object, buffer, translationContext, plan);
 
-		serializeFields(object, outputBuffer, translationContext, rootObjectClassDescriptor);
+		buffer.endElement(mark);
 
-		writeHeader(dataOutputStream, byteArrayOutputStream, id);
-
-		serializationPostHook(object, translationContext);
+		if (plan.hasPostHook)
+			serializationPostHook(object, translationContext);
 
 	}
 
 	/**
+	 * Serialize a composite value of the step's field. Polymorphic fields take the id from the
+	 * value's class.
 	 * 
-	 * @param dataOutputStream
+	 * @param value
+	 * @param step
 	 * @param buffer
-	 * @param tlvId
+	 * @param translationContext
 	 * @throws SIMPLTranslationException
 	 */
-	private void writeHeader(DataOutputStream dataOutputStream, ByteArrayOutputStream buffer,
-			int tlvId) throws SIMPLTranslationException
+	private void serialize(Object value, TLVStep step, TLVOutputBuffer buffer,
+			TranslationContext translationContext) throws SIMPLTranslationException
 	{
-		try
-		{
-			dataOutputStream.writeInt(tlvId);
+		TLVPlan plan = plan(step.classDescriptor(value));
+		serialize(value, plan, step.polymorphic ? plan.tlvId : step.tlvId, buffer, translationContext);
+	}
 
-			dataOutputStream.writeInt(buffer.size());
-			buffer.writeTo(dataOutputStream);
-		}
-		catch (IOException e)
+	/**
+	 * @return The plan for serializing instances of the class to TLV, compiling it on first use.
+	 */
+	private static TLVPlan plan(ClassDescriptor<? extends FieldDescriptor> classDescriptor)
+	{
+		TLVPlan plan = (TLVPlan) classDescriptor.getSerializationPlan(Format.TLV);
+		if (plan == null)
 		{
-			throw new SIMPLTranslationException("IOException", e);
+			plan = new TLVPlan(classDescriptor);
+			classDescriptor.setSerializationPlan(Format.TLV, plan);
 		}
+		return plan;
 	}
 
 	/**
 	 * 
 	 * @param object
-	 * @param dataOutputStream
+	 * @param buffer
 	 * @param translationContext
-	 * @param allFieldDescriptors
-	 * @throws IOException
+	 * @param plan
 	 * @throws SIMPLTranslationException
-	 * @throws IOException
 	 */
-	private void serializeFields(Object object, DataOutputStream outputBuffer,
-			TranslationContext translationContext,
-			ClassDescriptor<? extends FieldDescriptor> classDescriptor) throws SIMPLTranslationException,
-			IOException
+	private void serializeFields(Object object, TLVOutputBuffer buffer,
+			TranslationContext translationContext, TLVPlan plan) throws SIMPLTranslationException
 	{
 		if (SimplTypesScope.graphSwitch == GRAPH_SWITCH.ON)
 		{
-			if (translationContext.needsHashCode(object))
-			{
-				writeSimplIdAttribute(object, outputBuffer);
-			}
+			// inserted later, if the object turns out to be referenced.
+			translationContext.setSimplIdOffset(object, buffer.size());
 		}
 
-		ArrayList<? extends FieldDescriptor> attributeFieldDescriptors = classDescriptor.attributeFieldDescriptors();
-		serializeFieldsHelper(outputBuffer, object, translationContext, attributeFieldDescriptors);
-		ArrayList<? extends FieldDescriptor> elementFieldDescriptors = classDescriptor.elementFieldDescriptors();
-		serializeFieldsHelper(outputBuffer, object, translationContext, elementFieldDescriptors);
-	}
-
-	private void serializeFieldsHelper(DataOutputStream outputBuffer, Object object,
-			TranslationContext translationContext, ArrayList<? extends FieldDescriptor> fieldDescriptors)
-			throws SIMPLTranslationException, IOException
-	{
-		for (FieldDescriptor childFd : fieldDescriptors)
+		boolean elideDefaults = plan.classDescriptor.elidesDefaultValues();
+		for (TLVStep step : plan.fields)
 		{
-			ByteArrayOutputStream byteArrayOutputStreamCollection = new ByteArrayOutputStream();
-			DataOutputStream collectionBuffer = new DataOutputStream(byteArrayOutputStreamCollection);
-
-			switch (childFd.getType())
+			switch (step.kind)
 			{
-			case SCALAR:
-				writeValue(object, childFd, outputBuffer, translationContext);
+			case TLVPlan.SCALAR:
+				writeValue(object, step, buffer, translationContext, elideDefaults);
 				break;
-			case COMPOSITE_ELEMENT:
-				Object compositeObject = childFd.getValue(object);
-					
-				FieldDescriptor compositeObjectFieldDescriptor = childFd.isPolymorphic() ? getClassDescriptor(
-						compositeObject).pseudoFieldDescriptor()
-						: childFd;
-				writeWrap(childFd, outputBuffer, byteArrayOutputStreamCollection);
-				serialize(compositeObject, compositeObjectFieldDescriptor, outputBuffer, translationContext);
-				writeWrap(childFd, outputBuffer, byteArrayOutputStreamCollection);
+			case TLVPlan.COMPOSITE:
+				Object compositeObject = step.fd.getValue(object);
+				if (compositeObject == null)
+					break;
+
+				// wrapped composites get an empty wrapper element on either side.
+				writeEmptyWrap(step, buffer);
+				serialize(compositeObject, step, buffer, translationContext);
+				writeEmptyWrap(step, buffer);
 				break;
-			case COLLECTION_SCALAR:
-			case MAP_SCALAR:
-				Object scalarCollectionObject = childFd.getValue(object);
-				Collection<?> scalarCollection = XMLTools.getCollection(scalarCollectionObject);
+			case TLVPlan.SCALAR_COLLECTION:
+				Collection<?> scalarCollection = XMLTools.getCollection(step.fd.getValue(object));
+				if (scalarCollection == null)
+					break;
+
+				int scalarWrapMark = startWrap(step, buffer);
 				for (Object collectionObject : scalarCollection)
 				{
-					writeScalarCollectionLeaf(collectionObject, childFd, collectionBuffer, translationContext);
+					writeScalarCollectionLeaf(collectionObject, step, buffer, translationContext);
 				}
-				writeWrap(childFd, outputBuffer, byteArrayOutputStreamCollection);
+				endWrap(step, buffer, scalarWrapMark);
 				break;
-			case COLLECTION_ELEMENT:
-			case MAP_ELEMENT:
-				Object compositeCollectionObject = childFd.getValue(object);
-				Collection<?> compositeCollection = XMLTools.getCollection(compositeCollectionObject);
+			case TLVPlan.COMPOSITE_COLLECTION:
+				Collection<?> compositeCollection = XMLTools.getCollection(step.fd.getValue(object));
+				if (compositeCollection == null)
+					break;
+
+				int compositeWrapMark = startWrap(step, buffer);
 				for (Object collectionComposite : compositeCollection)
 				{
-					FieldDescriptor collectionObjectFieldDescriptor = childFd.isPolymorphic() ? getClassDescriptor(
-							collectionComposite).pseudoFieldDescriptor()
-							: childFd;
-					serialize(collectionComposite, collectionObjectFieldDescriptor, collectionBuffer,
-							translationContext);
+					serialize(collectionComposite, step, buffer, translationContext);
 				}
-				writeWrap(childFd, outputBuffer, byteArrayOutputStreamCollection);
+				endWrap(step, buffer, compositeWrapMark);
 				break;
 			}
 		}
 	}
 
 	/**
+	 * If the field is wrapped, start the wrapper element.
 	 * 
-	 * @param object
-	 * @param outputBuffer
-	 * @throws IOException
+	 * @param step
+	 * @param buffer
+	 * @return The mark to pass to endWrap().
 	 */
-	private void writeSimplIdAttribute(Object object, DataOutputStream outputBuffer)
-			throws IOException
+	private int startWrap(TLVStep step, TLVOutputBuffer buffer)
 	{
-		outputBuffer.writeInt(TranslationContext.SIMPL_ID.hashCode());
-		outputBuffer.writeInt(4);
-		outputBuffer.writeInt(object.hashCode());
+		return step.wrapped ? buffer.startElement(step.wrappedTLVId) : -1;
+	}
+
+	private void endWrap(TLVStep step, TLVOutputBuffer buffer, int mark)
+	{
+		if (step.wrapped)
+			buffer.endElement(mark);
+	}
+
+	private void writeEmptyWrap(TLVStep step, TLVOutputBuffer buffer)
+	{
+		if (step.wrapped)
+		{
+			buffer.putInt(step.wrappedTLVId);
+			buffer.putInt(0);
+		}
 	}
 
 	/**
 	 * 
-	 * @param fd
-	 * @param outputBuffer
-	 * @param collectionBuffy
+	 * @param object
+	 * @param step
+	 * @param buffer
+	 * @param translationContext
 	 * @throws SIMPLTranslationException
 	 */
-	private void writeWrap(FieldDescriptor fd, DataOutputStream outputBuffer,
-			ByteArrayOutputStream collectionBuffy) throws SIMPLTranslationException
+	private void writeScalarCollectionLeaf(Object object, TLVStep step, TLVOutputBuffer buffer,
+			TranslationContext translationContext) throws SIMPLTranslationException
 	{
-		try
-		{
-			if (fd.isWrapped())
-			{
-				outputBuffer.writeInt(fd.getWrappedTLVId());
-				outputBuffer.writeInt(collectionBuffy.size());
-				collectionBuffy.writeTo(outputBuffer);
-			}
-			else
-				collectionBuffy.writeTo(outputBuffer);
-		}
-		catch (IOException e)
+		FieldDescriptor fd = step.fd;
+		if (!fd.isDefaultValue(object))
 		{
-			throw new SIMPLTranslationException("IOException", e);
+			buffer.putInt(step.tlvId);
+
+			StringBuilder value = buffer.scalarBuilder();
+			fd.appendCollectionScalarValue(value, object, translationContext, Format.TLV);
+			buffer.putScalarValue(value);
 		}
 	}
 
 	/**
 	 * 
 	 * @param object
-	 * @param fd
-	 * @param outputBuffer
+	 * @param step
+	 * @param buffer
 	 * @param translationContext
+	 * @param elideDefaults
+	 *          false to write the value even if it is the default.
 	 * @throws SIMPLTranslationException
 	 */
-	private void writeScalarCollectionLeaf(Object object, FieldDescriptor fd,
-			DataOutputStream outputBuffer, TranslationContext translationContext)
+	private void writeValue(Object object, TLVStep step, TLVOutputBuffer buffer,
+			TranslationContext translationContext, boolean elideDefaults)
 			throws SIMPLTranslationException
 	{
-		try
+		FieldDescriptor fd = step.fd;
+		ScalarValue scalarValue = translationContext.scalarValue();
+		if (!fd.readValue(object, scalarValue, elideDefaults))
 		{
-			if (!fd.isDefaultValue(object))
-			{
-				outputBuffer.writeInt(fd.getTLVId());
+			buffer.putInt(step.tlvId);
 
-				// TODO appendValue in scalar types should be able to append bytes to DataOutputStream.
-				final StringBuilder buffy = new StringBuilder();
-				OutputStream outputStream = new OutputStream()
-				{
-					@Override
-					public void write(int b) throws IOException
-					{
-						buffy.append((char) b);
-					}
-				};
-
-				fd.appendCollectionScalarValue(new PrintStream(outputStream), object, translationContext,
-						Format.TLV);
-
-				ByteArrayOutputStream temp = new ByteArrayOutputStream();
-				DataOutputStream tempStream = new DataOutputStream(temp);
-				tempStream.writeBytes(buffy.toString());
-
-				outputBuffer.writeInt(tempStream.size());
-				temp.writeTo(outputBuffer);
-			}
-		}
-		catch (IOException e)
-		{
-			throw new SIMPLTranslationException("IOException", e);
+			StringBuilder value = buffer.scalarBuilder();
+			fd.appendValue(value, scalarValue, translationContext, Format.TLV);
+			buffer.putScalarValue(value);
 		}
 	}
 
 	/**
 	 * 
 	 * @param object
-	 * @param fd
-	 * @param outputBuffer
+	 * @param tlvId
+	 * @param buffer
 	 * @param translationContext
-	 * @throws SIMPLTranslationException
 	 */
-	private void writeValue(Object object, FieldDescriptor fd, DataOutputStream outputBuffer,
-			TranslationContext translationContext) throws SIMPLTranslationException
+	private void writeSimplRef(Object object, int tlvId, TLVOutputBuffer buffer,
+			TranslationContext translationContext)
 	{
-		try
-		{
-			if (!fd.isDefaultValueFromContext(object))
-			{
-				outputBuffer.writeInt(fd.getTLVId());
-
-				// TODO appendValue in scalar types should be able to append bytes to DataOutputStream.
-				final StringBuilder buffy = new StringBuilder();
-				OutputStream outputStream = new OutputStream()
-				{
-					@Override
-					public void write(int b) throws IOException
-					{
-						buffy.append((char) b);
-					}
-				};
+		translationContext.markAsReferenced(object);
+		int mark = buffer.startElement(tlvId);
+		buffer.putInt(TranslationContext.SIMPL_REF.hashCode());
+		buffer.putInt(4);
+		buffer.putInt(translationContext.getSimplIdValue(object));
+		buffer.endElement(mark);
+	}
 
-				fd.appendValue(new PrintStream(outputStream), object, translationContext, Format.TLV);
+	/**
+	 * TLV plan for one class: its element id, for when the class decides the tag, and a step per
+	 * field, attributes first.
+	 */
+	static class TLVPlan extends SerializationPlan
+	{
+		final int					tlvId;
 
-				ByteArrayOutputStream temp = new ByteArrayOutputStream();
-				DataOutputStream tempStream = new DataOutputStream(temp);
-				tempStream.writeBytes(buffy.toString());
+		final TLVStep[]		fields;
 
-				outputBuffer.writeInt(tempStream.size());
-				temp.writeTo(outputBuffer);
-			}
-		}
-		catch (IOException e)
+		TLVPlan(ClassDescriptor<? extends FieldDescriptor> classDescriptor)
 		{
-			throw new SIMPLTranslationException("IOException", e);
+			super(classDescriptor);
+			tlvId = classDescriptor.pseudoFieldDescriptor().getTLVId();
+
+			List<FieldDescriptor> fieldDescriptors = serializedFields(
+					classDescriptor.attributeFieldDescriptors(), classDescriptor.elementFieldDescriptors());
+			fields = new TLVStep[fieldDescriptors.size()];
+			for (int i = 0; i < fields.length; i++)
+				fields[i] = new TLVStep(fieldDescriptors.get(i));
 		}
 	}
 
 	/**
-	 * 
-	 * @param object
-	 * @param rootObjectFieldDescriptor
-	 * @param dataOutputStream
-	 * @throws IOException
-	 * @throws SIMPLTranslationException
+	 * How to write one field in TLV: the field's ids, hashed once.
 	 */
-	private void writeSimplRef(Object object, FieldDescriptor fd, DataOutputStream outputStream)
-			throws IOException, SIMPLTranslationException
+	static class TLVStep extends SerializationPlan.Step
 	{
-		ByteArrayOutputStream simplRefData = new ByteArrayOutputStream();
-		DataOutputStream outputBuffer = new DataOutputStream(simplRefData);
-		outputBuffer.writeInt(TranslationContext.SIMPL_REF.hashCode());
-		outputBuffer.writeInt(4);
-		outputBuffer.writeInt(object.hashCode());
+		final int	tlvId;
+
+		final int	wrappedTLVId;
 
-		writeHeader(outputStream, simplRefData, fd.getTLVId());
+		TLVStep(FieldDescriptor fd)
+		{
+			super(fd);
+			tlvId = fd.getTLVId();
+			wrappedTLVId = fd.getWrappedTLVId();
+		}
 	}
 }
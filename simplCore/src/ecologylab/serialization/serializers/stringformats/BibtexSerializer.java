@@ -28,8 +28,6 @@ public class BibtexSerializer extends StringSerializer implements FieldTypes
 	public void serialize(Object object, Appendable appendable, TranslationContext translationContext)
 			throws SIMPLTranslationException
 	{
-		translationContext.resolveGraph(object);
-
 		ClassDescriptor<? extends FieldDescriptor> rootObjectClassDescriptor = ClassDescriptor
 				.getClassDescriptor(object.getClass());
 
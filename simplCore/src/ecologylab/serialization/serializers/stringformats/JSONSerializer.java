@@ -1,8 +1,8 @@
 package ecologylab.serialization.serializers.stringformats;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import ecologylab.serialization.ClassDescriptor;
 import ecologylab.serialization.FieldDescriptor;
@@ -14,6 +14,8 @@ import ecologylab.serialization.TranslationContext;
 import ecologylab.serialization.XMLTools;
 import ecologylab.serialization.annotations.FieldUsage;
 import ecologylab.serialization.formatenums.Format;
+import ecologylab.serialization.serializers.SerializationPlan;
+import ecologylab.serialization.types.ScalarValue;
 
 /***
  * JSONSerializaton. Guides serialization of data in JSON. Contains code that is specific to
@@ -24,8 +26,6 @@ import ecologylab.serialization.formatenums.Format;
  */
 public class JSONSerializer extends StringSerializer implements FieldTypes
 {
-	private int	numOfFields;
-
 	public JSONSerializer()
 	{
 
@@ -35,19 +35,27 @@ public class JSONSerializer extends StringSerializer implements FieldTypes
 	public void serialize(Object object, Appendable appendable, TranslationContext translationContext)
 			throws SIMPLTranslationException
 	{
-		translationContext.resolveGraph(object);
-
-		ClassDescriptor<? extends FieldDescriptor> rootObjectClassDescriptor = ClassDescriptor
-				.getClassDescriptor(object.getClass());
+		JSONPlan plan = plan(ClassDescriptor.getClassDescriptor(object.getClass()));
 
 		try
 		{
-			writeStart(appendable);
+			if (SimplTypesScope.graphSwitch == GRAPH_SWITCH.ON)
+			{
+				StringBuilder document = new StringBuilder();
+				writeStart(document);
+				serialize(object, plan, plan.start, document, translationContext);
+				writeClose(document);
 
-			serialize(object, rootObjectClassDescriptor.pseudoFieldDescriptor(), appendable,
-					translationContext, true);
+				appendWithSimplIds(document, 0, 0, appendable, translationContext);
+			}
+			else
+			{
+				writeStart(appendable);
 
-			writeClose(appendable);
+				serialize(object, plan, plan.start, appendable, translationContext);
+
+				writeClose(appendable);
+			}
 		}
 		catch (IOException e)
 		{
@@ -58,142 +66,71 @@ public class JSONSerializer extends StringSerializer implements FieldTypes
 	/**
 	 * 
 	 * @param object
-	 * @param rootObjectFieldDescriptor
+	 * @param plan
+	 *          Plan for the object's class.
+	 * @param start
+	 *          What opens the object: its tag, if it has one, and '{'.
 	 * @param appendable
 	 * @param translationContext
-	 * @param withTag
 	 * @throws SIMPLTranslationException
 	 * @throws IOException
 	 */
-	private void serialize(Object object, FieldDescriptor rootObjectFieldDescriptor,
-			Appendable appendable, TranslationContext translationContext, boolean withTag)
-			throws SIMPLTranslationException, IOException
+	private void serialize(Object object, JSONPlan plan, String start, Appendable appendable,
+			TranslationContext translationContext) throws SIMPLTranslationException, IOException
 	{
 		if (alreadySerialized(object, translationContext))
 		{
-			writeSimplRef(object, rootObjectFieldDescriptor, withTag, appendable, translationContext);
+			writeSimplRef(object, start, appendable, translationContext);
 			return;
 		}
 
 		translationContext.mapObject(object);
 
-		serializationPreHook(object, translationContext);
+		if (plan.hasPreHook)
+			serializationPreHook(object, translationContext);
 
-		writeObjectStart(rootObjectFieldDescriptor, appendable, withTag);
+		appendable.append(start);
 
-		//numOfFields = 0;
-		
-		ClassDescriptor<? extends FieldDescriptor> classDescriptor = getClassDescriptor(object);
-		
-		serializeFields(object, appendable, translationContext, classDescriptor);
+		serializeFields(object, appendable, translationContext, plan);
 
 		writeClose(appendable);
 
-		serializationPostHook(object, translationContext);
+		if (plan.hasPostHook)
+			serializationPostHook(object, translationContext);
 	}
 
 	/**
+	 * Serialize a composite value of the step's field. Polymorphic fields take the tag from the
+	 * value's class.
 	 * 
-	 * @param object
+	 * @param value
+	 * @param step
+	 * @param withTag
 	 * @param appendable
 	 * @param translationContext
-	 * @param allFieldDescriptors
 	 * @throws SIMPLTranslationException
 	 * @throws IOException
 	 */
-	private void serializeFields(Object object, Appendable appendable,
-			TranslationContext translationContext,
-			ClassDescriptor<? extends FieldDescriptor> classDescriptor) throws SIMPLTranslationException,
-			IOException
-	{
-		ArrayList<? extends FieldDescriptor> allFieldDescriptors = classDescriptor.allFieldDescriptors();
-
-		if (SimplTypesScope.graphSwitch == GRAPH_SWITCH.ON)
-		{
-			if (translationContext.needsHashCode(object))
-			{
-				writeSimplIdAttribute(object, appendable, allFieldDescriptors.size() <= 0);
-			}
-		}
-			
-		ArrayList<? extends FieldDescriptor> attributeFieldDescriptors = classDescriptor.attributeFieldDescriptors();
-		int numOfFields = serializeFieldsHelper(appendable, object, translationContext, attributeFieldDescriptors, 0);
-		ArrayList<? extends FieldDescriptor> elementFieldDescriptors = classDescriptor.elementFieldDescriptors();
-		serializeFieldsHelper(appendable, object, translationContext, elementFieldDescriptors,numOfFields);
-	}
-
-	private int serializeFieldsHelper(Appendable appendable, Object object,
-			TranslationContext translationContext,
-			ArrayList<? extends FieldDescriptor> fieldDescriptorList, int numOfFields) throws SIMPLTranslationException,
-			IOException
+	private void serialize(Object value, JSONStep step, boolean withTag, Appendable appendable,
+			TranslationContext translationContext) throws SIMPLTranslationException, IOException
 	{
-		
-		for (FieldDescriptor childFd : fieldDescriptorList)
-		{
-			if (isSerializable(childFd, object))
-			{				
-				if (numOfFields++ > 0)
-					appendable.append(',');
-
-				switch (childFd.getType())
-				{
-				case SCALAR:
-					serializeScalar(object, childFd, appendable, translationContext);
-					break;
-				case COMPOSITE_ELEMENT:
-					serializeComposite(object, appendable, translationContext, childFd);
-					break;
-				case COLLECTION_SCALAR:
-				case MAP_SCALAR:
-					serializeScalarCollection(object, appendable, translationContext, childFd);
-					break;
-				case COLLECTION_ELEMENT:
-				case MAP_ELEMENT:
-					if (childFd.isPolymorphic())
-						serializePolymorphicCollection(object, appendable, translationContext, childFd);
-					else
-						serializeCompositeCollection(object, appendable, translationContext, childFd);
-					break;
-				}
-			}
-		}
-		return numOfFields;
+		JSONPlan plan = plan(step.classDescriptor(value));
+		String start = !withTag ? "{" : step.polymorphic ? plan.start : step.start;
+		serialize(value, plan, start, appendable, translationContext);
 	}
 
 	/**
-	 * check if the field is of default value or null. we don't have to serialize that field
-	 * 
-	 * @param childFd
-	 * @param object
-	 * @return
-	 * @throws SIMPLTranslationException
+	 * @return The plan for serializing instances of the class to JSON, compiling it on first use.
 	 */
-	private boolean isSerializable(FieldDescriptor childFd, Object object)
-			throws SIMPLTranslationException
+	private static JSONPlan plan(ClassDescriptor<? extends FieldDescriptor> classDescriptor)
 	{
-		switch (childFd.getType())
+		JSONPlan plan = (JSONPlan) classDescriptor.getSerializationPlan(Format.JSON);
+		if (plan == null)
 		{
-		case SCALAR:
-			if (childFd.isDefaultValueFromContext(object))
-				return false;
-			break;
-		case COMPOSITE_ELEMENT:
-		case COLLECTION_ELEMENT:
-		case MAP_ELEMENT:
-			Object obj = childFd.getValue(object);
-			if (obj == null)
-				return false;
-			break;
-		case COLLECTION_SCALAR:
-		case MAP_SCALAR:
-			Object scalarCollectionObject = childFd.getValue(object);
-			Collection<?> scalarCollection = XMLTools.getCollection(scalarCollectionObject);
-			if (scalarCollection == null || scalarCollection.size() <= 0)
-				return false;
-			break;
+			plan = new JSONPlan(classDescriptor);
+			classDescriptor.setSerializationPlan(Format.JSON, plan);
 		}
-
-		return true;
+		return plan;
 	}
 
 	/**
@@ -201,90 +138,125 @@ public class JSONSerializer extends StringSerializer implements FieldTypes
 	 * @param object
 	 * @param appendable
 	 * @param translationContext
-	 * @param childFd
+	 * @param plan
 	 * @throws SIMPLTranslationException
 	 * @throws IOException
 	 */
-	private void serializeComposite(Object object, Appendable appendable,
-			TranslationContext translationContext, FieldDescriptor childFd)
-			throws SIMPLTranslationException, IOException
+	private void serializeFields(Object object, Appendable appendable,
+			TranslationContext translationContext, JSONPlan plan) throws SIMPLTranslationException,
+			IOException
 	{
-		Object compositeObject = childFd.getValue(object);
-		FieldDescriptor compositeObjectFieldDescriptor = childFd.isPolymorphic() ? getClassDescriptor(
-				compositeObject).pseudoFieldDescriptor() : childFd;
-		serialize(compositeObject, compositeObjectFieldDescriptor, appendable, translationContext, true);
+		if (SimplTypesScope.graphSwitch == GRAPH_SWITCH.ON)
+		{
+			// written later, if the object turns out to be referenced.
+			translationContext.setSimplIdOffset(object, documentOffset(appendable));
+		}
+
+		ScalarValue value = translationContext.scalarValue();
+		boolean elideDefaults = plan.classDescriptor.elidesDefaultValues();
+		boolean first = true;
+		for (JSONStep step : plan.fields)
+		{
+			// fields that are default, null, or empty scalar collections are left out.
+			switch (step.kind)
+			{
+			case JSONPlan.SCALAR:
+				if (step.fd.readValue(object, value, elideDefaults))
+					continue;
+				if (!first)
+					appendable.append(',');
+				serializeScalar(value, step, appendable, translationContext);
+				break;
+			case JSONPlan.COMPOSITE:
+				Object compositeObject = step.fd.getValue(object);
+				if (compositeObject == null)
+					continue;
+				if (!first)
+					appendable.append(',');
+				serialize(compositeObject, step, true, appendable, translationContext);
+				break;
+			case JSONPlan.SCALAR_COLLECTION:
+				Collection<?> scalarCollection = XMLTools.getCollection(step.fd.getValue(object));
+				if (scalarCollection == null || scalarCollection.size() <= 0)
+					continue;
+				if (!first)
+					appendable.append(',');
+				serializeScalarCollection(scalarCollection, step, appendable, translationContext);
+				break;
+			case JSONPlan.COMPOSITE_COLLECTION:
+				Object collectionObject = step.fd.getValue(object);
+				if (collectionObject == null)
+					continue;
+				if (!first)
+					appendable.append(',');
+				Collection<?> compositeCollection = XMLTools.getCollection(collectionObject);
+				if (step.polymorphic)
+					serializePolymorphicCollection(compositeCollection, step, appendable, translationContext);
+				else
+					serializeCompositeCollection(compositeCollection, step, appendable, translationContext);
+				break;
+			}
+			first = false;
+		}
 	}
 
 	/**
 	 * 
-	 * @param object
+	 * @param compositeCollection
+	 * @param step
 	 * @param appendable
 	 * @param translationContext
-	 * @param childFd
 	 * @throws IOException
 	 * @throws SIMPLTranslationException
 	 */
-	private void serializeCompositeCollection(Object object, Appendable appendable,
-			TranslationContext translationContext, FieldDescriptor childFd) throws IOException,
+	private void serializeCompositeCollection(Collection<?> compositeCollection, JSONStep step,
+			Appendable appendable, TranslationContext translationContext) throws IOException,
 			SIMPLTranslationException
 	{
-		Object collectionObject = childFd.getValue(object);
-		Collection<?> compositeCollection = XMLTools.getCollection(collectionObject);
-		
-		if(compositeCollection != null)
+		if (compositeCollection != null)
 		{
 			int numberOfItems = 0;
-	
-			writeWrap(childFd, appendable, false);
-			writeCollectionStart(childFd, appendable);
+
+			if (step.wrapped)
+				appendable.append(step.wrapStart);
+			appendable.append(step.collectionStart);
 			for (Object collectionComposite : compositeCollection)
 			{
-				FieldDescriptor collectionObjectFieldDescriptor = childFd.isPolymorphic() ? getClassDescriptor(
-						collectionComposite).pseudoFieldDescriptor()
-						: childFd;
-	
-				serialize(collectionComposite, collectionObjectFieldDescriptor, appendable,
-						translationContext, false);
-	
+				serialize(collectionComposite, step, false, appendable, translationContext);
+
 				if (++numberOfItems < compositeCollection.size())
 					appendable.append(',');
 			}
 			writeCollectionEnd(appendable);
-			writeWrap(childFd, appendable, true);
+			if (step.wrapped)
+				writeClose(appendable);
 		}
 	}
 
 	/**
 	 * 
-	 * @param object
+	 * @param compositeCollection
+	 * @param step
 	 * @param appendable
 	 * @param translationContext
-	 * @param childFd
 	 * @throws IOException
 	 * @throws SIMPLTranslationException
 	 */
-	private void serializePolymorphicCollection(Object object, Appendable appendable,
-			TranslationContext translationContext, FieldDescriptor childFd) throws IOException,
+	private void serializePolymorphicCollection(Collection<?> compositeCollection, JSONStep step,
+			Appendable appendable, TranslationContext translationContext) throws IOException,
 			SIMPLTranslationException
 	{
-		Object collectionObject = childFd.getValue(object);
-		Collection<?> compositeCollection = XMLTools.getCollection(collectionObject);
 		int numberOfItems = 0;
 
-		if(compositeCollection != null)
-		{		
-			writePolymorphicCollectionStart(childFd, appendable);
+		if (compositeCollection != null)
+		{
+			appendable.append(step.collectionStart);
 			for (Object collectionComposite : compositeCollection)
 			{
-				FieldDescriptor collectionObjectFieldDescriptor = childFd.isPolymorphic() ? getClassDescriptor(
-						collectionComposite).pseudoFieldDescriptor()
-						: childFd;
-	
 				writeStart(appendable);
-				serialize(collectionComposite, collectionObjectFieldDescriptor, appendable,
-						translationContext, true);
+				serialize(collectionComposite, step, true, appendable, translationContext);
 				writeClose(appendable);
-	
+
 				if (++numberOfItems < compositeCollection.size())
 					appendable.append(',');
 			}
@@ -294,54 +266,48 @@ public class JSONSerializer extends StringSerializer implements FieldTypes
 
 	/**
 	 * 
-	 * @param object
+	 * @param scalarCollection
+	 * @param step
 	 * @param appendable
 	 * @param translationContext
-	 * @param childFd
 	 * @throws IOException
 	 * @throws SIMPLTranslationException
 	 */
-	private void serializeScalarCollection(Object object, Appendable appendable,
-			TranslationContext translationContext, FieldDescriptor childFd) throws IOException,
+	private void serializeScalarCollection(Collection<?> scalarCollection, JSONStep step,
+			Appendable appendable, TranslationContext translationContext) throws IOException,
 			SIMPLTranslationException
 	{
-		Object scalarCollectionObject = childFd.getValue(object);
-		Collection<?> scalarCollection = XMLTools.getCollection(scalarCollectionObject);
 		int numberOfItems = 0;
 
-		if(scalarCollection != null)
+		if (step.wrapped)
+			appendable.append(step.wrapStart);
+		appendable.append(step.collectionStart);
+		for (Object collectionObject : scalarCollection)
 		{
-			writeWrap(childFd, appendable, false);
-			writeCollectionStart(childFd, appendable);
-			for (Object collectionObject : scalarCollection)
-			{
-				writeCollectionScalar(collectionObject, childFd, appendable, translationContext);
-				if (++numberOfItems < scalarCollection.size())
-					appendable.append(',');
-			}
-			writeCollectionEnd(appendable);
-			writeWrap(childFd, appendable, true);
+			writeCollectionScalar(collectionObject, step.fd, appendable, translationContext);
+			if (++numberOfItems < scalarCollection.size())
+				appendable.append(',');
 		}
+		writeCollectionEnd(appendable);
+		if (step.wrapped)
+			writeClose(appendable);
 	}
 
 	/**
 	 * 
-	 * @param object
-	 * @param fd
+	 * @param value
+	 *          The field, as read by FieldDescriptor.readValue().
+	 * @param step
 	 * @param appendable
 	 * @param translationContext
 	 * @throws IOException
 	 * @throws SIMPLTranslationException
 	 */
-	private void serializeScalar(Object object, FieldDescriptor fd, Appendable appendable,
+	private void serializeScalar(ScalarValue value, JSONStep step, Appendable appendable,
 			TranslationContext translationContext) throws IOException, SIMPLTranslationException
 	{
-		appendable.append('"');
-		appendable.append(fd.getTagName());
-		appendable.append('"');
-		appendable.append(':');
-		appendable.append('"');
-		fd.appendValue(appendable, object, translationContext, Format.JSON);
+		appendable.append(step.start);
+		step.fd.appendValue(appendable, value, translationContext, Format.JSON);
 		appendable.append('"');
 	}
 
@@ -355,54 +321,6 @@ public class JSONSerializer extends StringSerializer implements FieldTypes
 		appendable.append(']');
 	}
 
-	private void writeCollectionStart(FieldDescriptor fd, Appendable appendable) throws IOException
-	{
-		appendable.append('"').append(fd.elementStart()).append('"');
-		appendable.append(':');
-		appendable.append('[');
-	}
-
-	/**
-	 * 
-	 * @param fd
-	 * @param appendable
-	 * @throws IOException
-	 */
-	private void writePolymorphicCollectionStart(FieldDescriptor fd, Appendable appendable)
-			throws IOException
-	{
-		appendable.append('"').append(fd.getTagName()).append('"');
-		appendable.append(':');
-		appendable.append('[');
-
-	}
-
-	/**
-	 * 
-	 * @param fd
-	 * @param appendable
-	 * @param close
-	 * @throws IOException
-	 */
-	private void writeWrap(FieldDescriptor fd, Appendable appendable, boolean close)
-			throws IOException
-	{
-		if (fd.isWrapped())
-		{
-			if (!close)
-			{
-				appendable.append('"');
-				appendable.append(fd.getTagName());
-				appendable.append('"').append(':');
-				appendable.append('{');
-			}
-			else
-			{
-				appendable.append('}');
-			}
-		}
-	}
-
 	/**
 	 * 
 	 * @param object
@@ -420,35 +338,18 @@ public class JSONSerializer extends StringSerializer implements FieldTypes
 		appendable.append('"');
 	}
 
-	/**
-	 * 
-	 * @param fd
-	 * @param appendable
-	 * @param withTag
-	 * @throws IOException
-	 */
-	private void writeObjectStart(FieldDescriptor fd, Appendable appendable, boolean withTag)
-			throws IOException
-	{
-		if (withTag)
-		{
-			appendable.append('"').append(fd.elementStart()).append('"');
-			appendable.append(':');
-		}
-		appendable.append('{');
-	}
-
 	/**
 	 * 
 	 * @param object
-	 * @param rootObjectFieldDescriptor
+	 * @param start
 	 * @param appendable
 	 * @throws IOException
 	 */
-	private void writeSimplRef(Object object, FieldDescriptor fd, boolean withTag,
-			Appendable appendable, TranslationContext translationContext) throws IOException
+	private void writeSimplRef(Object object, String start, Appendable appendable,
+			TranslationContext translationContext) throws IOException
 	{
-		writeObjectStart(fd, appendable, withTag);
+		translationContext.markAsReferenced(object);
+		appendable.append(start);
 		writeSimplRefAttribute(object, appendable, translationContext);
 		writeClose(appendable);
 	}
@@ -464,18 +365,20 @@ public class JSONSerializer extends StringSerializer implements FieldTypes
 		appendable.append('"');
 	}
 
-	private void writeSimplIdAttribute(Object object, Appendable appendable, boolean last)
-			throws IOException
+	@Override
+	protected void writeDeferredSimplId(int simplId, CharSequence document, int offset,
+			Appendable appendable) throws IOException
 	{
 		appendable.append('"');
 		appendable.append(TranslationContext.JSON_SIMPL_ID);
 		appendable.append('"');
 		appendable.append(':');
 		appendable.append('"');
-		appendable.append(((Integer) object.hashCode()).toString());
+		appendable.append(Integer.toString(simplId));
 		appendable.append('"');
 
-		if (!last)
+		// the id goes right after the opening brace, before the object's other fields, if any.
+		if (document.charAt(offset) != '}')
 		{
 			appendable.append(',');
 		}
@@ -500,4 +403,60 @@ public class JSONSerializer extends StringSerializer implements FieldTypes
 	{
 		appendable.append('}');
 	}
+
+	/**
+	 * JSON plan for one class: how the object opens, for when the class decides the tag, and a step
+	 * per field, attributes first.
+	 */
+	static class JSONPlan extends SerializationPlan
+	{
+		/**
+		 * The class's tag, quoted, ':' and '{'.
+		 */
+		final String			start;
+
+		final JSONStep[]	fields;
+
+		JSONPlan(ClassDescriptor<? extends FieldDescriptor> classDescriptor)
+		{
+			super(classDescriptor);
+			start = "\"" + classDescriptor.pseudoFieldDescriptor().elementStart() + "\":{";
+
+			List<FieldDescriptor> fieldDescriptors = serializedFields(
+					classDescriptor.attributeFieldDescriptors(), classDescriptor.elementFieldDescriptors());
+			fields = new JSONStep[fieldDescriptors.size()];
+			for (int i = 0; i < fields.length; i++)
+				fields[i] = new JSONStep(fieldDescriptors.get(i));
+		}
+	}
+
+	/**
+	 * How to write one field in JSON.
+	 */
+	static class JSONStep extends SerializationPlan.Step
+	{
+		/**
+		 * The quoted tag and ':', followed by '"' for scalars, which are always written as strings,
+		 * and by '{' for composites.
+		 */
+		final String	start;
+
+		/**
+		 * The quoted tag, ':' and '['. Polymorphic collections are keyed by the field's tag; others by
+		 * the collection tag.
+		 */
+		final String	collectionStart;
+
+		final String	wrapStart;
+
+		JSONStep(FieldDescriptor fd)
+		{
+			super(fd);
+			String quotedTag = "\"" + fd.getTagName() + "\":";
+			String quotedElementStart = "\"" + fd.elementStart() + "\":";
+			start = kind == SerializationPlan.SCALAR ? quotedTag + "\"" : quotedElementStart + "{";
+			collectionStart = (polymorphic ? quotedTag : quotedElementStart) + "[";
+			wrapStart = quotedTag + "{";
+		}
+	}
 }
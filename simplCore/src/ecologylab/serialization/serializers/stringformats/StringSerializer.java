@@ -1,12 +1,10 @@
 package ecologylab.serialization.serializers.stringformats;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PrintStream;
-import java.io.UnsupportedEncodingException;
+import java.nio.channels.WritableByteChannel;
 
 import ecologylab.serialization.SIMPLTranslationException;
 import ecologylab.serialization.TranslationContext;
@@ -17,19 +15,54 @@ import ecologylab.serialization.serializers.FormatSerializer;
 public abstract class StringSerializer extends FormatSerializer
 {
 
+	/**
+	 * Serialize to outputStream, encoded as UTF-8. Output is buffered, and outputStream is flushed
+	 * once the whole object has been written.
+	 */
 	@Override
 	public void serialize(Object object, OutputStream outputStream,
 			TranslationContext translationContext) throws SIMPLTranslationException
 	{
-//		serialize(object, (Appendable) new PrintStream(outputStream), translationContext);
+		UTF8Writer writer = UTF8Writer.pool().acquire();
 		try
 		{
-			serialize(object, (Appendable) new PrintStream(outputStream, true, "utf-8"), translationContext);
+			serialize(object, writer.open(outputStream), translationContext);
+			writer.flush();
+		}
+		catch (IOException e)
+		{
+			throw new SIMPLTranslationException("IO Exception: ", e);
 		}
-		catch (UnsupportedEncodingException e)
+		finally
 		{
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			UTF8Writer.pool().release(writer);
+		}
+	}
+
+	/**
+	 * Serialize to channel, encoded as UTF-8, a buffer full at a time.
+	 * 
+	 * @param object
+	 * @param channel
+	 * @param translationContext
+	 * @throws SIMPLTranslationException
+	 */
+	public void serialize(Object object, WritableByteChannel channel,
+			TranslationContext translationContext) throws SIMPLTranslationException
+	{
+		UTF8Writer writer = UTF8Writer.pool().acquire();
+		try
+		{
+			serialize(object, writer.open(channel), translationContext);
+			writer.flush();
+		}
+		catch (IOException e)
+		{
+			throw new SIMPLTranslationException("IO Exception: ", e);
+		}
+		finally
+		{
+			UTF8Writer.pool().release(writer);
 		}
 	}
 
@@ -44,10 +77,15 @@ public abstract class StringSerializer extends FormatSerializer
 			if (outputFile.getParentFile() != null)
 				translationContext.setBaseDirFile(outputFile.getParentFile());
 
-			BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(outputFile));
-			serialize(object, bufferedWriter, translationContext);
-
-			bufferedWriter.close();
+			FileOutputStream fileOutputStream = new FileOutputStream(outputFile);
+			try
+			{
+				serialize(object, fileOutputStream, translationContext);
+			}
+			finally
+			{
+				fileOutputStream.close();
+			}
 		}
 		catch (IOException e)
 		{
@@ -65,9 +103,14 @@ public abstract class StringSerializer extends FormatSerializer
 	public StringBuilder serialize(Object object) throws SIMPLTranslationException
 	{
 		TranslationContext translationContext = TranslationContextPool.get().acquire();
-		StringBuilder sb = serialize(object, translationContext);
-		TranslationContextPool.get().release(translationContext);
-		return sb;
+		try
+		{
+			return serialize(object, translationContext);
+		}
+		finally
+		{
+			TranslationContextPool.get().release(translationContext);
+		}
 	}
 
 	/**
@@ -94,19 +137,63 @@ public abstract class StringSerializer extends FormatSerializer
 	 * @throws SIMPLTranslationException
 	 * @throws IOException
 	 */
-	public void serialize(Object object, final StringBuilder stringBuilder,
+	public void serialize(Object object, StringBuilder stringBuilder,
 			TranslationContext translationContext) throws SIMPLTranslationException
 	{
-		OutputStream outputStream = new OutputStream()
+		serialize(object, (Appendable) stringBuilder, translationContext);
+	}
+
+	/**
+	 * Copy document to appendable, inserting the simpl:ids of the objects that turned out to be
+	 * referenced, at the offsets recorded for them with TranslationContext.setSimplIdOffset().
+	 * 
+	 * @param document
+	 * @param from
+	 *          Where in document to start copying.
+	 * @param fromSimplId
+	 *          The first simpl:id to insert; ids before it have been taken care of by the caller.
+	 * @param appendable
+	 * @param translationContext
+	 * @throws IOException
+	 */
+	protected void appendWithSimplIds(CharSequence document, int from, int fromSimplId,
+			Appendable appendable, TranslationContext translationContext) throws IOException
+	{
+		for (int id = translationContext.nextReferencedSimplId(fromSimplId); id >= 0; id = translationContext
+				.nextReferencedSimplId(id + 1))
 		{
-			@Override
-			public void write(int b) throws IOException
-			{
-				stringBuilder.append((char) b);
-			}
-		};
+			int offset = translationContext.getSimplIdOffset(id);
+			appendable.append(document, from, offset);
+			writeDeferredSimplId(id, document, offset, appendable);
+			from = offset;
+		}
+		appendable.append(document, from, document.length());
+	}
 
-		serialize(object, (Appendable) new PrintStream(outputStream), translationContext);
+	/**
+	 * Write the simpl:id of a referenced object, in the place recorded for it. Formats that support
+	 * graphs override this.
+	 * 
+	 * @param simplId
+	 * @param document
+	 * @param offset
+	 * @param appendable
+	 * @throws IOException
+	 */
+	protected void writeDeferredSimplId(int simplId, CharSequence document, int offset,
+			Appendable appendable) throws IOException
+	{
+	}
+
+	/**
+	 * 
+	 * @param appendable
+	 *          The document being written. Graph serialization always writes to a StringBuilder.
+	 * @return The current position in the document.
+	 */
+	protected static int documentOffset(Appendable appendable)
+	{
+		return ((CharSequence) appendable).length();
 	}
 
 	/**
@@ -0,0 +1,242 @@
+package ecologylab.serialization.serializers.stringformats;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import ecologylab.generic.ResourcePool;
+
+/**
+ * Appendable that string serializers write to when the destination is bytes: encodes chars to
+ * UTF-8 straight into a reusable byte buffer, and hands that to the OutputStream or channel only
+ * when it fills up, or on {@link #flush()}. Unlike wrapping the stream in a PrintStream, this does
+ * no locking, no per-call flushing and no intermediate char[] or String per append.
+ * <p/>
+ * Serializers that write to a StringBuilder append to it directly, and do not need this.
+ * <p/>
+ * Unpaired surrogates are written as '?', like String.getBytes().
+ */
+public class UTF8Writer implements Appendable, Flushable
+{
+	public static final int				DEFAULT_CAPACITY	= 1024 * 8;
+
+	/**
+	 * Room for the longest encoding of one code point.
+	 */
+	private static final int			MAX_BYTES_PER_CHAR	= 4;
+
+	private final byte[]					bytes;
+
+	private final ByteBuffer			byteBuffer;
+
+	private int										position;
+
+	/**
+	 * High surrogate waiting for the low surrogate that completes it, or 0.
+	 */
+	private char									highSurrogate;
+
+	private OutputStream					outputStream;
+
+	private WritableByteChannel		channel;
+
+	public UTF8Writer()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	public UTF8Writer(int capacity)
+	{
+		bytes = new byte[Math.max(capacity, MAX_BYTES_PER_CHAR)];
+		byteBuffer = ByteBuffer.wrap(bytes);
+	}
+
+	/**
+	 * Start writing to outputStream.
+	 *
+	 * @return this
+	 */
+	public UTF8Writer open(OutputStream outputStream)
+	{
+		clear();
+		this.outputStream = outputStream;
+		return this;
+	}
+
+	/**
+	 * Start writing to channel. A non-blocking channel is spun on until it takes each buffer full.
+	 *
+	 * @return this
+	 */
+	public UTF8Writer open(WritableByteChannel channel)
+	{
+		clear();
+		this.channel = channel;
+		return this;
+	}
+
+	@Override
+	public UTF8Writer append(CharSequence chars) throws IOException
+	{
+		if (chars == null)
+			chars = "null";
+		return append(chars, 0, chars.length());
+	}
+
+	@Override
+	public UTF8Writer append(CharSequence chars, int start, int end) throws IOException
+	{
+		if (chars == null)
+			chars = "null";
+		byte[] bytes = this.bytes;
+		int limit = bytes.length - MAX_BYTES_PER_CHAR;
+		int position = this.position;
+		for (int i = start; i < end; i++)
+		{
+			char c = chars.charAt(i);
+			if (c < 0x80 && highSurrogate == 0)
+			{
+				if (position > limit)
+				{
+					this.position = position;
+					drain();
+					position = 0;
+				}
+				bytes[position++] = (byte) c;
+			}
+			else
+			{
+				this.position = position;
+				append(c);
+				position = this.position;
+			}
+		}
+		this.position = position;
+		return this;
+	}
+
+	@Override
+	public UTF8Writer append(char c) throws IOException
+	{
+		if (position > bytes.length - MAX_BYTES_PER_CHAR)
+			drain();
+		if (highSurrogate != 0)
+		{
+			char high = highSurrogate;
+			highSurrogate = 0;
+			if (Character.isLowSurrogate(c))
+			{
+				int codePoint = Character.toCodePoint(high, c);
+				bytes[position++] = (byte) (0xf0 | (codePoint >> 18));
+				bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+				bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+				bytes[position++] = (byte) (0x80 | (codePoint & 0x3f));
+				return this;
+			}
+			bytes[position++] = '?';
+			return append(c);
+		}
+
+		if (c < 0x80)
+			bytes[position++] = (byte) c;
+		else if (c < 0x800)
+		{
+			bytes[position++] = (byte) (0xc0 | (c >> 6));
+			bytes[position++] = (byte) (0x80 | (c & 0x3f));
+		}
+		else if (Character.isHighSurrogate(c))
+			highSurrogate = c;
+		else if (Character.isLowSurrogate(c))
+			bytes[position++] = '?';
+		else
+		{
+			bytes[position++] = (byte) (0xe0 | (c >> 12));
+			bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+			bytes[position++] = (byte) (0x80 | (c & 0x3f));
+		}
+		return this;
+	}
+
+	/**
+	 * Write out the bytes buffered so far, without flushing the destination.
+	 */
+	private void drain() throws IOException
+	{
+		if (position == 0)
+			return;
+		if (outputStream != null)
+			outputStream.write(bytes, 0, position);
+		else if (channel != null)
+		{
+			byteBuffer.clear();
+			byteBuffer.limit(position);
+			while (byteBuffer.hasRemaining())
+				channel.write(byteBuffer);
+		}
+		else
+			throw new IOException("UTF8Writer is not open.");
+		position = 0;
+	}
+
+	/**
+	 * Write out everything appended so far, and flush the OutputStream, if that is the destination. A
+	 * high surrogate still waiting for its other half is written as '?'.
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		if (highSurrogate != 0)
+		{
+			highSurrogate = 0;
+			if (position == bytes.length)
+				drain();
+			bytes[position++] = '?';
+		}
+		drain();
+		if (outputStream != null)
+			outputStream.flush();
+	}
+
+	/**
+	 * Forget the destination and anything not yet written to it.
+	 */
+	public void clear()
+	{
+		position = 0;
+		highSurrogate = 0;
+		outputStream = null;
+		channel = null;
+	}
+
+	/**
+	 * Pool of UTF8Writers, so that serializing to a stream does not allocate a new buffer every time.
+	 */
+	public static class Pool extends ResourcePool<UTF8Writer>
+	{
+		protected Pool()
+		{
+			super(1, 1);
+		}
+
+		@Override
+		protected UTF8Writer generateNewResource()
+		{
+			return new UTF8Writer();
+		}
+
+		@Override
+		protected void clean(UTF8Writer objectToClean)
+		{
+			objectToClean.clear();
+		}
+	}
+
+	private static final Pool	pool	= new Pool();
+
+	public static Pool pool()
+	{
+		return pool;
+	}
+}
@@ -3,6 +3,7 @@ package ecologylab.serialization.serializers.stringformats;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import ecologylab.serialization.ClassDescriptor;
 import ecologylab.serialization.FieldDescriptor;
@@ -14,6 +15,8 @@ import ecologylab.serialization.TranslationContext;
 import ecologylab.serialization.XMLTools;
 import ecologylab.serialization.annotations.FieldUsage;
 import ecologylab.serialization.formatenums.Format;
+import ecologylab.serialization.serializers.SerializationPlan;
+import ecologylab.serialization.types.ScalarValue;
 
 /**
  * XML Specific serializer. contains functionalities specific to ouput syntax for XML from an objet
@@ -27,8 +30,6 @@ public class XMLSerializer extends StringSerializer implements FieldTypes
 
 	private static final String	END_CDATA		= "]]>";
 
-	private boolean							isRoot			= true;
-
 	public XMLSerializer()
 	{
 	}
@@ -37,15 +38,35 @@ public class XMLSerializer extends StringSerializer implements FieldTypes
 	public void serialize(Object object, Appendable appendable, TranslationContext translationContext)
 			throws SIMPLTranslationException
 	{
-		translationContext.resolveGraph(object);
-
-		ClassDescriptor<? extends FieldDescriptor> rootObjectClassDescriptor = ClassDescriptor
-				.getClassDescriptor(object.getClass());
+		XMLPlan plan = plan(ClassDescriptor.getClassDescriptor(object.getClass()));
 
 		try
 		{
-			serialize(object, rootObjectClassDescriptor.pseudoFieldDescriptor(), appendable,
-					translationContext);
+			if (SimplTypesScope.graphSwitch == GRAPH_SWITCH.ON)
+			{
+				StringBuilder document = new StringBuilder();
+				serialize(object, plan, plan.start, plan.end, document, translationContext);
+
+				if (translationContext.isGraph())
+				{
+					// the root element also declares the simpl namespace, after its own simpl:id.
+					int rootId = translationContext.getSimplIdValue(object);
+					int rootOffset = translationContext.getSimplIdOffset(rootId);
+					appendable.append(document, 0, rootOffset);
+					if (translationContext.nextReferencedSimplId(rootId) == rootId)
+						writeDeferredSimplId(rootId, document, rootOffset, appendable);
+					writeSimplNameSpace(appendable);
+					appendWithSimplIds(document, rootOffset, rootId + 1, appendable, translationContext);
+				}
+				else
+				{
+					appendable.append(document);
+				}
+			}
+			else
+			{
+				serialize(object, plan, plan.start, plan.end, appendable, translationContext);
+			}
 		}
 		catch (IOException e)
 		{
@@ -56,43 +77,37 @@ public class XMLSerializer extends StringSerializer implements FieldTypes
 	/**
 	 * 
 	 * @param object
-	 * @param rootObjectFieldDescriptor
+	 * @param plan
+	 *          Plan for the object's class.
+	 * @param start
+	 *          Start of the element's start tag: '<' and the tag.
+	 * @param end
+	 *          The element's end tag.
 	 * @param appendable
 	 * @param translationContext
 	 * @throws SIMPLTranslationException
 	 * @throws IOException
 	 */
-	private void serialize(Object object, FieldDescriptor rootObjectFieldDescriptor,
+	private void serialize(Object object, XMLPlan plan, String start, String end,
 			Appendable appendable, TranslationContext translationContext)
 			throws SIMPLTranslationException, IOException
 	{
-
-		if (object == null)
-			return;
-
 		if (alreadySerialized(object, translationContext))
 		{
-			writeSimplRef(object, rootObjectFieldDescriptor, appendable, translationContext);
+			writeSimplRef(object, start, appendable, translationContext);
 			return;
 		}
 
 		translationContext.mapObject(object);
 
-		serializationPreHook(object, translationContext);
-
-		ClassDescriptor<? extends FieldDescriptor> rootObjectClassDescriptor = getClassDescriptor(object);
+		if (plan.hasPreHook)
+			serializationPreHook(object, translationContext);
 
-		writeObjectStart(rootObjectFieldDescriptor, appendable);
+		appendable.append(start);
 
-		serializeAttributes(object, appendable, translationContext, rootObjectClassDescriptor);
+		serializeAttributes(object, appendable, translationContext, plan);
 
-		ArrayList<? extends FieldDescriptor> elementFieldDescriptors = rootObjectClassDescriptor
-				.elementFieldDescriptors();
-
-		boolean hasXMLText = rootObjectClassDescriptor.hasScalarFD();
-		boolean hasElements = elementFieldDescriptors.size() > 0;
-
-		if (!hasElements && !hasXMLText)
+		if (plan.isEmpty)
 		{
 			// close tag no more elements
 			writeCompleteClose(appendable);
@@ -101,17 +116,19 @@ public class XMLSerializer extends StringSerializer implements FieldTypes
 		{
 			writeClose(appendable);
 
-			if (hasXMLText)
+			if (plan.textFieldDescriptor != null)
 			{
-				writeValueAsText(object, rootObjectClassDescriptor.getScalarTextFD(), appendable);
+				writeValueAsText(object, plan.textFieldDescriptor, appendable, translationContext,
+						plan.classDescriptor.elidesDefaultValues());
 			}
 
-			serializeFields(object, appendable, translationContext, elementFieldDescriptors);
+			serializeFields(object, appendable, translationContext, plan);
 
-			writeObjectClose(rootObjectFieldDescriptor, appendable);
+			appendable.append(end);
 		}
 
-		serializationPostHook(object, translationContext);
+		if (plan.hasPostHook)
+			serializationPostHook(object, translationContext);
 	}
 
 	/**
@@ -119,23 +136,20 @@ public class XMLSerializer extends StringSerializer implements FieldTypes
 	 * @param object
 	 * @param appendable
 	 * @param translationContext
-	 * @param rootObjectClassDescriptor
+	 * @param plan
 	 * @throws SIMPLTranslationException
 	 * @throws IOException
 	 */
 	private void serializeAttributes(Object object, Appendable appendable,
-			TranslationContext translationContext,
-			ClassDescriptor<? extends FieldDescriptor> rootObjectClassDescriptor)
-			throws SIMPLTranslationException, IOException
+			TranslationContext translationContext, XMLPlan plan) throws SIMPLTranslationException,
+			IOException
 	{
-		ArrayList<? extends FieldDescriptor> attributeFieldDescriptors = rootObjectClassDescriptor
-				.attributeFieldDescriptors();
-
-		for (FieldDescriptor childFd : attributeFieldDescriptors)
+		boolean elideDefaults = plan.classDescriptor.elidesDefaultValues();
+		for (XMLStep step : plan.attributes)
 		{
 			try
 			{
-				writeValueAsAtrribute(object, childFd, appendable, translationContext);
+				writeValueAsAtrribute(object, step, appendable, translationContext, elideDefaults);
 			}
 			catch (Exception ex)
 			{
@@ -145,16 +159,8 @@ public class XMLSerializer extends StringSerializer implements FieldTypes
 
 		if (SimplTypesScope.graphSwitch == GRAPH_SWITCH.ON)
 		{
-			if (translationContext.needsHashCode(object))
-			{
-				writeSimplIdAttribute(object, appendable, translationContext);
-			}
-
-			if (isRoot && translationContext.isGraph())
-			{
-				writeSimplNameSpace(appendable);
-				isRoot = false;
-			}
+			// written later, if the object turns out to be referenced.
+			translationContext.setSimplIdOffset(object, documentOffset(appendable));
 		}
 	}
 
@@ -163,65 +169,62 @@ public class XMLSerializer extends StringSerializer implements FieldTypes
 	 * @param object
 	 * @param appendable
 	 * @param translationContext
-	 * @param elementFieldDescriptors
+	 * @param plan
 	 * @throws SIMPLTranslationException
 	 * @throws IOException
 	 */
 	private void serializeFields(Object object, Appendable appendable,
-			TranslationContext translationContext,
-			ArrayList<? extends FieldDescriptor> elementFieldDescriptors)
-			throws SIMPLTranslationException, IOException
+			TranslationContext translationContext, XMLPlan plan) throws SIMPLTranslationException,
+			IOException
 	{
-		for (FieldDescriptor childFd : elementFieldDescriptors)
+		boolean elideDefaults = plan.classDescriptor.elidesDefaultValues();
+		for (XMLStep step : plan.elements)
 		{
-			switch (childFd.getType())
+			switch (step.kind)
 			{
-			case SCALAR:
-				writeValueAsLeaf(object, childFd, appendable, translationContext);
+			case XMLPlan.SCALAR:
+				writeValueAsLeaf(object, step, appendable, translationContext, elideDefaults);
 				break;
-			case COMPOSITE_ELEMENT:
-				Object compositeObject = childFd.getValue(object);
+			case XMLPlan.COMPOSITE:
+				Object compositeObject = step.fd.getValue(object);
 				if (compositeObject != null)
 				{
-					FieldDescriptor compositeObjectFieldDescriptor = childFd.isPolymorphic() ? getClassDescriptor(
-							compositeObject).pseudoFieldDescriptor()
-							: childFd;
-					writeWrap(childFd, appendable, false);
-					serialize(compositeObject, compositeObjectFieldDescriptor, appendable, translationContext);
-					writeWrap(childFd, appendable, true);
+					if (step.wrapped)
+						appendable.append(step.wrapStart);
+					serialize(compositeObject, step, appendable, translationContext);
+					if (step.wrapped)
+						appendable.append(step.wrapEnd);
 				}
 				break;
-			case COLLECTION_SCALAR:
-			case MAP_SCALAR:
-				Object scalarCollectionObject = childFd.getValue(object);
-				Collection<?> scalarCollection = XMLTools.getCollection(scalarCollectionObject);
+			case XMLPlan.SCALAR_COLLECTION:
+				Collection<?> scalarCollection = XMLTools.getCollection(step.fd.getValue(object));
 				if (scalarCollection != null && scalarCollection.size() > 0)
 				{
-					writeWrap(childFd, appendable, false);
-
+					if (step.wrapped)
+						appendable.append(step.wrapStart);
 					for (Object collectionScalar : scalarCollection)
 					{
-						writeScalarCollectionLeaf(collectionScalar, childFd, appendable, translationContext);
+						appendable.append(step.start);
+						step.fd.appendCollectionScalarValue(appendable, collectionScalar, translationContext,
+								Format.XML);
+						appendable.append(step.end);
 					}
-					writeWrap(childFd, appendable, true);
+					if (step.wrapped)
+						appendable.append(step.wrapEnd);
 				}
 				break;
-			case COLLECTION_ELEMENT:
-			case MAP_ELEMENT:
-				Object compositeCollectionObject = childFd.getValue(object);
-				Collection<?> compositeCollection = XMLTools.getCollection(compositeCollectionObject);
+			case XMLPlan.COMPOSITE_COLLECTION:
+				Collection<?> compositeCollection = XMLTools.getCollection(step.fd.getValue(object));
 				if (compositeCollection != null && compositeCollection.size() > 0)
 				{
-					writeWrap(childFd, appendable, false);
+					if (step.wrapped)
+						appendable.append(step.wrapStart);
 					for (Object collectionComposite : compositeCollection)
 					{
-						FieldDescriptor collectionObjectFieldDescriptor = childFd.isPolymorphic() ? getClassDescriptor(
-								collectionComposite).pseudoFieldDescriptor()
-								: childFd;
-						serialize(collectionComposite, collectionObjectFieldDescriptor, appendable,
-								translationContext);
+						serialize(collectionComposite, step, appendable, translationContext);
 					}
-					writeWrap(childFd, appendable, true);
+					if (step.wrapped)
+						appendable.append(step.wrapEnd);
 				}
 				break;
 			}
@@ -229,40 +232,57 @@ public class XMLSerializer extends StringSerializer implements FieldTypes
 	}
 
 	/**
+	 * Serialize a composite value of the step's field. Polymorphic fields take the tag from the
+	 * value's class.
 	 * 
-	 * @param object
-	 * @param fd
+	 * @param value
+	 * @param step
 	 * @param appendable
+	 * @param translationContext
+	 * @throws SIMPLTranslationException
 	 * @throws IOException
 	 */
-	private void writeSimplRef(Object object, FieldDescriptor fd, Appendable appendable, TranslationContext translationContext)
-			throws IOException
+	private void serialize(Object value, XMLStep step, Appendable appendable,
+			TranslationContext translationContext) throws SIMPLTranslationException, IOException
 	{
-		writeObjectStart(fd, appendable);
-		writeSimplRefAttribute(object, appendable, translationContext);
-		writeCompleteClose(appendable);
+		if (value == null)
+			return;
+
+		XMLPlan plan = plan(step.classDescriptor(value));
+		if (step.polymorphic)
+			serialize(value, plan, plan.start, plan.end, appendable, translationContext);
+		else
+			serialize(value, plan, step.start, step.end, appendable, translationContext);
 	}
 
 	/**
-	 * 
-	 * @param fd
-	 * @param appendable
-	 * @throws IOException
+	 * @return The plan for serializing instances of the class to XML, compiling it on first use.
 	 */
-	private void writeObjectStart(FieldDescriptor fd, Appendable appendable) throws IOException
+	private static XMLPlan plan(ClassDescriptor<? extends FieldDescriptor> classDescriptor)
 	{
-		appendable.append('<').append(fd.elementStart());
+		XMLPlan plan = (XMLPlan) classDescriptor.getSerializationPlan(Format.XML);
+		if (plan == null)
+		{
+			plan = new XMLPlan(classDescriptor);
+			classDescriptor.setSerializationPlan(Format.XML, plan);
+		}
+		return plan;
 	}
 
 	/**
 	 * 
-	 * @param fd
+	 * @param object
+	 * @param start
 	 * @param appendable
 	 * @throws IOException
 	 */
-	private void writeObjectClose(FieldDescriptor fd, Appendable appendable) throws IOException
+	private void writeSimplRef(Object object, String start, Appendable appendable,
+			TranslationContext translationContext) throws IOException
 	{
-		appendable.append('<').append('/').append(fd.elementStart()).append('>');
+		translationContext.markAsReferenced(object);
+		appendable.append(start);
+		writeSimplRefAttribute(object, appendable, translationContext);
+		writeCompleteClose(appendable);
 	}
 
 	/**
@@ -275,42 +295,28 @@ public class XMLSerializer extends StringSerializer implements FieldTypes
 		appendable.append('/').append('>');
 	}
 
-	/**
-	 * 
-	 * @param fd
-	 * @param appendable
-	 * @param close
-	 * @throws IOException
-	 */
-	private void writeWrap(FieldDescriptor fd, Appendable appendable, boolean close)
-			throws IOException
-	{
-		if (fd.isWrapped())
-		{
-			appendable.append('<');
-			if (close)
-				appendable.append('/');
-			appendable.append(fd.getTagName()).append('>');
-		}
-	}
-
 	/**
 	 * 
 	 * @param object
-	 * @param fd
+	 * @param step
 	 * @param appendable
 	 * @param translationContext
+	 * @param elideDefaults
+	 *          false to write the value even if it is the default.
 	 * @throws SIMPLTranslationException
 	 * @throws IOException
 	 */
-	private void writeValueAsLeaf(Object object, FieldDescriptor fd, Appendable appendable,
-			TranslationContext translationContext) throws SIMPLTranslationException, IOException
+	private void writeValueAsLeaf(Object object, XMLStep step, Appendable appendable,
+			TranslationContext translationContext, boolean elideDefaults)
+			throws SIMPLTranslationException, IOException
 	{
-		if (!fd.isDefaultValueFromContext(object))
+		FieldDescriptor fd = step.fd;
+		ScalarValue value = translationContext.scalarValue();
+		if (!fd.readValue(object, value, elideDefaults))
 		{
-			appendable.append('<').append(fd.elementStart()).append('>');
-			fd.appendValue(appendable, object, translationContext, Format.XML);
-			appendable.append('<').append('/').append(fd.elementStart()).append('>');
+			appendable.append(step.start);
+			fd.appendValue(appendable, value, translationContext, Format.XML);
+			appendable.append(step.end);
 		}
 	}
 
@@ -320,33 +326,21 @@ public class XMLSerializer extends StringSerializer implements FieldTypes
 	 * @param fd
 	 * @param appendable
 	 * @param translationContext
+	 * @param elideDefaults
+	 *          false to write the value even if it is the default.
 	 * @throws SIMPLTranslationException
 	 * @throws IOException
 	 */
-	private void writeScalarCollectionLeaf(Object object, FieldDescriptor fd, Appendable appendable,
-			TranslationContext translationContext) throws SIMPLTranslationException, IOException
-	{
-		appendable.append('<').append(fd.elementStart()).append('>');
-		fd.appendCollectionScalarValue(appendable, object, translationContext, Format.XML);
-		appendable.append('<').append('/').append(fd.elementStart()).append('>');
-	}
-
-	/**
-	 * 
-	 * @param object
-	 * @param fd
-	 * @param appendable
-	 * @throws SIMPLTranslationException
-	 * @throws IOException
-	 */
-	private void writeValueAsText(Object object, FieldDescriptor fd, Appendable appendable)
+	private void writeValueAsText(Object object, FieldDescriptor fd, Appendable appendable,
+			TranslationContext translationContext, boolean elideDefaults)
 			throws SIMPLTranslationException, IOException
 	{
-		if (!fd.isDefaultValueFromContext(object))
+		ScalarValue value = translationContext.scalarValue();
+		if (!fd.readValue(object, value, elideDefaults))
 		{
 			if (fd.isCDATA())
 				appendable.append(START_CDATA);
-			fd.appendValue(appendable, object, null, Format.XML);
+			fd.appendValue(appendable, value, null, Format.XML);
 			if (fd.isCDATA())
 				appendable.append(END_CDATA);
 		}
@@ -365,28 +359,25 @@ public class XMLSerializer extends StringSerializer implements FieldTypes
 	/**
 	 * 
 	 * @param object
-	 * @param fd
+	 * @param step
 	 * @param appendable
 	 * @param translationContext
+	 * @param elideDefaults
+	 *          false to write the value even if it is the default.
 	 * @throws SIMPLTranslationException
 	 * @throws IOException
 	 */
-	private void writeValueAsAtrribute(Object object, FieldDescriptor fd, Appendable appendable,
-			TranslationContext translationContext) throws SIMPLTranslationException, IOException
+	private void writeValueAsAtrribute(Object object, XMLStep step, Appendable appendable,
+			TranslationContext translationContext, boolean elideDefaults)
+			throws SIMPLTranslationException, IOException
 	{
-		if (object != null)
+		FieldDescriptor fd = step.fd;
+		ScalarValue value = translationContext.scalarValue();
+		if (!fd.readValue(object, value, elideDefaults))
 		{
-			if (!fd.isDefaultValueFromContext(object))
-			{
-				appendable.append(' ');
-				appendable.append(fd.getTagName());
-				appendable.append('=');
-				appendable.append('"');
-
-				fd.appendValue(appendable, object, translationContext, Format.XML);
-
-				appendable.append('"');
-			}
+			appendable.append(step.start);
+			fd.appendValue(appendable, value, translationContext, Format.XML);
+			appendable.append('"');
 		}
 	}
 
@@ -416,20 +407,104 @@ public class XMLSerializer extends StringSerializer implements FieldTypes
 		appendable.append('"');
 	}
 
-	/**
-	 * 
-	 * @param object
-	 * @param appendable
-	 * @throws IOException
-	 */
-	private void writeSimplIdAttribute(Object object, Appendable appendable, TranslationContext translationContext) throws IOException
+	@Override
+	protected void writeDeferredSimplId(int simplId, CharSequence document, int offset,
+			Appendable appendable) throws IOException
 	{
 		appendable.append(' ');
 		appendable.append(TranslationContext.SIMPL_ID);
 		appendable.append('=');
 		appendable.append('"');
-		appendable.append(translationContext.getSimplId(object));
+		appendable.append(Integer.toString(simplId));
 		appendable.append('"');
 	}
 
+	/**
+	 * XML plan for one class: the element's start and end tags, for when the class decides the tag,
+	 * and a step per attribute and per element field.
+	 */
+	static class XMLPlan extends SerializationPlan
+	{
+		/**
+		 * '<' and the class's tag.
+		 */
+		final String						start;
+
+		final String						end;
+
+		final XMLStep[]					attributes;
+
+		final XMLStep[]					elements;
+
+		final FieldDescriptor		textFieldDescriptor;
+
+		/**
+		 * true if the element has neither child elements nor text, and so is closed by "/>".
+		 */
+		final boolean						isEmpty;
+
+		XMLPlan(ClassDescriptor<? extends FieldDescriptor> classDescriptor)
+		{
+			super(classDescriptor);
+			String tag = classDescriptor.pseudoFieldDescriptor().elementStart();
+			start = "<" + tag;
+			end = "</" + tag + ">";
+
+			List<? extends FieldDescriptor> attributeFieldDescriptors = classDescriptor
+					.attributeFieldDescriptors();
+			attributes = new XMLStep[attributeFieldDescriptors.size()];
+			for (int i = 0; i < attributes.length; i++)
+				attributes[i] = new XMLStep(attributeFieldDescriptors.get(i), true);
+
+			List<XMLStep> elementSteps = new ArrayList<XMLStep>();
+			for (FieldDescriptor fd : classDescriptor.elementFieldDescriptors())
+				if (kindOf(fd) >= 0)
+					elementSteps.add(new XMLStep(fd, false));
+			elements = elementSteps.toArray(new XMLStep[elementSteps.size()]);
+
+			textFieldDescriptor = classDescriptor.hasScalarFD() ? classDescriptor.getScalarTextFD() : null;
+			isEmpty = classDescriptor.elementFieldDescriptors().size() == 0 && textFieldDescriptor == null;
+		}
+	}
+
+	/**
+	 * How to write one field in XML.
+	 */
+	static class XMLStep extends SerializationPlan.Step
+	{
+		/**
+		 * What goes before the value: ' tag="' for attributes, "<tag>" for leaves, and "<tag" for
+		 * composites, which go on to write their own attributes.
+		 */
+		final String	start;
+
+		final String	end;
+
+		final String	wrapStart;
+
+		final String	wrapEnd;
+
+		XMLStep(FieldDescriptor fd, boolean attribute)
+		{
+			super(fd);
+			String tag = fd.elementStart();
+			if (attribute)
+			{
+				start = " " + fd.getTagName() + "=\"";
+				end = "\"";
+			}
+			else if (kind == SerializationPlan.SCALAR || kind == SerializationPlan.SCALAR_COLLECTION)
+			{
+				start = "<" + tag + ">";
+				end = "</" + tag + ">";
+			}
+			else
+			{
+				start = "<" + tag;
+				end = "</" + tag + ">";
+			}
+			wrapStart = "<" + fd.getTagName() + ">";
+			wrapEnd = "</" + fd.getTagName() + ">";
+		}
+	}
 }
@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.regex.Pattern;
 
+import ecologylab.serialization.FieldAccessor;
 import ecologylab.serialization.FieldDescriptor;
 import ecologylab.serialization.ScalarUnmarshallingContext;
 import ecologylab.serialization.TranslationContext;
@@ -181,6 +182,54 @@ implements CrossLanguageTypeConstants
 		return setField(object, field, value, null, null);
 	}
 
+	/**
+	 * Set the field in the context, using the valueString, converting it to the appropriate type
+	 * using a subclass of this. This is the version used by FieldDescriptor during deserialization;
+	 * primitive types override it to set the field through the accessor without boxing.
+	 * 
+	 * @param context
+	 *          The object whose field should be modified.
+	 * @param accessor
+	 *          Accessor for the field to be set.
+	 * @param valueString
+	 *          String representation of the value to set the field to.
+	 * @param format
+	 * @param scalarUnmarshallingContext
+	 * 
+	 * @return true if the field is set properly, or if the parameter value that is passed in is null.
+	 *         false if the field cannot be accessed, or if value cannot be converted to the
+	 *         appropriate type.
+	 */
+	public boolean setField(Object context, FieldAccessor accessor, String valueString,
+			String[] format, ScalarUnmarshallingContext scalarUnmarshallingContext)
+	{
+		boolean result = false;
+		T referenceObject;
+
+		try
+		{
+			if (valueString == null)
+			{
+				accessor.set(context, null);
+				result = true;
+			}
+			else
+			{
+				referenceObject = getInstance(valueString, format, scalarUnmarshallingContext);
+				if (referenceObject != null)
+				{
+					accessor.set(context, referenceObject);
+					result = true;
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			setFieldError(accessor.getField(), valueString, e);
+		}
+		return result;
+	}
+
 	/**
 	 * Display an error message that arose while setting field to value.
 	 * 
@@ -255,6 +304,28 @@ implements CrossLanguageTypeConstants
 		return result;
 	}
 
+	/**
+	 * The string representation for the field behind the accessor. Primitive types override, to read
+	 * the value without boxing.
+	 */
+	public String toString(FieldAccessor accessor, Object context)
+	{
+		String result = "COULDNT CONVERT!";
+		try
+		{
+			T instance = (T) accessor.get(context);
+			if (instance == null)
+				result = defaultValueString();
+			else
+				result = marshall(instance, null);
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+		return result;
+	}
+
 	/**
 	 * Get the value from the Field, in the context. Append its value to the buffy.
 	 * <p/>
@@ -307,7 +378,7 @@ implements CrossLanguageTypeConstants
 	{
 		try
 		{
-			Object instance = fieldDescriptor.getField().get(context);
+			Object instance = fieldDescriptor.getAccessor().get(context);
 
 			appendValue((T) instance, buffy, !fieldDescriptor.isCDATA(), null);
 		}
@@ -372,6 +443,59 @@ implements CrossLanguageTypeConstants
 		return isDefaultValue(fieldValue);
 	}
 
+	/**
+	 * True if the value of the field behind the accessor matches the default value for this type.
+	 * Primitive types override, to compare without boxing.
+	 */
+	public boolean isDefaultValue(FieldAccessor accessor, Object context)
+			throws IllegalArgumentException, IllegalAccessException
+	{
+		return isDefaultValue(accessor.get(context));
+	}
+
+	/**
+	 * Read the field behind the accessor into the slot, once, so that a serializer can test it
+	 * against the default and then append it without reading it again. Primitive types override, to
+	 * read without boxing.
+	 * 
+	 * @param accessor
+	 * @param context
+	 *          Object the field is in.
+	 * @param slot
+	 *          Where the value goes, for
+	 *          {@link #appendValue(ScalarValue, Appendable, FieldDescriptor, TranslationContext, Format)}
+	 *          .
+	 * @return true if the value is null, or the default value for this type.
+	 */
+	public boolean readValue(FieldAccessor accessor, Object context, ScalarValue slot)
+			throws IllegalArgumentException, IllegalAccessException
+	{
+		Object instance = accessor.get(context);
+		slot.setObject(instance);
+		return instance == null || isDefaultValue(instance);
+	}
+
+	/**
+	 * Append the value that readValue() put in the slot. Primitive types override, to format the
+	 * value without boxing it.
+	 * 
+	 * @param slot
+	 *          Holding a value that is not null.
+	 * @param appendable
+	 * @param fieldDescriptor
+	 *          The field the value was read from, for its format and escaping.
+	 * @param serializationContext
+	 * @param format
+	 * @throws IOException
+	 */
+	public void appendValue(ScalarValue slot, Appendable appendable,
+			FieldDescriptor fieldDescriptor, TranslationContext serializationContext, Format format)
+			throws IOException
+	{
+		appendValue((T) slot.objectValue, appendable, !fieldDescriptor.isCDATA(),
+				serializationContext, format);
+	}
+
 	/**
 	 * Returns whether or not this is a floating point value of some sort; Types that are floating
 	 * point values should override this method to return true.
@@ -529,7 +653,12 @@ implements CrossLanguageTypeConstants
 	protected static String getNullStringIfNull(FieldDescriptor fieldDescriptor, Object context) 
 	throws IllegalArgumentException, IllegalAccessException
 	{
-		return (fieldDescriptor.getField() == null || fieldDescriptor.getField().get(context) == null) ? "null" : null;
+		Field field = fieldDescriptor.getField();
+		if (field == null)
+			return "null";
+		if (field.getType().isPrimitive())
+			return null;
+		return fieldDescriptor.getAccessor().get(context) == null ? "null" : null;
 	}
 	
 	/**
@@ -0,0 +1,60 @@
+package ecologylab.serialization.types;
+
+/**
+ * Where a serializer holds the value of a scalar field between reading it, with
+ * {@link ScalarType#readValue(ecologylab.serialization.FieldAccessor, Object, ScalarValue)}, and
+ * appending it, with
+ * {@link ScalarType#appendValue(ScalarValue, Appendable, ecologylab.serialization.FieldDescriptor, ecologylab.serialization.TranslationContext, ecologylab.serialization.formatenums.Format)}
+ * . Primitive types keep their value in longValue or doubleValue, so the field is read once and
+ * never boxed; other types keep it in objectValue.
+ * <p/>
+ * One of these is reused for every scalar written in a serialization, so it is only good until the
+ * next field is read.
+ */
+public class ScalarValue
+{
+	/**
+	 * True if the value is in longValue or doubleValue, rather than objectValue.
+	 */
+	public boolean	primitive;
+
+	/**
+	 * boolean (as 0 or 1), byte, char, short, int and long values.
+	 */
+	public long			longValue;
+
+	/**
+	 * float and double values.
+	 */
+	public double		doubleValue;
+
+	public Object		objectValue;
+
+	public void setLong(long value)
+	{
+		primitive = true;
+		longValue = value;
+		objectValue = null;
+	}
+
+	public void setDouble(double value)
+	{
+		primitive = true;
+		doubleValue = value;
+		objectValue = null;
+	}
+
+	public void setObject(Object value)
+	{
+		primitive = false;
+		objectValue = value;
+	}
+
+	/**
+	 * @return true if the value is a null reference. Primitive values never are.
+	 */
+	public boolean isNull()
+	{
+		return !primitive && objectValue == null;
+	}
+}
@@ -6,6 +6,7 @@ package ecologylab.serialization.types.scalar;
 import java.io.IOException;
 import java.lang.reflect.Field;
 
+import ecologylab.serialization.FieldAccessor;
 import ecologylab.serialization.FieldDescriptor;
 import ecologylab.serialization.ScalarUnmarshallingContext;
 import ecologylab.serialization.TranslationContext;
@@ -13,6 +14,7 @@ import ecologylab.serialization.annotations.simpl_inherit;
 import ecologylab.serialization.formatenums.Format;
 import ecologylab.serialization.types.CrossLanguageTypeConstants;
 import ecologylab.serialization.types.ScalarType;
+import ecologylab.serialization.types.ScalarValue;
 
 /**
  * Type system entry for boolean, a built-in primitive.
@@ -108,6 +110,90 @@ public class BooleanType extends ScalarType<Boolean> implements CrossLanguageTyp
 		return result;
 	}
 
+	/**
+	 * Sets the boolean through the accessor, without boxing. Falls back to the boxed path for the
+	 * reference type, and for "null".
+	 */
+	@Override
+	public boolean setField(Object context, FieldAccessor accessor, String valueString,
+			String[] format, ScalarUnmarshallingContext scalarUnmarshallingContext)
+	{
+		if (!isPrimitive() || valueString == null || "null".equalsIgnoreCase(valueString))
+			return super.setField(context, accessor, valueString, format, scalarUnmarshallingContext);
+
+		boolean result = false;
+		try
+		{
+			accessor.setBoolean(context, getValue(valueString));
+			result = true;
+		}
+		catch (Exception e)
+		{
+			setFieldError(accessor.getField(), valueString, e);
+		}
+		return result;
+	}
+
+	/**
+	 * The string representation for the field behind the accessor, read without boxing.
+	 */
+	@Override
+	public String toString(FieldAccessor accessor, Object context)
+	{
+		if (!isPrimitive())
+			return super.toString(accessor, context);
+
+		String result = "COULDN'T CONVERT!";
+		try
+		{
+			result = Boolean.toString(accessor.getBoolean(context));
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+		return result;
+	}
+
+	/**
+	 * True if the value of the field behind the accessor matches the default value for this type.
+	 * Primitive fields are compared without boxing.
+	 */
+	@Override
+	public boolean isDefaultValue(FieldAccessor accessor, Object context)
+			throws IllegalArgumentException, IllegalAccessException
+	{
+		if (!isPrimitive())
+			return (Boolean) accessor.get(context) == DEFAULT_VALUE;
+		return accessor.getBoolean(context) == DEFAULT_VALUE;
+	}
+
+	/**
+	 * Reads a primitive field into the slot without boxing.
+	 */
+	@Override
+	public boolean readValue(FieldAccessor accessor, Object context, ScalarValue slot)
+			throws IllegalArgumentException, IllegalAccessException
+	{
+		if (!isPrimitive())
+			return super.readValue(accessor, context, slot);
+		boolean value = accessor.getBoolean(context);
+		slot.setLong(value ? 1 : 0);
+		return value == DEFAULT_VALUE;
+	}
+
+	@Override
+	public void appendValue(ScalarValue slot, Appendable appendable,
+			FieldDescriptor fieldDescriptor, TranslationContext serializationContext, Format format)
+			throws IOException
+	{
+		boolean value = slot.primitive ? slot.longValue != 0 : (Boolean) slot.objectValue;
+		if (fieldDescriptor.getFormat() != null)
+			appendable.append(value ? SHORT_TRUE : SHORT_FALSE);
+		else
+			appendable.append(value ? TRUE : FALSE);
+	}
+
 	/**
 	 * Get the value from the Field, in the context. Append its value to the buffy.
 	 * 
@@ -155,7 +241,7 @@ public class BooleanType extends ScalarType<Boolean> implements CrossLanguageTyp
 		String result	= getNullStringIfNull(fieldDescriptor, context);
 		if (result == null)
 		{
-			boolean value = (Boolean) fieldDescriptor.getField().get(context);
+			boolean value = fieldDescriptor.getAccessor().getBoolean(context);
 
 			if (fieldDescriptor.getFormat() != null)
 			{
@@ -145,7 +145,7 @@ implements CrossLanguageTypeConstants
     public void appendValue(StringBuilder buffy, FieldDescriptor f2xo, Object context) 
     throws IllegalArgumentException, IllegalAccessException
     {
-        byte value = f2xo.getField().getByte(context);
+        byte value = f2xo.getAccessor().getByte(context);
            
 		buffy.append(value);
     }
@@ -164,7 +164,7 @@ implements CrossLanguageTypeConstants
     public void appendValue(Appendable buffy, FieldDescriptor fieldDescriptor, Object context, TranslationContext serializationContext, Format format) 
     throws IllegalArgumentException, IllegalAccessException, IOException
     {
-        byte value = fieldDescriptor.getField().getByte(context);
+        byte value = fieldDescriptor.getAccessor().getByte(context);
            
 		buffy.append(Byte.toString(value));
     }
@@ -149,7 +149,7 @@ public class CharType extends ScalarType<Character> implements CrossLanguageType
 	public void appendValue(StringBuilder buffy, FieldDescriptor f2xo, Object context)
 			throws IllegalArgumentException, IllegalAccessException
 	{
-		char value = f2xo.getField().getChar(context);
+		char value = f2xo.getAccessor().getChar(context);
 
 		buffy.append(value);
 	}
@@ -168,7 +168,7 @@ public class CharType extends ScalarType<Character> implements CrossLanguageType
 			TranslationContext serializationContext, Format format) throws IllegalArgumentException,
 			IllegalAccessException, IOException
 	{
-		char value = fieldDescriptor.getField().getChar(context);
+		char value = fieldDescriptor.getAccessor().getChar(context);
 
 		buffy.append(Character.toString(value));
 	}
@@ -3,17 +3,26 @@
  */
 package ecologylab.serialization.types.scalar;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.io.IOException;
 import java.util.Date;
+import java.util.TimeZone;
 
+import ecologylab.generic.text.CachedDateFormat;
+import ecologylab.serialization.FieldDescriptor;
 import ecologylab.serialization.ScalarUnmarshallingContext;
+import ecologylab.serialization.TranslationContext;
 import ecologylab.serialization.annotations.simpl_inherit;
+import ecologylab.serialization.formatenums.Format;
 import ecologylab.serialization.types.CrossLanguageTypeConstants;
+import ecologylab.serialization.types.ScalarValue;
 
 /**
  * Type system entry for {@link java.util.Date Date}.
- * 
+ * <p/>
+ * Parsing and formatting go through {@link CachedDateFormat}s, so any number of threads can
+ * (de)serialize dates at once. ISO 8601 dates and times, and milliseconds since the epoch, are
+ * parsed directly, without a DateFormat.
+ *
  * @author Zachary O. Toups (toupsz@cs.tamu.edu)
  */
 @simpl_inherit
@@ -31,17 +40,21 @@ public class DateType extends ReferenceType<Date> implements CrossLanguageTypeCo
 		"MM/dd/yyyy",
 		"MM/dd/yyyy K:mm aa",
 	};
-	static final DateFormat	dateFormats[]			= new DateFormat[datePatterns.length + 1];
+	static final CachedDateFormat	dateFormats[]			= new CachedDateFormat[datePatterns.length + 1];
 
-	static final DateFormat	plainDf	= DateFormat.getDateTimeInstance();
-	
 	static
 	{
 		for (int i=0; i< datePatterns.length; i++)
-			dateFormats[i]												= new SimpleDateFormat(datePatterns[i]);
-		dateFormats[datePatterns.length]				= plainDf;
+			dateFormats[i]												= CachedDateFormat.get(datePatterns[i]);
+		dateFormats[datePatterns.length]				= CachedDateFormat.LOCALE_DATE_TIME;
 	}
 
+	/**
+	 * Proleptic Gregorian day arithmetic, which is what parseIso8601() does, agrees with
+	 * java.util.Date from this year on.
+	 */
+	private static final int				FIRST_GREGORIAN_YEAR	= 1583;
+
 	public DateType()
 	{
 		super(Date.class, JAVA_DATE, DOTNET_DATE, OBJC_DATE, null);
@@ -49,10 +62,12 @@ public class DateType extends ReferenceType<Date> implements CrossLanguageTypeCo
 
 	/**
 	 * @param value
-	 *          is interpreted as a SimpleDateFormat in the form EEE MMM dd kk:mm:ss zzz yyyy (for
-	 *          example Wed Aug 02 13:12:50 CDT 2006); if that does not work, then attempts to use the
-	 *          DateFormat for the current locale instead.
-	 * 
+	 *          is parsed with the field's own formats, if it has any; then as milliseconds since the
+	 *          epoch, or an ISO 8601 date and time, such as 2006-08-02T13:12:50-05:00; then as a
+	 *          SimpleDateFormat in the form EEE MMM dd kk:mm:ss zzz yyyy (for example Wed Aug 02
+	 *          13:12:50 CDT 2006), or another of the datePatterns; if none of those works, then with
+	 *          the DateFormat for the current locale.
+	 *
 	 * @see ecologylab.serialization.types.ScalarType#getInstance(java.lang.String, String[],
 	 *      ScalarUnmarshallingContext)
 	 */
@@ -60,29 +75,205 @@ public class DateType extends ReferenceType<Date> implements CrossLanguageTypeCo
 	public Date getInstance(String value, String[] formatStrings,
 			ScalarUnmarshallingContext scalarUnmarshallingContext)
 	{
-		for (DateFormat dateFormatParser: dateFormats)
+		Date result;
+		if (formatStrings != null)
+			for (String thatFormat : formatStrings)
+			{
+				result = CachedDateFormat.get(thatFormat).parse(value);
+				if (result != null)
+					return result;
+			}
+
+		long millis = parseEpochMillis(value);
+		if (millis != Long.MIN_VALUE)
+			return new Date(millis);
+		millis = parseIso8601(value);
+		if (millis != Long.MIN_VALUE)
+			return new Date(millis);
+
+		for (CachedDateFormat dateFormat : dateFormats)
 		{
-      try 
-      {
-        return dateFormatParser.parse(value);
-      } catch (java.text.ParseException ex) 
-      {
-      	// simply try the next pattern
-      }
-      if (formatStrings != null)
-      	for (String thatFormat: formatStrings)
-      	{
-          try 
-          {
-            return new SimpleDateFormat(thatFormat).parse(value);
-          } catch (java.text.ParseException ex) 
-          {
-          	// simply try the next pattern
-          }
-      		
-      	}
- 		}
+			result = dateFormat.parse(value);
+			if (result != null)
+				return result;
+		}
 		error("Failed to parse date: " + value);
 		return null;
 	}
+
+	/**
+	 * Dates of fields with a format are written in the first of its patterns, so that they read
+	 * back the same way; others in the form of Date.toString().
+	 */
+	@Override
+	public void appendValue(ScalarValue slot, Appendable appendable,
+			FieldDescriptor fieldDescriptor, TranslationContext serializationContext, Format format)
+			throws IOException
+	{
+		String[] formatStrings = fieldDescriptor.getFormat();
+		if (formatStrings == null)
+			super.appendValue(slot, appendable, fieldDescriptor, serializationContext, format);
+		else
+			appendEscaped(CachedDateFormat.get(formatStrings[0]).format((Date) slot.objectValue),
+					appendable, !fieldDescriptor.isCDATA(), format);
+	}
+
+	/**
+	 * @param value
+	 * @return The milliseconds since the epoch that value holds, if it is a long of more than 8
+	 *         digits, or Long.MIN_VALUE. 8 digits are left for the yyyyMMdd pattern.
+	 */
+	static long parseEpochMillis(String value)
+	{
+		int length = value.length();
+		int i = (length > 0 && value.charAt(0) == '-') ? 1 : 0;
+		if (length - i <= 8 || length - i > 18)
+			return Long.MIN_VALUE;
+		long millis = 0;
+		for (; i < length; i++)
+		{
+			int digit = value.charAt(i) - '0';
+			if (digit < 0 || digit > 9)
+				return Long.MIN_VALUE;
+			millis = millis * 10 + digit;
+		}
+		return value.charAt(0) == '-' ? -millis : millis;
+	}
+
+	/**
+	 * Parse a date in the ISO 8601 form yyyy-MM-dd, optionally followed by 'T', or a space, and
+	 * HH:mm, HH:mm:ss, or HH:mm:ss and a fraction of a second; then optionally by Z, or an offset
+	 * from UTC such as +01:00, +0100, or +01. Without a zone, the time is local.
+	 *
+	 * @param value
+	 * @return The milliseconds since the epoch, or Long.MIN_VALUE if value is not all in that form,
+	 *         or names a date that doesn't exist.
+	 */
+	static long parseIso8601(String value)
+	{
+		int length = value.length();
+		if (length < 10 || value.charAt(4) != '-' || value.charAt(7) != '-')
+			return Long.MIN_VALUE;
+		int year = digits(value, 0, 4);
+		int month = digits(value, 5, 2);
+		int day = digits(value, 8, 2);
+		if (year < FIRST_GREGORIAN_YEAR || month < 1 || month > 12 || day < 1
+				|| day > daysInMonth(year, month))
+			return Long.MIN_VALUE;
+
+		int hour = 0, minute = 0, second = 0, millisecond = 0;
+		int i = 10;
+		if (i < length && (value.charAt(i) == 'T' || value.charAt(i) == ' '))
+		{
+			if (length < i + 6 || value.charAt(i + 3) != ':')
+				return Long.MIN_VALUE;
+			hour = digits(value, i + 1, 2);
+			minute = digits(value, i + 4, 2);
+			i += 6;
+			if (i < length && value.charAt(i) == ':')
+			{
+				second = digits(value, i + 1, 2);
+				i += 3;
+				if (i < length && (value.charAt(i) == '.' || value.charAt(i) == ','))
+				{
+					int start = ++i;
+					for (; i < length && Character.isDigit(value.charAt(i)); i++)
+						if (i - start < 3)
+							millisecond = millisecond * 10 + value.charAt(i) - '0';
+					if (i == start)
+						return Long.MIN_VALUE;
+					for (int scale = i - start; scale < 3; scale++)
+						millisecond *= 10;
+				}
+			}
+			if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59)
+				return Long.MIN_VALUE;
+		}
+
+		long seconds = ((daysFromEpoch(year, month, day) * 24 + hour) * 60 + minute) * 60 + second;
+		long millis = seconds * 1000 + millisecond;
+		if (i == length)
+		{
+			// local time.
+			TimeZone zone = TimeZone.getDefault();
+			return millis - zone.getOffset(millis - zone.getRawOffset());
+		}
+
+		char sign = value.charAt(i);
+		if (sign == 'Z')
+			return i + 1 == length ? millis : Long.MIN_VALUE;
+		if (sign != '+' && sign != '-')
+			return Long.MIN_VALUE;
+		int offsetHours = -1, offsetMinutes = 0;
+		switch (length - i)
+		{
+		case 3:
+			offsetHours = digits(value, i + 1, 2);
+			break;
+		case 5:
+			offsetHours = digits(value, i + 1, 2);
+			offsetMinutes = digits(value, i + 3, 2);
+			break;
+		case 6:
+			if (value.charAt(i + 3) == ':')
+			{
+				offsetHours = digits(value, i + 1, 2);
+				offsetMinutes = digits(value, i + 4, 2);
+			}
+			break;
+		}
+		if (offsetHours < 0 || offsetHours > 23 || offsetMinutes < 0 || offsetMinutes > 59)
+			return Long.MIN_VALUE;
+		long offset = (offsetHours * 60 + offsetMinutes) * 60000L;
+		return sign == '+' ? millis - offset : millis + offset;
+	}
+
+	/**
+	 * @return The number in the count characters of value from start, or -1 if they are not all
+	 *         digits.
+	 */
+	private static int digits(String value, int start, int count)
+	{
+		if (start + count > value.length())
+			return -1;
+		int result = 0;
+		for (int i = start; i < start + count; i++)
+		{
+			int digit = value.charAt(i) - '0';
+			if (digit < 0 || digit > 9)
+				return -1;
+			result = result * 10 + digit;
+		}
+		return result;
+	}
+
+	private static int daysInMonth(int year, int month)
+	{
+		switch (month)
+		{
+		case 2:
+			return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	/**
+	 * @return Days from 1970-01-01 to the date, in the proleptic Gregorian calendar.
+	 */
+	private static long daysFromEpoch(int year, int month, int day)
+	{
+		if (month <= 2)
+			year--;
+		int era = year / 400;
+		int yearOfEra = year - era * 400;
+		int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097L + dayOfEra - 719468;
+	}
 }
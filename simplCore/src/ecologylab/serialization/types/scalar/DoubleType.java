@@ -8,6 +8,7 @@ import java.lang.reflect.Field;
 import java.util.HashMap;
 
 import ecologylab.generic.text.EfficientDecimalFormat;
+import ecologylab.serialization.FieldAccessor;
 import ecologylab.serialization.FieldDescriptor;
 import ecologylab.serialization.ScalarUnmarshallingContext;
 import ecologylab.serialization.TranslationContext;
@@ -15,6 +16,7 @@ import ecologylab.serialization.annotations.simpl_inherit;
 import ecologylab.serialization.formatenums.Format;
 import ecologylab.serialization.types.CrossLanguageTypeConstants;
 import ecologylab.serialization.types.ScalarType;
+import ecologylab.serialization.types.ScalarValue;
 
 /**
  * Type system entry for double, a built-in primitive.
@@ -118,6 +120,95 @@ public class DoubleType extends ScalarType<Double> implements CrossLanguageTypeC
 		return result;
 	}
 
+	/**
+	 * Sets the double through the accessor, without boxing. Falls back to the boxed path for the
+	 * reference type, and for "null".
+	 */
+	@Override
+	public boolean setField(Object context, FieldAccessor accessor, String valueString,
+			String[] format, ScalarUnmarshallingContext scalarUnmarshallingContext)
+	{
+		if (!isPrimitive() || valueString == null || "null".equalsIgnoreCase(valueString))
+			return super.setField(context, accessor, valueString, format, scalarUnmarshallingContext);
+
+		boolean result = false;
+		try
+		{
+			accessor.setDouble(context, valueString.contains("/") ? rationalToDouble(valueString) : getValue(valueString));
+			result = true;
+		}
+		catch (Exception e)
+		{
+			setFieldError(accessor.getField(), valueString, e);
+		}
+		return result;
+	}
+
+	/**
+	 * The string representation for the field behind the accessor, read without boxing.
+	 */
+	@Override
+	public String toString(FieldAccessor accessor, Object context)
+	{
+		if (!isPrimitive())
+			return super.toString(accessor, context);
+
+		String result = "COULDN'T CONVERT!";
+		try
+		{
+			result = Double.toString(accessor.getDouble(context));
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+		return result;
+	}
+
+	/**
+	 * True if the value of the field behind the accessor matches the default value for this type.
+	 * Primitive fields are compared without boxing.
+	 */
+	@Override
+	public boolean isDefaultValue(FieldAccessor accessor, Object context)
+			throws IllegalArgumentException, IllegalAccessException
+	{
+		if (!isPrimitive())
+			return (Double) accessor.get(context) == DEFAULT_VALUE;
+		return accessor.getDouble(context) == DEFAULT_VALUE;
+	}
+
+	/**
+	 * Reads a primitive field into the slot without boxing.
+	 */
+	@Override
+	public boolean readValue(FieldAccessor accessor, Object context, ScalarValue slot)
+			throws IllegalArgumentException, IllegalAccessException
+	{
+		if (!isPrimitive())
+		{
+			Double value = (Double) accessor.get(context);
+			slot.setObject(value);
+			return value == null || value == DEFAULT_VALUE;
+		}
+		double value = accessor.getDouble(context);
+		slot.setDouble(value);
+		return value == DEFAULT_VALUE;
+	}
+
+	@Override
+	public void appendValue(ScalarValue slot, Appendable appendable,
+			FieldDescriptor fieldDescriptor, TranslationContext serializationContext, Format format)
+			throws IOException
+	{
+		double value = slot.primitive ? slot.doubleValue : (Double) slot.objectValue;
+		String[] formatStrings = fieldDescriptor.getFormat();
+		if (formatStrings != null)
+			getFormat(formatStrings[0]).format(value, appendable);
+		else
+			appendable.append(Double.toString(value));
+	}
+
 	/**
 	 * The default value for this type, as a String. This value is the one that translateToXML(...)
 	 * wont bother emitting.
@@ -195,10 +286,11 @@ public class DoubleType extends ScalarType<Double> implements CrossLanguageTypeC
 	public static String getValueToAppend(FieldDescriptor fieldDescriptor, Object context)
 			throws IllegalArgumentException, IllegalAccessException
 	{
-  	if (fieldDescriptor.getField() == null || fieldDescriptor.getField().get(context) == null)
-  		return "null";
+		String nullString = getNullStringIfNull(fieldDescriptor, context);
+		if (nullString != null)
+			return nullString;
 
-  	double value = (Double) fieldDescriptor.getField().get(context);
+		double value = fieldDescriptor.getAccessor().getDouble(context);
 		String[] formatStrings = fieldDescriptor.getFormat();
 		StringBuilder res = new StringBuilder();
 
@@ -3,6 +3,7 @@ package ecologylab.serialization.types.scalar;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 
+import ecologylab.serialization.FieldAccessor;
 import ecologylab.serialization.ScalarUnmarshallingContext;
 import ecologylab.serialization.XMLTools;
 import ecologylab.serialization.annotations.simpl_collection;
@@ -63,6 +64,29 @@ public class EnumeratedType extends ReferenceType<Enum>
        }
        return result;
    }
+
+	@Override
+	public boolean setField(Object context, FieldAccessor accessor, String valueString, String[] format, ScalarUnmarshallingContext scalarUnmarshallingContext)
+	{
+		if (valueString == null)
+			return true;
+
+		boolean result = false;
+		try
+		{
+			Enum<?> referenceObject = XMLTools.createEnumeratedType(accessor.getField(), valueString);
+			if (referenceObject != null)
+			{
+				accessor.set(context, referenceObject);
+				result = true;
+			}
+		}
+		catch (Exception e)
+		{
+			setFieldError(accessor.getField(), valueString, e);
+		}
+		return result;
+	}
 	
 	@Override
 	public String getSimpleName()
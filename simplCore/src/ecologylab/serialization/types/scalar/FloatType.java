@@ -6,6 +6,7 @@ package ecologylab.serialization.types.scalar;
 import java.io.IOException;
 import java.lang.reflect.Field;
 
+import ecologylab.serialization.FieldAccessor;
 import ecologylab.serialization.FieldDescriptor;
 import ecologylab.serialization.ScalarUnmarshallingContext;
 import ecologylab.serialization.TranslationContext;
@@ -13,6 +14,7 @@ import ecologylab.serialization.annotations.simpl_inherit;
 import ecologylab.serialization.formatenums.Format;
 import ecologylab.serialization.types.CrossLanguageTypeConstants;
 import ecologylab.serialization.types.ScalarType;
+import ecologylab.serialization.types.ScalarValue;
 
 /**
  * Type system entry for float, a built-in primitive.
@@ -106,6 +108,89 @@ implements CrossLanguageTypeConstants
 		return result;
 	}
 
+	/**
+	 * Sets the float through the accessor, without boxing. Falls back to the boxed path for the
+	 * reference type, and for "null".
+	 */
+	@Override
+	public boolean setField(Object context, FieldAccessor accessor, String valueString,
+			String[] format, ScalarUnmarshallingContext scalarUnmarshallingContext)
+	{
+		if (!isPrimitive() || valueString == null || "null".equalsIgnoreCase(valueString))
+			return super.setField(context, accessor, valueString, format, scalarUnmarshallingContext);
+
+		boolean result = false;
+		try
+		{
+			accessor.setFloat(context, valueString.contains("/") ? (float) DoubleType.rationalToDouble(valueString) : getValue(valueString));
+			result = true;
+		}
+		catch (Exception e)
+		{
+			setFieldError(accessor.getField(), valueString, e);
+		}
+		return result;
+	}
+
+	/**
+	 * The string representation for the field behind the accessor, read without boxing.
+	 */
+	@Override
+	public String toString(FieldAccessor accessor, Object context)
+	{
+		if (!isPrimitive())
+			return super.toString(accessor, context);
+
+		String result = "COULDN'T CONVERT!";
+		try
+		{
+			result = Float.toString(accessor.getFloat(context));
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+		return result;
+	}
+
+	/**
+	 * True if the value of the field behind the accessor matches the default value for this type.
+	 * Primitive fields are compared without boxing.
+	 */
+	@Override
+	public boolean isDefaultValue(FieldAccessor accessor, Object context)
+			throws IllegalArgumentException, IllegalAccessException
+	{
+		if (!isPrimitive())
+			return (Float) accessor.get(context) == DEFAULT_VALUE;
+		return accessor.getFloat(context) == DEFAULT_VALUE;
+	}
+
+	/**
+	 * Reads a primitive field into the slot without boxing.
+	 */
+	@Override
+	public boolean readValue(FieldAccessor accessor, Object context, ScalarValue slot)
+			throws IllegalArgumentException, IllegalAccessException
+	{
+		if (!isPrimitive())
+			return super.readValue(accessor, context, slot);
+		float value = accessor.getFloat(context);
+		slot.setDouble(value);
+		return value == DEFAULT_VALUE;
+	}
+
+	@Override
+	public void appendValue(ScalarValue slot, Appendable appendable,
+			FieldDescriptor fieldDescriptor, TranslationContext serializationContext, Format format)
+			throws IOException
+	{
+		if (slot.primitive)
+			appendable.append(Float.toString((float) slot.doubleValue));
+		else
+			super.appendValue(slot, appendable, fieldDescriptor, serializationContext, format);
+	}
+
 	/**
 	 * The default value for this type, as a String. This value is the one that translateToXML(...)
 	 * wont bother emitting.
@@ -185,7 +270,7 @@ implements CrossLanguageTypeConstants
 	{
 		String result	= getNullStringIfNull(fieldDescriptor, context);
 		if (result == null)
-			result			= fieldDescriptor.getField().get(context).toString();
+			result			= Float.toString(fieldDescriptor.getAccessor().getFloat(context));
 		return result;
 	}
 
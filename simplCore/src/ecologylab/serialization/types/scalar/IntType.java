@@ -6,6 +6,8 @@ package ecologylab.serialization.types.scalar;
 import java.io.IOException;
 import java.lang.reflect.Field;
 
+import ecologylab.generic.StringTools;
+import ecologylab.serialization.FieldAccessor;
 import ecologylab.serialization.FieldDescriptor;
 import ecologylab.serialization.ScalarUnmarshallingContext;
 import ecologylab.serialization.TranslationContext;
@@ -13,6 +15,7 @@ import ecologylab.serialization.annotations.simpl_inherit;
 import ecologylab.serialization.formatenums.Format;
 import ecologylab.serialization.types.CrossLanguageTypeConstants;
 import ecologylab.serialization.types.ScalarType;
+import ecologylab.serialization.types.ScalarValue;
 
 /**
  * Type system entry for int, a built-in primitive.
@@ -108,6 +111,94 @@ public class IntType extends ScalarType<Integer> implements CrossLanguageTypeCon
 		return result;
 	}
 
+	/**
+	 * Sets the int through the accessor, without boxing. Falls back to the boxed path for the
+	 * reference type, and for "null".
+	 */
+	@Override
+	public boolean setField(Object context, FieldAccessor accessor, String valueString,
+			String[] format, ScalarUnmarshallingContext scalarUnmarshallingContext)
+	{
+		if (!isPrimitive() || valueString == null || "null".equalsIgnoreCase(valueString))
+			return super.setField(context, accessor, valueString, format, scalarUnmarshallingContext);
+
+		boolean result = false;
+		try
+		{
+			accessor.setInt(context, getValue(valueString));
+			result = true;
+		}
+		catch (Exception e)
+		{
+			setFieldError(accessor.getField(), valueString, e);
+		}
+		return result;
+	}
+
+	/**
+	 * The string representation for the field behind the accessor, read without boxing.
+	 */
+	@Override
+	public String toString(FieldAccessor accessor, Object context)
+	{
+		if (!isPrimitive())
+			return super.toString(accessor, context);
+
+		String result = "COULDN'T CONVERT!";
+		try
+		{
+			result = Integer.toString(accessor.getInt(context));
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+		return result;
+	}
+
+	/**
+	 * True if the value of the field behind the accessor matches the default value for this type.
+	 * Primitive fields are compared without boxing.
+	 */
+	@Override
+	public boolean isDefaultValue(FieldAccessor accessor, Object context)
+			throws IllegalArgumentException, IllegalAccessException
+	{
+		if (context == null)
+			return true;
+		if (!isPrimitive())
+		{
+			Integer value = (Integer) accessor.get(context);
+			return value == null || value == DEFAULT_VALUE;
+		}
+		return accessor.getInt(context) == DEFAULT_VALUE;
+	}
+
+	/**
+	 * Reads a primitive field into the slot without boxing.
+	 */
+	@Override
+	public boolean readValue(FieldAccessor accessor, Object context, ScalarValue slot)
+			throws IllegalArgumentException, IllegalAccessException
+	{
+		if (!isPrimitive())
+			return super.readValue(accessor, context, slot);
+		int value = accessor.getInt(context);
+		slot.setLong(value);
+		return value == DEFAULT_VALUE;
+	}
+
+	@Override
+	public void appendValue(ScalarValue slot, Appendable appendable,
+			FieldDescriptor fieldDescriptor, TranslationContext serializationContext, Format format)
+			throws IOException
+	{
+		if (slot.primitive)
+			StringTools.append(slot.longValue, appendable);
+		else
+			super.appendValue(slot, appendable, fieldDescriptor, serializationContext, format);
+	}
+
 	/**
 	 * The default value for this type, as a String. This value is the one that translateToXML(...)
 	 * wont bother emitting.
@@ -177,7 +268,7 @@ public class IntType extends ScalarType<Integer> implements CrossLanguageTypeCon
 		String result	= getNullStringIfNull(fieldDescriptor, context);
 		if (result == null)
 		{
-			result = fieldDescriptor.getField().get(context).toString();
+			result = Integer.toString(fieldDescriptor.getAccessor().getInt(context));
 		}
 		return result;
 	}
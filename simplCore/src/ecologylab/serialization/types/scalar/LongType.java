@@ -6,6 +6,8 @@ package ecologylab.serialization.types.scalar;
 import java.io.IOException;
 import java.lang.reflect.Field;
 
+import ecologylab.generic.StringTools;
+import ecologylab.serialization.FieldAccessor;
 import ecologylab.serialization.FieldDescriptor;
 import ecologylab.serialization.ScalarUnmarshallingContext;
 import ecologylab.serialization.TranslationContext;
@@ -13,6 +15,7 @@ import ecologylab.serialization.annotations.simpl_inherit;
 import ecologylab.serialization.formatenums.Format;
 import ecologylab.serialization.types.CrossLanguageTypeConstants;
 import ecologylab.serialization.types.ScalarType;
+import ecologylab.serialization.types.ScalarValue;
 
 /**
  * Type system entry for long, a built-in primitive.
@@ -96,6 +99,89 @@ public class LongType extends ScalarType<Long> implements CrossLanguageTypeConst
 		return result;
 	}
 
+	/**
+	 * Sets the long through the accessor, without boxing. Falls back to the boxed path for the
+	 * reference type, and for "null".
+	 */
+	@Override
+	public boolean setField(Object context, FieldAccessor accessor, String valueString,
+			String[] format, ScalarUnmarshallingContext scalarUnmarshallingContext)
+	{
+		if (!isPrimitive() || valueString == null || "null".equalsIgnoreCase(valueString))
+			return super.setField(context, accessor, valueString, format, scalarUnmarshallingContext);
+
+		boolean result = false;
+		try
+		{
+			accessor.setLong(context, getValue(valueString));
+			result = true;
+		}
+		catch (Exception e)
+		{
+			setFieldError(accessor.getField(), valueString, e);
+		}
+		return result;
+	}
+
+	/**
+	 * The string representation for the field behind the accessor, read without boxing.
+	 */
+	@Override
+	public String toString(FieldAccessor accessor, Object context)
+	{
+		if (!isPrimitive())
+			return super.toString(accessor, context);
+
+		String result = "COULDN'T CONVERT!";
+		try
+		{
+			result = Long.toString(accessor.getLong(context));
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+		return result;
+	}
+
+	/**
+	 * True if the value of the field behind the accessor matches the default value for this type.
+	 * Primitive fields are compared without boxing.
+	 */
+	@Override
+	public boolean isDefaultValue(FieldAccessor accessor, Object context)
+			throws IllegalArgumentException, IllegalAccessException
+	{
+		if (!isPrimitive())
+			return (Long) accessor.get(context) == DEFAULT_VALUE;
+		return accessor.getLong(context) == DEFAULT_VALUE;
+	}
+
+	/**
+	 * Reads a primitive field into the slot without boxing.
+	 */
+	@Override
+	public boolean readValue(FieldAccessor accessor, Object context, ScalarValue slot)
+			throws IllegalArgumentException, IllegalAccessException
+	{
+		if (!isPrimitive())
+			return super.readValue(accessor, context, slot);
+		long value = accessor.getLong(context);
+		slot.setLong(value);
+		return value == DEFAULT_VALUE;
+	}
+
+	@Override
+	public void appendValue(ScalarValue slot, Appendable appendable,
+			FieldDescriptor fieldDescriptor, TranslationContext serializationContext, Format format)
+			throws IOException
+	{
+		if (slot.primitive)
+			StringTools.append(slot.longValue, appendable);
+		else
+			super.appendValue(slot, appendable, fieldDescriptor, serializationContext, format);
+	}
+
 	/**
 	 * The default value for this type, as a String. This value is the one that translateToXML(...)
 	 * wont bother emitting.
@@ -166,7 +252,7 @@ public class LongType extends ScalarType<Long> implements CrossLanguageTypeConst
 		String result = getNullStringIfNull(fieldDescriptor, context);
 		if (result == null)
 		{
-			result = fieldDescriptor.getField().get(context).toString();
+			result = Long.toString(fieldDescriptor.getAccessor().getLong(context));
 		}
 		return result;
 	}
@@ -71,6 +71,21 @@ abstract public class ReferenceType<T> extends ScalarType<T>
 		if (instance != null && serializationContext != null)
 			instanceString = marshall(instance, serializationContext); // andruid 1/4/10
 																																			// instance.toString();
+		appendEscaped(instanceString, buffy, needsEscaping, format);
+	}
+
+	/**
+	 * Append the String form of a value, escaped for format if it needs to be.
+	 * 
+	 * @param instanceString
+	 * @param buffy
+	 * @param needsEscaping
+	 * @param format
+	 * @throws IOException
+	 */
+	protected void appendEscaped(String instanceString, Appendable buffy, boolean needsEscaping,
+			Format format) throws IOException
+	{
 		if (needsEscaping)
 		{
 			switch (format)
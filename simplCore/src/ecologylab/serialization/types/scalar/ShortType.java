@@ -136,7 +136,7 @@ public class ShortType extends ScalarType<Short>
     public void appendValue(StringBuilder buffy, FieldDescriptor f2xo, Object context) 
     throws IllegalArgumentException, IllegalAccessException
     {
-        short value = f2xo.getField().getShort(context);
+        short value = f2xo.getAccessor().getShort(context);
            
 		buffy.append(value);
     }
@@ -154,7 +154,7 @@ public class ShortType extends ScalarType<Short>
     public void appendValue(Appendable buffy, FieldDescriptor fieldDescriptor, Object context, TranslationContext serializationContext, Format format) 
     throws IllegalArgumentException, IllegalAccessException, IOException
     {
-        short value = fieldDescriptor.getField().getShort(context);
+        short value = fieldDescriptor.getAccessor().getShort(context);
            
 		buffy.append(Short.toString(value));
     }
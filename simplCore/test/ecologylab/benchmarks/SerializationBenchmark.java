@@ -0,0 +1,401 @@
+package ecologylab.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ecologylab.serialization.SIMPLTranslationException;
+import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.formatenums.BinaryFormat;
+import ecologylab.serialization.formatenums.Format;
+import ecologylab.serialization.formatenums.StringFormat;
+import ecologylab.serialization.serializers.FormatSerializer;
+
+/**
+ * Harness for serialize and deserialize benchmarks across formats and model shapes. Each
+ * {@link Fixture} supplies a type scope and builds an instance of its model at a given size; the
+ * harness round-trips it through every requested format and reports, per operation:
+ * <ul>
+ * <li>throughput, in operations per second,</li>
+ * <li>latency percentiles (p50, p90, p99, max), in microseconds,</li>
+ * <li>bytes allocated per operation, from the thread allocation counter, and</li>
+ * <li>collector activity during the measurement (collections and milliseconds).</li>
+ * </ul>
+ * Serialize is measured twice: on a serializer fetched once, and through the static
+ * SimplTypesScope.serialize entry points, which fetch a serializer and a TranslationContext per
+ * call. On small messages the difference is that per-call overhead.
+ * <p/>
+ * Formats without a deserializer, i.e. BibTeX, are only serialized. Fixtures that need simpl:id
+ * and simpl:ref run with graph serialization switched on.
+ * <p/>
+ * Runs in-process with a timed warm-up, so run one suite per JVM and keep other load off the
+ * machine. Entry points that register fixtures live with the models, e.g.
+ * ecologylab.benchmarks.FixtureBenchmark in simplTests.
+ */
+public class SerializationBenchmark
+{
+	public static final Format[]	ALL_FORMATS	= { Format.XML, Format.JSON, Format.TLV, Format.BIBTEX };
+
+	/**
+	 * A model shape to benchmark.
+	 */
+	public static abstract class Fixture
+	{
+		final String						name;
+
+		final SimplTypesScope		scope;
+
+		final boolean						graph;
+
+		final int[]							sizes;
+
+		/**
+		 * @param name
+		 *          Label for the report.
+		 * @param scope
+		 *          Scope to deserialize with.
+		 * @param graph
+		 *          true if the model has shared or cyclic references and needs graph serialization.
+		 * @param sizes
+		 *          Sizes to pass to {@link #create(int)}. Fixed-shape models pass just one.
+		 */
+		protected Fixture(String name, SimplTypesScope scope, boolean graph, int... sizes)
+		{
+			this.name = name;
+			this.scope = scope;
+			this.graph = graph;
+			this.sizes = sizes;
+		}
+
+		/**
+		 * Build an instance of the model. What size means, e.g. number of collection elements, is up
+		 * to the fixture.
+		 */
+		public abstract Object create(int size) throws SIMPLTranslationException;
+	}
+
+	/**
+	 * One serialize or deserialize operation on a prepared input.
+	 */
+	static abstract class Operation
+	{
+		abstract void run() throws SIMPLTranslationException;
+	}
+
+	/**
+	 * Discards its output, remembering only how much was written.
+	 */
+	static class CountingOutputStream extends OutputStream
+	{
+		long	count;
+
+		@Override
+		public void write(int b)
+		{
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len)
+		{
+			count += len;
+		}
+	}
+
+	final long		warmupNanos;
+
+	final long		measureNanos;
+
+	final Format[]	formats;
+
+	final ThreadMXBean	threads	= ManagementFactory.getThreadMXBean();
+
+	/**
+	 * @param warmupMillis
+	 *          Time to spend running each operation before measuring it.
+	 * @param measureMillis
+	 *          Time to spend measuring each operation.
+	 * @param formats
+	 *          Formats to cover.
+	 */
+	public SerializationBenchmark(long warmupMillis, long measureMillis, Format... formats)
+	{
+		this.warmupNanos = warmupMillis * 1000000L;
+		this.measureNanos = measureMillis * 1000000L;
+		this.formats = formats;
+	}
+
+	/**
+	 * Benchmark every fixture at each of its sizes in every format, printing one tab separated row
+	 * per operation to System.out.
+	 */
+	public void run(List<Fixture> fixtures) throws SIMPLTranslationException
+	{
+		System.out.println("fixture\tsize\tformat\top\tbytes\tops/s\tp50us\tp90us\tp99us\tmaxus\tB/op\tgcs\tgcms");
+		for (Fixture fixture : fixtures)
+		{
+			if (fixture.graph)
+				SimplTypesScope.enableGraphSerialization();
+			try
+			{
+				for (int size : fixture.sizes)
+				{
+					Object object = fixture.create(size);
+					for (Format format : formats)
+						run(fixture, size, object, format);
+				}
+			}
+			finally
+			{
+				if (fixture.graph)
+					SimplTypesScope.disableGraphSerialization();
+			}
+		}
+	}
+
+	void run(final Fixture fixture, int size, final Object object, final Format format)
+			throws SIMPLTranslationException
+	{
+		final FormatSerializer serializer = FormatSerializer.getSerializer(format);
+		ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+		try
+		{
+			serializer.serialize(object, serialized);
+		}
+		catch (SIMPLTranslationException e)
+		{
+			System.out.println(fixture.name + "\t" + size + "\t" + format + "\tserialize\tfailed: " + e);
+			return;
+		}
+		final byte[] bytes = serialized.toByteArray();
+
+		report(fixture, size, format, "serialize", bytes.length, measure(new Operation()
+		{
+			@Override
+			void run() throws SIMPLTranslationException
+			{
+				serializer.serialize(object, new CountingOutputStream());
+			}
+		}));
+
+		Operation staticSerialize;
+		if (format == Format.XML || format == Format.JSON)
+		{
+			final StringFormat stringFormat = StringFormat.valueOf(format.name());
+			final StringBuilder output = new StringBuilder(bytes.length);
+			staticSerialize = new Operation()
+			{
+				@Override
+				void run() throws SIMPLTranslationException
+				{
+					output.setLength(0);
+					SimplTypesScope.serialize(object, output, stringFormat);
+				}
+			};
+		}
+		else
+		{
+			staticSerialize = new Operation()
+			{
+				@Override
+				void run() throws SIMPLTranslationException
+				{
+					SimplTypesScope.serialize(object, new CountingOutputStream(), format);
+				}
+			};
+		}
+		report(fixture, size, format, "static_serialize", bytes.length, measure(staticSerialize));
+
+		Operation deserialize = null;
+		switch (format)
+		{
+		case XML:
+		case JSON:
+			final String string = new String(bytes, Charset.forName("UTF-8"));
+			final StringFormat stringFormat = StringFormat.valueOf(format.name());
+			deserialize = new Operation()
+			{
+				@Override
+				void run() throws SIMPLTranslationException
+				{
+					fixture.scope.deserialize(string, stringFormat);
+				}
+			};
+			break;
+		case TLV:
+			deserialize = new Operation()
+			{
+				@Override
+				void run() throws SIMPLTranslationException
+				{
+					fixture.scope.deserialize(bytes, BinaryFormat.TLV);
+				}
+			};
+			break;
+		default:
+			break;
+		}
+		if (deserialize != null)
+		{
+			try
+			{
+				deserialize.run();
+			}
+			catch (SIMPLTranslationException e)
+			{
+				System.out.println(fixture.name + "\t" + size + "\t" + format + "\tdeserialize\tfailed: " + e);
+				return;
+			}
+			report(fixture, size, format, "deserialize", bytes.length, measure(deserialize));
+		}
+	}
+
+	/**
+	 * Latencies in nanoseconds, with the allocation and collector counters over the same interval.
+	 */
+	static class Sample
+	{
+		long[]	latencies	= new long[1024];
+
+		int			count;
+
+		long		elapsed;
+
+		long		allocated	= -1;
+
+		long		collections;
+
+		long		collectionMillis;
+
+		void add(long latency)
+		{
+			if (count == latencies.length)
+				latencies = Arrays.copyOf(latencies, count * 2);
+			latencies[count++] = latency;
+		}
+
+		long percentile(double p)
+		{
+			return latencies[Math.min(count - 1, (int) (p * count))];
+		}
+	}
+
+	Sample measure(Operation operation) throws SIMPLTranslationException
+	{
+		long end = System.nanoTime() + warmupNanos;
+		do
+			operation.run();
+		while (System.nanoTime() < end);
+
+		Sample sample = new Sample();
+		long allocatedBefore = allocatedBytes();
+		long collectionsBefore = collections(false);
+		long collectionMillisBefore = collections(true);
+		long start = System.nanoTime();
+		long now = start;
+		end = start + measureNanos;
+		do
+		{
+			operation.run();
+			long then = now;
+			now = System.nanoTime();
+			sample.add(now - then);
+		}
+		while (now < end);
+		sample.elapsed = now - start;
+		long allocatedAfter = allocatedBytes();
+		if (allocatedBefore >= 0)
+			sample.allocated = allocatedAfter - allocatedBefore;
+		sample.collections = collections(false) - collectionsBefore;
+		sample.collectionMillis = collections(true) - collectionMillisBefore;
+
+		Arrays.sort(sample.latencies, 0, sample.count);
+		return sample;
+	}
+
+	/**
+	 * @return Bytes allocated so far by the current thread, or -1 where the VM does not count them.
+	 */
+	long allocatedBytes()
+	{
+		if (threads instanceof com.sun.management.ThreadMXBean)
+		{
+			com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+			if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled())
+				return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	static long collections(boolean millis)
+	{
+		long total = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+			total += Math.max(0, millis ? collector.getCollectionTime() : collector.getCollectionCount());
+		return total;
+	}
+
+	static void report(Fixture fixture, int size, Format format, String op, int bytes, Sample sample)
+	{
+		System.out.printf("%s\t%d\t%s\t%s\t%d\t%.0f\t%.1f\t%.1f\t%.1f\t%.1f\t%s\t%d\t%d%n", fixture.name,
+				size, format, op, bytes, sample.count * 1e9 / sample.elapsed, sample.percentile(0.5) / 1e3,
+				sample.percentile(0.9) / 1e3, sample.percentile(0.99) / 1e3,
+				sample.latencies[sample.count - 1] / 1e3,
+				sample.allocated < 0 ? "n/a" : String.valueOf(sample.allocated / sample.count),
+				sample.collections, sample.collectionMillis);
+	}
+
+	/**
+	 * Parse the common command line: [-warmup millis] [-measure millis] [-format XML,JSON,...] [-only
+	 * fixture,...]. Leaves the fixture filter, if any, in the returned list.
+	 */
+	public static SerializationBenchmark fromArgs(String[] args, List<String> only)
+	{
+		long warmup = 1000;
+		long measure = 2000;
+		Format[] formats = ALL_FORMATS;
+		for (int i = 0; i + 1 < args.length; i += 2)
+		{
+			String value = args[i + 1];
+			if ("-warmup".equals(args[i]))
+				warmup = Long.parseLong(value);
+			else if ("-measure".equals(args[i]))
+				measure = Long.parseLong(value);
+			else if ("-format".equals(args[i]))
+			{
+				String[] names = value.split(",");
+				formats = new Format[names.length];
+				for (int j = 0; j < names.length; j++)
+					formats[j] = Format.valueOf(names[j].toUpperCase());
+			}
+			else if ("-only".equals(args[i]))
+				only.addAll(Arrays.asList(value.split(",")));
+			else
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+		}
+		return new SerializationBenchmark(warmup, measure, formats);
+	}
+
+	/**
+	 * Run the fixtures named in only, or all of them if only is empty.
+	 */
+	public void run(List<Fixture> fixtures, List<String> only) throws SIMPLTranslationException
+	{
+		if (only.isEmpty())
+		{
+			run(fixtures);
+			return;
+		}
+		List<Fixture> selected = new ArrayList<Fixture>();
+		for (Fixture fixture : fixtures)
+			if (only.contains(fixture.name))
+				selected.add(fixture);
+		run(selected);
+	}
+}
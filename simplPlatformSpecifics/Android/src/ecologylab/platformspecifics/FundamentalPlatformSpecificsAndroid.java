@@ -7,6 +7,7 @@ import java.lang.reflect.Type;
 import java.nio.charset.Charset;
 
 import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 
 import android.graphics.Color;
@@ -245,14 +246,30 @@ public class FundamentalPlatformSpecificsAndroid implements IFundamentalPlatform
 		new PlatformSpecificTypesAndroid();	
 	}
 
+	private static XmlPullParserFactory	pullParserFactory;
+
+	/**
+	 * XmlPullParserFactory.newInstance() looks up the implementation on every call, so make the
+	 * factory once.
+	 */
+	private static synchronized XmlPullParserFactory pullParserFactory()
+			throws XmlPullParserException
+	{
+		if (pullParserFactory == null)
+		{
+			XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+			factory.setNamespaceAware(true);
+			pullParserFactory = factory;
+		}
+		return pullParserFactory;
+	}
+
 	public XMLParser getXMLParser(InputStream inputStream, Charset charSet)
 			throws SIMPLTranslationException
 	{
 		try
 		{
-			XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-			factory.setNamespaceAware(true);
-			XmlPullParser xmlPullParser =  factory.newPullParser();
+			XmlPullParser xmlPullParser = pullParserFactory().newPullParser();
 			xmlPullParser.setInput(inputStream, charSet.name());
 			return new XMLParserAndroid(xmlPullParser);
 		}
@@ -266,9 +283,7 @@ public class FundamentalPlatformSpecificsAndroid implements IFundamentalPlatform
 	{
 		try
 		{
-			XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-			factory.setNamespaceAware(true);
-			XmlPullParser xmlPullParser =  factory.newPullParser();
+			XmlPullParser xmlPullParser = pullParserFactory().newPullParser();
 			xmlPullParser.setInput(inputStream, "UTF-8");
 			return new XMLParserAndroid(xmlPullParser);
 		}
@@ -282,9 +297,7 @@ public class FundamentalPlatformSpecificsAndroid implements IFundamentalPlatform
 	{
 		try
 		{
-			XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-			factory.setNamespaceAware(true);
-			XmlPullParser xmlPullParser =  factory.newPullParser();
+			XmlPullParser xmlPullParser = pullParserFactory().newPullParser();
 			xmlPullParser.setInput(new StringReader(charSequence.toString()));
 			return new XMLParserAndroid(xmlPullParser);
 		}
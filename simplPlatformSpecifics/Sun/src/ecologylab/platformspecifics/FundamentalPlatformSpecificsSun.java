@@ -32,11 +32,30 @@ import ecologylab.serialization.FieldDescriptor;
 import ecologylab.serialization.GenericTypeVar;
 import ecologylab.serialization.SIMPLTranslationException;
 import ecologylab.serialization.deserializers.pullhandlers.stringformats.XMLParser;
+import ecologylab.serialization.deserializers.pullhandlers.stringformats.XMLParserSimpl;
 import ecologylab.serialization.deserializers.pullhandlers.stringformats.XMLParserSun;
 import ecologylab.serialization.types.PlatformSpecificTypesSun;
 
 public class FundamentalPlatformSpecificsSun implements IFundamentalPlatformSpecifics
 {
+	/**
+	 * XMLInputFactory.newInstance() does a service lookup on every call, so make the factory once.
+	 * Creating stream readers from a configured factory is thread-safe.
+	 */
+	private static final XMLInputFactory	XML_INPUT_FACTORY	= XMLInputFactory.newInstance();
+
+	/**
+	 * When set, documents whose encoding is known are parsed with javax.xml.stream, as those without
+	 * one always are, rather than with XMLParserSimpl. For documents that need more of XML than simpl
+	 * itself does, such as entities declared in a DOCTYPE.
+	 */
+	private static volatile boolean				useStAX;
+
+	public static void setUseStAX(boolean useStAX)
+	{
+		FundamentalPlatformSpecificsSun.useStAX = useStAX;
+	}
+
 	public void initializePlatformSpecificTranslation()
 	{
 		MetaPrefsTranslationScope.get().addTranslation(MetaPrefColor.class);
@@ -271,9 +290,11 @@ public class FundamentalPlatformSpecificsSun implements IFundamentalPlatformSpec
 	public XMLParser getXMLParser(InputStream inputStream, Charset charSet)
 			throws SIMPLTranslationException
 	{
+		if (!useStAX)
+			return new XMLParserSimpl(inputStream, charSet);
 		try
 		{
-			return new XMLParserSun(XMLInputFactory.newInstance().createXMLStreamReader(inputStream, charSet.name()));
+			return new XMLParserSun(XML_INPUT_FACTORY.createXMLStreamReader(inputStream, charSet.name()));
 		}
 		catch (Exception ex)
 		{
@@ -286,7 +307,7 @@ public class FundamentalPlatformSpecificsSun implements IFundamentalPlatformSpec
 	{
 		try
 		{
-			return new XMLParserSun(XMLInputFactory.newInstance().createXMLStreamReader(inputStream));
+			return new XMLParserSun(XML_INPUT_FACTORY.createXMLStreamReader(inputStream));
 		}
 		catch (Exception ex)
 		{
@@ -297,10 +318,12 @@ public class FundamentalPlatformSpecificsSun implements IFundamentalPlatformSpec
 	@Override
 	public XMLParser getXMLParser(CharSequence charSequence) throws SIMPLTranslationException
 	{
+		if (!useStAX)
+			return new XMLParserSimpl(charSequence);
 		try
 		{
 			InputStream xmlStream = new StringInputStream(charSequence, StringInputStream.UTF8);
-			return new XMLParserSun(XMLInputFactory.newInstance().createXMLStreamReader(xmlStream, "UTF-8"));
+			return new XMLParserSun(XML_INPUT_FACTORY.createXMLStreamReader(xmlStream, "UTF-8"));
 		}
 		catch (Exception ex)
 		{
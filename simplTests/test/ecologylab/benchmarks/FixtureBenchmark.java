@@ -0,0 +1,205 @@
+package ecologylab.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import legacy.tests.circle.Point;
+import legacy.tests.composite.WCBase;
+import legacy.tests.composite.WCSubOne;
+import legacy.tests.composite.WCSubTwo;
+import legacy.tests.graph.collections.ClassA;
+import legacy.tests.inheritance.BaseClass;
+import legacy.tests.inheritance.ChildClass1;
+import legacy.tests.inheritance.ChildClass2;
+import legacy.tests.inheritance.ContainingClass;
+import legacy.tests.items.ItemBase;
+import legacy.tests.items.ItemOne;
+import legacy.tests.items.ItemRandom;
+import legacy.tests.items.ItemTwo;
+import legacy.tests.maps.ClassDes;
+import legacy.tests.maps.FieldDes;
+import legacy.tests.maps.TranslationS;
+import legacy.tests.rss.Channel;
+import legacy.tests.rss.Item;
+import legacy.tests.rss.Rss;
+import ecologylab.benchmarks.SerializationBenchmark.Fixture;
+import ecologylab.net.ParsedURL;
+import ecologylab.serialization.SIMPLTranslationException;
+import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.library.bibtex.Entry;
+
+/**
+ * Serialize and deserialize benchmarks over the legacy test models (graph, maps, inheritance,
+ * composite, items, rss and a two-field point as a small message), the benchmark object graph and
+ * the BibTeX entry, at several sizes.
+ * See {@link SerializationBenchmark} for what is reported.
+ * <p/>
+ * Usage: FixtureBenchmark [-warmup millis] [-measure millis] [-format XML,JSON,TLV,BIBTEX] [-only
+ * graph_root,small_message,...]
+ */
+public class FixtureBenchmark
+{
+	static final int[]	SIZES	= { 10, 1000, 100000 };
+
+	static List<Fixture> fixtures()
+	{
+		List<Fixture> fixtures = new ArrayList<Fixture>();
+
+		fixtures.add(new Fixture("graph_root", SimplTypesScope.get("fixtureBenchmarkGraphRoot",
+				GraphRoot.class, GraphNode.class), true, SIZES)
+		{
+			@Override
+			public Object create(int size)
+			{
+				return new GraphRoot(size);
+			}
+		});
+
+		fixtures.add(new Fixture("graph_collections", SimplTypesScope.get(
+				"fixtureBenchmarkGraphCollections", legacy.tests.graph.collections.Container.class,
+				ClassA.class), true, SIZES)
+		{
+			@Override
+			public Object create(int size)
+			{
+				// every other entry repeats its predecessor, so half the elements are simpl:refs
+				ArrayList<ClassA> objects = new ArrayList<ClassA>(size);
+				ClassA previous = null;
+				for (int i = 0; i < size; i++)
+				{
+					if (i % 2 == 1)
+						objects.add(previous);
+					else
+					{
+						previous = new ClassA();
+						previous.setU(i);
+						previous.setW(-i);
+						objects.add(previous);
+					}
+				}
+				legacy.tests.graph.collections.Container container = new legacy.tests.graph.collections.Container();
+				container.setAobjects(objects);
+				return container;
+			}
+		});
+
+		fixtures.add(new Fixture("maps", SimplTypesScope.get("fixtureBenchmarkMaps",
+				TranslationS.class, ClassDes.class, FieldDes.class), false, SIZES)
+		{
+			@Override
+			public Object create(int size)
+			{
+				TranslationS translations = new TranslationS();
+				for (int i = 0; i < size; i++)
+				{
+					ClassDes classDes = new ClassDes("cd" + i);
+					for (int j = 1; j <= 3; j++)
+					{
+						String fieldName = "fd" + j + "_cd" + i;
+						classDes.fieldDescriptorsByTagName.put(fieldName, new FieldDes(fieldName));
+					}
+					translations.entriesByTag.put(classDes.tagName, classDes);
+				}
+				return translations;
+			}
+		});
+
+		fixtures.add(new Fixture("rss", SimplTypesScope.get("fixtureBenchmarkRss", Rss.class,
+				Channel.class, Item.class), false, SIZES)
+		{
+			@Override
+			public Object create(int size)
+			{
+				return Rss.createObject(size);
+			}
+		});
+
+		// items.Container.itemCollection1 resolves its classes through this scope
+		SimplTypesScope.get("itemScope1", ItemBase.class, ItemOne.class, ItemTwo.class);
+		fixtures.add(new Fixture("items", SimplTypesScope.get("fixtureBenchmarkItems",
+				legacy.tests.items.Container.class, ItemBase.class, ItemOne.class, ItemTwo.class,
+				ItemRandom.class), false, SIZES)
+		{
+			@Override
+			public Object create(int size)
+			{
+				return legacy.tests.items.Container.createObject(size);
+			}
+		});
+
+		fixtures.add(new Fixture("inheritance", SimplTypesScope.get("fixtureBenchmarkInheritance",
+				ContainingClass.class, BaseClass.class, ChildClass1.class, ChildClass2.class), false, 1)
+		{
+			@Override
+			public Object create(int size)
+			{
+				return new ContainingClass(new ChildClass1());
+			}
+		});
+
+		fixtures.add(new Fixture("small_message", SimplTypesScope.get("fixtureBenchmarkSmallMessage",
+				Point.class), false, 1)
+		{
+			@Override
+			public Object create(int size)
+			{
+				return new Point(1, 2);
+			}
+		});
+
+		fixtures.add(new Fixture("composite", SimplTypesScope.get("fixtureBenchmarkComposite",
+				legacy.tests.composite.Container.class, WCBase.class, WCSubOne.class, WCSubTwo.class),
+				false, 1)
+		{
+			@Override
+			public Object create(int size)
+			{
+				return new legacy.tests.composite.Container(new WCSubTwo(true));
+			}
+		});
+
+		fixtures.add(new Fixture("bibtex_entry", SimplTypesScope.get("fixtureBenchmarkBibtex",
+				Entry.class), false, 1, 100)
+		{
+			@Override
+			public Object create(int size)
+			{
+				// size is the number of authors and of keywords
+				ArrayList<String> authors = new ArrayList<String>(size);
+				ArrayList<String> keywords = new ArrayList<String>(size);
+				for (int i = 0; i < size; i++)
+				{
+					authors.add("Author" + i);
+					keywords.add("keyword " + i);
+				}
+				Entry entry = new Entry();
+				entry.setCitationKey("Yu:1995:ECK:627296.627650");
+				entry.setAuthors(authors);
+				entry.setTitle("Errata: Comments on Knowledge Representation Using Fuzzy Petri Nets");
+				entry.setJournal("IEEE Trans. on Knowl. and Data Eng.");
+				entry.setVolume(7);
+				entry.setIssue(1);
+				entry.setMonth("February");
+				entry.setYear("1995");
+				entry.setIssn("1041-4347");
+				entry.setPages("190--192");
+				entry.setNumPages("3");
+				entry.setUrl(ParsedURL.getAbsolute("http://portal.acm.org/citation.cfm?id=627296.627650"));
+				entry.setAcmid("627650");
+				entry.setPublisher("IEEE Educational Activities Department");
+				entry.setAddress("Piscataway, NJ, USA");
+				entry.setKeywords(keywords);
+				return entry;
+			}
+		});
+
+		return fixtures;
+	}
+
+	public static void main(String[] args) throws SIMPLTranslationException
+	{
+		List<String> only = new ArrayList<String>();
+		SerializationBenchmark benchmark = SerializationBenchmark.fromArgs(args, only);
+		benchmark.run(fixtures(), only);
+	}
+}
@@ -0,0 +1,52 @@
+package ecologylab.benchmarks;
+
+import ecologylab.serialization.annotations.simpl_composite;
+import ecologylab.serialization.annotations.simpl_scalar;
+
+/**
+ * Node of the graphs built by GraphSerializationBenchmark.
+ */
+public class GraphNode
+{
+	@simpl_scalar
+	int				index;
+
+	@simpl_composite
+	GraphNode	peer;
+
+	public GraphNode()
+	{
+
+	}
+
+	public GraphNode(int index)
+	{
+		this.index = index;
+	}
+
+	public int getIndex()
+	{
+		return index;
+	}
+
+	public GraphNode getPeer()
+	{
+		return peer;
+	}
+
+	/**
+	 * All nodes with the same index are equal(), so a map keyed by hashCode() gets long collision
+	 * chains, while the graph itself is still made of distinct objects.
+	 */
+	@Override
+	public int hashCode()
+	{
+		return index % 16;
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		return obj instanceof GraphNode && ((GraphNode) obj).index == index;
+	}
+}
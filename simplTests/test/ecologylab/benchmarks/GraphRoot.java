@@ -0,0 +1,41 @@
+package ecologylab.benchmarks;
+
+import java.util.ArrayList;
+
+import ecologylab.serialization.annotations.simpl_collection;
+
+/**
+ * Root of the graphs built by GraphSerializationBenchmark: a flat list of nodes, so that even
+ * very large graphs do not recurse deeply.
+ */
+public class GraphRoot
+{
+	@simpl_collection("node")
+	ArrayList<GraphNode>	nodes	= new ArrayList<GraphNode>();
+
+	public GraphRoot()
+	{
+
+	}
+
+	/**
+	 * Every node points to the node with half its index, so half of the nodes are referenced
+	 * through simpl:ref.
+	 * 
+	 * @param size
+	 */
+	public GraphRoot(int size)
+	{
+		for (int i = 0; i < size; i++)
+		{
+			GraphNode node = new GraphNode(i);
+			node.peer = nodes.isEmpty() ? node : nodes.get(i / 2);
+			nodes.add(node);
+		}
+	}
+
+	public ArrayList<GraphNode> getNodes()
+	{
+		return nodes;
+	}
+}
@@ -0,0 +1,95 @@
+package ecologylab.benchmarks;
+
+import java.io.OutputStream;
+
+import ecologylab.serialization.SIMPLTranslationException;
+import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.formatenums.Format;
+import ecologylab.serialization.serializers.FormatSerializer;
+
+/**
+ * Measures the cost per node of serializing object graphs with graph serialization switched on,
+ * i.e. including the TranslationContext bookkeeping for simpl:id and simpl:ref.
+ * <p/>
+ * Usage: GraphSerializationBenchmark [nodes ...]; defaults to 1k, 10k, 100k and 1M nodes.
+ */
+public class GraphSerializationBenchmark
+{
+	static final Format[]	FORMATS			= { Format.XML, Format.JSON, Format.TLV };
+
+	static final int			WARMUP_NODES	= 2000000;
+
+	static final int			MEASURE_NODES	= 4000000;
+
+	/**
+	 * Discards its output, counting the bytes.
+	 */
+	static class CountingOutputStream extends OutputStream
+	{
+		long	count;
+
+		@Override
+		public void write(int b)
+		{
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len)
+		{
+			count += len;
+		}
+	}
+
+	/**
+	 * Serialize root repeatedly, until about nodeBudget nodes have been serialized.
+	 *
+	 * @return nanoseconds per node.
+	 */
+	static double run(GraphRoot root, Format format, int nodeBudget, CountingOutputStream out)
+			throws SIMPLTranslationException
+	{
+		FormatSerializer serializer = FormatSerializer.getSerializer(format);
+		int size = root.nodes.size();
+		int iterations = Math.max(1, nodeBudget / size);
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++)
+			serializer.serialize(root, out);
+		return (System.nanoTime() - start) / ((double) iterations * size);
+	}
+
+	public static void main(String[] args) throws SIMPLTranslationException
+	{
+		int[] sizes = { 1000, 10000, 100000, 1000000 };
+		if (args.length > 0)
+		{
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++)
+				sizes[i] = Integer.parseInt(args[i]);
+		}
+
+		SimplTypesScope.get("graphSerializationBenchmark", GraphRoot.class, GraphNode.class);
+		SimplTypesScope.enableGraphSerialization();
+		try
+		{
+			System.out.println("format\tnodes\tns/node\tbytes/node");
+			for (int size : sizes)
+			{
+				GraphRoot root = new GraphRoot(size);
+				for (Format format : FORMATS)
+				{
+					run(root, format, WARMUP_NODES, new CountingOutputStream());
+					CountingOutputStream out = new CountingOutputStream();
+					double nsPerNode = run(root, format, MEASURE_NODES, out);
+					int iterations = Math.max(1, MEASURE_NODES / size);
+					System.out.printf("%s\t%d\t%.1f\t%.1f%n", format, size, nsPerNode, out.count
+							/ ((double) iterations * size));
+				}
+			}
+		}
+		finally
+		{
+			SimplTypesScope.disableGraphSerialization();
+		}
+	}
+}
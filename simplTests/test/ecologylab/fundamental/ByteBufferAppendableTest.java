@@ -0,0 +1,171 @@
+package ecologylab.fundamental;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import ecologylab.io.ByteBufferAppendable;
+
+public class ByteBufferAppendableTest {
+
+	static final Charset	LATIN1	= Charset.forName("ISO-8859-1");
+
+	static final String		TEXT		= "naïve café 中文 <&>";
+
+	private static byte[] appended(ByteBuffer buffer)
+	{
+		byte[] bytes = new byte[buffer.position()];
+		((ByteBuffer) buffer.duplicate().flip()).get(bytes);
+		return bytes;
+	}
+
+	private static void appendAllWays(ByteBufferAppendable appendable) throws IOException
+	{
+		appendable.append(TEXT);
+		appendable.append(TEXT, 6, 13);
+		for (int i = 0; i < TEXT.length(); i++)
+			appendable.append(TEXT.charAt(i));
+	}
+
+	private static byte[] expected()
+	{
+		// CharsetEncoders, and so String.getBytes(), replace what ISO-8859-1 cannot encode with '?'
+		return (TEXT + TEXT.substring(6, 13) + TEXT).getBytes(LATIN1);
+	}
+
+	@Test
+	public void encodesLikeLatin1CharsetIntoHeapBuffer() throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(100);
+		buffer.position(3);
+		appendAllWays(new ByteBufferAppendable(buffer));
+
+		byte[] bytes = appended(buffer);
+		byte[] expected = expected();
+		assertEquals(3 + expected.length, bytes.length);
+		for (int i = 0; i < expected.length; i++)
+			assertEquals(expected[i], bytes[3 + i]);
+		assertEquals((byte) 0xef, bytes[3 + 2]);
+		assertEquals('?', bytes[3 + 11]);
+	}
+
+	@Test
+	public void encodesLikeLatin1CharsetIntoDirectBuffer() throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocateDirect(100);
+		appendAllWays(new ByteBufferAppendable(buffer));
+
+		assertArrayEquals(expected(), appended(buffer));
+	}
+
+	@Test
+	public void encodesIntoSlicedBuffer() throws IOException
+	{
+		ByteBuffer whole = ByteBuffer.allocate(100);
+		whole.position(10);
+		ByteBuffer slice = whole.slice();
+		appendAllWays(new ByteBufferAppendable(slice));
+
+		assertArrayEquals(expected(), appended(slice));
+		assertEquals(0, whole.get(9));
+		assertEquals('n', whole.get(10));
+	}
+
+	@Test
+	public void appendsNullAsText() throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(10);
+		new ByteBufferAppendable(buffer).append(null);
+
+		assertArrayEquals("null".getBytes(LATIN1), appended(buffer));
+	}
+
+	@Test
+	public void writesBytesUnchanged() throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(10);
+		ByteBufferAppendable appendable = new ByteBufferAppendable(buffer);
+		appendable.write(0xff);
+		appendable.write(new byte[] { 1, 2, 3, 4 }, 1, 2);
+
+		assertArrayEquals(new byte[] { (byte) 0xff, 2, 3 }, appended(buffer));
+	}
+
+	@Test
+	public void throwsWhenCharactersDoNotFit() throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(8);
+		ByteBufferAppendable appendable = new ByteBufferAppendable(buffer);
+		appendable.append("abcde");
+
+		try
+		{
+			appendable.append("fghi");
+			fail("appended past the end of the buffer");
+		}
+		catch (IOException e)
+		{
+			assertEquals(5, buffer.position());
+		}
+
+		appendable.append("fgh");
+		try
+		{
+			appendable.append('i');
+			fail("appended past the end of the buffer");
+		}
+		catch (IOException e)
+		{
+			assertEquals(8, buffer.position());
+		}
+		assertArrayEquals("abcdefgh".getBytes(LATIN1), appended(buffer));
+	}
+
+	@Test
+	public void throwsWhenBytesDoNotFit() throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(4);
+		ByteBufferAppendable appendable = new ByteBufferAppendable(buffer);
+		appendable.write(new byte[] { 1, 2, 3 }, 0, 3);
+
+		try
+		{
+			appendable.write(new byte[] { 4, 5 }, 0, 2);
+			fail("wrote past the end of the buffer");
+		}
+		catch (IOException e)
+		{
+			assertEquals(3, buffer.position());
+		}
+
+		appendable.write(4);
+		try
+		{
+			appendable.write(5);
+			fail("wrote past the end of the buffer");
+		}
+		catch (IOException e)
+		{
+			assertEquals(4, buffer.position());
+		}
+	}
+
+	@Test
+	public void appendsToBufferSetLater() throws IOException
+	{
+		ByteBufferAppendable appendable = new ByteBufferAppendable();
+		ByteBuffer first = ByteBuffer.allocate(10);
+		ByteBuffer second = ByteBuffer.allocate(10);
+
+		appendable.setBuffer(first).append("ab");
+		assertSame(second, appendable.setBuffer(second).getBuffer());
+		appendable.append("cd");
+
+		assertArrayEquals("ab".getBytes(LATIN1), appended(first));
+		assertArrayEquals("cd".getBytes(LATIN1), appended(second));
+	}
+}
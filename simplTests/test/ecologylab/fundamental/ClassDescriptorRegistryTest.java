@@ -0,0 +1,89 @@
+package ecologylab.fundamental;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import ecologylab.benchmarks.GraphNode;
+import ecologylab.benchmarks.GraphRoot;
+import ecologylab.serialization.ClassDescriptor;
+import ecologylab.serialization.FieldDescriptor;
+import ecologylab.serialization.SIMPLTranslationException;
+import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.annotations.simpl_collection;
+import ecologylab.serialization.formatenums.StringFormat;
+
+public class ClassDescriptorRegistryTest {
+
+	@Test
+	public void concurrentLookupsShareOneDescriptor() throws Exception
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try
+		{
+			List<Callable<ClassDescriptor<? extends FieldDescriptor>>> lookups = new ArrayList<Callable<ClassDescriptor<? extends FieldDescriptor>>>();
+			for (int i = 0; i < 32; i++)
+				lookups.add(new Callable<ClassDescriptor<? extends FieldDescriptor>>()
+				{
+					@Override
+					public ClassDescriptor<? extends FieldDescriptor> call()
+					{
+						return ClassDescriptor.getClassDescriptor(RegistryTestRoot.class);
+					}
+				});
+
+			ClassDescriptor<? extends FieldDescriptor> expected = null;
+			for (Future<ClassDescriptor<? extends FieldDescriptor>> future : executor.invokeAll(lookups))
+			{
+				if (expected == null)
+					expected = future.get();
+				assertSame(expected, future.get());
+			}
+			assertNotNull(expected.getFieldDescriptorByFieldName("nodes"));
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void warmUpPreparesScope() throws SIMPLTranslationException
+	{
+		SimplTypesScope scope = SimplTypesScope.get("classDescriptorRegistryTest", GraphRoot.class,
+				GraphNode.class);
+		scope.warmUpClassDescriptors();
+
+		ClassDescriptor<? extends FieldDescriptor> rootDescriptor = ClassDescriptor
+				.getClassDescriptor(GraphRoot.class);
+		assertSame(rootDescriptor, scope.getClassDescriptorByTag("graph_root"));
+		assertSame(ClassDescriptor.getClassDescriptor(GraphNode.class), rootDescriptor
+				.getFieldDescriptorByFieldName("nodes").getElementClassDescriptor());
+
+		SimplTypesScope.enableGraphSerialization();
+		try
+		{
+			String xml = SimplTypesScope.serialize(new GraphRoot(3), StringFormat.XML).toString();
+			GraphRoot result = (GraphRoot) scope.deserialize(xml, StringFormat.XML);
+			assertEquals(3, result.getNodes().size());
+			assertSame(result.getNodes().get(1), result.getNodes().get(2).getPeer());
+		}
+		finally
+		{
+			SimplTypesScope.disableGraphSerialization();
+		}
+	}
+
+	public static class RegistryTestRoot
+	{
+		@simpl_collection("node")
+		ArrayList<GraphNode>	nodes;
+	}
+}
@@ -0,0 +1,132 @@
+package ecologylab.fundamental;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+import ecologylab.serialization.SIMPLTranslationException;
+import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.annotations.simpl_scalar;
+import ecologylab.serialization.formatenums.Format;
+import ecologylab.serialization.formatenums.StringFormat;
+import ecologylab.serialization.serializers.FormatSerializer;
+
+public class DefaultValueElisionTest {
+
+	private static final Format[]					FORMATS		= { Format.XML, Format.JSON, Format.TLV };
+
+	private static final SimplTypesScope	ELIDING		= SimplTypesScope.get(
+																											"defaultValueElisionTest", Reading.class);
+
+	private static final SimplTypesScope	NOT_ELIDING	= SimplTypesScope.get(
+																											"defaultValueKeepingTest", Sample.class);
+
+	static
+	{
+		NOT_ELIDING.setElideDefaultValues(false);
+	}
+
+	private static Object roundtrip(SimplTypesScope scope, Object object, Format format)
+			throws SIMPLTranslationException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		FormatSerializer.getSerializer(format).serialize(object, out);
+		return scope.deserialize(new ByteArrayInputStream(out.toByteArray()), format);
+	}
+
+	@Test
+	public void defaultValuesAreLeftOut() throws SIMPLTranslationException
+	{
+		Reading reading = new Reading();
+		reading.label = "idle";
+		// an Integer holding the default is left out, like an int.
+		reading.boxed = 0;
+		String xml = SimplTypesScope.serialize(reading, StringFormat.XML).toString();
+		assertEquals("<reading label=\"idle\"/>", xml);
+		String json = SimplTypesScope.serialize(reading, StringFormat.JSON).toString();
+		assertEquals("{\"reading\":{\"label\":\"idle\"}}", json);
+	}
+
+	@Test
+	public void primitiveValuesRoundtrip() throws SIMPLTranslationException
+	{
+		Reading reading = new Reading();
+		reading.count = -7;
+		reading.total = Long.MAX_VALUE;
+		reading.mean = 2.5;
+		reading.ratio = 0.25f;
+		reading.valid = true;
+		for (Format format : FORMATS)
+		{
+			Reading result = (Reading) roundtrip(ELIDING, reading, format);
+			assertEquals(format.toString(), -7, result.count);
+			assertEquals(format.toString(), Long.MAX_VALUE, result.total);
+			assertEquals(format.toString(), 2.5, result.mean, 0);
+			assertEquals(format.toString(), 0.25f, result.ratio, 0);
+			assertTrue(format.toString(), result.valid);
+			assertNull(format.toString(), result.label);
+		}
+	}
+
+	@Test
+	public void scopesCanKeepDefaultValues() throws SIMPLTranslationException
+	{
+		assertTrue(ELIDING.elidesDefaultValues());
+		assertFalse(NOT_ELIDING.elidesDefaultValues());
+
+		Sample sample = new Sample();
+		String xml = SimplTypesScope.serialize(sample, StringFormat.XML).toString();
+		// null is still left out.
+		assertEquals("<sample count=\"0\" mean=\"0.0\" valid=\"false\"/>", xml);
+
+		sample.count = 3;
+		for (Format format : FORMATS)
+		{
+			Sample result = (Sample) roundtrip(NOT_ELIDING, sample, format);
+			assertEquals(format.toString(), 3, result.count);
+			assertFalse(format.toString(), result.valid);
+		}
+	}
+
+	public static class Reading
+	{
+		@simpl_scalar
+		int			count;
+
+		@simpl_scalar
+		long		total;
+
+		@simpl_scalar
+		double	mean;
+
+		@simpl_scalar
+		float		ratio;
+
+		@simpl_scalar
+		boolean	valid;
+
+		@simpl_scalar
+		Integer	boxed;
+
+		@simpl_scalar
+		String	label;
+	}
+
+	public static class Sample
+	{
+		@simpl_scalar
+		int			count;
+
+		@simpl_scalar
+		double	mean;
+
+		@simpl_scalar
+		boolean	valid;
+
+		@simpl_scalar
+		String	label;
+	}
+}
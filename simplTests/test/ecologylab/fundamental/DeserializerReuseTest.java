@@ -0,0 +1,96 @@
+package ecologylab.fundamental;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import ecologylab.benchmarks.GraphNode;
+import ecologylab.serialization.SIMPLTranslationException;
+import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.TranslationContext;
+import ecologylab.serialization.deserializers.pullhandlers.PullDeserializer;
+import ecologylab.serialization.formatenums.BinaryFormat;
+import ecologylab.serialization.formatenums.Format;
+import ecologylab.serialization.formatenums.StringFormat;
+
+public class DeserializerReuseTest {
+
+	private SimplTypesScope scope()
+	{
+		return SimplTypesScope.get("deserializerReuseTest", GraphNode.class);
+	}
+
+	@Test
+	public void releasedDeserializerIsReusedOnSameThread() throws Exception
+	{
+		final SimplTypesScope scope = scope();
+		PullDeserializer first = scope.acquireDeserializer(new TranslationContext(), null, Format.XML);
+		scope.releaseDeserializer(first, Format.XML);
+
+		assertSame(first, scope.acquireDeserializer(new TranslationContext(), null, Format.XML));
+		PullDeserializer nested = scope.acquireDeserializer(new TranslationContext(), null, Format.XML);
+		assertNotSame(first, nested);
+		scope.releaseDeserializer(nested, Format.XML);
+		scope.releaseDeserializer(first, Format.XML);
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			PullDeserializer other = executor.submit(new Callable<PullDeserializer>()
+			{
+				@Override
+				public PullDeserializer call() throws SIMPLTranslationException
+				{
+					return scope.acquireDeserializer(new TranslationContext(), null, Format.XML);
+				}
+			}).get();
+			assertNotSame(first, other);
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void reusedDeserializersStartFresh() throws SIMPLTranslationException
+	{
+		SimplTypesScope scope = scope();
+		for (int i = 1; i <= 3; i++)
+		{
+			GraphNode node = new GraphNode(i);
+			String xml = SimplTypesScope.serialize(node, StringFormat.XML).toString();
+			assertEquals(i, ((GraphNode) scope.deserialize(xml, StringFormat.XML)).getIndex());
+
+			String json = SimplTypesScope.serialize(node, StringFormat.JSON).toString();
+			assertEquals(i, ((GraphNode) scope.deserialize(json, StringFormat.JSON)).getIndex());
+
+			ByteArrayOutputStream tlv = new ByteArrayOutputStream();
+			SimplTypesScope.serialize(node, tlv, Format.TLV);
+			assertEquals(i, ((GraphNode) scope.deserialize(tlv.toByteArray(), BinaryFormat.TLV))
+					.getIndex());
+		}
+	}
+
+	@Test
+	public void failedParseDoesNotSpoilReuse() throws SIMPLTranslationException
+	{
+		SimplTypesScope scope = scope();
+		try
+		{
+			scope.deserialize("<graph_node index=\"1\"><peer", StringFormat.XML);
+			fail("truncated XML should not deserialize");
+		}
+		catch (SIMPLTranslationException e)
+		{
+			// expected
+		}
+		GraphNode node = (GraphNode) scope.deserialize("<graph_node index=\"2\"/>", StringFormat.XML);
+		assertEquals(2, node.getIndex());
+	}
+}
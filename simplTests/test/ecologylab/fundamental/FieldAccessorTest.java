@@ -0,0 +1,104 @@
+package ecologylab.fundamental;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import ecologylab.fundamental.simplescalar.SimpleInteger;
+import ecologylab.fundamental.simplescalar.Simpleprimdouble;
+import ecologylab.fundamental.simplescalar.Simpleprimint;
+import ecologylab.fundamental.simplescalar.Simpleprimlong;
+import ecologylab.serialization.ClassDescriptor;
+import ecologylab.serialization.FieldAccessor;
+import ecologylab.serialization.FieldAccessorStrategy;
+import ecologylab.serialization.FieldDescriptor;
+import ecologylab.serialization.MethodHandleFieldAccessor;
+import ecologylab.serialization.ReflectionFieldAccessor;
+import ecologylab.serialization.SIMPLTranslationException;
+import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.formatenums.StringFormat;
+
+public class FieldAccessorTest {
+
+	private FieldDescriptor onlyField(Class<?> lass)
+	{
+		ClassDescriptor<?> cd = ClassDescriptor.getClassDescriptor(lass);
+		return cd.allFieldDescriptors().get(0);
+	}
+
+	private void primitivesRoundtrip(FieldAccessorStrategy strategy) throws IllegalAccessException
+	{
+		Simpleprimint i = new Simpleprimint();
+		FieldAccessor intAccessor = strategy.accessorFor(onlyField(Simpleprimint.class).getField());
+		intAccessor.setInt(i, 42);
+		assertEquals(42, i.getSimpleprimint());
+		assertEquals(42, intAccessor.getInt(i));
+		assertEquals(42, intAccessor.get(i));
+
+		Simpleprimlong l = new Simpleprimlong();
+		FieldAccessor longAccessor = strategy.accessorFor(onlyField(Simpleprimlong.class).getField());
+		longAccessor.setLong(l, Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, longAccessor.getLong(l));
+		assertEquals(Long.MAX_VALUE, longAccessor.get(l));
+
+		Simpleprimdouble d = new Simpleprimdouble();
+		FieldAccessor doubleAccessor = strategy.accessorFor(onlyField(Simpleprimdouble.class).getField());
+		doubleAccessor.set(d, 1.5);
+		assertEquals(1.5, doubleAccessor.getDouble(d), 0.0);
+
+		SimpleInteger boxed = new SimpleInteger();
+		FieldAccessor boxedAccessor = strategy.accessorFor(onlyField(SimpleInteger.class).getField());
+		boxedAccessor.setInt(boxed, 7);
+		assertEquals(Integer.valueOf(7), boxed.getSimpleInteger());
+		assertEquals(7, boxedAccessor.getInt(boxed));
+	}
+
+	@Test
+	public void reflectionAccessorReadsAndWritesPrimitives() throws IllegalAccessException
+	{
+		primitivesRoundtrip(FieldAccessorStrategy.REFLECTION);
+	}
+
+	@Test
+	public void methodHandleAccessorReadsAndWritesPrimitives() throws IllegalAccessException
+	{
+		primitivesRoundtrip(FieldAccessorStrategy.METHOD_HANDLE);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void methodHandleAccessorRejectsWrongValueTypeLikeReflection() throws IllegalAccessException
+	{
+		FieldAccessor accessor = FieldAccessorStrategy.METHOD_HANDLE.accessorFor(onlyField(
+				Simpleprimint.class).getField());
+		accessor.set(new Simpleprimint(), "not an int");
+	}
+
+	@Test
+	public void scopeSwitchesAccessorStrategy() throws SIMPLTranslationException
+	{
+		SimplTypesScope scope = SimplTypesScope.get("fieldAccessorTest", Simpleprimint.class);
+		FieldDescriptor fd = onlyField(Simpleprimint.class);
+
+		scope.setFieldAccessorStrategy(FieldAccessorStrategy.REFLECTION);
+		assertEquals(ReflectionFieldAccessor.class, fd.getAccessor().getClass());
+		roundtrip(scope);
+
+		scope.setFieldAccessorStrategy(FieldAccessorStrategy.METHOD_HANDLE);
+		assertEquals(MethodHandleFieldAccessor.class, fd.getAccessor().getClass());
+		roundtrip(scope);
+
+		scope.setFieldAccessorStrategy(null);
+	}
+
+	private void roundtrip(SimplTypesScope scope) throws SIMPLTranslationException
+	{
+		Simpleprimint i = new Simpleprimint();
+		i.setSimpleprimint(-13);
+		for (StringFormat format : new StringFormat[] { StringFormat.XML, StringFormat.JSON })
+		{
+			String serialized = SimplTypesScope.serialize(i, format).toString();
+			Simpleprimint result = (Simpleprimint) scope.deserialize(serialized, format);
+			assertEquals(-13, result.getSimpleprimint());
+		}
+	}
+}
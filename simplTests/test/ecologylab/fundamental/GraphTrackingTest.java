@@ -0,0 +1,137 @@
+package ecologylab.fundamental;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+import ecologylab.benchmarks.GraphNode;
+import ecologylab.benchmarks.GraphRoot;
+import ecologylab.collections.IdentityIntMap;
+import ecologylab.serialization.SIMPLTranslationException;
+import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.TranslationContext;
+import ecologylab.serialization.formatenums.BinaryFormat;
+import ecologylab.serialization.formatenums.Format;
+import ecologylab.serialization.formatenums.StringFormat;
+
+public class GraphTrackingTest {
+
+	@Test
+	public void identityIntMapComparesByReference()
+	{
+		IdentityIntMap<Object> map = new IdentityIntMap<Object>(2);
+		String a = new String("same");
+		String b = new String("same");
+
+		assertEquals(IdentityIntMap.NOT_FOUND, map.put(a, 1));
+		assertEquals(IdentityIntMap.NOT_FOUND, map.get(b));
+		assertTrue(map.putIfAbsent(b, 2));
+		assertFalse(map.putIfAbsent(b, 3));
+		assertEquals(1, map.get(a));
+		assertEquals(2, map.get(b));
+
+		Object[] many = new Object[1000];
+		for (int i = 0; i < many.length; i++)
+		{
+			many[i] = new Object();
+			map.put(many[i], i);
+		}
+		assertEquals(1002, map.size());
+		for (int i = 0; i < many.length; i++)
+			assertEquals(i, map.get(many[i]));
+
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertFalse(map.containsKey(a));
+		map.put(a, 5);
+		assertEquals(5, map.get(a));
+	}
+
+	@Test
+	public void equalButDistinctObjectsAreNotReferences()
+	{
+		SimplTypesScope.enableGraphSerialization();
+		try
+		{
+			TranslationContext context = new TranslationContext();
+			GraphNode node = new GraphNode(1);
+			GraphNode equalNode = new GraphNode(1);
+			context.resolveGraph(node);
+			context.mapObject(node);
+
+			assertTrue(context.alreadyMarshalled(node));
+			assertFalse(context.alreadyMarshalled(equalNode));
+			assertEquals("1", context.getSimplId(node));
+			assertEquals(2, context.getSimplIdValue(equalNode));
+		}
+		finally
+		{
+			SimplTypesScope.disableGraphSerialization();
+		}
+	}
+
+	@Test
+	public void referencesRoundtrip() throws SIMPLTranslationException
+	{
+		SimplTypesScope scope = SimplTypesScope.get("graphTrackingTest", GraphRoot.class,
+				GraphNode.class);
+		GraphRoot root = new GraphRoot(40);
+
+		SimplTypesScope.enableGraphSerialization();
+		try
+		{
+			String xml = SimplTypesScope.serialize(root, StringFormat.XML).toString();
+			assertPeersRestored((GraphRoot) scope.deserialize(xml, StringFormat.XML));
+
+			String json = SimplTypesScope.serialize(root, StringFormat.JSON).toString();
+			assertPeersRestored((GraphRoot) scope.deserialize(json, StringFormat.JSON));
+
+			ByteArrayOutputStream tlv = new ByteArrayOutputStream();
+			SimplTypesScope.serialize(root, tlv, Format.TLV);
+			assertPeersRestored((GraphRoot) scope.deserialize(tlv.toByteArray(), BinaryFormat.TLV));
+		}
+		finally
+		{
+			SimplTypesScope.disableGraphSerialization();
+		}
+	}
+
+	@Test
+	public void onlyReferencedObjectsGetIds() throws SIMPLTranslationException
+	{
+		SimplTypesScope.get("graphTrackingTest", GraphRoot.class, GraphNode.class);
+		SimplTypesScope.enableGraphSerialization();
+		try
+		{
+			String xml = SimplTypesScope.serialize(new GraphRoot(4), StringFormat.XML).toString();
+			assertEquals("<graph_root" + TranslationContext.SIMPL_NAMESPACE + "><nodes>"
+					+ "<node simpl:id=\"2\"><peer simpl:ref=\"2\"/></node>"
+					+ "<node index=\"1\" simpl:id=\"3\"><peer simpl:ref=\"2\"/></node>"
+					+ "<node index=\"2\"><peer simpl:ref=\"3\"/></node>"
+					+ "<node index=\"3\"><peer simpl:ref=\"3\"/></node>" + "</nodes></graph_root>", xml);
+
+			String json = SimplTypesScope.serialize(new GraphRoot(2), StringFormat.JSON).toString();
+			assertEquals("{\"graph_root\":{\"nodes\":{\"node\":["
+					+ "{\"simpl.id\":\"2\",\"peer\":{\"simpl.ref\":\"2\"}},"
+					+ "{\"index\":\"1\",\"peer\":{\"simpl.ref\":\"2\"}}]}}}", json);
+		}
+		finally
+		{
+			SimplTypesScope.disableGraphSerialization();
+		}
+	}
+
+	private void assertPeersRestored(GraphRoot result)
+	{
+		GraphRoot expected = new GraphRoot(40);
+		assertEquals(expected.getNodes().size(), result.getNodes().size());
+		for (int i = 0; i < result.getNodes().size(); i++)
+		{
+			GraphNode node = result.getNodes().get(i);
+			assertEquals(i, node.getIndex());
+			assertSame(result.getNodes().get(i == 0 ? 0 : i / 2), node.getPeer());
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package ecologylab.fundamental;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import ecologylab.fundamental.log.Entry;
+import ecologylab.fundamental.log.Log;
+import ecologylab.serialization.SIMPLTranslationException;
+import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.SimplTypesScope.GRAPH_SWITCH;
+import ecologylab.serialization.deserializers.pullhandlers.binaryformats.LazyDocument;
+import ecologylab.serialization.formatenums.BinaryFormat;
+import ecologylab.serialization.formatenums.Format;
+
+public class LazyDeserializationTest {
+
+	private static final SimplTypesScope	SCOPE	= SimplTypesScope.get("lazyDeserializationTest",
+			Log.class, Entry.class);
+
+	private static LazyDocument skim(Log log) throws SIMPLTranslationException
+	{
+		return SCOPE.deserializeLazily(ByteBuffer.wrap(log.serialize(Format.TLV)), BinaryFormat.TLV);
+	}
+
+	@Test
+	public void onlyScalarsAreReadUpFront() throws SIMPLTranslationException
+	{
+		Log log = (Log) skim(new Log(100)).root();
+		assertEquals("archive", log.name);
+		assertEquals(100, log.count);
+		assertNull(log.first);
+		assertNull(log.entries);
+		assertNull(log.unwrapped);
+		assertNull(log.byKey);
+		assertNull(log.last);
+	}
+
+	@Test
+	public void fieldsAreMaterializedOnRequest() throws SIMPLTranslationException
+	{
+		LazyDocument document = skim(new Log(100));
+		Log log = (Log) document.root();
+
+		Object first = document.materialize("first");
+		assertSame(log.first, first);
+		assertEquals(-1, log.first.n);
+		assertNull(log.entries);
+
+		Object entries = document.materialize("entries");
+		assertSame(log.entries, entries);
+		assertEquals(100, log.entries.size());
+		assertNull(log.unwrapped);
+
+		document.materialize(document.getRootClassDescriptor().getFieldDescriptorByFieldName(
+				"unwrapped"));
+		assertTrue(document.isMaterialized(document.getRootClassDescriptor()
+				.getFieldDescriptorByFieldName("unwrapped")));
+		assertEquals(100, log.unwrapped.size());
+		for (int i = 0; i < 100; i++)
+			assertEquals(-(i + 1), log.unwrapped.get(i).n);
+
+		// a second time is a no-op.
+		document.materialize("unwrapped");
+		assertEquals(100, log.unwrapped.size());
+
+		assertSame(log, document.materializeAll());
+		assertEquals(100, log.entries.get(99).n);
+		assertEquals(-1, log.first.n);
+		assertEquals(100, log.byKey.size());
+		assertEquals(101, log.last.n);
+	}
+
+	@Test
+	public void referencedFieldsAreMaterializedFirst() throws SIMPLTranslationException
+	{
+		SimplTypesScope.graphSwitch = GRAPH_SWITCH.ON;
+		try
+		{
+			Log original = new Log(10);
+			original.entries.get(5).link = original.first;
+			LazyDocument document = skim(original);
+			Log log = (Log) document.root();
+
+			document.materialize("entries");
+			assertNotNull(log.first);
+			assertSame(log.first, log.entries.get(5).link);
+			assertNull(log.unwrapped);
+		}
+		finally
+		{
+			SimplTypesScope.graphSwitch = GRAPH_SWITCH.OFF;
+		}
+	}
+
+	@Test(expected = SIMPLTranslationException.class)
+	public void unknownFieldsAreRejected() throws SIMPLTranslationException
+	{
+		skim(new Log(1)).materialize("footer");
+	}
+}
@@ -0,0 +1,100 @@
+package ecologylab.fundamental;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ecologylab.fundamental.log.Entry;
+import ecologylab.fundamental.log.Log;
+import ecologylab.serialization.SIMPLTranslationException;
+import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.SimplTypesScope.GRAPH_SWITCH;
+import ecologylab.serialization.formatenums.BinaryFormat;
+import ecologylab.serialization.formatenums.Format;
+
+public class ParallelDeserializationTest {
+
+	private static final SimplTypesScope	SCOPE	= SimplTypesScope.get("parallelDeserializationTest",
+			Log.class, Entry.class);
+
+	private ExecutorService								executor;
+
+	@Before
+	public void startExecutor()
+	{
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void stopExecutor()
+	{
+		executor.shutdown();
+	}
+
+	private void assertDeserializesInOrder(int size) throws SIMPLTranslationException
+	{
+		ByteBuffer buffer = ByteBuffer.wrap(new Log(size).serialize(Format.TLV));
+		Log log = (Log) SCOPE.deserialize(buffer, BinaryFormat.TLV, executor);
+
+		assertFalse(buffer.hasRemaining());
+		assertEquals("archive", log.name);
+		assertEquals(-1, log.first.n);
+		assertEquals(size + 1, log.last.n);
+		assertEquals(size, log.entries.size());
+		assertEquals(size, log.unwrapped.size());
+		assertEquals(size, log.byKey.size());
+		for (int i = 0; i < size; i++)
+		{
+			assertEquals(i + 1, log.entries.get(i).n);
+			assertEquals(-(i + 1), log.unwrapped.get(i).n);
+			assertEquals(i + 1, log.byKey.get("k" + (i + 1)).n);
+		}
+	}
+
+	@Test
+	public void largeCollectionsAndMapsKeepTheirOrder() throws SIMPLTranslationException
+	{
+		assertDeserializesInOrder(5000);
+	}
+
+	@Test
+	public void smallCollectionsAreDeserializedSequentially() throws SIMPLTranslationException
+	{
+		assertDeserializesInOrder(1);
+		assertDeserializesInOrder(40);
+	}
+
+	@Test
+	public void referencesResolveAcrossRanges() throws SIMPLTranslationException
+	{
+		SimplTypesScope.graphSwitch = GRAPH_SWITCH.ON;
+		try
+		{
+			Log log = new Log(2000);
+			for (int i = 1500; i < 1510; i++)
+				log.entries.get(i).link = log.entries.get(10);
+			log.entries.get(1600).link = log.first;
+			log.last.link = log.entries.get(20);
+
+			log = (Log) SCOPE.deserialize(ByteBuffer.wrap(log.serialize(Format.TLV)), BinaryFormat.TLV,
+					executor);
+
+			assertEquals(2000, log.entries.size());
+			for (int i = 1500; i < 1510; i++)
+				assertSame(log.entries.get(10), log.entries.get(i).link);
+			assertSame(log.first, log.entries.get(1600).link);
+			assertSame(log.entries.get(20), log.last.link);
+			assertEquals(1501, log.entries.get(1500).n);
+		}
+		finally
+		{
+			SimplTypesScope.graphSwitch = GRAPH_SWITCH.OFF;
+		}
+	}
+}
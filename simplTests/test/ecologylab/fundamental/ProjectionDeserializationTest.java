@@ -0,0 +1,113 @@
+package ecologylab.fundamental;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+import ecologylab.net.ParsedURL;
+import ecologylab.serialization.ClassDescriptor;
+import ecologylab.serialization.Projection;
+import ecologylab.serialization.SIMPLTranslationException;
+import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.formatenums.Format;
+import ecologylab.serialization.formatenums.StringFormat;
+import ecologylab.serialization.library.rss.Channel;
+import ecologylab.serialization.library.rss.Item;
+import ecologylab.serialization.library.rss.RssState;
+import ecologylab.serialization.library.rss.RssTranslations;
+import ecologylab.serialization.serializers.FormatSerializer;
+
+public class ProjectionDeserializationTest {
+
+	private static final Format[]	FORMATS	= { Format.XML, Format.JSON, Format.TLV };
+
+	private static RssState rss()
+	{
+		Channel channel = new Channel();
+		channel.setTitle("xkcd.com");
+		channel.setDescription("A webcomic");
+		channel.setLink(ParsedURL.getAbsolute("http://xkcd.com/"));
+		for (int i = 1; i <= 20; i++)
+		{
+			Item item = new Item("Comic " + i);
+			item.setDescription("<img src=\"" + i + ".png\"/>");
+			item.setLink(ParsedURL.getAbsolute("http://xkcd.com/" + i + "/"));
+			item.setAuthor("Randall");
+			channel.add(item);
+		}
+		RssState rss = new RssState();
+		rss.setVersion(2.0f);
+		rss.setChannel(channel);
+		return rss;
+	}
+
+	private static RssState deserialize(Format format, Projection projection)
+			throws SIMPLTranslationException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		FormatSerializer.getSerializer(format).serialize(rss(), out);
+		return (RssState) RssTranslations.get().deserialize(
+				new ByteArrayInputStream(out.toByteArray()), format, projection);
+	}
+
+	@Test
+	public void onlyTheFieldsOnThePathAreDeserialized() throws SIMPLTranslationException
+	{
+		Projection projection = new Projection(RssState.class, "channel/item/title");
+		for (Format format : FORMATS)
+		{
+			RssState rss = deserialize(format, projection);
+			assertEquals(format.toString(), 0f, rss.getVersion(), 0f);
+			Channel channel = rss.getChannel();
+			assertNull(format.toString(), channel.getTitle());
+			assertNull(format.toString(), channel.getLink());
+			assertEquals(format.toString(), 20, channel.size());
+			for (int i = 0; i < 20; i++)
+			{
+				Item item = channel.get(i);
+				assertEquals(format.toString(), "Comic " + (i + 1), item.getTitle());
+				assertNull(format.toString(), item.getDescription());
+				assertNull(format.toString(), item.getLink());
+				assertNull(format.toString(), item.getAuthor());
+			}
+		}
+	}
+
+	@Test
+	public void theLastStepOfAPathIsDeserializedWhole() throws SIMPLTranslationException
+	{
+		Projection projection = new Projection(RssState.class, "channel/item", "version");
+		for (Format format : FORMATS)
+		{
+			RssState rss = deserialize(format, projection);
+			assertEquals(format.toString(), 2.0f, rss.getVersion(), 0f);
+			assertNull(format.toString(), rss.getChannel().getDescription());
+			Item item = rss.getChannel().get(19);
+			assertEquals(format.toString(), "Comic 20", item.getTitle());
+			assertEquals(format.toString(), "Randall", item.getAuthor());
+			assertEquals(format.toString(), "http://xkcd.com/20/", item.getLink().toString());
+		}
+	}
+
+	@Test
+	public void fieldDescriptorsProjectTheClassesThatDeclareThem() throws SIMPLTranslationException
+	{
+		ClassDescriptor<?> channel = ClassDescriptor.getClassDescriptor(Channel.class);
+		Projection projection = new Projection(channel.getFieldDescriptorByFieldName("title"));
+
+		String xml = SimplTypesScope.serialize(rss(), StringFormat.XML).toString();
+		RssState rss = (RssState) RssTranslations.get().deserialize(xml, StringFormat.XML, projection);
+		assertEquals(2.0f, rss.getVersion(), 0f);
+		assertEquals("xkcd.com", rss.getChannel().getTitle());
+		assertNull(rss.getChannel().getItems());
+	}
+
+	@Test(expected = SIMPLTranslationException.class)
+	public void unknownStepsAreRejected() throws SIMPLTranslationException
+	{
+		new Projection(RssState.class, "channel/entry/title");
+	}
+}
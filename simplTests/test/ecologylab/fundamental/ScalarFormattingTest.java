@@ -0,0 +1,143 @@
+package ecologylab.fundamental;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import ecologylab.generic.StringTools;
+import ecologylab.serialization.SIMPLTranslationException;
+import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.annotations.simpl_format;
+import ecologylab.serialization.annotations.simpl_scalar;
+import ecologylab.serialization.formatenums.StringFormat;
+import ecologylab.serialization.types.ScalarType;
+import ecologylab.serialization.types.TypeRegistry;
+
+public class ScalarFormattingTest {
+
+	private static final SimplTypesScope	SCOPE	= SimplTypesScope.get("scalarFormattingTest",
+																									Event.class);
+
+	@SuppressWarnings("unchecked")
+	private static final ScalarType<Date>	DATE	= TypeRegistry.getScalarType(Date.class);
+
+	private static Date parse(String value)
+	{
+		return DATE.getInstance(value, null, null);
+	}
+
+	private static long local(int year, int month, int day, int hour, int minute, int second)
+	{
+		Calendar calendar = new GregorianCalendar(year, month - 1, day, hour, minute, second);
+		return calendar.getTimeInMillis();
+	}
+
+	@Test
+	public void iso8601DatesAndTimesAreParsed()
+	{
+		assertEquals(1343913170000L, parse("2012-08-02T13:12:50Z").getTime());
+		assertEquals(1343913170250L, parse("2012-08-02T13:12:50.25Z").getTime());
+		assertEquals(1343913170123L, parse("2012-08-02T13:12:50.123456Z").getTime());
+		assertEquals(1343913170000L, parse("2012-08-02T08:12:50-05:00").getTime());
+		assertEquals(1343913170000L, parse("2012-08-02T15:12:50+0200").getTime());
+		assertEquals(1343913120000L, parse("2012-08-02T14:12+01").getTime());
+		assertEquals(local(2012, 8, 2, 13, 12, 50), parse("2012-08-02T13:12:50").getTime());
+		assertEquals(local(2012, 8, 2, 13, 12, 50), parse("2012-08-02 13:12:50").getTime());
+		assertEquals(local(2012, 2, 29, 0, 0, 0), parse("2012-02-29").getTime());
+	}
+
+	@Test
+	public void epochMillisecondsAndOlderPatternsAreParsed()
+	{
+		assertEquals(1343913170000L, parse("1343913170000").getTime());
+		assertEquals(-1343913170000L, parse("-1343913170000").getTime());
+		assertEquals(local(2012, 8, 2, 0, 0, 0), parse("20120802").getTime());
+		assertEquals(local(2012, 8, 2, 13, 12, 0), parse("2012:08:02 13:12").getTime());
+		assertEquals(local(2012, 8, 2, 0, 0, 0), parse("08/02/2012").getTime());
+
+		Date date = new Date(1343913170000L);
+		assertEquals(date, parse(date.toString()));
+	}
+
+	@Test
+	public void fieldsWithAFormatAreWrittenAndReadInIt() throws SIMPLTranslationException
+	{
+		Event event = new Event();
+		event.when = new Date(local(2012, 8, 2, 0, 0, 0));
+		event.at = new Date(1343913170000L);
+		String xml = SimplTypesScope.serialize(event, StringFormat.XML).toString();
+		assertTrue(xml, xml.contains("when=\"02.08.2012\""));
+
+		Event result = (Event) SCOPE.deserialize(xml, StringFormat.XML);
+		assertEquals(event.when, result.when);
+		assertEquals(event.at, result.at);
+	}
+
+	@Test
+	public void datesParseCorrectlyFromManyThreadsAtOnce() throws Exception
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int t = 0; t < 8; t++)
+			{
+				final int offset = t;
+				results.add(executor.submit(new Callable<Boolean>()
+				{
+					@Override
+					public Boolean call()
+					{
+						for (int i = 0; i < 500; i++)
+						{
+							int day = 1 + (i + offset) % 28;
+							String value = "2012:08:" + (day < 10 ? "0" : "") + day + " 13:12:50";
+							if (parse(value).getTime() != local(2012, 8, day, 13, 12, 50))
+								return false;
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results)
+				assertTrue(result.get());
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void longsAreAppendedDigitByDigit() throws Exception
+	{
+		long[] values = { 0, 7, -7, 10, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE };
+		for (long value : values)
+		{
+			StringWriter writer = new StringWriter();
+			StringTools.append(value, writer);
+			assertEquals(Long.toString(value), writer.toString());
+		}
+	}
+
+	public static class Event
+	{
+		@simpl_scalar
+		@simpl_format("dd.MM.yyyy")
+		Date	when;
+
+		@simpl_scalar
+		Date	at;
+	}
+}
@@ -0,0 +1,98 @@
+package ecologylab.fundamental;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+import ecologylab.serialization.ClassDescriptor;
+import ecologylab.serialization.FieldDescriptor;
+import ecologylab.serialization.SIMPLTranslationException;
+import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.annotations.simpl_composite;
+import ecologylab.serialization.annotations.simpl_inherit;
+import ecologylab.serialization.annotations.simpl_scalar;
+import ecologylab.serialization.formatenums.Format;
+import ecologylab.serialization.formatenums.StringFormat;
+import ecologylab.serialization.serializers.FormatSerializer;
+import ecologylab.serialization.serializers.SerializationPlan;
+
+public class SerializationPlanTest {
+
+	@Test
+	public void plansAreCompiledOncePerClassAndFormat() throws SIMPLTranslationException
+	{
+		ClassDescriptor<? extends FieldDescriptor> descriptor = ClassDescriptor
+				.getClassDescriptor(Holder.class);
+		for (Format format : new Format[] { Format.XML, Format.JSON, Format.TLV })
+		{
+			FormatSerializer.getSerializer(format).serialize(new Holder(new Part()),
+					new ByteArrayOutputStream());
+			SerializationPlan plan = descriptor.getSerializationPlan(format);
+			assertNotNull(format.toString(), plan);
+			assertSame(descriptor, plan.classDescriptor);
+
+			FormatSerializer.getSerializer(format).serialize(new Holder(new Part()),
+					new ByteArrayOutputStream());
+			assertSame(format.toString(), plan, descriptor.getSerializationPlan(format));
+		}
+		assertNotSame(descriptor.getSerializationPlan(Format.XML),
+				descriptor.getSerializationPlan(Format.JSON));
+	}
+
+	@Test
+	public void subclassValuesOfMonomorphicFieldsKeepTheirFields() throws SIMPLTranslationException
+	{
+		SubPart subPart = new SubPart();
+		subPart.size = 3;
+		subPart.color = "red";
+
+		// the field decides the tag; the value's class decides which fields are written
+		assertEquals("<holder><part size=\"3\" color=\"red\"/></holder>",
+				SimplTypesScope.serialize(new Holder(subPart), StringFormat.XML).toString());
+
+		assertEquals("{\"holder\":{\"part\":{\"size\":\"3\",\"color\":\"red\"}}}",
+				SimplTypesScope.serialize(new Holder(subPart), StringFormat.JSON).toString());
+	}
+
+	@Test
+	public void replacingAFieldDescriptorDropsPlans() throws SIMPLTranslationException
+	{
+		ClassDescriptor descriptor = ClassDescriptor.getClassDescriptor(Part.class);
+		SimplTypesScope.serialize(new Part(), StringFormat.XML);
+		assertNotNull(descriptor.getSerializationPlan(Format.XML));
+
+		FieldDescriptor size = descriptor.getFieldDescriptorByFieldName("size");
+		descriptor.replace(size, size);
+		assertNull(descriptor.getSerializationPlan(Format.XML));
+	}
+
+	public static class Holder
+	{
+		@simpl_composite
+		Part	part;
+
+		public Holder()
+		{
+		}
+
+		Holder(Part part)
+		{
+			this.part = part;
+		}
+	}
+
+	public static class Part
+	{
+		@simpl_scalar
+		int	size;
+	}
+
+	@simpl_inherit
+	public static class SubPart extends Part
+	{
+		@simpl_scalar
+		String	color;
+	}
+}
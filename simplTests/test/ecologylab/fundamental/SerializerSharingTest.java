@@ -0,0 +1,69 @@
+package ecologylab.fundamental;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import ecologylab.benchmarks.GraphNode;
+import ecologylab.serialization.SIMPLTranslationException;
+import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.formatenums.BinaryFormat;
+import ecologylab.serialization.formatenums.Format;
+import ecologylab.serialization.formatenums.StringFormat;
+import ecologylab.serialization.serializers.FormatSerializer;
+
+public class SerializerSharingTest {
+
+	@Test
+	public void serializersAreShared() throws SIMPLTranslationException
+	{
+		for (Format format : new Format[] { Format.XML, Format.JSON, Format.TLV, Format.BIBTEX })
+			assertSame(FormatSerializer.getSerializer(format), FormatSerializer.getSerializer(format));
+		for (StringFormat format : new StringFormat[] { StringFormat.XML, StringFormat.JSON,
+				StringFormat.BIBTEX })
+			assertSame(FormatSerializer.getSerializer(Format.valueOf(format.name())),
+					FormatSerializer.getStringSerializer(format));
+		assertSame(FormatSerializer.getBinarySerializer(BinaryFormat.TLV),
+				FormatSerializer.getSerializer(Format.TLV));
+	}
+
+	@Test
+	public void sharedSerializersAreThreadSafe() throws Exception
+	{
+		final SimplTypesScope scope = SimplTypesScope.get("serializerSharingTest", GraphNode.class);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try
+		{
+			List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+			for (int i = 0; i < 64; i++)
+			{
+				final int index = i;
+				tasks.add(new Callable<Integer>()
+				{
+					@Override
+					public Integer call() throws Exception
+					{
+						StringFormat format = index % 2 == 0 ? StringFormat.XML : StringFormat.JSON;
+						String serialized = SimplTypesScope.serialize(new GraphNode(index), format).toString();
+						return ((GraphNode) scope.deserialize(serialized, format)).getIndex();
+					}
+				});
+			}
+
+			int i = 0;
+			for (Future<Integer> result : executor.invokeAll(tasks))
+				assertEquals(i++, result.get().intValue());
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package ecologylab.fundamental;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import ecologylab.fundamental.log.Entry;
+import ecologylab.fundamental.log.Log;
+import ecologylab.serialization.ElementSink;
+import ecologylab.serialization.SIMPLTranslationException;
+import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.formatenums.Format;
+import ecologylab.serialization.formatenums.StringFormat;
+
+public class StreamingDeserializationTest {
+
+	private static final SimplTypesScope	SCOPE	= SimplTypesScope.get("streamingDeserializationTest",
+			Log.class, Entry.class);
+
+	private static class Collector implements ElementSink<Entry>
+	{
+		List<Entry>	entries	= new ArrayList<Entry>();
+
+		@Override
+		public void element(Entry element)
+		{
+			entries.add(element);
+		}
+	}
+
+	@Test
+	public void elementsOfTheRootCollectionGoToTheSink() throws SIMPLTranslationException
+	{
+		for (Format format : new Format[] { Format.XML, Format.JSON, Format.TLV })
+		{
+			Collector collector = new Collector();
+			Log log = (Log) SCOPE.deserialize(new ByteArrayInputStream(new Log(50).serialize(format)),
+					format, "entries", collector);
+
+			assertEquals(format.toString(), "archive", log.name);
+			assertEquals(format.toString(), -1, log.first.n);
+			assertTrue(format.toString(), log.entries == null || log.entries.isEmpty());
+			assertEquals(format.toString(), 50, collector.entries.size());
+			for (int i = 0; i < 50; i++)
+				assertEquals(format.toString(), i + 1, collector.entries.get(i).n);
+		}
+	}
+
+	@Test
+	public void theFirstCollectionIsStreamedByDefault() throws SIMPLTranslationException
+	{
+		Collector collector = new Collector();
+		String xml = SimplTypesScope.serialize(new Log(3), StringFormat.XML).toString();
+		Log log = (Log) SCOPE.deserialize(xml, StringFormat.XML, null, collector);
+		assertEquals("archive", log.name);
+		assertEquals(3, collector.entries.size());
+	}
+
+	@Test
+	public void theSinkCanStopDeserializing() throws SIMPLTranslationException
+	{
+		final List<Entry> seen = new ArrayList<Entry>();
+		String json = SimplTypesScope.serialize(new Log(10), StringFormat.JSON).toString();
+		try
+		{
+			SCOPE.deserialize(json, StringFormat.JSON, "entries", new ElementSink<Entry>()
+			{
+				@Override
+				public void element(Entry element) throws SIMPLTranslationException
+				{
+					seen.add(element);
+					if (seen.size() == 2)
+						throw new SIMPLTranslationException("enough");
+				}
+			});
+			fail();
+		}
+		catch (SIMPLTranslationException e)
+		{
+			assertEquals(2, seen.size());
+		}
+
+		// the deserializer is clean for the next, unstreamed, document
+		Log log = (Log) SCOPE.deserialize(json, StringFormat.JSON);
+		assertEquals(10, log.entries.size());
+	}
+
+	@Test(expected = SIMPLTranslationException.class)
+	public void onlyCollectionsCanBeStreamed() throws SIMPLTranslationException
+	{
+		String xml = SimplTypesScope.serialize(new Log(3), StringFormat.XML).toString();
+		SCOPE.deserialize(xml, StringFormat.XML, "name", new Collector());
+	}
+}
@@ -0,0 +1,73 @@
+package ecologylab.fundamental;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import ecologylab.generic.SymbolTable;
+
+public class SymbolTableTest {
+
+	private SymbolTable<Integer> table()
+	{
+		HashMap<String, Integer> map = new HashMap<String, Integer>();
+		map.put("item", 1);
+		map.put("dc:title", 2);
+		map.put("title", 3);
+		map.put("", 4);
+		return new SymbolTable<Integer>(map);
+	}
+
+	@Test
+	public void findsNamesByString()
+	{
+		SymbolTable<Integer> table = table();
+		assertEquals(4, table.size());
+		assertEquals(Integer.valueOf(1), table.get("item"));
+		assertEquals(Integer.valueOf(1), table.get(new String("item")));
+		assertEquals(Integer.valueOf(2), table.get("dc:title"));
+		assertEquals(Integer.valueOf(4), table.get(""));
+		assertNull(table.get("items"));
+		assertNull(table.get((String) null));
+	}
+
+	@Test
+	public void findsPrefixedNamesWithoutConcatenating()
+	{
+		SymbolTable<Integer> table = table();
+		assertEquals(Integer.valueOf(2), table.get("dc", "title"));
+		assertEquals(Integer.valueOf(3), table.get(null, "title"));
+		assertEquals(Integer.valueOf(3), table.get("", "title"));
+		assertNull(table.get("rss", "title"));
+		assertNull(table.get("dc", "item"));
+
+		String symbol = table.symbol("dc", new String("title"));
+		assertEquals("dc:title", symbol);
+		assertSame("dc:title", symbol);
+		assertNull(table.symbol("dc", "link"));
+	}
+
+	@Test
+	public void findsNamesInCharRanges()
+	{
+		SymbolTable<Integer> table = table();
+		char[] chars = "<dc:title>item</dc:title>".toCharArray();
+		assertEquals(Integer.valueOf(2), table.get(chars, 1, 8));
+		assertEquals(Integer.valueOf(3), table.get(chars, 4, 5));
+		assertEquals(Integer.valueOf(1), table.get(chars, 10, 4));
+		assertNull(table.get(chars, 10, 3));
+		assertSame("title", table.symbol(chars, 4, 5));
+	}
+
+	@Test
+	public void emptyTableFindsNothing()
+	{
+		SymbolTable<Integer> table = new SymbolTable<Integer>(new HashMap<String, Integer>());
+		assertEquals(0, table.size());
+		assertNull(table.get("item"));
+		assertNull(table.get("dc", "title"));
+		assertNull(table.get("item".toCharArray(), 0, 4));
+	}
+}
@@ -0,0 +1,131 @@
+package ecologylab.fundamental;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import legacy.tests.circle.Circle;
+import legacy.tests.circle.Point;
+
+import org.junit.Test;
+
+import ecologylab.serialization.SIMPLTranslationException;
+import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.TranslationContext;
+import ecologylab.serialization.formatenums.BinaryFormat;
+import ecologylab.serialization.formatenums.Format;
+import ecologylab.serialization.serializers.binaryformats.TLVSerializer;
+
+public class TLVPullDeserializerTest {
+
+	private SimplTypesScope circleScope()
+	{
+		return SimplTypesScope.get("tlvPullDeserializerTest", Circle.class, Point.class);
+	}
+
+	private byte[] serialize(Object object) throws SIMPLTranslationException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new TLVSerializer().serialize(object, new DataOutputStream(out), new TranslationContext());
+		return out.toByteArray();
+	}
+
+	@Test
+	public void readsFromDirectBuffer() throws SIMPLTranslationException
+	{
+		byte[] bytes = serialize(new Circle(3, 2, 1));
+		ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+		direct.put(bytes).flip();
+
+		Circle result = (Circle) circleScope().deserialize(direct, BinaryFormat.TLV);
+		assertArrayEquals(bytes, serialize(result));
+		assertFalse("buffer should be positioned after the element", direct.hasRemaining());
+	}
+
+	@Test
+	public void readsConsecutiveElementsFromOneBuffer() throws SIMPLTranslationException
+	{
+		byte[] first = serialize(new Circle(1, 1, 1));
+		byte[] second = serialize(new Circle(2, 2, 2));
+		ByteBuffer buffer = ByteBuffer.allocate(first.length + second.length);
+		buffer.put(first).put(second).flip();
+
+		assertArrayEquals(first, serialize(circleScope().deserialize(buffer, BinaryFormat.TLV)));
+		assertArrayEquals(second, serialize(circleScope().deserialize(buffer, BinaryFormat.TLV)));
+	}
+
+	@Test
+	public void readsFromMappedFile() throws SIMPLTranslationException, IOException
+	{
+		byte[] bytes = serialize(new Circle(9, 8, 7));
+		File file = File.createTempFile("circle", ".tlv");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(bytes);
+		out.close();
+
+		Object result = circleScope().deserialize(file, Format.TLV);
+		assertArrayEquals(bytes, serialize(result));
+	}
+
+	@Test
+	public void skipsUnknownElements() throws SIMPLTranslationException
+	{
+		byte[] bytes = serialize(new Circle(5, 4, 3));
+		ByteBuffer original = ByteBuffer.wrap(bytes);
+		int rootId = original.getInt();
+		int rootLength = original.getInt();
+
+		// same circle, with an element nobody knows about in front of its fields.
+		byte[] unknown = { 1, 2, 3, 4, 5 };
+		ByteBuffer padded = ByteBuffer.allocate(bytes.length + 8 + unknown.length);
+		padded.putInt(rootId).putInt(rootLength + 8 + unknown.length);
+		padded.putInt(0x7ead0000).putInt(unknown.length).put(unknown);
+		padded.put(bytes, 8, rootLength).flip();
+
+		Object result = circleScope().deserialize(padded, BinaryFormat.TLV);
+		assertArrayEquals(bytes, serialize(result));
+	}
+
+	@Test(expected = SIMPLTranslationException.class, timeout = 5000)
+	public void rejectsNegativeLength() throws SIMPLTranslationException
+	{
+		byte[] bytes = serialize(new Circle(3, 2, 1));
+		ByteBuffer original = ByteBuffer.wrap(bytes);
+		int rootId = original.getInt();
+		int rootLength = original.getInt();
+
+		// skipping an unknown element that claims to be -8 bytes long would read its header again
+		ByteBuffer padded = ByteBuffer.allocate(bytes.length + 8);
+		padded.putInt(rootId).putInt(rootLength + 8);
+		padded.putInt(0x7ead0000).putInt(-8);
+		padded.put(bytes, 8, rootLength).flip();
+
+		circleScope().deserialize(padded, BinaryFormat.TLV);
+	}
+
+	@Test(expected = SIMPLTranslationException.class)
+	public void rejectsLengthPastEndOfInput() throws SIMPLTranslationException
+	{
+		byte[] bytes = serialize(new Circle(3, 2, 1));
+		ByteBuffer.wrap(bytes).putInt(4, bytes.length);
+
+		circleScope().deserialize(ByteBuffer.wrap(bytes), BinaryFormat.TLV);
+	}
+
+	@Test
+	public void readsTypesOfInheritedScopes() throws SIMPLTranslationException
+	{
+		SimplTypesScope composed = SimplTypesScope.get("tlvPullDeserializerTestComposed",
+				circleScope(), new Class[0]);
+		byte[] bytes = serialize(new Circle(6, 5, 4));
+
+		Object result = composed.deserialize(ByteBuffer.wrap(bytes), BinaryFormat.TLV);
+		assertArrayEquals(bytes, serialize(result));
+	}
+}
@@ -0,0 +1,121 @@
+package ecologylab.fundamental;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import legacy.tests.circle.Circle;
+import legacy.tests.circle.Point;
+
+import org.junit.Test;
+
+import ecologylab.serialization.SIMPLTranslationException;
+import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.TranslationContext;
+import ecologylab.serialization.formatenums.Format;
+import ecologylab.serialization.serializers.binaryformats.TLVOutputBuffer;
+import ecologylab.serialization.serializers.binaryformats.TLVSerializer;
+
+public class TLVSerializerTest {
+
+	private SimplTypesScope circleScope()
+	{
+		return SimplTypesScope.get("tlvSerializerTest", Circle.class, Point.class);
+	}
+
+	private byte[] serializeToStream(Object object) throws SIMPLTranslationException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new TLVSerializer().serialize(object, new DataOutputStream(out), new TranslationContext());
+		return out.toByteArray();
+	}
+
+	@Test
+	public void lengthsAreBackPatched()
+	{
+		TLVOutputBuffer buffer = new TLVOutputBuffer(8);
+		int outer = buffer.startElement(1);
+		int inner = buffer.startElement(2);
+		buffer.putScalarValue("abc");
+		buffer.endElement(inner);
+		buffer.endElement(outer);
+
+		ByteBuffer bytes = buffer.asReadOnlyByteBuffer();
+		assertEquals(1, bytes.getInt());
+		assertEquals(4 + 4 + 4 + 3, bytes.getInt());
+		assertEquals(2, bytes.getInt());
+		assertEquals(4 + 3, bytes.getInt());
+		assertEquals(3, bytes.getInt());
+		assertEquals('a', bytes.get());
+		assertEquals(2, bytes.remaining());
+	}
+
+	@Test
+	public void insertedElementsExtendEnclosingLengths()
+	{
+		TLVOutputBuffer buffer = new TLVOutputBuffer(8);
+		buffer.trackElements();
+		int outer = buffer.startElement(1);
+		int inner = buffer.startElement(2);
+		buffer.endElement(inner);
+		int sibling = buffer.startElement(3);
+		buffer.putInt(99);
+		buffer.endElement(sibling);
+		buffer.endElement(outer);
+
+		// at the start of outer's body, and of inner's (empty) body.
+		buffer.insertIntElements(new int[] { 8, 16 }, 7, new int[] { 10, 20 }, 2);
+
+		ByteBuffer bytes = buffer.asReadOnlyByteBuffer();
+		assertEquals(1, bytes.getInt());
+		assertEquals(12 + 8 + 12 + 8 + 4, bytes.getInt());
+		assertEquals(7, bytes.getInt());
+		assertEquals(4, bytes.getInt());
+		assertEquals(10, bytes.getInt());
+		assertEquals(2, bytes.getInt());
+		assertEquals(12, bytes.getInt());
+		assertEquals(7, bytes.getInt());
+		assertEquals(4, bytes.getInt());
+		assertEquals(20, bytes.getInt());
+		assertEquals(3, bytes.getInt());
+		assertEquals(4, bytes.getInt());
+		assertEquals(99, bytes.getInt());
+		assertFalse(bytes.hasRemaining());
+	}
+
+	@Test
+	public void channelOutputMatchesStreamOutput() throws SIMPLTranslationException
+	{
+		Circle c = new Circle(3, 2, 1);
+		byte[] fromStream = serializeToStream(c);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new TLVSerializer().serialize(c, Channels.newChannel(out), new TranslationContext());
+
+		assertArrayEquals(fromStream, out.toByteArray());
+	}
+
+	@Test
+	public void roundtripsThroughTLVPullDeserializer() throws SIMPLTranslationException
+	{
+		Circle c = new Circle(5, 7, 11);
+		byte[] bytes = serializeToStream(c);
+
+		Circle result = (Circle) circleScope().deserialize(new ByteArrayInputStream(bytes), Format.TLV);
+		assertArrayEquals(bytes, serializeToStream(result));
+	}
+
+	@Test
+	public void nullCompositeIsSkipped() throws SIMPLTranslationException
+	{
+		Circle c = new Circle(4, null);
+		byte[] bytes = serializeToStream(c);
+
+		Circle result = (Circle) circleScope().deserialize(new ByteArrayInputStream(bytes), Format.TLV);
+		assertArrayEquals(bytes, serializeToStream(result));
+	}
+}
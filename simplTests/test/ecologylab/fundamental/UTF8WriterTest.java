@@ -0,0 +1,78 @@
+package ecologylab.fundamental;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import ecologylab.serialization.SIMPLTranslationException;
+import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.annotations.simpl_scalar;
+import ecologylab.serialization.formatenums.Format;
+import ecologylab.serialization.formatenums.StringFormat;
+import ecologylab.serialization.serializers.stringformats.UTF8Writer;
+
+public class UTF8WriterTest {
+
+	static final Charset	UTF8	= Charset.forName("UTF-8");
+
+	static final String		TEXT	= "naïve café 中文 😀 <&>";
+
+	@Test
+	public void encodesLikeStringGetBytes() throws IOException
+	{
+		StringBuilder expected = new StringBuilder();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// small enough that every kind of character lands on a buffer boundary somewhere
+		UTF8Writer writer = new UTF8Writer(7).open(out);
+		for (int i = 0; i < 50; i++)
+		{
+			writer.append(TEXT);
+			writer.append(TEXT, 3, 12);
+			writer.append(TEXT.charAt(i % TEXT.length()));
+			expected.append(TEXT).append(TEXT, 3, 12).append(TEXT.charAt(i % TEXT.length()));
+		}
+		writer.flush();
+		assertArrayEquals(expected.toString().getBytes(UTF8), out.toByteArray());
+	}
+
+	@Test
+	public void replacesUnpairedSurrogates() throws IOException
+	{
+		String text = "a\ud83db\ude00c\ud83d";
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		UTF8Writer writer = new UTF8Writer().open(Channels.newChannel(out));
+		writer.append(text);
+		writer.flush();
+		assertEquals("a?b?c?", new String(out.toByteArray(), UTF8));
+	}
+
+	@Test
+	public void nonAsciiSurvivesEveryStringFormat() throws SIMPLTranslationException
+	{
+		SimplTypesScope scope = SimplTypesScope.get("utf8WriterTest", Labelled.class);
+		Labelled labelled = new Labelled();
+		// XML escapes chars outside Latin-1 one UTF-16 unit at a time, so stay within the BMP
+		labelled.label = "naïve café 中文 <&>";
+
+		for (StringFormat format : new StringFormat[] { StringFormat.XML, StringFormat.JSON })
+		{
+			String serialized = SimplTypesScope.serialize(labelled, format).toString();
+			assertEquals(labelled.label, ((Labelled) scope.deserialize(serialized, format)).label);
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			SimplTypesScope.serialize(labelled, out, Format.valueOf(format.name()));
+			assertEquals(serialized, new String(out.toByteArray(), UTF8));
+		}
+	}
+
+	public static class Labelled
+	{
+		@simpl_scalar
+		String	label;
+	}
+}
@@ -0,0 +1,159 @@
+package ecologylab.fundamental;
+
+import static org.junit.Assert.*;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+import ecologylab.serialization.SIMPLTranslationException;
+import ecologylab.serialization.deserializers.pullhandlers.stringformats.XMLParser;
+import ecologylab.serialization.deserializers.pullhandlers.stringformats.XMLParserSimpl;
+import ecologylab.serialization.deserializers.pullhandlers.stringformats.XMLParserSun;
+
+public class XMLParserSimplTest {
+
+	private static final String[]	DOCUMENTS	= {
+			"<a/>",
+			"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!-- comment -->\n<a b=\"1\" c='two'>text</a>\n",
+			"<rss version=\"2.0\"><channel><title>x &amp; y &lt;z&gt;</title><item><link>http://e.com/?a=1&amp;b=2</link></item><item/></channel></rss>",
+			"<a xmlns:simpl=\"http://ecologylab.net/research/simplGuide/serialization/index.html\" simpl:id=\"1\"><b simpl:ref=\"1\"/></a>",
+			"<a t=\"&#65;&#x42;&quot;&apos;&#10;&#x1F600;\">&#169;<![CDATA[<raw> & ]]>after</a>",
+			"<a t=\"line1\r\nline2\ttab\">line1\r\nline2\rline3</a>",
+			"<!DOCTYPE a [ <!ELEMENT a (#PCDATA)> ]><a>  <b>  </b>\n\t<c/><?pi data?></a>",
+			"<a><b><c><d>deep</d></c></b></a>",
+			"<dc:a xmlns:dc=\"http://purl.org/dc/elements/1.1/\"><dc:title dc:lang = \"en\" >t</dc:title ></dc:a>",
+	};
+
+	/**
+	 * Events as a string, leaving out the ones the deserializer skips and joining adjacent text, which
+	 * parsers may split differently.
+	 */
+	private static String events(XMLParser parser) throws SIMPLTranslationException
+	{
+		StringBuilder result = new StringBuilder();
+		StringBuilder text = null;
+		for (int event = parser.next(); event != XMLParser.END_DOCUMENT; event = parser.next())
+		{
+			if (event == XMLParser.CHARACTERS)
+			{
+				if (text == null)
+					text = new StringBuilder();
+				text.append(parser.getText());
+				continue;
+			}
+			if (text != null)
+			{
+				result.append("text[").append(text).append("]\n");
+				text = null;
+			}
+			if (event == XMLParser.START_ELEMENT)
+			{
+				result.append("start[").append(parser.getPrefix()).append('|')
+						.append(parser.getLocalName()).append(']');
+				for (int i = 0; i < parser.getAttributeCount(); i++)
+					result.append(" [").append(parser.getAttributePrefix(i)).append('|')
+							.append(parser.getAttributeLocalName(i)).append('=')
+							.append(parser.getAttributeValue(i)).append(']');
+				result.append('\n');
+			}
+			else if (event == XMLParser.END_ELEMENT)
+			{
+				result.append("end[").append(parser.getPrefix()).append('|')
+						.append(parser.getLocalName()).append("]\n");
+			}
+		}
+		return result.toString();
+	}
+
+	private static XMLParser stax(String document) throws XMLStreamException
+	{
+		return new XMLParserSun(XMLInputFactory.newInstance().createXMLStreamReader(
+				new StringReader(document)));
+	}
+
+	@Test
+	public void eventsMatchTheStAXParser() throws Exception
+	{
+		for (String document : DOCUMENTS)
+			assertEquals(document, events(stax(document)), events(new XMLParserSimpl(document)));
+	}
+
+	@Test
+	public void eventsMatchWhenReadingAFewCharsAtATime() throws Exception
+	{
+		for (String document : DOCUMENTS)
+		{
+			XMLParser parser = new XMLParserSimpl(new FilterReader(new StringReader(document))
+			{
+				@Override
+				public int read(char[] cbuf, int off, int len) throws IOException
+				{
+					return super.read(cbuf, off, Math.min(len, 3));
+				}
+			});
+			assertEquals(document, events(stax(document)), events(parser));
+		}
+	}
+
+	@Test
+	public void byteOrderMarkIsSkipped() throws SIMPLTranslationException
+	{
+		assertEquals("start[|a]\nend[|a]\n", events(new XMLParserSimpl("\uFEFF<a/>")));
+	}
+
+	@Test
+	public void namesAreInterned() throws SIMPLTranslationException
+	{
+		XMLParserSimpl parser = new XMLParserSimpl(new StringBuilder("<item><title/></item>"));
+		assertEquals(XMLParser.START_ELEMENT, parser.next());
+		assertSame("item", parser.getLocalName());
+		assertEquals(XMLParser.START_ELEMENT, parser.nextTag());
+		assertSame("title", parser.getLocalName());
+		assertEquals(XMLParser.END_ELEMENT, parser.nextTag());
+		assertSame("title", parser.getLocalName());
+		assertEquals(XMLParser.END_ELEMENT, parser.nextTag());
+		assertSame("item", parser.getLocalName());
+		assertEquals(XMLParser.END_DOCUMENT, parser.next());
+	}
+
+	@Test
+	public void valuesAreAvailableAsSlices() throws SIMPLTranslationException
+	{
+		XMLParserSimpl parser = new XMLParserSimpl("<a n=\"42\" s=\"a&amp;b\">text</a>");
+		assertEquals(XMLParser.START_ELEMENT, parser.next());
+		assertEquals("42", parser.getAttributeValueCharacters(0).toString());
+		CharSequence s = parser.getAttributeValueCharacters(1);
+		assertEquals(3, s.length());
+		assertEquals('&', s.charAt(1));
+		assertEquals("&b", s.subSequence(1, 3).toString());
+
+		assertEquals(XMLParser.CHARACTERS, parser.next());
+		assertEquals("ex", parser.getTextCharacters().subSequence(1, 3).toString());
+		assertFalse(parser.isWhiteSpace());
+	}
+
+	@Test
+	public void malformedDocumentsAreRejected()
+	{
+		String[] malformed = { "<a><b></a>", "<a>", "<a b=1/>", "<a>&nbsp;</a>", "<a>&#xZZ;</a>",
+				"text<a/>", "<a/><b/>", "" };
+		for (String document : malformed)
+		{
+			try
+			{
+				events(new XMLParserSimpl(document));
+				fail(document);
+			}
+			catch (SIMPLTranslationException e)
+			{
+				// expected
+			}
+		}
+	}
+}
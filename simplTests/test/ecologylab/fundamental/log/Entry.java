@@ -0,0 +1,33 @@
+package ecologylab.fundamental.log;
+
+import ecologylab.serialization.annotations.simpl_composite;
+import ecologylab.serialization.annotations.simpl_scalar;
+import ecologylab.serialization.types.element.IMappable;
+
+/**
+ * Element of the collections and map of a Log. link is left null, for tests that make graphs.
+ */
+public class Entry implements IMappable<String>
+{
+	@simpl_scalar
+	public int		n;
+
+	@simpl_composite
+	public Entry	link;
+
+	public Entry()
+	{
+
+	}
+
+	public Entry(int n)
+	{
+		this.n = n;
+	}
+
+	@Override
+	public String key()
+	{
+		return "k" + n;
+	}
+}
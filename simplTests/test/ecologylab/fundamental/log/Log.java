@@ -0,0 +1,85 @@
+package ecologylab.fundamental.log;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import ecologylab.serialization.SIMPLTranslationException;
+import ecologylab.serialization.annotations.simpl_collection;
+import ecologylab.serialization.annotations.simpl_composite;
+import ecologylab.serialization.annotations.simpl_map;
+import ecologylab.serialization.annotations.simpl_nowrap;
+import ecologylab.serialization.annotations.simpl_scalar;
+import ecologylab.serialization.formatenums.Format;
+import ecologylab.serialization.serializers.FormatSerializer;
+
+/**
+ * Root of the documents read by the streaming, parallel and lazy deserialization tests: scalars,
+ * composites before and after the collections, a wrapped and an unwrapped collection, and a map,
+ * so that each kind of field can be deferred or split.
+ */
+public class Log
+{
+	@simpl_scalar
+	public String									name;
+
+	@simpl_scalar
+	public int										count;
+
+	@simpl_composite
+	public Entry									first;
+
+	@simpl_collection("entry")
+	public ArrayList<Entry>				entries;
+
+	@simpl_nowrap
+	@simpl_collection("unwrapped")
+	public ArrayList<Entry>				unwrapped;
+
+	@simpl_map("keyed")
+	public HashMap<String, Entry>	byKey;
+
+	@simpl_composite
+	public Entry									last;
+
+	public Log()
+	{
+
+	}
+
+	/**
+	 * A log named archive, whose first entry is -1 and last is size + 1; entries holds 1 to size,
+	 * unwrapped -1 to -size, and byKey 1 to size again, by key().
+	 * 
+	 * @param size
+	 */
+	public Log(int size)
+	{
+		name = "archive";
+		count = size;
+		first = new Entry(-1);
+		entries = new ArrayList<Entry>();
+		unwrapped = new ArrayList<Entry>();
+		byKey = new HashMap<String, Entry>();
+		for (int i = 1; i <= size; i++)
+		{
+			entries.add(new Entry(i));
+			unwrapped.add(new Entry(-i));
+			Entry entry = new Entry(i);
+			byKey.put(entry.key(), entry);
+		}
+		last = new Entry(size + 1);
+	}
+
+	/**
+	 * @param format
+	 * @return this, serialized in format.
+	 * @throws SIMPLTranslationException
+	 */
+	public byte[] serialize(Format format) throws SIMPLTranslationException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		FormatSerializer.getSerializer(format).serialize(this, out);
+		return out.toByteArray();
+	}
+}
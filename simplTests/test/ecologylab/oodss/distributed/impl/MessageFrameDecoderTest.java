@@ -0,0 +1,256 @@
+package ecologylab.oodss.distributed.impl;
+
+import static org.junit.Assert.*;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ecologylab.oodss.distributed.common.NetworkingConstants;
+
+public class MessageFrameDecoderTest {
+
+	private static final String			HELLO	= "content-length:5\r\nuid:3\r\n\r\nhello";
+
+	private HashMap<String, String>	headers;
+
+	private StringBuilder						startLine;
+
+	private MessageFrameDecoder			decoder;
+
+	@Before
+	public void createDecoder()
+	{
+		headers = new HashMap<String, String>();
+		startLine = new StringBuilder();
+		decoder = new MessageFrameDecoder(1024, headers, startLine);
+	}
+
+	private static ByteBuffer bytes(String text)
+	{
+		return ByteBuffer.wrap(text.getBytes(NetworkingConstants.CHARSET));
+	}
+
+	private String body()
+	{
+		return new String(decoder.bodyArray(), decoder.bodyOffset(), decoder.bodyLength(),
+				NetworkingConstants.CHARSET);
+	}
+
+	/**
+	 * @return the uid and body of each whole message appended so far, consuming them.
+	 */
+	private List<String> frames() throws ProtocolException
+	{
+		List<String> frames = new ArrayList<String>();
+		while (decoder.nextFrame())
+		{
+			frames.add(decoder.uid() + ":" + body());
+			decoder.consumeFrame();
+		}
+		return frames;
+	}
+
+	@Test
+	public void readsMessageAppendedAByteAtATime() throws ProtocolException
+	{
+		ByteBuffer message = bytes(HELLO);
+		for (int i = 0; i < message.limit() - 1; i++)
+		{
+			decoder.append((ByteBuffer) message.duplicate().position(i).limit(i + 1));
+			assertFalse(decoder.nextFrame());
+		}
+		decoder.append((ByteBuffer) message.position(message.limit() - 1));
+
+		assertTrue(decoder.nextFrame());
+		assertEquals(3, decoder.uid());
+		assertEquals("hello", body());
+	}
+
+	@Test
+	public void readsHeaderSplitAnywhere() throws ProtocolException
+	{
+		String stream = HELLO + "content-length:3\r\nuid:4\r\n\r\nbye";
+		for (int split = 1; split < stream.length(); split++)
+		{
+			createDecoder();
+			decoder.append(bytes(stream.substring(0, split)));
+			List<String> frames = frames();
+			decoder.append(bytes(stream.substring(split)));
+			frames.addAll(frames());
+
+			assertEquals("split at " + split, 2, frames.size());
+			assertEquals("3:hello", frames.get(0));
+			assertEquals("4:bye", frames.get(1));
+		}
+	}
+
+	@Test
+	public void readsHeaderSplitInsideBlankLine() throws ProtocolException
+	{
+		decoder.append(bytes("content-length:5\r\nuid:3\r\n\r"));
+		assertFalse(decoder.nextFrame());
+		decoder.append(bytes("\nhel"));
+		assertFalse(decoder.nextFrame());
+		assertEquals(5, decoder.bodyLength());
+		decoder.append(bytes("lo"));
+
+		assertTrue(decoder.nextFrame());
+		assertEquals("hello", body());
+	}
+
+	@Test
+	public void readsSeveralFramesFromOneAppend() throws ProtocolException
+	{
+		decoder.append(bytes(HELLO + "content-length:0\r\nuid:4\r\n\r\n"
+				+ "content-length:3\r\nuid:5\r\n\r\nbye" + "content-len"));
+
+		List<String> frames = frames();
+
+		assertEquals(3, frames.size());
+		assertEquals("3:hello", frames.get(0));
+		assertEquals("4:", frames.get(1));
+		assertEquals("5:bye", frames.get(2));
+
+		decoder.append(bytes("gth:2\r\n\r\nok"));
+		assertEquals("0:ok", frames().get(0));
+	}
+
+	@Test
+	public void readsKeysInAnyCaseAndValuesWithSpaces() throws ProtocolException
+	{
+		decoder.append(bytes("Content-Length:  5 \r\nUID: 12\r\nContent-Encoding: Deflate \r\n\r\nhello"));
+
+		assertTrue(decoder.nextFrame());
+		assertEquals(5, decoder.bodyLength());
+		assertEquals(12, decoder.uid());
+		assertEquals("Deflate", headers.get("content-encoding"));
+		assertFalse(headers.containsKey("content-length"));
+		assertFalse(headers.containsKey("uid"));
+		assertEquals("hello", body());
+
+		decoder.consumeFrame();
+		assertTrue(headers.isEmpty());
+	}
+
+	@Test
+	public void readsHeaderWithoutContentLength() throws ProtocolException
+	{
+		decoder.append(bytes("GET /status HTTP/1.1\r\nHost: localhost\r\n\r\n" + HELLO));
+
+		assertTrue(decoder.nextFrame());
+		assertEquals(0, decoder.bodyLength());
+		assertEquals(0, decoder.uid());
+		assertEquals("GET /status HTTP/1.1", startLine.toString());
+		assertEquals("localhost", headers.get("host"));
+
+		decoder.consumeFrame();
+		assertEquals(0, startLine.length());
+		assertTrue(decoder.nextFrame());
+		assertEquals("hello", body());
+	}
+
+	@Test(expected = ProtocolException.class)
+	public void rejectsOverlongHeader() throws ProtocolException
+	{
+		StringBuilder header = new StringBuilder("content-length:5\r\nx-padding:");
+		while (header.length() <= NetworkingConstants.MAX_HTTP_HEADER_LENGTH)
+			header.append('x');
+		decoder.append(bytes(header.toString()));
+
+		decoder.nextFrame();
+	}
+
+	@Test
+	public void acceptsHeaderUpToMaximumLength() throws ProtocolException
+	{
+		StringBuilder header = new StringBuilder("content-length:5\r\nx-padding:");
+		while (header.length() < NetworkingConstants.MAX_HTTP_HEADER_LENGTH)
+			header.append('x');
+		decoder.append(bytes(header.toString()));
+
+		assertFalse(decoder.nextFrame());
+	}
+
+	@Test(expected = ProtocolException.class)
+	public void rejectsNonNumericContentLength() throws ProtocolException
+	{
+		decoder.append(bytes("content-length:5x\r\n\r\nhello"));
+
+		decoder.nextFrame();
+	}
+
+	@Test(expected = ProtocolException.class)
+	public void rejectsContentLengthBeyondInt() throws ProtocolException
+	{
+		decoder.append(bytes("content-length:3000000000\r\n\r\n"));
+
+		decoder.nextFrame();
+	}
+
+	@Test(expected = ProtocolException.class)
+	public void rejectsContentLengthWithTooManyDigits() throws ProtocolException
+	{
+		decoder.append(bytes("content-length:0000000000000000005\r\n\r\nhello"));
+
+		decoder.nextFrame();
+	}
+
+	@Test(expected = ProtocolException.class)
+	public void rejectsContentLengthAboveMaximum() throws ProtocolException
+	{
+		decoder.append(bytes("content-length:1025\r\n\r\n"));
+
+		decoder.nextFrame();
+	}
+
+	@Test(expected = ProtocolException.class)
+	public void rejectsNegativeUid() throws ProtocolException
+	{
+		decoder.append(bytes("content-length:5\r\nuid:-1\r\n\r\nhello"));
+
+		decoder.nextFrame();
+	}
+
+	@Test
+	public void compactsConsumedBytesBeforeGrowing() throws ProtocolException
+	{
+		StringBuilder first = new StringBuilder("content-length:990\r\n\r\n");
+		for (int i = 0; i < 990; i++)
+			first.append('a');
+		decoder.append(bytes(first + HELLO.substring(0, 10)));
+		byte[] array = decoder.bodyArray();
+
+		assertTrue(decoder.nextFrame());
+		assertEquals(990, decoder.bodyLength());
+		decoder.consumeFrame();
+		assertFalse(decoder.nextFrame());
+		assertEquals(1012, decoder.bodyOffset());
+
+		// 1022 bytes appended; the rest of HELLO only fits once the first message is dropped
+		decoder.append(bytes(HELLO.substring(10)));
+
+		assertSame(array, decoder.bodyArray());
+		assertTrue(decoder.nextFrame());
+		assertEquals(3, decoder.uid());
+		assertEquals("hello", body());
+		assertEquals(HELLO.length() - 5, decoder.bodyOffset());
+	}
+
+	@Test
+	public void growsForMessageLargerThanBuffer() throws ProtocolException
+	{
+		StringBuilder message = new StringBuilder("content-length:1000\r\n\r\n");
+		for (int i = 0; i < 1000; i++)
+			message.append((char) ('a' + i % 26));
+		decoder.append(bytes(message.toString()));
+
+		assertTrue(decoder.nextFrame());
+		assertEquals(message.substring(message.length() - 1000), body());
+	}
+}
@@ -0,0 +1,170 @@
+package ecologylab.oodss.distributed.impl;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ecologylab.collections.Scope;
+import ecologylab.oodss.distributed.client.NIOClient;
+import ecologylab.oodss.distributed.impl.NIOServerIOThread.ReactorAssignment;
+import ecologylab.oodss.distributed.server.DoubleThreadedNIOServer;
+import ecologylab.oodss.distributed.server.clientsessionmanager.BaseSessionManager;
+import ecologylab.oodss.messages.DefaultServicesTranslations;
+import ecologylab.oodss.messages.OkResponse;
+import ecologylab.oodss.messages.RequestMessage;
+import ecologylab.oodss.messages.ResponseMessage;
+import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.annotations.simpl_inherit;
+import ecologylab.serialization.annotations.simpl_scalar;
+import ecologylab.serialization.annotations.simpl_tag;
+
+/**
+ * Runs a server whose I/O is done by two reactors, over loopback, with a few clients.
+ */
+public class NIOServerReactorsTest {
+
+	private static final int																	CLIENTS		= 4;
+
+	/**
+	 * The connection each client's request arrived on, by client.
+	 */
+	static final Map<Integer, SelectionKey>										keys			= new ConcurrentHashMap<Integer, SelectionKey>();
+
+	@simpl_inherit
+	@simpl_tag("where_am_i")
+	public static class WhereAmI extends RequestMessage<Scope>
+	{
+		@simpl_scalar
+		int	client;
+
+		public WhereAmI()
+		{
+		}
+
+		WhereAmI(int client)
+		{
+			this.client = client;
+		}
+
+		@Override
+		public ResponseMessage performService(Scope clientSessionScope)
+		{
+			BaseSessionManager session = (BaseSessionManager) clientSessionScope
+					.get(BaseSessionManager.CLIENT_MANAGER);
+			keys.put(client, session.getSocketKey());
+			return OkResponse.get();
+		}
+	}
+
+	private static final SimplTypesScope	TRANSLATIONS	= SimplTypesScope.get("nioServerReactorsTest",
+																													DefaultServicesTranslations.get(),
+																													WhereAmI.class);
+
+	private int														port;
+
+	private DoubleThreadedNIOServer<Scope>	server;
+
+	private final List<NIOClient>					clients				= new ArrayList<NIOClient>();
+
+	@Before
+	public void startServer() throws Exception
+	{
+		keys.clear();
+
+		ServerSocket probe = new ServerSocket(0);
+		port = probe.getLocalPort();
+		probe.close();
+
+		server = DoubleThreadedNIOServer.getInstance(port, InetAddress.getByName("127.0.0.1"),
+				TRANSLATIONS, new Scope(), 10000, 10000);
+		server.getBackend().useReactors(2, ReactorAssignment.ROUND_ROBIN);
+		server.start();
+	}
+
+	@After
+	public void stopServer()
+	{
+		for (NIOClient client : clients)
+			client.disconnect();
+		server.stop();
+	}
+
+	private void connectClients() throws Exception
+	{
+		for (int i = 0; i < CLIENTS; i++)
+		{
+			NIOClient client = new NIOClient("127.0.0.1", port, TRANSLATIONS, new Scope());
+			assertTrue(client.connect());
+			clients.add(client);
+		}
+	}
+
+	@Test
+	public void spreadsConnectionsOverReactors() throws Exception
+	{
+		connectClients();
+
+		for (int i = 0; i < CLIENTS; i++)
+			assertTrue(clients.get(i).sendMessage(new WhereAmI(i)) instanceof OkResponse);
+
+		NIOServerIOThread acceptor = server.getBackend();
+		Map<NIOServerIOThread, Integer> connections = new HashMap<NIOServerIOThread, Integer>();
+		for (int i = 0; i < CLIENTS; i++)
+		{
+			NIOServerIOThread reactor = acceptor.reactorFor(keys.get(i));
+			assertNotSame(acceptor, reactor);
+			assertSame(reactor.selector, keys.get(i).selector());
+
+			Integer count = connections.get(reactor);
+			connections.put(reactor, count == null ? 1 : count + 1);
+		}
+
+		// round robin, so each reactor took every other connection, and answered its requests
+		assertEquals(2, connections.size());
+		for (int count : connections.values())
+			assertEquals(CLIENTS / 2, count);
+	}
+
+	@Test
+	public void stopsEveryReactor() throws Exception
+	{
+		connectClients();
+		for (int i = 0; i < CLIENTS; i++)
+			clients.get(i).sendMessage(new WhereAmI(i));
+
+		List<Thread> reactorThreads = new ArrayList<Thread>();
+		for (Thread thread : Thread.getAllStackTraces().keySet())
+		{
+			if (thread.getName().startsWith("NIOServer reactor ")
+					&& thread.getName().endsWith(" running on port " + port))
+				reactorThreads.add(thread);
+		}
+		assertEquals(2, reactorThreads.size());
+
+		// while the server can still answer their disconnect requests
+		for (NIOClient client : clients)
+			client.disconnect();
+		clients.clear();
+
+		server.stop();
+
+		for (SelectionKey key : keys.values())
+			assertFalse(key.selector().isOpen());
+		for (Thread thread : reactorThreads)
+		{
+			thread.join(5000);
+			assertFalse(thread.getName(), thread.isAlive());
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package ecologylab.oodss.distributed.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ecologylab.collections.Scope;
+import ecologylab.oodss.distributed.impl.WriteQueueTest.TrickleChannel;
+import ecologylab.oodss.distributed.server.clientsessionmanager.ClientSessionManager;
+import ecologylab.oodss.messages.DefaultServicesTranslations;
+import ecologylab.oodss.messages.UpdateMessage;
+import ecologylab.serialization.annotations.simpl_inherit;
+import ecologylab.serialization.annotations.simpl_scalar;
+import ecologylab.serialization.annotations.simpl_tag;
+
+/**
+ * Sends updates through TCPClientSessionManager.sendUpdateToClient() to a client that only reads
+ * when the test lets it, to check that setUpdateWatermarks() holds them back and lets them through.
+ */
+public class UpdateWatermarksTest {
+
+	@simpl_inherit
+	@simpl_tag("ping")
+	public static class Ping extends UpdateMessage<Scope>
+	{
+		@simpl_scalar
+		String	text	= "ping";
+	}
+
+	/**
+	 * A server that queues what is written to its one connection, and only writes it when drain() is
+	 * called.
+	 */
+	static class QueueingServer extends NIOServerIOThread
+	{
+		final WriteQueue			queue		= new WriteQueue();
+
+		final TrickleChannel	client	= new TrickleChannel(0);
+
+		QueueingServer() throws IOException
+		{
+			super(0, new InetAddress[0], null, DefaultServicesTranslations.get(), new Scope(), 10000,
+					1024);
+		}
+
+		@Override
+		public void enqueueBytesForWriting(SelectionKey socketKey, ByteBuffer data, int start)
+		{
+			data.limit(data.position());
+			data.position(start);
+			queue.offer(data, byteBufferPool);
+		}
+
+		@Override
+		public long pendingWriteBytes(SelectionKey socketKey)
+		{
+			return queue.queuedBytes();
+		}
+
+		@Override
+		public boolean awaitPendingWriteBytesAtMost(SelectionKey socketKey, long bytes,
+				long timeoutMillis)
+		{
+			return queue.awaitQueuedBytesAtMost(bytes, timeoutMillis);
+		}
+
+		void drain(int bytes) throws IOException
+		{
+			client.bytesPerWrite = bytes;
+			queue.write(client, byteBufferPool);
+		}
+	}
+
+	private QueueingServer												server;
+
+	private Selector															selector;
+
+	private SocketChannel													channel;
+
+	private ClientSessionManager<Scope, Scope>	session;
+
+	/**
+	 * The number of bytes one Ping takes on the wire.
+	 */
+	private long																	updateBytes;
+
+	@Before
+	public void createSession() throws IOException
+	{
+		server = new QueueingServer();
+		selector = Selector.open();
+		channel = SocketChannel.open();
+		channel.configureBlocking(false);
+		session = new ClientSessionManager<Scope, Scope>("session", 1024, server, null, channel
+				.register(selector, 0), server.translationScope, new Scope());
+
+		session.sendUpdateToClient(new Ping());
+		updateBytes = server.pendingWriteBytes(null);
+		server.drain(Integer.MAX_VALUE);
+	}
+
+	@After
+	public void closeChannel() throws IOException
+	{
+		channel.close();
+		selector.close();
+	}
+
+	private void sendUpdates(int count)
+	{
+		for (int i = 0; i < count; i++)
+			session.sendUpdateToClient(new Ping());
+	}
+
+	@Test
+	public void neverHoldsUpdatesBackByDefault()
+	{
+		sendUpdates(50);
+
+		assertEquals(0, session.getDroppedUpdateCount());
+		assertEquals(50 * updateBytes, server.pendingWriteBytes(null));
+	}
+
+	@Test
+	public void holdsUpdatesBackFromHighUntilLowWatermark() throws IOException
+	{
+		session.setUpdateWatermarks((int) (2 * updateBytes), (int) (4 * updateBytes), 0);
+
+		sendUpdates(6);
+		assertEquals(2, session.getDroppedUpdateCount());
+		assertEquals(4 * updateBytes, server.pendingWriteBytes(null));
+
+		// still above the low watermark
+		server.drain((int) updateBytes);
+		sendUpdates(1);
+		assertEquals(3, session.getDroppedUpdateCount());
+		assertEquals(3 * updateBytes, server.pendingWriteBytes(null));
+
+		server.drain((int) updateBytes);
+		sendUpdates(2);
+		assertEquals(3, session.getDroppedUpdateCount());
+		assertEquals(4 * updateBytes, server.pendingWriteBytes(null));
+	}
+
+	@Test
+	public void waitsForClientToCatchUp() throws Exception
+	{
+		session.setUpdateWatermarks((int) updateBytes, (int) (2 * updateBytes), 5000);
+		sendUpdates(2);
+
+		Thread reader = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					Thread.sleep(50);
+					server.drain(Integer.MAX_VALUE);
+				}
+				catch (Exception e)
+				{
+					e.printStackTrace();
+				}
+			}
+		};
+		reader.start();
+
+		sendUpdates(1);
+		reader.join();
+
+		assertEquals(0, session.getDroppedUpdateCount());
+		assertEquals(updateBytes, server.pendingWriteBytes(null));
+	}
+
+	@Test
+	public void dropsUpdateOnceWaitRunsOut()
+	{
+		session.setUpdateWatermarks((int) updateBytes, (int) (2 * updateBytes), 20);
+
+		sendUpdates(3);
+
+		assertEquals(1, session.getDroppedUpdateCount());
+		assertEquals(2 * updateBytes, server.pendingWriteBytes(null));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsLowWatermarkAboveHigh()
+	{
+		session.setUpdateWatermarks(200, 100, 0);
+	}
+}
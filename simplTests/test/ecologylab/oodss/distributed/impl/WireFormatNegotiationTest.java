@@ -0,0 +1,275 @@
+package ecologylab.oodss.distributed.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.Inflater;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ecologylab.collections.Scope;
+import ecologylab.oodss.distributed.common.NetworkingConstants;
+import ecologylab.oodss.distributed.impl.UpdateWatermarksTest.QueueingServer;
+import ecologylab.oodss.distributed.server.clientsessionmanager.ClientSessionManager;
+import ecologylab.oodss.messages.DefaultServicesTranslations;
+import ecologylab.oodss.messages.InitConnectionRequest;
+import ecologylab.oodss.messages.InitConnectionResponse;
+import ecologylab.oodss.messages.OkResponse;
+import ecologylab.oodss.messages.RequestMessage;
+import ecologylab.oodss.messages.ResponseMessage;
+import ecologylab.serialization.SimplTypesScope;
+import ecologylab.serialization.annotations.simpl_inherit;
+import ecologylab.serialization.annotations.simpl_scalar;
+import ecologylab.serialization.annotations.simpl_tag;
+import ecologylab.serialization.formatenums.Format;
+import ecologylab.serialization.formatenums.StringFormat;
+import ecologylab.serialization.serializers.FormatSerializer;
+
+/**
+ * Has a session negotiate its wire format with an InitConnectionRequest, the way NIOClient does,
+ * then reads what the session writes back.
+ */
+public class WireFormatNegotiationTest {
+
+	@simpl_inherit
+	@simpl_tag("echo")
+	public static class Echo extends RequestMessage<Scope>
+	{
+		@simpl_scalar
+		String	text;
+
+		public Echo()
+		{
+		}
+
+		Echo(String text)
+		{
+			this.text = text;
+		}
+
+		@Override
+		public ResponseMessage performService(Scope clientSessionScope)
+		{
+			return OkResponse.get();
+		}
+	}
+
+	private static final SimplTypesScope	TRANSLATIONS	= SimplTypesScope.get(
+																													"wireFormatNegotiationTest",
+																													DefaultServicesTranslations.get(),
+																													Echo.class);
+
+	private QueueingServer								server;
+
+	private Selector											selector;
+
+	private SocketChannel									channel;
+
+	private ClientSessionManager<Scope, Scope>	session;
+
+	private HashMap<String, String>				headers;
+
+	/**
+	 * Splits what the session writes into messages, as NIOClient would.
+	 */
+	private MessageFrameDecoder						responses;
+
+	/**
+	 * The bytes the session wrote in answer to the last message it received.
+	 */
+	private byte[]												written;
+
+	@Before
+	public void createSession() throws IOException
+	{
+		server = new QueueingServer();
+		selector = Selector.open();
+		channel = SocketChannel.open();
+		channel.configureBlocking(false);
+		session = new ClientSessionManager<Scope, Scope>("session", 4096, server, null, channel
+				.register(selector, 0), TRANSLATIONS, new Scope());
+
+		headers = new HashMap<String, String>();
+		responses = new MessageFrameDecoder(4096, headers, new StringBuilder());
+	}
+
+	@After
+	public void closeChannel() throws IOException
+	{
+		channel.close();
+		selector.close();
+	}
+
+	private static byte[] serialize(Object message, Format format) throws Exception
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		FormatSerializer.getSerializer(format).serialize(message, out);
+		return out.toByteArray();
+	}
+
+	private void receiveText(String extraHeaders, long uid, byte[] body) throws Exception
+	{
+		ByteArrayOutputStream message = new ByteArrayOutputStream();
+		message.write(("content-length:" + body.length + "\r\nuid:" + uid + "\r\n" + extraHeaders
+				+ "\r\n").getBytes(NetworkingConstants.CHARSET));
+		message.write(body);
+		receive(message.toByteArray());
+	}
+
+	private void receiveBinary(long uid, byte[] body) throws Exception
+	{
+		ByteBuffer message = ByteBuffer.allocate(NetworkingConstants.BINARY_FRAME_HEADER_LENGTH
+				+ body.length);
+		message.putInt(body.length).putLong(uid).put((byte) 0).put(body);
+		receive(message.array());
+	}
+
+	private void receive(byte[] message) throws Exception
+	{
+		session.processIncomingBytesToQueue(ByteBuffer.wrap(message));
+		session.processAllMessagesAndSendResponses();
+		server.drain(Integer.MAX_VALUE);
+		written = server.client.received.toByteArray();
+		server.client.received.reset();
+		responses.append(ByteBuffer.wrap(written));
+	}
+
+	/**
+	 * @return the body of the next message the session wrote, inflated if it was deflated.
+	 */
+	private byte[] nextResponseBody() throws Exception
+	{
+		assertTrue(responses.nextFrame());
+		int offset = responses.bodyOffset();
+		byte[] body = Arrays.copyOfRange(responses.bodyArray(), offset, offset
+				+ responses.bodyLength());
+		if (!responses.deflated() && !"deflate".equals(headers.get("content-encoding")))
+			return body;
+
+		Inflater inflater = new Inflater();
+		inflater.setInput(body);
+		byte[] inflated = new byte[4096];
+		int length = inflater.inflate(inflated);
+		assertTrue(inflater.finished());
+		return Arrays.copyOf(inflated, length);
+	}
+
+	private Object deserialize(byte[] body, Format format) throws Exception
+	{
+		return TRANSLATIONS.deserialize(new ByteArrayInputStream(body), format,
+				NetworkingConstants.CHARSET);
+	}
+
+	private InitConnectionResponse negotiate(String extraHeaders, Format... wireFormats)
+			throws Exception
+	{
+		InitConnectionRequest request = new InitConnectionRequest();
+		request.setWireFormats(wireFormats);
+		receiveText(extraHeaders, 1, serialize(request, Format.XML));
+
+		return (InitConnectionResponse) deserialize(nextResponseBody(), Format.XML);
+	}
+
+	@Test
+	public void requestRoundTripsWireFormats() throws Exception
+	{
+		InitConnectionRequest request = new InitConnectionRequest();
+		request.setWireFormats(Format.TLV, Format.JSON);
+
+		String xml = SimplTypesScope.serialize(request, StringFormat.XML).toString();
+		InitConnectionRequest read = (InitConnectionRequest) TRANSLATIONS.deserialize(xml,
+				StringFormat.XML);
+
+		assertArrayEquals(new Format[] { Format.TLV, Format.JSON }, read.getWireFormats());
+	}
+
+	@Test
+	public void requestLeavesOutFormatsItDoesNotKnow() throws Exception
+	{
+		InitConnectionRequest read = (InitConnectionRequest) TRANSLATIONS.deserialize(
+				"<init_connection_request wire_formats=\"protobuf,json\"/>", StringFormat.XML);
+
+		assertArrayEquals(new Format[] { Format.JSON }, read.getWireFormats());
+	}
+
+	@Test
+	public void sessionPicksFirstFormatItSupports() throws Exception
+	{
+		InitConnectionResponse response = negotiate("", Format.TLV, Format.JSON);
+
+		assertEquals(Format.TLV, response.getWireFormat());
+		assertEquals(Format.TLV, session.getWireFormat());
+		assertEquals(1, responses.uid());
+	}
+
+	@Test
+	public void sessionPicksJsonWhenPreferred() throws Exception
+	{
+		InitConnectionResponse response = negotiate("", Format.JSON, Format.TLV);
+
+		assertEquals(Format.JSON, response.getWireFormat());
+		assertEquals(Format.JSON, session.getWireFormat());
+	}
+
+	@Test
+	public void sessionStaysOnXmlForClientWithoutWireFormats() throws Exception
+	{
+		receiveText("", 1, "<init_connection_request/>".getBytes(NetworkingConstants.CHARSET));
+
+		byte[] body = nextResponseBody();
+		assertFalse(new String(body, NetworkingConstants.CHARSET).contains("wire_format"));
+		assertEquals(Format.XML, ((InitConnectionResponse) deserialize(body, Format.XML))
+				.getWireFormat());
+		assertEquals(Format.XML, session.getWireFormat());
+		responses.consumeFrame();
+
+		// and the next message is framed by a text header too
+		receiveText("", 2, serialize(new Echo("hi"), Format.XML));
+		assertTrue(nextResponseBody().length > 0);
+		assertEquals(2, responses.uid());
+	}
+
+	@Test
+	public void serverWritesBinaryFrameOnceNegotiated() throws Exception
+	{
+		negotiate("", Format.TLV);
+		responses.consumeFrame();
+		responses.setBinaryFrames(true);
+
+		receiveBinary(2, serialize(new Echo("hi"), Format.TLV));
+
+		byte[] body = nextResponseBody();
+		assertEquals(NetworkingConstants.BINARY_FRAME_HEADER_LENGTH + body.length, written.length);
+		assertEquals(body.length, responses.bodyLength());
+		assertEquals(2, responses.uid());
+		assertFalse(responses.deflated());
+		assertTrue(deserialize(body, Format.TLV) instanceof OkResponse);
+	}
+
+	@Test
+	public void serverFlagsDeflatedBinaryFrame() throws Exception
+	{
+		negotiate("accept-encoding:deflate\r\n", Format.TLV);
+		assertEquals("deflate", headers.get("content-encoding"));
+		responses.consumeFrame();
+		responses.setBinaryFrames(true);
+
+		receiveBinary(7, serialize(new Echo("hi"), Format.TLV));
+
+		byte[] body = nextResponseBody();
+		assertEquals(NetworkingConstants.BINARY_FRAME_HEADER_LENGTH + responses.bodyLength(),
+				written.length);
+		assertEquals(7, responses.uid());
+		assertTrue(responses.deflated());
+		assertTrue(deserialize(body, Format.TLV) instanceof OkResponse);
+	}
+}
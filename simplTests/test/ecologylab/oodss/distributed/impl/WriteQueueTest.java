@@ -0,0 +1,252 @@
+package ecologylab.oodss.distributed.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ecologylab.io.ByteBufferPool;
+
+public class WriteQueueTest {
+
+	/**
+	 * A channel whose socket buffer only has room for a few bytes at a time, like one writing to a
+	 * slow client.
+	 */
+	static class TrickleChannel implements GatheringByteChannel
+	{
+		final ByteArrayOutputStream	received				= new ByteArrayOutputStream();
+
+		int													bytesPerWrite;
+
+		int													writes					= 0;
+
+		int													mostGathered		= 0;
+
+		TrickleChannel(int bytesPerWrite)
+		{
+			this.bytesPerWrite = bytesPerWrite;
+		}
+
+		@Override
+		public long write(ByteBuffer[] srcs, int offset, int length)
+		{
+			writes++;
+			mostGathered = Math.max(mostGathered, length);
+
+			int room = bytesPerWrite;
+			long written = 0;
+			for (int i = offset; i < offset + length && room > 0; i++)
+			{
+				while (room > 0 && srcs[i].hasRemaining())
+				{
+					received.write(srcs[i].get());
+					room--;
+					written++;
+				}
+			}
+			return written;
+		}
+
+		@Override
+		public long write(ByteBuffer[] srcs)
+		{
+			return write(srcs, 0, srcs.length);
+		}
+
+		@Override
+		public int write(ByteBuffer src)
+		{
+			return (int) write(new ByteBuffer[] { src }, 0, 1);
+		}
+
+		@Override
+		public boolean isOpen()
+		{
+			return true;
+		}
+
+		@Override
+		public void close()
+		{
+		}
+
+		String receivedString() throws IOException
+		{
+			return received.toString("ISO-8859-1");
+		}
+	}
+
+	private ByteBufferPool	pool;
+
+	private WriteQueue			queue;
+
+	@Before
+	public void createQueue()
+	{
+		pool = new ByteBufferPool(4, 4, 64);
+		queue = new WriteQueue();
+	}
+
+	private ByteBuffer offer(String text) throws IOException
+	{
+		ByteBuffer buffer = pool.acquire();
+		buffer.put(text.getBytes("ISO-8859-1"));
+		buffer.flip();
+		queue.offer(buffer, pool);
+		return buffer;
+	}
+
+	@Test
+	public void keepsWhatChannelWillNotTakeQueuedInOrder() throws IOException
+	{
+		ByteBuffer first = offer("abcdef");
+		ByteBuffer second = offer("ghij");
+		ByteBuffer third = offer("klm");
+		assertEquals(13, queue.queuedBytes());
+
+		TrickleChannel channel = new TrickleChannel(4);
+
+		assertFalse(queue.write(channel, pool));
+		assertEquals("abcd", channel.receivedString());
+		assertEquals(9, queue.queuedBytes());
+		assertEquals(2, first.remaining());
+
+		assertFalse(queue.write(channel, pool));
+		assertEquals("abcdefgh", channel.receivedString());
+		assertEquals(5, queue.queuedBytes());
+		assertFalse(first.hasRemaining());
+		assertEquals(2, second.remaining());
+		assertEquals(3, third.remaining());
+
+		channel.bytesPerWrite = 0;
+		assertFalse(queue.write(channel, pool));
+		assertEquals(5, queue.queuedBytes());
+		assertFalse(queue.isEmpty());
+
+		channel.bytesPerWrite = 4;
+		assertFalse(queue.write(channel, pool));
+		assertEquals(1, queue.queuedBytes());
+
+		assertTrue(queue.write(channel, pool));
+		assertEquals("abcdefghijklm", channel.receivedString());
+		assertEquals(0, queue.queuedBytes());
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void releasesBuffersOnceWritten() throws IOException
+	{
+		int free = pool.getPoolSize();
+		offer("abc");
+		offer("def");
+		assertEquals(free - 2, pool.getPoolSize());
+
+		TrickleChannel channel = new TrickleChannel(4);
+		queue.write(channel, pool);
+		assertEquals(free - 1, pool.getPoolSize());
+
+		queue.write(channel, pool);
+		assertEquals(free, pool.getPoolSize());
+	}
+
+	@Test
+	public void gathersManyBuffersIntoEachWrite() throws IOException
+	{
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 40; i++)
+		{
+			offer("#" + i);
+			expected.append("#" + i);
+		}
+
+		TrickleChannel channel = new TrickleChannel(Integer.MAX_VALUE);
+		assertTrue(queue.write(channel, pool));
+
+		assertEquals(expected.toString(), channel.receivedString());
+		assertEquals(16, channel.mostGathered);
+		assertEquals(3, channel.writes);
+		assertEquals(0, queue.queuedBytes());
+	}
+
+	@Test
+	public void awaitsQueueShrinking() throws Exception
+	{
+		offer("abcdefgh");
+		final TrickleChannel channel = new TrickleChannel(2);
+
+		assertFalse(queue.awaitQueuedBytesAtMost(4, 10));
+
+		Thread writer = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					while (!queue.write(channel, pool))
+						Thread.sleep(5);
+				}
+				catch (Exception e)
+				{
+					e.printStackTrace();
+				}
+			}
+		};
+		writer.start();
+
+		assertTrue(queue.awaitQueuedBytesAtMost(4, 5000));
+		assertTrue(queue.queuedBytes() <= 4);
+		assertTrue(queue.awaitQueuedBytesAtMost(0, 5000));
+		writer.join();
+		assertEquals("abcdefgh", channel.receivedString());
+	}
+
+	@Test
+	public void closeWakesWaiterAndDiscardsQueue() throws Exception
+	{
+		int free = pool.getPoolSize();
+		offer("abcdefgh");
+
+		final AtomicBoolean result = new AtomicBoolean(true);
+		Thread waiter = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				result.set(queue.awaitQueuedBytesAtMost(0, 60000));
+			}
+		};
+		waiter.start();
+		Thread.sleep(50);
+
+		long closedAt = System.currentTimeMillis();
+		queue.close(pool);
+		waiter.join(5000);
+
+		assertFalse(waiter.isAlive());
+		assertTrue(System.currentTimeMillis() - closedAt < 5000);
+		assertFalse(result.get());
+		assertEquals(0, queue.queuedBytes());
+		assertEquals(free, pool.getPoolSize());
+	}
+
+	@Test
+	public void releasesWhatIsOfferedOnceClosed() throws IOException
+	{
+		int free = pool.getPoolSize();
+		queue.close(pool);
+
+		offer("abc");
+
+		assertTrue(queue.isEmpty());
+		assertEquals(0, queue.queuedBytes());
+		assertEquals(free, pool.getPoolSize());
+	}
+}
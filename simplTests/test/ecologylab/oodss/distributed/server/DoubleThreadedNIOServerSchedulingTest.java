@@ -0,0 +1,260 @@
+package ecologylab.oodss.distributed.server;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ecologylab.collections.Scope;
+import ecologylab.oodss.distributed.impl.MessageWithMetadata;
+import ecologylab.oodss.distributed.server.clientsessionmanager.ClientSessionManager;
+import ecologylab.oodss.messages.DefaultServicesTranslations;
+import ecologylab.oodss.messages.RequestMessage;
+
+/**
+ * Drives DoubleThreadedNIOServer's schedule() / processSession() handoff the way processRead() does,
+ * one reading thread per session, with sessions that only record the order their requests are
+ * performed in.
+ */
+public class DoubleThreadedNIOServerSchedulingTest {
+
+	private static final int	SESSIONS	= 4;
+
+	private static final int	BURSTS		= 100;
+
+	private static final int	BURST			= 10;
+
+	private static final int	REQUESTS	= BURSTS * BURST;
+
+	/**
+	 * A session whose requests are just numbers; performing one records it.
+	 */
+	static class RecordingSession extends ClientSessionManager<Scope, Scope>
+	{
+		final Queue<Integer>	received		= new ConcurrentLinkedQueue<Integer>();
+
+		final List<Integer>		performed		= new ArrayList<Integer>();
+
+		final AtomicInteger		performing	= new AtomicInteger();
+
+		volatile boolean			overlapped	= false;
+
+		RecordingSession(String sessionId, DoubleThreadedNIOServer<Scope> server, SelectionKey key)
+		{
+			super(sessionId, 1024, server.getBackend(), server, key, server.getTranslationSpace(),
+					new Scope());
+		}
+
+		void receive(int request)
+		{
+			received.offer(request);
+		}
+
+		/**
+		 * Lingers after finding nothing waiting, so that requests received in between, which only
+		 * processSession() rescheduling will perform, are likely.
+		 */
+		@Override
+		public boolean isMessageWaiting()
+		{
+			if (!received.isEmpty())
+				return true;
+
+			pause();
+			return false;
+		}
+
+		@Override
+		protected MessageWithMetadata<RequestMessage, Object> getNextRequest()
+		{
+			if (performing.incrementAndGet() > 1)
+				overlapped = true;
+
+			Integer request = received.poll();
+			synchronized (performed)
+			{
+				performed.add(request);
+				performed.notifyAll();
+			}
+			if (request % 100 == 0)
+				Thread.yield();
+
+			performing.decrementAndGet();
+
+			// no message, so nothing is performed and no response is sent
+			return new MessageWithMetadata<RequestMessage, Object>(null, request);
+		}
+
+		/**
+		 * @return true if count requests have been performed within timeoutMillis.
+		 */
+		boolean awaitPerformed(int count, long timeoutMillis) throws InterruptedException
+		{
+			long deadline = System.currentTimeMillis() + timeoutMillis;
+			synchronized (performed)
+			{
+				long remaining;
+				while (performed.size() < count
+						&& (remaining = deadline - System.currentTimeMillis()) > 0)
+					performed.wait(remaining);
+
+				return performed.size() >= count;
+			}
+		}
+	}
+
+	static void pause()
+	{
+		try
+		{
+			Thread.sleep(1);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private DoubleThreadedNIOServer<Scope>	server;
+
+	private Selector												selector;
+
+	private final List<SocketChannel>				channels	= new ArrayList<SocketChannel>();
+
+	@Before
+	public void createServer() throws IOException
+	{
+		server = new DoubleThreadedNIOServer<Scope>(0, InetAddress.getByName("127.0.0.1"),
+				DefaultServicesTranslations.get(), new Scope(), 10000, 10000);
+		selector = Selector.open();
+	}
+
+	@After
+	public void stopServer() throws IOException
+	{
+		server.stop();
+		for (SocketChannel channel : channels)
+			channel.close();
+		selector.close();
+	}
+
+	private RecordingSession[] createSessions() throws IOException
+	{
+		RecordingSession[] sessions = new RecordingSession[SESSIONS];
+		for (int i = 0; i < SESSIONS; i++)
+		{
+			SocketChannel channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			channels.add(channel);
+			sessions[i] = new RecordingSession("session" + i, server, channel.register(selector, 0));
+		}
+		return sessions;
+	}
+
+	/**
+	 * Receive each session's requests on its own thread, in bursts; after each burst, wait for it to
+	 * be performed, so that a request the server lost track of stalls its session.
+	 * 
+	 * @return the number of sessions that stalled.
+	 */
+	private int receiveConcurrently(final RecordingSession[] sessions) throws InterruptedException
+	{
+		final AtomicInteger stalled = new AtomicInteger();
+		Thread[] readers = new Thread[sessions.length];
+		for (int i = 0; i < sessions.length; i++)
+		{
+			final RecordingSession session = sessions[i];
+			readers[i] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					int request = 0;
+					try
+					{
+						for (int burst = 0; burst < BURSTS; burst++)
+						{
+							for (int j = 0; j < BURST; j++)
+							{
+								session.receive(request++);
+								server.schedule(session);
+							}
+							if (!session.awaitPerformed(request, 2000))
+							{
+								stalled.incrementAndGet();
+								return;
+							}
+						}
+					}
+					catch (InterruptedException e)
+					{
+						stalled.incrementAndGet();
+					}
+				}
+			};
+			readers[i].start();
+		}
+		for (Thread reader : readers)
+			reader.join();
+
+		return stalled.get();
+	}
+
+	private void assertAllPerformedInOrder(RecordingSession[] sessions)
+	{
+		for (RecordingSession session : sessions)
+		{
+			assertFalse("a session was processed by two threads at once", session.overlapped);
+			synchronized (session.performed)
+			{
+				assertEquals(REQUESTS, session.performed.size());
+				for (int request = 0; request < REQUESTS; request++)
+					assertEquals(request, session.performed.get(request).intValue());
+			}
+		}
+	}
+
+	@Test
+	public void performsEachSessionsRequestsInOrderOnWorkerPool() throws Exception
+	{
+		server.setRequestExecutor(Executors.newFixedThreadPool(3));
+		server.start();
+
+		RecordingSession[] sessions = createSessions();
+		assertEquals("sessions with requests left waiting", 0, receiveConcurrently(sessions));
+
+		assertAllPerformedInOrder(sessions);
+	}
+
+	@Test
+	public void performsEachSessionsRequestsInOrderOnMessageThread() throws Exception
+	{
+		server.start();
+
+		RecordingSession[] sessions = createSessions();
+		assertEquals("sessions with requests left waiting", 0, receiveConcurrently(sessions));
+
+		assertAllPerformedInOrder(sessions);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsExecutorOnceRunning() throws Exception
+	{
+		server.start();
+
+		server.setRequestExecutor(Executors.newSingleThreadExecutor());
+	}
+}
@@ -22,6 +22,11 @@ public class Container implements TestCase
 		wc = new WCBase(0);
 	}
 
+	public Container(WCBase wc)
+	{
+		this.wc = wc;
+	}
+
 	@Override
 	public void runTest() throws SIMPLTranslationException
 	{
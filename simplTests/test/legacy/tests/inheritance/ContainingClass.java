@@ -19,6 +19,11 @@ public class ContainingClass implements TestCase
 	{
 	}
 
+	public ContainingClass(BaseClass theField)
+	{
+		this.theField = theField;
+	}
+
 	@Override
 	public void runTest() throws SIMPLTranslationException
 	{
@@ -49,6 +49,24 @@ public class Container implements TestCase
 		itemCollection2.add(new ItemRandom("six", 6));
 	}
 
+	/**
+	 * @return A container holding size items of each kind, in each collection.
+	 */
+	public static Container createObject(int size)
+	{
+		Container c = new Container();
+		c.itemCollection1 = new ArrayList<ItemBase>();
+		c.itemCollection2 = new ArrayList<ItemBase>();
+		for (int i = 0; i < size; i++)
+		{
+			c.itemCollection1.add(new ItemOne(i, i));
+			c.itemCollection1.add(new ItemTwo("two" + i, i));
+			c.itemCollection2.add(new ItemTwo("two" + i, i));
+			c.itemCollection2.add(new ItemRandom("random" + i, i));
+		}
+		return c;
+	}
+
 	@Override
 	public void runTest() throws SIMPLTranslationException
 	{
@@ -35,6 +35,30 @@ public class Rss implements TestCase
 		return channel;
 	}
 
+	/**
+	 * @return A feed whose channel carries the given number of items.
+	 */
+	public static Rss createObject(int numItems)
+	{
+		Rss rss = new Rss();
+		rss.version = 2.0f;
+		rss.channel = new Channel();
+		rss.channel.title = "testTitle";
+		rss.channel.description = "testDescription";
+		rss.channel.link = ParsedURL.getAbsolute("http://www.google.com");
+		rss.channel.items = new ArrayList<Item>(numItems);
+		for (int i = 0; i < numItems; i++)
+		{
+			Item item = new Item();
+			item.title = "testItem" + i;
+			item.description = "Description of test item " + i + ", with <markup> & entities";
+			item.link = ParsedURL.getAbsolute("http://www.google.com/search?q=" + i);
+			item.author = "author" + i;
+			rss.channel.items.add(item);
+		}
+		return rss;
+	}
+
 	@Override
 	public void runTest() throws SIMPLTranslationException
 	{